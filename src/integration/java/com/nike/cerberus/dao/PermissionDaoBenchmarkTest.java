@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.dao;
+
+import com.nike.cerberus.mapper.AwsIamRoleMapper;
+import com.nike.cerberus.mapper.CategoryMapper;
+import com.nike.cerberus.mapper.MySqlIntegrationSupport;
+import com.nike.cerberus.mapper.RoleMapper;
+import com.nike.cerberus.mapper.SafeDepositBoxMapper;
+import com.nike.cerberus.mapper.UserGroupMapper;
+import com.nike.cerberus.record.AwsIamRolePermissionRecord;
+import com.nike.cerberus.record.AwsIamRoleRecord;
+import com.nike.cerberus.record.SafeDepositBoxRecord;
+import com.nike.cerberus.record.UserGroupPermissionRecord;
+import com.nike.cerberus.record.UserGroupRecord;
+import org.apache.ibatis.session.SqlSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares loading the user group and IAM principal permissions of an SDB with one query per permission, as
+ * UserGroupPermissionService and IamPrincipalPermissionService used to, with the joined queries that replaced it, both
+ * against MySQL, see {@link MySqlIntegrationSupport}, e.g.
+ * {@code ./gradlew startEmbeddedMysql integration --tests '*PermissionDaoBenchmarkTest'}.  The timings are logged
+ * rather than asserted.  Every row is written in a transaction that is rolled back afterwards.
+ */
+public class PermissionDaoBenchmarkTest {
+
+    private static final int WARMUP_ITERATIONS = 20;
+
+    private static final int MEASURED_ITERATIONS = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+
+    private final String suffix = UUID.randomUUID().toString();
+
+    private SqlSession session;
+
+    private UserGroupMapper userGroupMapper;
+
+    private AwsIamRoleMapper awsIamRoleMapper;
+
+    private UserGroupDao userGroupDao;
+
+    private AwsIamRoleDao awsIamRoleDao;
+
+    private String categoryId;
+
+    private String readRoleId;
+
+    @Before
+    public void setup() {
+        session = MySqlIntegrationSupport.getSqlSessionFactory().openSession(false);
+        userGroupMapper = session.getMapper(UserGroupMapper.class);
+        awsIamRoleMapper = session.getMapper(AwsIamRoleMapper.class);
+        userGroupDao = new UserGroupDao(userGroupMapper);
+        awsIamRoleDao = new AwsIamRoleDao(awsIamRoleMapper);
+        categoryId = session.getMapper(CategoryMapper.class).getAllCategories().get(0).getId();
+        readRoleId = session.getMapper(RoleMapper.class).getRoleByName("read").getId();
+    }
+
+    @After
+    public void tearDown() {
+        if (session != null) {
+            session.rollback(true);
+            session.close();
+        }
+    }
+
+    @Test
+    public void benchmark_loading_sdb_permissions_per_row_against_the_joined_queries() {
+        for (final int permissionCount : new int[]{50, 100, 200}) {
+            final String sdbId = createSafeDepositBox("bench-" + permissionCount);
+            for (int i = 0; i < permissionCount; i++) {
+                grantUserGroup(sdbId, "bench-group-" + permissionCount + "-" + i + "-" + suffix);
+                grantIamRole(sdbId, "arn:aws:iam::111111111111:role/bench-" + permissionCount + "-" + i + "-" + suffix);
+            }
+
+            assertThat(userGroupPermissionsJoined(sdbId)).isEqualTo(userGroupPermissionsPerRow(sdbId))
+                    .hasSize(permissionCount);
+            assertThat(iamPrincipalPermissionsJoined(sdbId)).isEqualTo(iamPrincipalPermissionsPerRow(sdbId))
+                    .hasSize(permissionCount);
+
+            final double userGroupsPerRowMicros = measure(() -> userGroupPermissionsPerRow(sdbId));
+            final double userGroupsJoinedMicros = measure(() -> userGroupPermissionsJoined(sdbId));
+            final double iamPerRowMicros = measure(() -> iamPrincipalPermissionsPerRow(sdbId));
+            final double iamJoinedMicros = measure(() -> iamPrincipalPermissionsJoined(sdbId));
+
+            logger.info("{} permissions per SDB: user groups {} us per row vs {} us joined, "
+                            + "IAM principals {} us per row vs {} us joined",
+                    permissionCount,
+                    String.format("%.0f", userGroupsPerRowMicros), String.format("%.0f", userGroupsJoinedMicros),
+                    String.format("%.0f", iamPerRowMicros), String.format("%.0f", iamJoinedMicros));
+        }
+    }
+
+    /**
+     * How UserGroupPermissionService loaded the permissions before the join, 1 + N queries
+     */
+    private Set<String> userGroupPermissionsPerRow(final String sdbId) {
+        final Set<String> permissions = new HashSet<>();
+        userGroupDao.getUserGroupPermissions(sdbId).forEach(record -> {
+            final Optional<UserGroupRecord> userGroup = userGroupDao.getUserGroup(record.getUserGroupId());
+            userGroup.ifPresent(group -> permissions.add(group.getName() + ":" + record.getRoleId()));
+        });
+        return permissions;
+    }
+
+    private Set<String> userGroupPermissionsJoined(final String sdbId) {
+        return userGroupDao.getUserGroupPermissionsWithNames(sdbId).stream()
+                .map(permission -> permission.getName() + ":" + permission.getRoleId())
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * How IamPrincipalPermissionService loaded the permissions before the join, 1 + N queries
+     */
+    private Set<String> iamPrincipalPermissionsPerRow(final String sdbId) {
+        final Set<String> permissions = new HashSet<>();
+        awsIamRoleDao.getIamRolePermissions(sdbId).forEach(record -> {
+            final Optional<AwsIamRoleRecord> iamRole = awsIamRoleDao.getIamRoleById(record.getAwsIamRoleId());
+            iamRole.ifPresent(role -> permissions.add(role.getAwsIamRoleArn() + ":" + record.getRoleId()));
+        });
+        return permissions;
+    }
+
+    private Set<String> iamPrincipalPermissionsJoined(final String sdbId) {
+        return awsIamRoleDao.getIamRolePermissionsWithArns(sdbId).stream()
+                .map(permission -> permission.getIamPrincipalArn() + ":" + permission.getRoleId())
+                .collect(Collectors.toSet());
+    }
+
+    private static double measure(final Supplier<Set<String>> load) {
+        long checksum = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            checksum += load.get().size();
+        }
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            checksum += load.get().size();
+        }
+        final long elapsedNanos = System.nanoTime() - start;
+
+        assertThat(checksum).isPositive();
+        return elapsedNanos / (double) MEASURED_ITERATIONS / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    private String createSafeDepositBox(final String name) {
+        final String id = UUID.randomUUID().toString();
+        session.getMapper(SafeDepositBoxMapper.class).createSafeDepositBox(new SafeDepositBoxRecord()
+                .setId(id)
+                .setCategoryId(categoryId)
+                .setName(name + "-" + suffix)
+                .setPath("app/" + name + "-" + suffix + "/")
+                .setCreatedBy("integration-test")
+                .setLastUpdatedBy("integration-test")
+                .setCreatedTs(now)
+                .setLastUpdatedTs(now));
+        return id;
+    }
+
+    private void grantUserGroup(final String sdbId, final String userGroupName) {
+        final String userGroupId = UUID.randomUUID().toString();
+        userGroupMapper.createUserGroup(new UserGroupRecord()
+                .setId(userGroupId)
+                .setName(userGroupName)
+                .setCreatedBy("integration-test")
+                .setLastUpdatedBy("integration-test")
+                .setCreatedTs(now)
+                .setLastUpdatedTs(now));
+        userGroupMapper.createUserGroupPermission(new UserGroupPermissionRecord()
+                .setId(UUID.randomUUID().toString())
+                .setUserGroupId(userGroupId)
+                .setSdboxId(sdbId)
+                .setRoleId(readRoleId)
+                .setCreatedBy("integration-test")
+                .setLastUpdatedBy("integration-test")
+                .setCreatedTs(now)
+                .setLastUpdatedTs(now));
+    }
+
+    private void grantIamRole(final String sdbId, final String iamRoleArn) {
+        final String iamRoleId = UUID.randomUUID().toString();
+        awsIamRoleMapper.createIamRole(new AwsIamRoleRecord()
+                .setId(iamRoleId)
+                .setAwsIamRoleArn(iamRoleArn)
+                .setCreatedBy("integration-test")
+                .setLastUpdatedBy("integration-test")
+                .setCreatedTs(now)
+                .setLastUpdatedTs(now));
+        awsIamRoleMapper.createIamRolePermission(new AwsIamRolePermissionRecord()
+                .setId(UUID.randomUUID().toString())
+                .setAwsIamRoleId(iamRoleId)
+                .setSdboxId(sdbId)
+                .setRoleId(readRoleId)
+                .setCreatedBy("integration-test")
+                .setLastUpdatedBy("integration-test")
+                .setCreatedTs(now)
+                .setLastUpdatedTs(now));
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.mapper;
+
+import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
+import com.nike.cerberus.record.AwsIamRolePermissionRecord;
+import com.nike.cerberus.record.AwsIamRoleRecord;
+import com.nike.cerberus.record.AwsIamRoleResolutionRecord;
+import com.nike.cerberus.record.SafeDepositBoxRecord;
+import org.apache.ibatis.session.SqlSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs {@link AwsIamRoleMapper#resolveIamPrincipal} against MySQL, see {@link MySqlIntegrationSupport}.  Every row is
+ * written in a transaction that is rolled back afterwards.
+ */
+public class AwsIamRoleMapperIntegrationTest {
+
+    private static final String REGION = "us-west-2";
+
+    private final OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+
+    private final String suffix = UUID.randomUUID().toString();
+
+    private final String principalArn = "arn:aws:sts::111111111111:assumed-role/it-" + suffix + "/session";
+
+    private final String baseRoleArn = "arn:aws:iam::111111111111:role/it-" + suffix;
+
+    private SqlSession session;
+
+    private AwsIamRoleMapper awsIamRoleMapper;
+
+    private String principalRoleId;
+
+    private String baseRoleId;
+
+    @Before
+    public void setup() {
+        session = MySqlIntegrationSupport.getSqlSessionFactory().openSession(false);
+        awsIamRoleMapper = session.getMapper(AwsIamRoleMapper.class);
+        final RoleMapper roleMapper = session.getMapper(RoleMapper.class);
+        final String categoryId = session.getMapper(CategoryMapper.class).getAllCategories().get(0).getId();
+
+        principalRoleId = createIamRole(principalArn);
+        baseRoleId = createIamRole(baseRoleArn);
+        createKmsKey(principalRoleId, REGION, "arn:aws:kms:us-west-2:111111111111:key/west");
+        createKmsKey(principalRoleId, "us-east-1", "arn:aws:kms:us-east-1:111111111111:key/east");
+        grant(principalRoleId, createSafeDepositBox(categoryId, "principal-sdb"), roleMapper.getRoleByName("read").getId());
+        grant(baseRoleId, createSafeDepositBox(categoryId, "base-sdb-1"), roleMapper.getRoleByName("write").getId());
+        grant(baseRoleId, createSafeDepositBox(categoryId, "base-sdb-2"), roleMapper.getRoleByName("read").getId());
+    }
+
+    @After
+    public void tearDown() {
+        if (session != null) {
+            session.rollback(true);
+            session.close();
+        }
+    }
+
+    @Test
+    public void test_that_resolveIamPrincipal_returns_both_roles_with_their_regional_key_and_sdb_roles() {
+        final Map<String, AwsIamRoleResolutionRecord> resolved =
+                awsIamRoleMapper.resolveIamPrincipal(principalArn, baseRoleArn, REGION).stream()
+                        .collect(Collectors.toMap(AwsIamRoleResolutionRecord::getAwsIamRoleId, Function.identity()));
+
+        assertThat(resolved).containsOnlyKeys(principalRoleId, baseRoleId);
+
+        final AwsIamRoleResolutionRecord principal = resolved.get(principalRoleId);
+        assertThat(principal.getAwsIamRole().getAwsIamRoleArn()).isEqualTo(principalArn);
+        assertThat(principal.getKmsKey().getAwsKmsKeyId()).isEqualTo("arn:aws:kms:us-west-2:111111111111:key/west");
+        assertThat(principal.getKmsKey().getLastValidatedTs()).isNotNull();
+        assertThat(sdbRoles(principal)).containsOnly("principal-sdb-" + suffix + ":read");
+
+        final AwsIamRoleResolutionRecord base = resolved.get(baseRoleId);
+        assertThat(base.getAwsIamRole().getAwsIamRoleArn()).isEqualTo(baseRoleArn);
+        assertThat(base.getKmsKey()).isNull();
+        assertThat(sdbRoles(base)).containsOnly("base-sdb-1-" + suffix + ":write", "base-sdb-2-" + suffix + ":read");
+    }
+
+    @Test
+    public void test_that_resolveIamPrincipal_returns_nothing_for_unknown_principals() {
+        assertThat(awsIamRoleMapper.resolveIamPrincipal(principalArn + "-unknown", baseRoleArn + "-unknown", REGION))
+                .isEmpty();
+    }
+
+    private List<String> sdbRoles(final AwsIamRoleResolutionRecord record) {
+        return record.getSafeDepositBoxRoles().stream()
+                .map(role -> role.getSafeDepositBoxName() + ":" + role.getRoleName())
+                .collect(Collectors.toList());
+    }
+
+    private String createIamRole(final String arn) {
+        final String id = UUID.randomUUID().toString();
+        awsIamRoleMapper.createIamRole(new AwsIamRoleRecord()
+                .setId(id)
+                .setAwsIamRoleArn(arn)
+                .setCreatedBy("integration-test")
+                .setLastUpdatedBy("integration-test")
+                .setCreatedTs(now)
+                .setLastUpdatedTs(now));
+        return id;
+    }
+
+    private void createKmsKey(final String awsIamRoleId, final String region, final String awsKmsKeyId) {
+        awsIamRoleMapper.createIamRoleKmsKey(new AwsIamRoleKmsKeyRecord()
+                .setId(UUID.randomUUID().toString())
+                .setAwsIamRoleId(awsIamRoleId)
+                .setAwsRegion(region)
+                .setAwsKmsKeyId(awsKmsKeyId)
+                .setCreatedBy("integration-test")
+                .setLastUpdatedBy("integration-test")
+                .setCreatedTs(now)
+                .setLastUpdatedTs(now)
+                .setLastValidatedTs(now));
+    }
+
+    private String createSafeDepositBox(final String categoryId, final String name) {
+        final String id = UUID.randomUUID().toString();
+        session.getMapper(SafeDepositBoxMapper.class).createSafeDepositBox(new SafeDepositBoxRecord()
+                .setId(id)
+                .setCategoryId(categoryId)
+                .setName(name + "-" + suffix)
+                .setPath("app/" + name + "-" + suffix + "/")
+                .setCreatedBy("integration-test")
+                .setLastUpdatedBy("integration-test")
+                .setCreatedTs(now)
+                .setLastUpdatedTs(now));
+        return id;
+    }
+
+    private void grant(final String awsIamRoleId, final String sdbId, final String roleId) {
+        awsIamRoleMapper.createIamRolePermission(new AwsIamRolePermissionRecord()
+                .setId(UUID.randomUUID().toString())
+                .setAwsIamRoleId(awsIamRoleId)
+                .setSdboxId(sdbId)
+                .setRoleId(roleId)
+                .setCreatedBy("integration-test")
+                .setLastUpdatedBy("integration-test")
+                .setCreatedTs(now)
+                .setLastUpdatedTs(now));
+    }
+}
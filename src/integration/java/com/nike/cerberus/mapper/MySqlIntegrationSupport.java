@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.mapper;
+
+import com.nike.cerberus.flyway.SchemaMigrator;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * MyBatis set up for tests that run the mappers against a real MySQL, such as the embedded one started by
+ * {@code ./gradlew startEmbeddedMysql integration}.  The schema is migrated with the app's Flyway migrations and the
+ * mappers are configured like CmsMyBatisModule configures them.  Tests are skipped when no JDBC.url is given.
+ */
+public final class MySqlIntegrationSupport {
+
+    private static SqlSessionFactory sqlSessionFactory;
+
+    private MySqlIntegrationSupport() {
+    }
+
+    public static synchronized SqlSessionFactory getSqlSessionFactory() {
+        final String url = System.getProperty("JDBC.url");
+        assumeTrue("JDBC.url is not set, skipping MySQL integration test", url != null);
+
+        if (sqlSessionFactory == null) {
+            final PooledDataSource dataSource = new PooledDataSource("com.mysql.jdbc.Driver", url,
+                    System.getProperty("JDBC.username"), System.getProperty("JDBC.password"));
+            new SchemaMigrator(dataSource, "cms", "classpath:com/nike/cerberus/migration").updateSchema();
+
+            final Configuration configuration =
+                    new Configuration(new Environment("integration", new JdbcTransactionFactory(), dataSource));
+            configuration.setMapUnderscoreToCamelCase(true);
+            configuration.setCacheEnabled(false);
+            configuration.getTypeAliasRegistry().registerAliases("com.nike.cerberus.record");
+            configuration.addMappers("com.nike.cerberus.mapper");
+            sqlSessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+        }
+        return sqlSessionFactory;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.security;
+
+import com.nike.cerberus.server.config.CmsConfig;
+import com.nike.cerberus.service.TokenRevocationQueue;
+import com.nike.cerberus.vault.CmsVaultCredentialsProvider;
+import com.nike.cerberus.vault.CmsVaultUrlResolver;
+import com.nike.cerberus.vault.VaultTokenLookupClient;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import com.nike.vault.client.VaultAdminClient;
+import com.nike.vault.client.VaultClientFactory;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the sustained throughput of the token lookups behind {@link CmsRequestSecurityValidator}: the original
+ * uncached {@link VaultAdminClient#lookupToken(String)} call per request against the {@link VaultTokenCache} backed
+ * {@link VaultTokenLookupClient}, both against a stub Vault that answers every lookup after a fixed delay.
+ * <p>
+ * Both run on the same number of blocking threads, standing in for the threads Riposte runs the validator on.
+ * Run with {@code ./gradlew integration --tests '*VaultTokenLookupThroughputBenchmarkTest'}, results are printed.
+ */
+public class VaultTokenLookupThroughputBenchmarkTest {
+
+    private static final int THREADS = 32;
+
+    private static final int DISTINCT_TOKENS = 2_000;
+
+    private static final long VAULT_LATENCY_MILLIS = 5;
+
+    private static final long RUN_SECONDS = 10;
+
+    private static final String LOOKUP_RESPONSE = "{\"data\":{\"id\":\"token\",\"accessor\":\"accessor\"," +
+            "\"policies\":[\"default\"],\"meta\":{},\"ttl\":3600}}";
+
+    private MockWebServer vault;
+
+    private VaultAdminClient vaultAdminClient;
+
+    private VaultTokenCache vaultTokenCache;
+
+    private VaultTokenLookupClient vaultTokenLookupClient;
+
+    @Before
+    public void setup() throws Exception {
+        vault = new MockWebServer();
+        vault.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                Thread.sleep(VAULT_LATENCY_MILLIS);
+                return new MockResponse().setResponseCode(200).setBody(LOOKUP_RESPONSE);
+            }
+        });
+        vault.start();
+
+        final CmsVaultUrlResolver urlResolver = new CmsVaultUrlResolver(vault.url("/").toString());
+        final CmsVaultCredentialsProvider credentialsProvider = new CmsVaultCredentialsProvider("root-token");
+        final CodahaleMetricsCollector metricsCollector = new CodahaleMetricsCollector();
+        final TokenRevocationQueue tokenRevocationQueue = mock(TokenRevocationQueue.class);
+        when(tokenRevocationQueue.isRevoked(anyString())).thenReturn(false);
+
+        vaultAdminClient = VaultClientFactory.getAdminClient(urlResolver, credentialsProvider, THREADS);
+        vaultTokenCache = new VaultTokenCache(10_000, 30, 5, 900, tokenRevocationQueue, metricsCollector);
+        vaultTokenLookupClient = new VaultTokenLookupClient(urlResolver, credentialsProvider, new OkHttpClient(),
+                CmsConfig.configureObjectMapper(), metricsCollector);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        vault.shutdown();
+    }
+
+    @Test
+    public void compare_sustained_lookup_throughput() throws Exception {
+        final double uncached = run("uncached VaultAdminClient", vaultAdminClient::lookupToken);
+        final double cached = run("cached VaultTokenLookupClient",
+                token -> vaultTokenCache.get(token, vaultTokenLookupClient::lookupToken).join());
+
+        System.out.println(String.format("speedup: %.1fx", cached / uncached));
+    }
+
+    private double run(final String name, final Consumer<String> lookup) throws InterruptedException {
+        final AtomicLong lookups = new AtomicLong();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(RUN_SECONDS);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            executor.execute(() -> {
+                while (System.nanoTime() < deadline) {
+                    lookup.accept("token-" + ThreadLocalRandom.current().nextInt(DISTINCT_TOKENS));
+                    lookups.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(RUN_SECONDS + 30, TimeUnit.SECONDS);
+
+        final double perSecond = (double) lookups.get() / RUN_SECONDS;
+        System.out.println(String.format("%s: %d threads, %d distinct tokens, %d ms Vault latency, %.0f lookups/s",
+                name, THREADS, DISTINCT_TOKENS, VAULT_LATENCY_MILLIS, perSecond));
+        return perSecond;
+    }
+}
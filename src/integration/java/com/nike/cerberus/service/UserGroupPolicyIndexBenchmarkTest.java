@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.service;
+
+import com.nike.cerberus.dao.SafeDepositBoxDao;
+import com.nike.cerberus.mapper.CategoryMapper;
+import com.nike.cerberus.mapper.MySqlIntegrationSupport;
+import com.nike.cerberus.mapper.RoleMapper;
+import com.nike.cerberus.mapper.SafeDepositBoxMapper;
+import com.nike.cerberus.mapper.UserGroupMapper;
+import com.nike.cerberus.record.SafeDepositBoxRecord;
+import com.nike.cerberus.record.SafeDepositBoxRoleRecord;
+import com.nike.cerberus.record.UserGroupPermissionRecord;
+import com.nike.cerberus.record.UserGroupRecord;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.apache.ibatis.session.SqlSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares building the SDB permissions of users with hundreds of groups from the index with the
+ * getUserAssociatedSafeDepositBoxRoles query it replaces, both against MySQL, see {@link MySqlIntegrationSupport},
+ * e.g. {@code ./gradlew startEmbeddedMysql integration --tests '*UserGroupPolicyIndexBenchmarkTest'}.  The timings
+ * are logged rather than asserted.  Every row is written in a transaction that is rolled back afterwards.
+ */
+public class UserGroupPolicyIndexBenchmarkTest {
+
+    private static final int TOTAL_GROUPS = 2000;
+
+    private static final int SDBS_PER_GROUP = 3;
+
+    private static final int QUERY_WARMUP_ITERATIONS = 20;
+
+    private static final int QUERY_MEASURED_ITERATIONS = 100;
+
+    private static final int INDEX_WARMUP_ITERATIONS = 2000;
+
+    private static final int INDEX_MEASURED_ITERATIONS = 5000;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+
+    private final String suffix = UUID.randomUUID().toString();
+
+    private SqlSession session;
+
+    private SafeDepositBoxDao safeDepositBoxDao;
+
+    private UserGroupPolicyIndex subject;
+
+    @Before
+    public void setup() {
+        session = MySqlIntegrationSupport.getSqlSessionFactory().openSession(false);
+        final SafeDepositBoxMapper safeDepositBoxMapper = session.getMapper(SafeDepositBoxMapper.class);
+        final UserGroupMapper userGroupMapper = session.getMapper(UserGroupMapper.class);
+        final String categoryId = session.getMapper(CategoryMapper.class).getAllCategories().get(0).getId();
+        final String readRoleId = session.getMapper(RoleMapper.class).getRoleByName("read").getId();
+
+        for (int group = 0; group < TOTAL_GROUPS; group++) {
+            final String userGroupId = UUID.randomUUID().toString();
+            userGroupMapper.createUserGroup(new UserGroupRecord()
+                    .setId(userGroupId)
+                    .setName(groupName(group))
+                    .setCreatedBy("integration-test")
+                    .setLastUpdatedBy("integration-test")
+                    .setCreatedTs(now)
+                    .setLastUpdatedTs(now));
+
+            for (int sdb = 0; sdb < SDBS_PER_GROUP; sdb++) {
+                final String sdbId = UUID.randomUUID().toString();
+                final String sdbName = "bench-" + group + "-" + sdb + "-" + suffix;
+                safeDepositBoxMapper.createSafeDepositBox(new SafeDepositBoxRecord()
+                        .setId(sdbId)
+                        .setCategoryId(categoryId)
+                        .setName(sdbName)
+                        .setPath("app/" + sdbName + "/")
+                        .setCreatedBy("integration-test")
+                        .setLastUpdatedBy("integration-test")
+                        .setCreatedTs(now)
+                        .setLastUpdatedTs(now));
+                userGroupMapper.createUserGroupPermission(new UserGroupPermissionRecord()
+                        .setId(UUID.randomUUID().toString())
+                        .setUserGroupId(userGroupId)
+                        .setSdboxId(sdbId)
+                        .setRoleId(readRoleId)
+                        .setCreatedBy("integration-test")
+                        .setLastUpdatedBy("integration-test")
+                        .setCreatedTs(now)
+                        .setLastUpdatedTs(now));
+            }
+        }
+
+        // the index reads through the same session, so it sees the uncommitted rows
+        safeDepositBoxDao = new SafeDepositBoxDao(safeDepositBoxMapper);
+        subject = new UserGroupPolicyIndex(safeDepositBoxDao, true, 60, new CodahaleMetricsCollector(),
+                mock(ScheduledExecutorService.class));
+    }
+
+    @After
+    public void tearDown() {
+        if (session != null) {
+            session.rollback(true);
+            session.close();
+        }
+    }
+
+    @Test
+    public void benchmark_getSafeDepositBoxRoles_against_the_query_for_users_with_hundreds_of_groups() {
+        for (final int groupCount : new int[]{100, 500, 1000}) {
+            // half of the groups have SDB permissions, like IdP groups that are not used by Cerberus
+            final Set<String> userGroups = new HashSet<>();
+            for (int i = 0; i < groupCount; i++) {
+                userGroups.add(i % 2 == 0 ? groupName(i).toUpperCase() : "unused-group-" + i + "-" + suffix);
+            }
+
+            final List<SafeDepositBoxRoleRecord> queried =
+                    safeDepositBoxDao.getUserAssociatedSafeDepositBoxRoles(userGroups);
+            final List<SafeDepositBoxRoleRecord> indexed = subject.getSafeDepositBoxRoles(userGroups);
+            assertThat(sdbRoles(indexed)).isEqualTo(sdbRoles(queried)).hasSize((groupCount + 1) / 2 * SDBS_PER_GROUP);
+
+            final double queryMicros = measure(QUERY_WARMUP_ITERATIONS, QUERY_MEASURED_ITERATIONS,
+                    () -> safeDepositBoxDao.getUserAssociatedSafeDepositBoxRoles(userGroups));
+            final double indexMicros = measure(INDEX_WARMUP_ITERATIONS, INDEX_MEASURED_ITERATIONS,
+                    () -> subject.getSafeDepositBoxRoles(userGroups));
+
+            logger.info("{} groups, {} SDB permissions: query {} us, index {} us per lookup ({}x)",
+                    groupCount, indexed.size(), String.format("%.2f", queryMicros), String.format("%.2f", indexMicros),
+                    String.format("%.0f", queryMicros / indexMicros));
+        }
+    }
+
+    private String groupName(final int group) {
+        return "bench-group-" + group + "-" + suffix;
+    }
+
+    private static double measure(final int warmupIterations,
+                                  final int measuredIterations,
+                                  final Supplier<List<SafeDepositBoxRoleRecord>> lookup) {
+        long checksum = 0;
+        for (int i = 0; i < warmupIterations; i++) {
+            checksum += lookup.get().size();
+        }
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < measuredIterations; i++) {
+            checksum += lookup.get().size();
+        }
+        final long elapsedNanos = System.nanoTime() - start;
+
+        assertThat(checksum).isPositive();
+        return elapsedNanos / (double) measuredIterations / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    private static Set<String> sdbRoles(final List<SafeDepositBoxRoleRecord> records) {
+        return records.stream()
+                .map(record -> record.getSafeDepositBoxName() + ":" + record.getRoleName())
+                .collect(Collectors.toSet());
+    }
+}
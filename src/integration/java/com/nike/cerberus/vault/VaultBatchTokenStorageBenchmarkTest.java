@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.vault;
+
+import com.google.common.collect.ImmutableSet;
+import com.nike.cerberus.server.config.CmsConfig;
+import com.nike.vault.client.VaultAdminClient;
+import com.nike.vault.client.VaultClientFactory;
+import com.nike.vault.client.model.VaultTokenAuthRequest;
+import okhttp3.OkHttpClient;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the Vault storage written by IAM logins issuing service tokens with logins issuing batch tokens.
+ * <p>
+ * Needs a Vault 1.0+ server using the file storage backend, which the local runVaultAndMySQL task (Vault 0.7.3) does
+ * not provide.  For example start one with {@code storage "file" { path = "/tmp/vault-data" }} in its config, then:
+ * <pre>
+ * ./gradlew integration -Dvault.addr=http://127.0.0.1:8200 -Dvault.token=ROOT_TOKEN -Dvault.storage.dir=/tmp/vault-data
+ * </pre>
+ * The test is skipped when those properties are not set.  Storage is measured as the number of entries under the
+ * token store's directory, timings include the HTTP round trip to Vault.
+ */
+public class VaultBatchTokenStorageBenchmarkTest {
+
+    private static final int LOGINS = 500;
+
+    private VaultAdminClient vaultAdminClient;
+
+    private VaultBatchTokenClient vaultBatchTokenClient;
+
+    private Path tokenStoreDir;
+
+    @Before
+    public void setup() {
+        final String vaultAddr = System.getProperty("vault.addr");
+        final String vaultToken = System.getProperty("vault.token");
+        final String storageDir = System.getProperty("vault.storage.dir");
+        assumeTrue(vaultAddr != null && vaultToken != null && storageDir != null);
+
+        final CmsVaultUrlResolver urlResolver = new CmsVaultUrlResolver(vaultAddr);
+        final CmsVaultCredentialsProvider credentialsProvider = new CmsVaultCredentialsProvider(vaultToken);
+        vaultAdminClient = VaultClientFactory.getAdminClient(urlResolver, credentialsProvider, 10);
+        vaultBatchTokenClient = new VaultBatchTokenClient(urlResolver, credentialsProvider, new OkHttpClient(),
+                CmsConfig.configureObjectMapper());
+        tokenStoreDir = Paths.get(storageDir, "sys", "token");
+    }
+
+    @Test
+    public void compare_storage_entries_written_per_login() throws IOException {
+        final Result service = run("service", vaultAdminClient::createOrphanToken);
+        final Result batch = run("batch", vaultBatchTokenClient::createOrphanBatchToken);
+
+        System.out.println(service);
+        System.out.println(batch);
+        assertThat(batch.entriesPerLogin()).isLessThan(service.entriesPerLogin());
+    }
+
+    private Result run(final String type, final Consumer<VaultTokenAuthRequest> createToken) throws IOException {
+        final VaultTokenAuthRequest request = new VaultTokenAuthRequest()
+                .setPolicies(ImmutableSet.of("default"))
+                .setTtl("5m")
+                .setNoDefaultPolicy(true);
+
+        final long entriesBefore = countEntries();
+        final long start = System.nanoTime();
+        for (int i = 0; i < LOGINS; i++) {
+            createToken.accept(request);
+        }
+        final long elapsedNanos = System.nanoTime() - start;
+        return new Result(type, countEntries() - entriesBefore, elapsedNanos);
+    }
+
+    private long countEntries() throws IOException {
+        if (!Files.exists(tokenStoreDir)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(tokenStoreDir)) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private static final class Result {
+
+        private final String type;
+
+        private final long entries;
+
+        private final long elapsedNanos;
+
+        private Result(final String type, final long entries, final long elapsedNanos) {
+            this.type = type;
+            this.entries = entries;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        private double entriesPerLogin() {
+            return (double) entries / LOGINS;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s tokens: %d logins, %.2f storage entries per login, %.2f ms per login",
+                    type, LOGINS, entriesPerLogin(), elapsedNanos / 1_000_000.0 / LOGINS);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.nike.cerberus;
 
+import com.nike.cerberus.domain.AuthPayloadEncoding;
 import com.nike.riposte.server.http.RequestInfo;
 import io.netty.handler.codec.http.HttpHeaders;
 import org.apache.commons.lang3.StringUtils;
@@ -9,6 +10,7 @@ public final class CerberusHttpHeaders {
     public static final String HEADER_X_CERBERUS_CLIENT = "X-Cerberus-Client";
     public static final String HEADER_X_REFRESH_TOKEN = "X-Refresh-Token";
     public static final String HEADER_X_FORWARDED_FOR = "X-Forwarded-For";
+    public static final String HEADER_X_CERBERUS_AUTH_PAYLOAD_ENCODING = "X-Cerberus-Auth-Payload-Encoding";
     private static final String UNKNOWN = "Unknown";
 
     /**
@@ -40,4 +42,16 @@ public final class CerberusHttpHeaders {
         }
         return null;
     }
+
+    /**
+     * Get the auth payload encoding requested with the X-Cerberus-Auth-Payload-Encoding header, or the default if the
+     * header is missing or unknown.
+     */
+    public static AuthPayloadEncoding getAuthPayloadEncoding(RequestInfo request) {
+        final HttpHeaders headers = request.getHeaders();
+        if (headers != null) {
+            return AuthPayloadEncoding.fromHeaderValue(headers.get(HEADER_X_CERBERUS_AUTH_PAYLOAD_ENCODING));
+        }
+        return AuthPayloadEncoding.JSON;
+    }
 }
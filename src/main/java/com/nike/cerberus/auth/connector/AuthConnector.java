@@ -17,6 +17,7 @@
 package com.nike.cerberus.auth.connector;
 
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public interface AuthConnector {
 
@@ -25,4 +26,33 @@ public interface AuthConnector {
     AuthResponse mfaCheck(final String stateToken, final String deviceId, final String otpToken);
 
     Set<String> getGroups(final AuthData data);
+
+    /**
+     * Asynchronous variant of {@link #authenticate(String, String)}.  The default runs the blocking method on the
+     * given executor, connectors with a non-blocking IdP client should override it.
+     */
+    default CompletableFuture<AuthResponse> authenticateAsync(final String username,
+                                                              final String password,
+                                                              final AuthConnectorExecutor executor) {
+        return executor.supplyAsync(() -> authenticate(username, password));
+    }
+
+    /**
+     * Asynchronous variant of {@link #mfaCheck(String, String, String)}.  The default runs the blocking method on the
+     * given executor, connectors with a non-blocking IdP client should override it.
+     */
+    default CompletableFuture<AuthResponse> mfaCheckAsync(final String stateToken,
+                                                          final String deviceId,
+                                                          final String otpToken,
+                                                          final AuthConnectorExecutor executor) {
+        return executor.supplyAsync(() -> mfaCheck(stateToken, deviceId, otpToken));
+    }
+
+    /**
+     * Asynchronous variant of {@link #getGroups(AuthData)}.  The default runs the blocking method on the given
+     * executor, connectors with a non-blocking IdP client should override it.
+     */
+    default CompletableFuture<Set<String>> getGroupsAsync(final AuthData data, final AuthConnectorExecutor executor) {
+        return executor.supplyAsync(() -> getGroups(data));
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.auth.connector;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nike.backstopper.exception.ApiException;
+import com.nike.cerberus.error.DefaultApiError;
+import com.nike.riposte.util.AsyncNettyHelper;
+import com.nike.wingtips.Tracer;
+import org.slf4j.MDC;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded executor for auth connectors whose IdP client only offers blocking calls, so that IdP latency ties up these
+ * threads rather than request threads.  Once the threads are busy and the queue is full, calls fail fast with a
+ * service unavailable error instead of queueing without limit.  Calls run with the tracing and MDC of the thread that
+ * submitted them.
+ */
+@Singleton
+public class AuthConnectorExecutor {
+
+    private final Executor executor;
+
+    @Inject
+    public AuthConnectorExecutor(@Named("cms.user.auth.executor.threads") final int threads,
+                                 @Named("cms.user.auth.executor.queueSize") final int queueSize) {
+        this(new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("auth-connector-%d")
+                        .setDaemon(true)
+                        .build()));
+    }
+
+    public AuthConnectorExecutor(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Runs the given blocking IdP call on this executor.
+     *
+     * @param supplier The IdP call
+     * @return Future for the result of the call
+     */
+    public <T> CompletableFuture<T> supplyAsync(final Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(AsyncNettyHelper.supplierWithTracingAndMdc(supplier,
+                    Tracer.getInstance().getCurrentSpanStackCopy(), MDC.getCopyOfContextMap()), executor);
+        } catch (RejectedExecutionException e) {
+            final CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(ApiException.newBuilder()
+                    .withApiErrors(DefaultApiError.SERVICE_UNAVAILABLE)
+                    .withExceptionCause(e)
+                    .withExceptionMessage("Too many pending calls to the identity provider")
+                    .build());
+            return future;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.auth.connector;
+
+import com.codahale.metrics.Counter;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nike.cerberus.dao.UserGroupDao;
+import com.nike.cerberus.util.CacheMetrics;
+import com.nike.cerberus.util.DateTimeSupplier;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.time.OffsetDateTime;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AuthConnector that caches the group memberships returned by the configured IdP connector, keyed by IdP user id, so
+ * that repeat logins and MFA checks do not each cost an IdP call.
+ * <p>
+ * Entries older than the refresh interval are still returned, and refreshed in the background on their next use.
+ * Entries older than the expiry are never returned, which bounds how long a removed group membership is honored.
+ * Evictions are stored in the DB and checked before a cached entry is used, so evicting a user on one CMS node makes
+ * every node reload the user's groups from the IdP.  Entries loaded within a second of an eviction are reloaded too,
+ * because the eviction time is stored with second precision, clock skew between nodes beyond that is not covered.
+ * Background refreshes only pass the user id to the underlying connector, which is all the Okta and OneLogin
+ * connectors use.  Disabled by default, in which case all calls go straight to the underlying connector.
+ */
+@Singleton
+public class GroupCachingAuthConnector implements AuthConnector {
+
+    /**
+     * Name of the binding for the IdP specific connector that this connector wraps
+     */
+    public static final String DELEGATE = "cms.user.groups.cache.delegate";
+
+    public static final String METRIC_PREFIX = "cms.user.groups.cache";
+
+    public static final String METRIC_IDP_CALLS = METRIC_PREFIX + ".idpCalls";
+
+    public static final String METRIC_IDP_CALLS_AVOIDED = METRIC_PREFIX + ".idpCallsAvoided";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final AuthConnector delegate;
+
+    private final boolean enabled;
+
+    private final long expireAfterWriteSeconds;
+
+    private final UserGroupDao userGroupDao;
+
+    private final DateTimeSupplier dateTimeSupplier;
+
+    private final LoadingCache<String, CachedGroups> cache;
+
+    private final Counter idpCallCounter;
+
+    private final Counter idpCallsAvoidedCounter;
+
+    @Inject
+    public GroupCachingAuthConnector(@Named(DELEGATE) final AuthConnector delegate,
+                                     @Named("cms.user.groups.cache.enabled") final boolean enabled,
+                                     @Named("cms.user.groups.cache.maxSize") final long maxSize,
+                                     @Named("cms.user.groups.cache.refreshAfterWriteSeconds") final long refreshAfterWriteSeconds,
+                                     @Named("cms.user.groups.cache.expireAfterWriteSeconds") final long expireAfterWriteSeconds,
+                                     @Named("cms.user.groups.cache.refreshThreads") final int refreshThreads,
+                                     final UserGroupDao userGroupDao,
+                                     final DateTimeSupplier dateTimeSupplier,
+                                     final CodahaleMetricsCollector metricsCollector) {
+        this(delegate, enabled, maxSize, refreshAfterWriteSeconds, expireAfterWriteSeconds, userGroupDao,
+                dateTimeSupplier, metricsCollector,
+                Executors.newFixedThreadPool(refreshThreads, new ThreadFactoryBuilder()
+                        .setNameFormat("user-groups-refresh-%d")
+                        .setDaemon(true)
+                        .build()),
+                Ticker.systemTicker());
+    }
+
+    GroupCachingAuthConnector(final AuthConnector delegate,
+                              final boolean enabled,
+                              final long maxSize,
+                              final long refreshAfterWriteSeconds,
+                              final long expireAfterWriteSeconds,
+                              final UserGroupDao userGroupDao,
+                              final DateTimeSupplier dateTimeSupplier,
+                              final CodahaleMetricsCollector metricsCollector,
+                              final Executor refreshExecutor,
+                              final Ticker ticker) {
+        if (refreshAfterWriteSeconds >= expireAfterWriteSeconds) {
+            throw new IllegalArgumentException("cms.user.groups.cache.refreshAfterWriteSeconds must be less than "
+                    + "cms.user.groups.cache.expireAfterWriteSeconds");
+        }
+
+        this.delegate = delegate;
+        this.enabled = enabled;
+        this.expireAfterWriteSeconds = expireAfterWriteSeconds;
+        this.userGroupDao = userGroupDao;
+        this.dateTimeSupplier = dateTimeSupplier;
+        this.idpCallCounter = metricsCollector.getNamedCounter(METRIC_IDP_CALLS);
+        this.idpCallsAvoidedCounter = metricsCollector.getNamedCounter(METRIC_IDP_CALLS_AVOIDED);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .refreshAfterWrite(refreshAfterWriteSeconds, TimeUnit.SECONDS)
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .ticker(ticker)
+                .recordStats()
+                .build(CacheLoader.asyncReloading(new CacheLoader<String, CachedGroups>() {
+                    @Override
+                    public CachedGroups load(final String userId) {
+                        return loadGroups(new AuthData().setUserId(userId));
+                    }
+                }, refreshExecutor));
+        CacheMetrics.register(metricsCollector, METRIC_PREFIX, cache);
+    }
+
+    @Override
+    public AuthResponse authenticate(final String username, final String password) {
+        return delegate.authenticate(username, password);
+    }
+
+    @Override
+    public AuthResponse mfaCheck(final String stateToken, final String deviceId, final String otpToken) {
+        return delegate.mfaCheck(stateToken, deviceId, otpToken);
+    }
+
+    @Override
+    public CompletableFuture<AuthResponse> authenticateAsync(final String username,
+                                                             final String password,
+                                                             final AuthConnectorExecutor executor) {
+        return delegate.authenticateAsync(username, password, executor);
+    }
+
+    @Override
+    public CompletableFuture<AuthResponse> mfaCheckAsync(final String stateToken,
+                                                         final String deviceId,
+                                                         final String otpToken,
+                                                         final AuthConnectorExecutor executor) {
+        return delegate.mfaCheckAsync(stateToken, deviceId, otpToken, executor);
+    }
+
+    @Override
+    public Set<String> getGroups(final AuthData data) {
+        if (!enabled || data == null || StringUtils.isBlank(data.getUserId())) {
+            return delegate.getGroups(data);
+        }
+
+        // getIfPresent, unlike get with a callable, refreshes stale entries asynchronously through the cache loader
+        final Set<String> cachedGroups = getCachedGroups(data.getUserId());
+        if (cachedGroups != null) {
+            idpCallsAvoidedCounter.inc();
+            return cachedGroups;
+        }
+
+        final CachedGroups groups = loadGroups(data);
+        cache.put(data.getUserId(), groups);
+        return groups.groups;
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> getGroupsAsync(final AuthData data, final AuthConnectorExecutor executor) {
+        if (!enabled || data == null || StringUtils.isBlank(data.getUserId())) {
+            return delegate.getGroupsAsync(data, executor);
+        }
+
+        final Set<String> cachedGroups = getCachedGroups(data.getUserId());
+        if (cachedGroups != null) {
+            idpCallsAvoidedCounter.inc();
+            return CompletableFuture.completedFuture(cachedGroups);
+        }
+
+        idpCallCounter.inc();
+        final OffsetDateTime loadedTs = dateTimeSupplier.get();
+        return delegate.getGroupsAsync(data, executor).thenApply(groups -> {
+            final CachedGroups loaded = new CachedGroups(ImmutableSet.copyOf(groups), loadedTs);
+            cache.put(data.getUserId(), loaded);
+            return loaded.groups;
+        });
+    }
+
+    /**
+     * Removes the cached groups of the given user on every CMS node, so the next login fetches them from the IdP.
+     *
+     * @param userId The IdP user id
+     */
+    public void evictGroups(final String userId) {
+        recordEviction(userId);
+        cache.invalidate(userId);
+    }
+
+    /**
+     * Removes the cached groups of all users on every CMS node.
+     */
+    public void evictAllGroups() {
+        recordEviction(UserGroupDao.ALL_USERS_ID);
+        cache.invalidateAll();
+    }
+
+    private void recordEviction(final String userId) {
+        final OffsetDateTime now = dateTimeSupplier.get();
+        userGroupDao.upsertUserGroupsCacheEviction(userId, now);
+        // evictions older than the expiry cannot apply to any cached entry
+        userGroupDao.deleteUserGroupsCacheEvictionsBefore(now.minusSeconds(expireAfterWriteSeconds));
+    }
+
+    /**
+     * @return The cached groups of the user, or null if none are cached or they were loaded before the user's groups
+     * were last evicted on any CMS node
+     */
+    private Set<String> getCachedGroups(final String userId) {
+        final CachedGroups cachedGroups = cache.getIfPresent(userId);
+        if (cachedGroups == null) {
+            return null;
+        }
+
+        final Optional<OffsetDateTime> evictedTs;
+        try {
+            evictedTs = userGroupDao.getLatestUserGroupsCacheEvictionTs(userId);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to read the user groups cache evictions, fetching the groups of {} from the IdP",
+                    userId, e);
+            return null;
+        }
+
+        if (evictedTs.isPresent() && !cachedGroups.loadedTs.isAfter(evictedTs.get().plusSeconds(1))) {
+            cache.invalidate(userId);
+            return null;
+        }
+        return cachedGroups.groups;
+    }
+
+    private CachedGroups loadGroups(final AuthData data) {
+        idpCallCounter.inc();
+        final OffsetDateTime loadedTs = dateTimeSupplier.get();
+        return new CachedGroups(ImmutableSet.copyOf(delegate.getGroups(data)), loadedTs);
+    }
+
+    /**
+     * The groups of a user and when the IdP call that returned them started.
+     */
+    private static final class CachedGroups {
+
+        private final Set<String> groups;
+
+        private final OffsetDateTime loadedTs;
+
+        private CachedGroups(final Set<String> groups, final OffsetDateTime loadedTs) {
+            this.groups = groups;
+            this.loadedTs = loadedTs;
+        }
+    }
+}
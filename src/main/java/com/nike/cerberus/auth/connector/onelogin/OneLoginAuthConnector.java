@@ -27,6 +27,7 @@ import org.apache.commons.lang3.StringUtils;
 import javax.inject.Inject;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * OneLogin version 1 API implementation of the AuthConnector interface.
@@ -42,7 +43,18 @@ public class OneLoginAuthConnector implements AuthConnector {
 
     @Override
     public AuthResponse authenticate(String username, String password) {
-        final SessionLoginTokenData sessionLoginToken = createSessionLoginToken(username, password);
+        return toAuthResponse(createSessionLoginToken(username, password));
+    }
+
+    @Override
+    public CompletableFuture<AuthResponse> authenticateAsync(String username,
+                                                             String password,
+                                                             AuthConnectorExecutor executor) {
+        return oneLoginClient.createSessionLoginTokenAsync(username, password)
+                .thenApply(response -> toAuthResponse(getSessionLoginToken(username, response)));
+    }
+
+    private AuthResponse toAuthResponse(final SessionLoginTokenData sessionLoginToken) {
         final AuthData authData = new AuthData();
         final AuthResponse authResponse = new AuthResponse().setData(authData);
 
@@ -65,7 +77,19 @@ public class OneLoginAuthConnector implements AuthConnector {
 
     @Override
     public AuthResponse mfaCheck(String stateToken, String deviceId, String otpToken) {
-        final SessionLoginTokenData sessionLoginToken = verifyFactor(deviceId, stateToken, otpToken);
+        return toMfaCheckResponse(verifyFactor(deviceId, stateToken, otpToken));
+    }
+
+    @Override
+    public CompletableFuture<AuthResponse> mfaCheckAsync(String stateToken,
+                                                         String deviceId,
+                                                         String otpToken,
+                                                         AuthConnectorExecutor executor) {
+        return oneLoginClient.verifyFactorAsync(deviceId, stateToken, otpToken)
+                .thenApply(response -> toMfaCheckResponse(getSessionLoginToken(stateToken, response)));
+    }
+
+    private AuthResponse toMfaCheckResponse(final SessionLoginTokenData sessionLoginToken) {
         final AuthData authData = new AuthData();
         final AuthResponse authResponse = new AuthResponse().setData(authData);
 
@@ -82,6 +106,12 @@ public class OneLoginAuthConnector implements AuthConnector {
         return parseLdapGroups(userData.getMemberOf());
     }
 
+    @Override
+    public CompletableFuture<Set<String>> getGroupsAsync(AuthData data, AuthConnectorExecutor executor) {
+        return oneLoginClient.getUserByIdAsync(Long.parseLong(data.getUserId()))
+                .thenApply(response -> parseLdapGroups(getUserData(response).getMemberOf()));
+    }
+
     /**
      * Takes the list of ldapGroups received from OneLogin and parses them in to a set of Strings
      *
@@ -127,8 +157,10 @@ public class OneLoginAuthConnector implements AuthConnector {
      */
     protected UserData getUserById(final long userId) {
 
-        final GetUserResponse getUserResponse = oneLoginClient.getUserById(userId);
+        return getUserData(oneLoginClient.getUserById(userId));
+    }
 
+    private UserData getUserData(final GetUserResponse getUserResponse) {
         if (getUserResponse.getStatus().isError()) {
             throw ApiException.newBuilder()
                     .withApiErrors(DefaultApiError.SERVICE_UNAVAILABLE)
@@ -151,8 +183,11 @@ public class OneLoginAuthConnector implements AuthConnector {
                                                  final String stateToken,
                                                  final String otpToken) {
 
-        final VerifyFactorResponse verifyFactorResponse = oneLoginClient.verifyFactor(deviceId, stateToken, otpToken);
+        return getSessionLoginToken(stateToken, oneLoginClient.verifyFactor(deviceId, stateToken, otpToken));
+    }
 
+    private SessionLoginTokenData getSessionLoginToken(final String stateToken,
+                                                       final VerifyFactorResponse verifyFactorResponse) {
         if (verifyFactorResponse.getStatus().isError()) {
             String msg = String.format("stateToken: %s failed to verify 2nd factor for reason: %s",
                     stateToken, verifyFactorResponse.getStatus().getMessage());
@@ -182,8 +217,11 @@ public class OneLoginAuthConnector implements AuthConnector {
      */
     protected SessionLoginTokenData createSessionLoginToken(final String username, final String password) {
 
-        final CreateSessionLoginTokenResponse createSessionLoginTokenResponse = oneLoginClient.createSessionLoginToken(username, password);
+        return getSessionLoginToken(username, oneLoginClient.createSessionLoginToken(username, password));
+    }
 
+    private SessionLoginTokenData getSessionLoginToken(final String username,
+                                                       final CreateSessionLoginTokenResponse createSessionLoginTokenResponse) {
         long statusCode = createSessionLoginTokenResponse.getStatus().getCode();
 
         if (createSessionLoginTokenResponse.getStatus().isError()) {
@@ -1,32 +1,86 @@
 package com.nike.cerberus.auth.connector.onelogin;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Singleton;
 import com.nike.backstopper.exception.ApiException;
 import com.nike.cerberus.error.DefaultApiError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Client for calling OneLogin APIs
+ * <p>
+ * The OAuth access token is cached for its advertised lifetime and refreshed in the background once it is within the
+ * refresh ahead period of expiring, with at most one token request in flight at a time.  A 401 from a user lookup
+ * forces one refresh and retry, unless the rejected token was issued within the min forced refresh interval.  OneLogin
+ * also answers a bad password or OTP with a 401, so logins and MFA checks are never replayed: a replay would submit the
+ * user's credentials twice and count twice against their lockout limit.
  */
 @Singleton
 class OneLoginClient {
 
+    private static final long UNAUTHORIZED = 401;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
     private final String clientId;
     private final String clientSecret;
     private final String subdomain;
 
     private final OneLoginHttpClient httpClient;
 
+    private final long refreshAheadNanos;
+
+    private final long minForcedRefreshIntervalNanos;
+
+    private final Executor refreshExecutor;
+
+    private final Ticker ticker;
+
+    private final Object refreshLock = new Object();
+
+    private final AtomicBoolean backgroundRefreshInFlight = new AtomicBoolean(false);
+
+    private volatile AccessToken accessToken;
+
     @Inject
     public OneLoginClient(@Named("auth.connector.onelogin.client_id") final String clientId,
                           @Named("auth.connector.onelogin.client_secret") final String clientSecret,
                           @Named("auth.connector.onelogin.subdomain") final String subdomain,
+                          @Named("auth.connector.onelogin.token.refreshAheadSeconds") final long refreshAheadSeconds,
+                          @Named("auth.connector.onelogin.token.minForcedRefreshIntervalSeconds") final long minForcedRefreshIntervalSeconds,
                           OneLoginHttpClient httpClient) {
+        this(clientId, clientSecret, subdomain, refreshAheadSeconds, minForcedRefreshIntervalSeconds, httpClient,
+                Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("onelogin-token-refresh-%d")
+                        .setDaemon(true)
+                        .build()),
+                Ticker.systemTicker());
+    }
+
+    OneLoginClient(final String clientId,
+                   final String clientSecret,
+                   final String subdomain,
+                   final long refreshAheadSeconds,
+                   final long minForcedRefreshIntervalSeconds,
+                   final OneLoginHttpClient httpClient,
+                   final Executor refreshExecutor,
+                   final Ticker ticker) {
 
         Preconditions.checkNotNull(clientId);
         Preconditions.checkNotNull(clientSecret);
@@ -37,6 +91,11 @@ class OneLoginClient {
         this.subdomain = subdomain;
 
         this.httpClient = httpClient;
+
+        this.refreshAheadNanos = TimeUnit.SECONDS.toNanos(refreshAheadSeconds);
+        this.minForcedRefreshIntervalNanos = TimeUnit.SECONDS.toNanos(minForcedRefreshIntervalSeconds);
+        this.refreshExecutor = refreshExecutor;
+        this.ticker = ticker;
     }
 
     /**
@@ -48,11 +107,12 @@ class OneLoginClient {
                 .setPassword(password)
                 .setSubdomain(subdomain);
 
-        return httpClient.execute("api/1/login/auth",
+        return executeWithAccessToken("api/1/login/auth",
                 "POST",
-                buildAuthorizationBearerHeader(),
                 request,
-                CreateSessionLoginTokenResponse.class);
+                CreateSessionLoginTokenResponse.class,
+                CreateSessionLoginTokenResponse::getStatus,
+                false);
     }
 
     /**
@@ -66,22 +126,125 @@ class OneLoginClient {
                 .setStateToken(stateToken)
                 .setOtpToken(otpToken);
 
-        return httpClient.execute("api/1/login/verify_factor",
+        return executeWithAccessToken("api/1/login/verify_factor",
                 "POST",
-                buildAuthorizationBearerHeader(),
                 request,
-                VerifyFactorResponse.class);
+                VerifyFactorResponse.class,
+                VerifyFactorResponse::getStatus,
+                false);
     }
 
     /**
      * Get info about a user
      */
     public GetUserResponse getUserById(long userId) {
-        return httpClient.execute("api/1/users/" + userId,
+        return executeWithAccessToken("api/1/users/" + userId,
                 "GET",
-                buildAuthorizationBearerHeader(),
                 null,
-                GetUserResponse.class);
+                GetUserResponse.class,
+                GetUserResponse::getStatus,
+                true);
+    }
+
+    /**
+     * Asynchronously attempt to login a user
+     */
+    public CompletableFuture<CreateSessionLoginTokenResponse> createSessionLoginTokenAsync(final String username,
+                                                                                           final String password) {
+        CreateSessionLoginTokenRequest request = new CreateSessionLoginTokenRequest()
+                .setUsernameOrEmail(username)
+                .setPassword(password)
+                .setSubdomain(subdomain);
+
+        return executeWithAccessTokenAsync("api/1/login/auth",
+                "POST",
+                request,
+                CreateSessionLoginTokenResponse.class,
+                CreateSessionLoginTokenResponse::getStatus,
+                false);
+    }
+
+    /**
+     * Asynchronously verify MFA
+     */
+    public CompletableFuture<VerifyFactorResponse> verifyFactorAsync(final String deviceId,
+                                                                     final String stateToken,
+                                                                     final String otpToken) {
+        VerifyFactorRequest request = new VerifyFactorRequest()
+                .setDeviceId(deviceId)
+                .setStateToken(stateToken)
+                .setOtpToken(otpToken);
+
+        return executeWithAccessTokenAsync("api/1/login/verify_factor",
+                "POST",
+                request,
+                VerifyFactorResponse.class,
+                VerifyFactorResponse::getStatus,
+                false);
+    }
+
+    /**
+     * Asynchronously get info about a user
+     */
+    public CompletableFuture<GetUserResponse> getUserByIdAsync(long userId) {
+        return executeWithAccessTokenAsync("api/1/users/" + userId,
+                "GET",
+                null,
+                GetUserResponse.class,
+                GetUserResponse::getStatus,
+                true);
+    }
+
+    /**
+     * Executes the request with the cached access token.  If OneLogin rejects it and the request may be replayed, the
+     * request is retried once with a new token.
+     */
+    private <M> M executeWithAccessToken(final String path,
+                                         final String method,
+                                         final Object requestBody,
+                                         final Class<M> responseClass,
+                                         final Function<M, ResponseStatus> statusGetter,
+                                         final boolean replayOnUnauthorized) {
+        final AccessToken token = getAccessToken();
+        final M response = httpClient.execute(path, method, buildAuthorizationBearerHeader(token), requestBody,
+                responseClass);
+
+        if (!replayOnUnauthorized || !isUnauthorized(statusGetter.apply(response))) {
+            return response;
+        }
+
+        final AccessToken refreshedToken = forceRefresh(token);
+        if (refreshedToken == token) {
+            return response;
+        }
+        return httpClient.execute(path, method, buildAuthorizationBearerHeader(refreshedToken), requestBody,
+                responseClass);
+    }
+
+    /**
+     * Asynchronous variant of executeWithAccessToken.  Token requests, which are rare, run on the refresh executor so
+     * that the calling thread never blocks.
+     */
+    private <M> CompletableFuture<M> executeWithAccessTokenAsync(final String path,
+                                                                 final String method,
+                                                                 final Object requestBody,
+                                                                 final Class<M> responseClass,
+                                                                 final Function<M, ResponseStatus> statusGetter,
+                                                                 final boolean replayOnUnauthorized) {
+        return getAccessTokenAsync().thenCompose(token -> httpClient
+                .executeAsync(path, method, buildAuthorizationBearerHeader(token), requestBody, responseClass)
+                .thenCompose(response -> {
+                    if (!replayOnUnauthorized || !isUnauthorized(statusGetter.apply(response))) {
+                        return CompletableFuture.completedFuture(response);
+                    }
+
+                    return supplyOnRefreshExecutor(() -> forceRefresh(token)).thenCompose(refreshedToken ->
+                            refreshedToken == token
+                                    ? CompletableFuture.completedFuture(response)
+                                    : httpClient.executeAsync(path, method,
+                                            buildAuthorizationBearerHeader(refreshedToken), requestBody,
+                                            responseClass));
+                }));
     }
 
     /**
@@ -90,11 +253,111 @@ class OneLoginClient {
      * @return Map containing the Authorization header and value.
      */
     protected Map<String, String> buildAuthorizationBearerHeader() {
+        return buildAuthorizationBearerHeader(getAccessToken());
+    }
+
+    private Map<String, String> buildAuthorizationBearerHeader(final AccessToken token) {
         final Map<String, String> headers = Maps.newHashMap();
-        headers.put("Authorization", String.format("bearer:%s", requestAccessToken().getAccessToken()));
+        headers.put("Authorization", String.format("bearer:%s", token.value));
         return headers;
     }
 
+    /**
+     * Returns the cached access token, only waiting on OneLogin if there is no unexpired token.
+     */
+    private AccessToken getAccessToken() {
+        final AccessToken current = accessToken;
+        final long now = ticker.read();
+
+        if (current == null || current.isExpired(now)) {
+            return refresh(current, false);
+        }
+
+        if (current.isDueForRefresh(now)) {
+            refreshInBackground(current);
+        }
+        return current;
+    }
+
+    private CompletableFuture<AccessToken> getAccessTokenAsync() {
+        final AccessToken current = accessToken;
+        final long now = ticker.read();
+
+        if (current == null || current.isExpired(now)) {
+            return supplyOnRefreshExecutor(() -> refresh(current, false));
+        }
+
+        if (current.isDueForRefresh(now)) {
+            refreshInBackground(current);
+        }
+        return CompletableFuture.completedFuture(current);
+    }
+
+    private CompletableFuture<AccessToken> supplyOnRefreshExecutor(final Supplier<AccessToken> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, refreshExecutor);
+        } catch (RejectedExecutionException e) {
+            final CompletableFuture<AccessToken> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    private void refreshInBackground(final AccessToken stale) {
+        if (!backgroundRefreshInFlight.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    refresh(stale, false);
+                } catch (RuntimeException e) {
+                    logger.error("Failed to refresh the OneLogin access token in the background", e);
+                } finally {
+                    backgroundRefreshInFlight.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            backgroundRefreshInFlight.set(false);
+            logger.error("Failed to queue a refresh of the OneLogin access token", e);
+        }
+    }
+
+    /**
+     * Replaces the given token with a new one, unless another thread already has.
+     *
+     * @return The new token, or the rejected token if it is too new to be force refreshed
+     */
+    private AccessToken forceRefresh(final AccessToken rejected) {
+        return refresh(rejected, true);
+    }
+
+    private AccessToken refresh(final AccessToken stale, final boolean forced) {
+        synchronized (refreshLock) {
+            final AccessToken current = accessToken;
+            final long now = ticker.read();
+
+            if (current != null && current != stale && !current.isExpired(now)) {
+                return current;
+            }
+            if (forced && now - stale.issuedAtNanos < minForcedRefreshIntervalNanos) {
+                return stale;
+            }
+
+            final GenerateTokenResponseData data = requestAccessToken();
+            final long expiresInNanos = TimeUnit.SECONDS.toNanos(Math.max(data.getExpiresIn(), 0));
+            final AccessToken token = new AccessToken(data.getAccessToken(), now, now + expiresInNanos,
+                    now + Math.max(expiresInNanos - refreshAheadNanos, 0));
+            accessToken = token;
+            return token;
+        }
+    }
+
+    private static boolean isUnauthorized(final ResponseStatus status) {
+        return status != null && status.isError() && status.getCode() == UNAUTHORIZED;
+    }
+
     /**
      * Requests an access token using the configured client id and secret.
      *
@@ -124,5 +387,35 @@ class OneLoginClient {
         return headers;
     }
 
+    /**
+     * An access token and the ticker times at which it was issued, is due for refresh and expires.
+     */
+    private static final class AccessToken {
+
+        private final String value;
+
+        private final long issuedAtNanos;
+
+        private final long expiresAtNanos;
+
+        private final long refreshAtNanos;
 
+        private AccessToken(final String value,
+                            final long issuedAtNanos,
+                            final long expiresAtNanos,
+                            final long refreshAtNanos) {
+            this.value = value;
+            this.issuedAtNanos = issuedAtNanos;
+            this.expiresAtNanos = expiresAtNanos;
+            this.refreshAtNanos = refreshAtNanos;
+        }
+
+        private boolean isExpired(final long nowNanos) {
+            return nowNanos - expiresAtNanos >= 0;
+        }
+
+        private boolean isDueForRefresh(final long nowNanos) {
+            return nowNanos - refreshAtNanos >= 0;
+        }
+    }
 }
@@ -21,6 +21,7 @@ import java.net.URI;
 import java.nio.charset.Charset;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A HttpClient for interacting with OneLogin
@@ -77,6 +78,45 @@ public class OneLoginHttpClient {
         }
     }
 
+    /**
+     * Asynchronously executes the HTTP request based on the input parameters, without blocking the calling thread.
+     *
+     * @param path        The Path to execute the request against
+     * @param method      The HTTP method for the request
+     * @param headers     HTTP Headers to include in the request
+     * @param requestBody The request body of the HTTP request
+     * @param responseClass The class of the response object
+     * @return Future for the response from the server
+     */
+    public <M> CompletableFuture<M> executeAsync(final String path,
+                                                 final String method,
+                                                 final Map<String, String> headers,
+                                                 final Object requestBody,
+                                                 final Class<M> responseClass) {
+        final CompletableFuture<M> future = new CompletableFuture<>();
+        try {
+            Request request = buildRequest(buildUrl(path), method, headers, requestBody);
+            httpClient.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    future.completeExceptionally(toApiException(e));
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try {
+                        future.complete(parseResponseBody(response, responseClass));
+                    } catch (RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            future.completeExceptionally(toApiException(e));
+        }
+        return future;
+    }
+
     /**
      * Builds the full URL for preforming an operation against Vault.
      *
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.aws;
+
+/**
+ * Priority classes for KMS calls, in order of importance.  A call may only take a token from the region's bucket if
+ * at least its reserve fraction of the bucket would be left for more important calls.  Interactive classes have a
+ * caller waiting on the response, so they fail fast instead of waiting a long time for quota.
+ */
+public enum KmsCallPriority {
+
+    /**
+     * Encrypting IAM auth responses, the caller is waiting on a login
+     */
+    AUTHENTICATION(0.0, true),
+
+    /**
+     * Creating or binding the KMS key for a principal's first login
+     */
+    PROVISIONING(0.1, true),
+
+    /**
+     * Background validation of KMS key policies
+     */
+    VALIDATION(0.25, false),
+
+    /**
+     * Clean up of inactive and unreferenced keys and refilling the key pool
+     */
+    HOUSEKEEPING(0.5, false);
+
+    private final double reserveFraction;
+
+    private final boolean interactive;
+
+    KmsCallPriority(final double reserveFraction, final boolean interactive) {
+        this.reserveFraction = reserveFraction;
+        this.interactive = interactive;
+    }
+
+    public double getReserveFraction() {
+        return reserveFraction;
+    }
+
+    public boolean isInteractive() {
+        return interactive;
+    }
+}
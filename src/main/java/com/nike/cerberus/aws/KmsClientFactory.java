@@ -16,53 +16,104 @@
 
 package com.nike.cerberus.aws;
 
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.RequestHandler2;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.kms.AWSKMSClient;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.collect.Maps;
 import com.nike.backstopper.exception.ApiException;
 import com.nike.cerberus.error.DefaultApiError;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.util.EnumMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Factory for AWS KMS clients.  Caches clients by region as they are requested.
+ * Factory for AWS KMS clients.  Caches clients by region and {@link KmsCallPriority} as they are requested.  Clients
+ * are configured from {@link KmsClientSettings} for their region, apply the {@link KmsQuotaManager} quota for their
+ * region and priority, and report per-region call latency (cms.kms.client.latency.&lt;region&gt;), calls in flight
+ * (cms.kms.client.inFlight.&lt;region&gt;) and failed calls (cms.kms.client.errors.&lt;region&gt;).
  */
 @Singleton
 public class KmsClientFactory {
 
-    private final Map<Region, AWSKMSClient> kmsClientMap = Maps.newConcurrentMap();
+    public static final String METRIC_PREFIX = "cms.kms.client";
+
+    private final KmsQuotaManager kmsQuotaManager;
+
+    private final KmsClientSettings kmsClientSettings;
+
+    private final CodahaleMetricsCollector metricsCollector;
+
+    private final Map<KmsCallPriority, Map<Region, AWSKMSClient>> kmsClientMap = new EnumMap<>(KmsCallPriority.class);
+
+    private final ConcurrentMap<String, RegionMetricsHandler> regionMetricsHandlers = Maps.newConcurrentMap();
+
+    @Inject
+    public KmsClientFactory(final KmsQuotaManager kmsQuotaManager,
+                            final KmsClientSettings kmsClientSettings,
+                            final CodahaleMetricsCollector metricsCollector) {
+        this.kmsQuotaManager = kmsQuotaManager;
+        this.kmsClientSettings = kmsClientSettings;
+        this.metricsCollector = metricsCollector;
+        for (final KmsCallPriority priority : KmsCallPriority.values()) {
+            kmsClientMap.put(priority, Maps.newConcurrentMap());
+        }
+    }
 
     /**
-     * Returns a KMS client for the given region.  Clients are cached by region.
+     * Returns a KMS client for the given region, for authentication calls.  Clients are cached by region.
      *
      * @param region Region to configure a client for
      * @return AWS KMS client
      */
     public AWSKMSClient getClient(Region region) {
-        AWSKMSClient client = kmsClientMap.get(region);
-
-        if (client == null) {
-            final AWSKMSClient newClient = new AWSKMSClient();
-            newClient.setRegion(region);
-            kmsClientMap.put(region, newClient);
-            client = newClient;
-        }
+        return getClient(region, KmsCallPriority.AUTHENTICATION);
+    }
 
-        return client;
+    /**
+     * Returns a KMS client for the given region and priority class.  Clients are cached by region and priority.
+     *
+     * @param region Region to configure a client for
+     * @param priority Priority class of the calls that will be made with the client
+     * @return AWS KMS client
+     */
+    public AWSKMSClient getClient(Region region, KmsCallPriority priority) {
+        return kmsClientMap.get(priority).computeIfAbsent(region, r -> createClient(r, priority));
     }
 
     /**
-     * Returns a KMS client for the given region name.  Clients are cached by region.
+     * Returns a KMS client for the given region name, for authentication calls.  Clients are cached by region.
      *
      * @param regionName Region to configure a client for
      * @return AWS KMS client
      */
     public AWSKMSClient getClient(String regionName) {
+        return getClient(regionName, KmsCallPriority.AUTHENTICATION);
+    }
+
+    /**
+     * Returns a KMS client for the given region name and priority class.  Clients are cached by region and priority.
+     *
+     * @param regionName Region to configure a client for
+     * @param priority Priority class of the calls that will be made with the client
+     * @return AWS KMS client
+     */
+    public AWSKMSClient getClient(String regionName, KmsCallPriority priority) {
         try {
             final Region region = Region.getRegion(Regions.fromName(regionName));
-            return getClient(region);
+            return getClient(region, priority);
         } catch (IllegalArgumentException iae) {
             throw ApiException.newBuilder()
                     .withApiErrors(DefaultApiError.AUTHENTICATION_ERROR_INVALID_REGION)
@@ -71,4 +122,67 @@ public class KmsClientFactory {
                     .build();
         }
     }
+
+    private AWSKMSClient createClient(final Region region, final KmsCallPriority priority) {
+        final ClientConfiguration clientConfiguration = kmsClientSettings.getClientConfiguration(region.getName());
+        clientConfiguration.setRetryPolicy(kmsQuotaManager.newRetryPolicy(region.getName(), priority,
+                clientConfiguration.getRetryPolicy().getMaxErrorRetry()));
+        final AWSKMSClient client = new AWSKMSClient(clientConfiguration);
+        client.setRegion(region);
+        // the quota handler runs first so that the time spent waiting for quota is not counted as KMS latency
+        client.addRequestHandler(kmsQuotaManager.newRequestHandler(region.getName(), priority));
+        client.addRequestHandler(regionMetricsHandlers.computeIfAbsent(region.getName(), RegionMetricsHandler::new));
+        return client;
+    }
+
+    /**
+     * Records latency, calls in flight and errors for every KMS client of a region.  Relies on the clients being
+     * synchronous, i.e. on a call's handler callbacks all running on the calling thread.
+     */
+    private final class RegionMetricsHandler extends RequestHandler2 {
+
+        private final Timer latencyTimer;
+
+        private final Counter errorCounter;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final ThreadLocal<Timer.Context> timerContext = new ThreadLocal<>();
+
+        private RegionMetricsHandler(final String regionName) {
+            latencyTimer = metricsCollector.getNamedTimer(METRIC_PREFIX + ".latency." + regionName);
+            errorCounter = metricsCollector.getNamedCounter(METRIC_PREFIX + ".errors." + regionName);
+
+            final String inFlightMetricName = METRIC_PREFIX + ".inFlight." + regionName;
+            final MetricRegistry registry = metricsCollector.getMetricRegistry();
+            registry.remove(inFlightMetricName);
+            registry.register(inFlightMetricName, (Gauge<Integer>) inFlight::get);
+        }
+
+        @Override
+        public void beforeRequest(final Request<?> request) {
+            inFlight.incrementAndGet();
+            timerContext.set(latencyTimer.time());
+        }
+
+        @Override
+        public void afterResponse(final Request<?> request, final Response<?> response) {
+            complete();
+        }
+
+        @Override
+        public void afterError(final Request<?> request, final Response<?> response, final Exception e) {
+            errorCounter.inc();
+            complete();
+        }
+
+        private void complete() {
+            final Timer.Context context = timerContext.get();
+            if (context != null) {
+                timerContext.remove();
+                context.stop();
+                inFlight.decrementAndGet();
+            }
+        }
+    }
 }
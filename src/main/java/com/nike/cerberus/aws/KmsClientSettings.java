@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.aws;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigUtil;
+
+/**
+ * Connection pool, timeout and retry settings for KMS clients, read from the cms.kms.client section of the app
+ * config.  Settings under cms.kms.client.default apply to every region and can be overridden for a single region
+ * under cms.kms.client.region.&lt;region name&gt;, e.g. cms.kms.client.region.us-west-2.socketTimeoutMillis.
+ */
+public class KmsClientSettings {
+
+    public static final String CONFIG_PATH = "cms.kms.client";
+
+    private static final String DEFAULT_PATH = "default";
+
+    private static final String REGION_PATH = "region";
+
+    private final Config config;
+
+    public KmsClientSettings(final Config appConfig) {
+        this.config = appConfig.getConfig(CONFIG_PATH);
+    }
+
+    /**
+     * Builds the SDK client configuration for the given region
+     *
+     * @param regionName - The region the client will call
+     * @return - The client configuration, with any overrides for the region applied
+     */
+    public ClientConfiguration getClientConfiguration(final String regionName) {
+        final Config regionConfig = getRegionConfig(regionName);
+
+        return new ClientConfiguration()
+                .withMaxConnections(regionConfig.getInt("maxConnections"))
+                .withConnectionTimeout(regionConfig.getInt("connectionTimeoutMillis"))
+                .withSocketTimeout(regionConfig.getInt("socketTimeoutMillis"))
+                .withRequestTimeout(regionConfig.getInt("requestTimeoutMillis"))
+                .withRetryPolicy(PredefinedRetryPolicies.getDefaultRetryPolicyWithCustomMaxRetries(
+                        regionConfig.getInt("maxErrorRetry")));
+    }
+
+    private Config getRegionConfig(final String regionName) {
+        final Config defaults = config.getConfig(DEFAULT_PATH);
+        final String regionPath = ConfigUtil.joinPath(REGION_PATH, regionName);
+
+        return config.hasPath(regionPath) ? config.getConfig(regionPath).withFallback(defaults) : defaults;
+    }
+}
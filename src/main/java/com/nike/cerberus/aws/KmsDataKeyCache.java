@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.aws;
+
+import com.amazonaws.services.kms.model.DataKeySpec;
+import com.amazonaws.services.kms.model.GenerateDataKeyRequest;
+import com.amazonaws.services.kms.model.GenerateDataKeyResult;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.nike.cerberus.util.CacheMetrics;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches KMS generated AES-256 data keys per (CMK, region) so that envelope encrypting an auth response does not need
+ * a KMS call on every login.  A data key is replaced once it is older than the configured max age or has been used
+ * the configured max number of times, whichever comes first.
+ */
+@Singleton
+public class KmsDataKeyCache {
+
+    public static final String METRIC_PREFIX = "cms.auth.iam.dataKey.cache";
+
+    private final KmsClientFactory kmsClientFactory;
+
+    private final long maxUses;
+
+    private final Cache<String, KmsDataKey> cache;
+
+    @Inject
+    public KmsDataKeyCache(final KmsClientFactory kmsClientFactory,
+                           @Named("cms.auth.iam.dataKey.cache.maxSize") final long maxSize,
+                           @Named("cms.auth.iam.dataKey.cache.maxAgeSeconds") final long maxAgeSeconds,
+                           @Named("cms.auth.iam.dataKey.cache.maxUses") final long maxUses,
+                           final CodahaleMetricsCollector metricsCollector) {
+        this.kmsClientFactory = kmsClientFactory;
+        this.maxUses = maxUses;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(maxAgeSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CacheMetrics.register(metricsCollector, METRIC_PREFIX, cache);
+    }
+
+    /**
+     * Returns a data key wrapped by the given CMK, generating a new one if there is no usable cached key.
+     *
+     * @param keyId The CMK to wrap the data key with
+     * @param regionName The region of the CMK
+     * @return The plaintext data key and its KMS encrypted form
+     */
+    public KmsDataKey getDataKey(final String keyId, final String regionName) {
+        final String cacheKey = regionName + '/' + keyId;
+
+        while (true) {
+            final KmsDataKey dataKey;
+            try {
+                dataKey = cache.get(cacheKey, () -> generateDataKey(keyId, regionName));
+            } catch (ExecutionException | UncheckedExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("Failed to generate KMS data key", e.getCause());
+            }
+
+            if (dataKey.use(maxUses)) {
+                return dataKey;
+            }
+            cache.asMap().remove(cacheKey, dataKey);
+        }
+    }
+
+    private KmsDataKey generateDataKey(final String keyId, final String regionName) {
+        final GenerateDataKeyResult result = kmsClientFactory.getClient(regionName).generateDataKey(
+                new GenerateDataKeyRequest().withKeyId(keyId).withKeySpec(DataKeySpec.AES_256));
+
+        return new KmsDataKey(toBytes(result.getPlaintext()), toBytes(result.getCiphertextBlob()));
+    }
+
+    private static byte[] toBytes(final ByteBuffer buffer) {
+        final ByteBuffer duplicate = buffer.duplicate();
+        final byte[] bytes = new byte[duplicate.remaining()];
+        duplicate.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * A KMS data key, in plaintext for local encryption and wrapped by its CMK for the client to decrypt.
+     */
+    public static final class KmsDataKey {
+
+        private final byte[] plaintext;
+
+        private final byte[] ciphertext;
+
+        private final AtomicLong uses = new AtomicLong();
+
+        public KmsDataKey(final byte[] plaintext, final byte[] ciphertext) {
+            this.plaintext = plaintext;
+            this.ciphertext = ciphertext;
+        }
+
+        public byte[] getPlaintext() {
+            return plaintext.clone();
+        }
+
+        public byte[] getCiphertext() {
+            return ciphertext.clone();
+        }
+
+        private boolean use(final long maxUses) {
+            return uses.incrementAndGet() <= maxUses;
+        }
+    }
+}
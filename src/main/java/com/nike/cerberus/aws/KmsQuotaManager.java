@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.aws;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.retry.RetryUtils;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-region token bucket shared by every KMS call CMS makes, so that background work cannot use up the KMS request
+ * quota that logins depend on.
+ * <p>
+ * Each attempt takes one token, including SDK retries.  Lower {@link KmsCallPriority} classes must leave a reserved fraction of the bucket for
+ * higher ones, so when KMS calls are scarce clean up waits and authentication does not.  On top of that each priority
+ * class has its own rate: when KMS throttles a call the rate of that class and of every less important class is
+ * halved, then recovers a little with every successful call of the class until it is back at the configured rate.  A
+ * throttled clean up call therefore never slows down authentication.
+ * <p>
+ * Background classes run on their own threads and simply wait for quota.  Interactive classes give up with an
+ * {@link AmazonClientException} once the wait would exceed cms.kms.quota.interactiveMaxWaitMillis, so a login fails
+ * fast instead of holding a thread while the region is saturated.
+ */
+@Singleton
+public class KmsQuotaManager {
+
+    public static final String METRIC_PREFIX = "cms.kms.quota";
+
+    public static final String METRIC_THROTTLED = METRIC_PREFIX + ".throttled";
+
+    public static final String METRIC_REJECTED = METRIC_PREFIX + ".rejected";
+
+    private static final double RECOVERY_FRACTION = 0.01;
+
+    private static final long MAX_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final double maxRequestsPerSecond;
+
+    private final double minRequestsPerSecond;
+
+    private final long interactiveMaxWaitNanos;
+
+    private final LongSupplier nanoClock;
+
+    private final ConcurrentMap<String, RegionQuota> quotas = new ConcurrentHashMap<>();
+
+    private final Map<KmsCallPriority, Timer> waitTimers = new EnumMap<>(KmsCallPriority.class);
+
+    private final Counter throttledCounter;
+
+    private final Counter rejectedCounter;
+
+    @Inject
+    public KmsQuotaManager(@Named("cms.kms.quota.requestsPerSecond") final double maxRequestsPerSecond,
+                           @Named("cms.kms.quota.minRequestsPerSecond") final double minRequestsPerSecond,
+                           @Named("cms.kms.quota.interactiveMaxWaitMillis") final long interactiveMaxWaitMillis,
+                           final CodahaleMetricsCollector metricsCollector) {
+        this(maxRequestsPerSecond, minRequestsPerSecond, interactiveMaxWaitMillis, metricsCollector, System::nanoTime);
+    }
+
+    KmsQuotaManager(final double maxRequestsPerSecond,
+                    final double minRequestsPerSecond,
+                    final long interactiveMaxWaitMillis,
+                    final CodahaleMetricsCollector metricsCollector,
+                    final LongSupplier nanoClock) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.minRequestsPerSecond = Math.min(minRequestsPerSecond, maxRequestsPerSecond);
+        this.interactiveMaxWaitNanos = TimeUnit.MILLISECONDS.toNanos(interactiveMaxWaitMillis);
+        this.nanoClock = nanoClock;
+        for (final KmsCallPriority priority : KmsCallPriority.values()) {
+            waitTimers.put(priority, metricsCollector.getNamedTimer(getWaitMetricName(priority)));
+        }
+        this.throttledCounter = metricsCollector.getNamedCounter(METRIC_THROTTLED);
+        this.rejectedCounter = metricsCollector.getNamedCounter(METRIC_REJECTED);
+    }
+
+    public static String getWaitMetricName(final KmsCallPriority priority) {
+        return METRIC_PREFIX + ".wait." + priority.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Blocks until the given priority class may make a KMS call in the given region
+     *
+     * @param regionName - The region of the KMS call
+     * @param priority - The priority class of the caller
+     * @throws AmazonClientException - If the class is interactive and would have to wait too long
+     */
+    public void acquire(final String regionName, final KmsCallPriority priority) {
+        final long start = nanoClock.getAsLong();
+        try {
+            long waitNanos;
+            while ((waitNanos = tryAcquire(regionName, priority)) > 0) {
+                if (priority.isInteractive() && nanoClock.getAsLong() - start + waitNanos > interactiveMaxWaitNanos) {
+                    rejectedCounter.inc();
+                    throw new AmazonClientException(String.format(
+                            "KMS quota for %s calls in region %s is exhausted", priority, regionName));
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.min(waitNanos, MAX_SLEEP_NANOS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting for KMS quota", e);
+        } finally {
+            waitTimers.get(priority).update(nanoClock.getAsLong() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Takes a token if one is available to the given priority class
+     *
+     * @return - 0 if a token was taken, otherwise roughly how long to wait before trying again, in nanoseconds
+     */
+    long tryAcquire(final String regionName, final KmsCallPriority priority) {
+        return getQuota(regionName).tryAcquire(priority);
+    }
+
+    /**
+     * Backs off the request rate of the given priority class, and of every less important class, in the given region
+     * after KMS throttled a call
+     */
+    public void onThrottled(final String regionName, final KmsCallPriority priority) {
+        throttledCounter.inc();
+        final double requestsPerSecond = getQuota(regionName).onThrottled(priority);
+        logger.warn("KMS throttled a {} call in region: {}, reduced the request rate to {}/s",
+                priority, regionName, requestsPerSecond);
+    }
+
+    /**
+     * Lets the request rate of the given priority class in the given region recover after a successful call
+     */
+    public void onSuccess(final String regionName, final KmsCallPriority priority) {
+        getQuota(regionName).onSuccess(priority);
+    }
+
+    double getRequestsPerSecond(final String regionName, final KmsCallPriority priority) {
+        return getQuota(regionName).getRate(priority);
+    }
+
+    /**
+     * Creates the retry policy for KMS clients of the given region and priority class.  The SDK only runs request
+     * handlers once per call, not once per retry (per attempt hooks need a newer SDK), so the retries are charged
+     * here: before each retry the policy takes a token, and backs off the rate if the failed attempt was throttled.
+     * The SDK's own back off delay is shortened by the time spent waiting for quota.
+     *
+     * @param regionName - The region of the KMS client
+     * @param priority - The priority class of the KMS client
+     * @param maxErrorRetry - The maximum number of retries per call
+     * @return - The default SDK retry policy, with retries paced by this quota
+     */
+    public RetryPolicy newRetryPolicy(final String regionName, final KmsCallPriority priority, final int maxErrorRetry) {
+        final RetryPolicy.BackoffStrategy backoffStrategy = (originalRequest, exception, retriesAttempted) -> {
+            if (exception instanceof AmazonServiceException
+                    && RetryUtils.isThrottlingException((AmazonServiceException) exception)) {
+                onThrottled(regionName, priority);
+            }
+            final long delayMillis = PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY
+                    .delayBeforeNextRetry(originalRequest, exception, retriesAttempted);
+            final long start = nanoClock.getAsLong();
+            acquire(regionName, priority);
+            return Math.max(0, delayMillis - TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - start));
+        };
+        return new RetryPolicy(PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION, backoffStrategy, maxErrorRetry, false);
+    }
+
+    /**
+     * Creates a request handler for KMS clients of the given region and priority class that applies this quota to
+     * every call made through the client.  Retries are charged by {@link #newRetryPolicy(String, KmsCallPriority, int)}.
+     */
+    public RequestHandler2 newRequestHandler(final String regionName, final KmsCallPriority priority) {
+        return new RequestHandler2() {
+            @Override
+            public void beforeRequest(final Request<?> request) {
+                acquire(regionName, priority);
+            }
+
+            @Override
+            public void afterResponse(final Request<?> request, final Response<?> response) {
+                onSuccess(regionName, priority);
+            }
+
+            @Override
+            public void afterError(final Request<?> request, final Response<?> response, final Exception e) {
+                // runs once for the failure of the last attempt, earlier attempts are reported by the retry policy
+                if (e instanceof AmazonServiceException && RetryUtils.isThrottlingException((AmazonServiceException) e)) {
+                    onThrottled(regionName, priority);
+                }
+            }
+        };
+    }
+
+    private RegionQuota getQuota(final String regionName) {
+        return quotas.computeIfAbsent(regionName, region -> new RegionQuota());
+    }
+
+    private final class RegionQuota {
+
+        private final KmsCallPriority[] priorities = KmsCallPriority.values();
+
+        // the bucket shared by every class, refilled at the configured rate
+        private double tokens = maxRequestsPerSecond;
+
+        // the per class buckets, refilled at the class's current rate
+        private final double[] rates = new double[priorities.length];
+
+        private final double[] classTokens = new double[priorities.length];
+
+        private long lastRefillNanos = nanoClock.getAsLong();
+
+        private RegionQuota() {
+            Arrays.fill(rates, maxRequestsPerSecond);
+            Arrays.fill(classTokens, maxRequestsPerSecond);
+        }
+
+        private synchronized long tryAcquire(final KmsCallPriority priority) {
+            refill();
+            final int i = priority.ordinal();
+            // the reserve is taken from the part of the bucket above one token, so every class can eventually proceed
+            final double needed = 1 + (capacity(maxRequestsPerSecond) - 1) * priority.getReserveFraction();
+            if (tokens >= needed && classTokens[i] >= 1) {
+                tokens -= 1;
+                classTokens[i] -= 1;
+                return 0;
+            }
+            final double sharedWaitSeconds = Math.max(0, needed - tokens) / maxRequestsPerSecond;
+            final double classWaitSeconds = Math.max(0, 1 - classTokens[i]) / rates[i];
+            return (long) Math.ceil(Math.max(sharedWaitSeconds, classWaitSeconds) * NANOS_PER_SECOND);
+        }
+
+        private synchronized double onThrottled(final KmsCallPriority priority) {
+            refill();
+            for (int i = priority.ordinal(); i < priorities.length; i++) {
+                rates[i] = Math.max(minRequestsPerSecond, rates[i] / 2);
+                classTokens[i] = Math.min(classTokens[i], 0);
+            }
+            return rates[priority.ordinal()];
+        }
+
+        private synchronized void onSuccess(final KmsCallPriority priority) {
+            final int i = priority.ordinal();
+            if (rates[i] < maxRequestsPerSecond) {
+                refill();
+                rates[i] = Math.min(maxRequestsPerSecond, rates[i] + maxRequestsPerSecond * RECOVERY_FRACTION);
+            }
+        }
+
+        private synchronized double getRate(final KmsCallPriority priority) {
+            return rates[priority.ordinal()];
+        }
+
+        private double capacity(final double rate) {
+            return Math.max(1, rate);
+        }
+
+        private void refill() {
+            final long now = nanoClock.getAsLong();
+            final double elapsedSeconds = (now - lastRefillNanos) / NANOS_PER_SECOND;
+            tokens = Math.min(capacity(maxRequestsPerSecond), tokens + elapsedSeconds * maxRequestsPerSecond);
+            for (int i = 0; i < priorities.length; i++) {
+                classTokens[i] = Math.min(capacity(rates[i]), classTokens[i] + elapsedSeconds * rates[i]);
+            }
+            lastRefillNanos = now;
+        }
+    }
+}
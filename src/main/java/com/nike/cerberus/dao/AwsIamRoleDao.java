@@ -16,13 +16,18 @@
 
 package com.nike.cerberus.dao;
 
+import com.nike.cerberus.domain.IamPrincipalPermission;
 import com.nike.cerberus.mapper.AwsIamRoleMapper;
 import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
 import com.nike.cerberus.record.AwsIamRolePermissionRecord;
 import com.nike.cerberus.record.AwsIamRoleRecord;
+import com.nike.cerberus.record.AwsIamRoleResolutionRecord;
+import com.nike.cerberus.record.AwsKmsKeyPoolRecord;
 
 import javax.inject.Inject;
 import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -31,6 +36,8 @@ import java.util.Optional;
  */
 public class AwsIamRoleDao {
 
+    private static final int MAX_POOL_CLAIM_ATTEMPTS = 3;
+
     private final AwsIamRoleMapper awsIamRoleMapper;
 
     @Inject
@@ -46,6 +53,21 @@ public class AwsIamRoleDao {
         return Optional.ofNullable(awsIamRoleMapper.getIamRole(awsIamRoleArn));
     }
 
+    /**
+     * Reads the IAM role records for an authenticating principal and its base role in one query, each with its KMS
+     * key for the given region and the safe deposit box roles granted to it.
+     *
+     * @param iamPrincipalArn - The authenticating IAM principal ARN
+     * @param baseRoleArn - The role the principal assumes, the same as the principal ARN for a role
+     * @param awsRegion - The region of the KMS key
+     * @return - Up to one record per ARN, for the ARNs that have an IAM role record
+     */
+    public List<AwsIamRoleResolutionRecord> resolveIamPrincipal(final String iamPrincipalArn,
+                                                                final String baseRoleArn,
+                                                                final String awsRegion) {
+        return awsIamRoleMapper.resolveIamPrincipal(iamPrincipalArn, baseRoleArn, awsRegion);
+    }
+
     public int createIamRole(final AwsIamRoleRecord record) {
         return awsIamRoleMapper.createIamRole(record);
     }
@@ -54,6 +76,10 @@ public class AwsIamRoleDao {
         return awsIamRoleMapper.getIamRolePermissions(safeDepositBoxId);
     }
 
+    public List<IamPrincipalPermission> getIamRolePermissionsWithArns(final String safeDepositBoxId) {
+        return awsIamRoleMapper.getIamRolePermissionsWithArns(safeDepositBoxId);
+    }
+
     public int createIamRolePermission(final AwsIamRolePermissionRecord record) {
         return awsIamRoleMapper.createIamRolePermission(record);
     }
@@ -82,6 +108,28 @@ public class AwsIamRoleDao {
         return awsIamRoleMapper.updateIamRoleKmsKey(record);
     }
 
+    public List<AwsIamRoleKmsKeyRecord> getAllKmsKeys() {
+        return awsIamRoleMapper.getAllKmsKeys();
+    }
+
+    /**
+     * Checks whether a KMS key ARN is assigned to an IAM role or waiting in the key pool
+     */
+    public boolean isKmsKeyReferenced(final String awsKmsKeyId) {
+        return awsIamRoleMapper.countKmsKeyReferences(awsKmsKeyId) > 0;
+    }
+
+    /**
+     * @return The KMS keys with the given record IDs that were last validated before the given time
+     */
+    public List<AwsIamRoleKmsKeyRecord> getKmsKeysLastValidatedBefore(final Collection<String> ids,
+                                                                      final OffsetDateTime lastValidatedTs) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return awsIamRoleMapper.getKmsKeysLastValidatedBefore(ids, lastValidatedTs);
+    }
+
     public List<AwsIamRoleKmsKeyRecord> getInactiveOrOrphanedKmsKeys(final OffsetDateTime keyInactiveDateTime) {
         return awsIamRoleMapper.getInactiveOrOrphanedKmsKeys(keyInactiveDateTime);
     }
@@ -97,4 +145,33 @@ public class AwsIamRoleDao {
     public int deleteKmsKeyById(final String id) {
         return awsIamRoleMapper.deleteKmsKeyById(id);
     }
+
+    /**
+     * Removes the oldest pooled KMS key for the given region from the pool and returns it.  The claim does not need a
+     * transaction, whichever CMS node deletes the pool record owns the key, the others move on to the next one.
+     */
+    public Optional<AwsKmsKeyPoolRecord> claimPooledKmsKey(final String awsRegion) {
+        for (int attempt = 0; attempt < MAX_POOL_CLAIM_ATTEMPTS; attempt++) {
+            final AwsKmsKeyPoolRecord pooledKmsKey = awsIamRoleMapper.getOldestPooledKmsKey(awsRegion);
+            if (pooledKmsKey == null) {
+                return Optional.empty();
+            }
+            if (awsIamRoleMapper.deletePooledKmsKeyById(pooledKmsKey.getId()) == 1) {
+                return Optional.of(pooledKmsKey);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public int countPooledKmsKeys(final String awsRegion) {
+        return awsIamRoleMapper.countPooledKmsKeys(awsRegion);
+    }
+
+    public List<String> getPooledKmsKeyIds() {
+        return awsIamRoleMapper.getPooledKmsKeyIds();
+    }
+
+    public int createPooledKmsKey(final AwsKmsKeyPoolRecord record) {
+        return awsIamRoleMapper.createPooledKmsKey(record);
+    }
 }
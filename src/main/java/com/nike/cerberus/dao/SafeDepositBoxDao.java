@@ -19,6 +19,7 @@ package com.nike.cerberus.dao;
 import com.nike.cerberus.mapper.SafeDepositBoxMapper;
 import com.nike.cerberus.record.SafeDepositBoxRecord;
 import com.nike.cerberus.record.SafeDepositBoxRoleRecord;
+import com.nike.cerberus.record.UserGroupSafeDepositBoxRoleRecord;
 
 import javax.inject.Inject;
 import java.util.List;
@@ -41,6 +42,10 @@ public class SafeDepositBoxDao {
         return safeDepositBoxMapper.getUserAssociatedSafeDepositBoxRoles(userGroups);
     }
 
+    public List<UserGroupSafeDepositBoxRoleRecord> getAllUserGroupSafeDepositBoxRoles() {
+        return safeDepositBoxMapper.getAllUserGroupSafeDepositBoxRoles();
+    }
+
     public List<SafeDepositBoxRoleRecord> getIamRoleAssociatedSafeDepositBoxRoles(final String awsIamRoleArn) {
         return safeDepositBoxMapper.getIamRoleAssociatedSafeDepositBoxRoles(awsIamRoleArn);
     }
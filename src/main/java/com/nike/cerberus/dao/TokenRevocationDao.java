@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.dao;
+
+import com.nike.cerberus.mapper.TokenRevocationMapper;
+import com.nike.cerberus.record.TokenRevocationRecord;
+
+import javax.inject.Inject;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Data access layer for the queue of Vault tokens waiting to be revoked, and of revoked tokens CMS must reject.
+ */
+public class TokenRevocationDao {
+
+    private final TokenRevocationMapper tokenRevocationMapper;
+
+    @Inject
+    public TokenRevocationDao(final TokenRevocationMapper tokenRevocationMapper) {
+        this.tokenRevocationMapper = tokenRevocationMapper;
+    }
+
+    /**
+     * Queues the revocation unless the queue already holds the given number of revocations.  The size is checked by
+     * the insert statement itself, so concurrent callers cannot all pass the check and then add.
+     * @return True if the revocation was queued
+     */
+    public boolean createTokenRevocationIfBelowLimit(final TokenRevocationRecord record, final int maxSize) {
+        return tokenRevocationMapper.createTokenRevocationIfBelowLimit(record, maxSize) == 1;
+    }
+
+    /**
+     * Stores a revoked token that is never attempted, only rejected by CMS until it expires.
+     */
+    public int createTokenRevocation(final TokenRevocationRecord record) {
+        return tokenRevocationMapper.createTokenRevocation(record);
+    }
+
+    public List<TokenRevocationRecord> getTokenRevocationsDue(final OffsetDateTime now, final int limit) {
+        return tokenRevocationMapper.getTokenRevocationsDue(now, limit);
+    }
+
+    /**
+     * Claims the revocation for one attempt, by counting the attempt and pushing its next attempt out to the end of
+     * the lease.  Only succeeds if no other node claimed it since it was read, if the claiming node dies the
+     * revocation is picked up again once the lease runs out.
+     * @return True if this caller claimed the revocation
+     */
+    public boolean claimTokenRevocation(final String id,
+                                        final OffsetDateTime expectedNextAttemptTs,
+                                        final OffsetDateTime leaseExpiresTs) {
+        return tokenRevocationMapper.claimTokenRevocation(id, expectedNextAttemptTs, leaseExpiresTs) == 1;
+    }
+
+    public int rescheduleTokenRevocation(final String id, final OffsetDateTime nextAttemptTs) {
+        return tokenRevocationMapper.rescheduleTokenRevocation(id, nextAttemptTs);
+    }
+
+    /**
+     * Stops attempting the revocation but keeps the row, so the token stays rejected by CMS until it expires.
+     */
+    public int abandonTokenRevocation(final String id) {
+        return tokenRevocationMapper.abandonTokenRevocation(id);
+    }
+
+    public int deleteTokenRevocation(final String id) {
+        return tokenRevocationMapper.deleteTokenRevocation(id);
+    }
+
+    public int deleteExpiredTokenRevocations(final OffsetDateTime now) {
+        return tokenRevocationMapper.deleteExpiredTokenRevocations(now);
+    }
+
+    /**
+     * @return True if a revocation of the token with the given hash is queued, or was abandoned, and has not expired
+     */
+    public boolean isTokenRevoked(final String tokenHash, final OffsetDateTime now) {
+        return tokenRevocationMapper.countUnexpiredTokenRevocationsByHash(tokenHash, now) > 0;
+    }
+
+    /**
+     * @return The number of revocations still to be attempted
+     */
+    public int countTokenRevocations() {
+        return tokenRevocationMapper.countTokenRevocations();
+    }
+
+    public Optional<OffsetDateTime> getOldestTokenRevocationCreatedTs() {
+        return Optional.ofNullable(tokenRevocationMapper.getOldestTokenRevocationCreatedTs());
+    }
+}
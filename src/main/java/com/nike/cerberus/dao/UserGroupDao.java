@@ -16,11 +16,13 @@
 
 package com.nike.cerberus.dao;
 
+import com.nike.cerberus.domain.UserGroupPermission;
 import com.nike.cerberus.mapper.UserGroupMapper;
 import com.nike.cerberus.record.UserGroupPermissionRecord;
 import com.nike.cerberus.record.UserGroupRecord;
 
 import javax.inject.Inject;
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -29,6 +31,11 @@ import java.util.Optional;
  */
 public class UserGroupDao {
 
+    /**
+     * User id of the user groups cache eviction that applies to all users
+     */
+    public static final String ALL_USERS_ID = "*";
+
     private final UserGroupMapper userGroupMapper;
 
     @Inject
@@ -56,6 +63,10 @@ public class UserGroupDao {
         return userGroupMapper.getUserGroupPermissions(safeDepositBoxId);
     }
 
+    public List<UserGroupPermission> getUserGroupPermissionsWithNames(final String safeDepositBoxId) {
+        return userGroupMapper.getUserGroupPermissionsWithNames(safeDepositBoxId);
+    }
+
     public int createUserGroupPermission(final UserGroupPermissionRecord record) {
         return userGroupMapper.createUserGroupPermission(record);
     }
@@ -71,4 +82,23 @@ public class UserGroupDao {
     public int deleteUserGroupPermissions(final String safeDepositBoxId) {
         return userGroupMapper.deleteUserGroupPermissions(safeDepositBoxId);
     }
+
+    /**
+     * Records that the cached groups of the given user, or of all users for {@link #ALL_USERS_ID}, were evicted at the
+     * given time.
+     */
+    public int upsertUserGroupsCacheEviction(final String userId, final OffsetDateTime evictedTs) {
+        return userGroupMapper.upsertUserGroupsCacheEviction(userId, evictedTs);
+    }
+
+    /**
+     * @return When the cached groups of the given user were last evicted, either for the user or for all users
+     */
+    public Optional<OffsetDateTime> getLatestUserGroupsCacheEvictionTs(final String userId) {
+        return Optional.ofNullable(userGroupMapper.getLatestUserGroupsCacheEvictionTs(userId, ALL_USERS_ID));
+    }
+
+    public int deleteUserGroupsCacheEvictionsBefore(final OffsetDateTime evictedTs) {
+        return userGroupMapper.deleteUserGroupsCacheEvictionsBefore(evictedTs);
+    }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.dao;
+
+import com.nike.cerberus.mapper.VaultCompositePolicyMapper;
+import com.nike.cerberus.record.VaultCompositePolicyRecord;
+
+import javax.inject.Inject;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/**
+ * Data access layer for the composite Vault policy data.
+ */
+public class VaultCompositePolicyDao {
+
+    private final VaultCompositePolicyMapper vaultCompositePolicyMapper;
+
+    @Inject
+    public VaultCompositePolicyDao(final VaultCompositePolicyMapper vaultCompositePolicyMapper) {
+        this.vaultCompositePolicyMapper = vaultCompositePolicyMapper;
+    }
+
+    /**
+     * Records that the composite policy is in use, creating its record if needed.
+     */
+    public int touchCompositePolicy(final String name, final OffsetDateTime now) {
+        return vaultCompositePolicyMapper.touchCompositePolicy(name, now);
+    }
+
+    public List<VaultCompositePolicyRecord> getCompositePoliciesLastUsedBefore(final OffsetDateTime cutoff) {
+        return vaultCompositePolicyMapper.getCompositePoliciesLastUsedBefore(cutoff);
+    }
+
+    /**
+     * Locks the composite policy record until the end of the transaction, if it has still not been used since the
+     * given cutoff.
+     * @return True if the record was locked
+     */
+    public boolean lockCompositePolicyLastUsedBefore(final String name, final OffsetDateTime cutoff) {
+        return vaultCompositePolicyMapper.lockCompositePolicyLastUsedBefore(name, cutoff) != null;
+    }
+
+    public int deleteCompositePolicy(final String name) {
+        return vaultCompositePolicyMapper.deleteCompositePolicy(name);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.domain;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Encodings of the Vault auth response inside the encrypted IAM principal auth payload, negotiated with the
+ * X-Cerberus-Auth-Payload-Encoding request header.  Both encodings are JSON with the same fields, so a client can
+ * decode either with the same parser.
+ */
+public enum AuthPayloadEncoding {
+
+    /**
+     * Indented JSON, the default
+     */
+    JSON("json"),
+
+    /**
+     * JSON without whitespace, leaving more of the KMS size limit for policies and metadata
+     */
+    COMPACT_JSON("compact-json");
+
+    private final String headerValue;
+
+    AuthPayloadEncoding(final String headerValue) {
+        this.headerValue = headerValue;
+    }
+
+    public String getHeaderValue() {
+        return headerValue;
+    }
+
+    /**
+     * @param headerValue The requested encoding, may be null
+     * @return The requested encoding, or {@link #JSON} if none or an unknown one was requested
+     */
+    public static AuthPayloadEncoding fromHeaderValue(final String headerValue) {
+        for (final AuthPayloadEncoding encoding : values()) {
+            if (StringUtils.equalsIgnoreCase(encoding.headerValue, StringUtils.trim(headerValue))) {
+                return encoding;
+            }
+        }
+        return JSON;
+    }
+}
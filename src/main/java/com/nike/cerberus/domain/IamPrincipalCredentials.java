@@ -17,18 +17,15 @@
 
 package com.nike.cerberus.domain;
 
+import com.nike.cerberus.validation.ValidIamPrincipalArn;
 import org.hibernate.validator.constraints.NotBlank;
 
-import javax.validation.constraints.Pattern;
-
-import static com.nike.cerberus.util.AwsIamRoleArnParser.AWS_IAM_PRINCIPAL_ARN_REGEX;
-
 /**
  * Represents the IAM principal credentials sent during authentication.
  */
 public class IamPrincipalCredentials {
 
-    @Pattern(regexp = AWS_IAM_PRINCIPAL_ARN_REGEX, message = "AUTH_IAM_PRINCIPAL_INVALID")
+    @ValidIamPrincipalArn(message = "AUTH_IAM_PRINCIPAL_INVALID")
     private String iamPrincipalArn;
 
     @NotBlank(message = "AUTH_IAM_PRINCIPAL_AWS_REGION_BLANK")
@@ -17,15 +17,13 @@
 
 package com.nike.cerberus.domain;
 
+import com.nike.cerberus.validation.ValidIamPrincipalArn;
 import com.nike.cerberus.validation.group.Updatable;
 import org.hibernate.validator.constraints.NotBlank;
 
-import javax.validation.constraints.Pattern;
 import javax.validation.groups.Default;
 import java.time.OffsetDateTime;
 
-import static com.nike.cerberus.util.AwsIamRoleArnParser.AWS_IAM_PRINCIPAL_ARN_REGEX;
-
 /**
  * Represents a permission granted to an IAM role with regards to a safe deposit box
  */
@@ -36,7 +34,7 @@ public class IamPrincipalPermission {
     @NotBlank(message = "IAM_ROLE_ROLE_ID_INVALID", groups = {Default.class, Updatable.class})
     private String roleId;
 
-    @Pattern(regexp = AWS_IAM_PRINCIPAL_ARN_REGEX, message = "SDB_IAM_PRINCIPAL_PERMISSION_ARN_INVALID", groups = {Default.class, Updatable.class})
+    @ValidIamPrincipalArn(message = "SDB_IAM_PRINCIPAL_PERMISSION_ARN_INVALID", groups = {Default.class, Updatable.class})
     private String iamPrincipalArn;
 
     private OffsetDateTime createdTs;
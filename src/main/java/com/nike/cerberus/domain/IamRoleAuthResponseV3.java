@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.domain;
+
+/**
+ * Wraps the envelope encrypted IAM principal auth response.  The auth data is encrypted with AES-256-GCM (128 bit tag
+ * appended to the ciphertext) using a data key that the client decrypts with KMS.  All fields are Base64 encoded.
+ */
+public class IamRoleAuthResponseV3 {
+
+    private String authData;
+
+    private String encryptedDataKey;
+
+    private String iv;
+
+    public String getAuthData() {
+        return authData;
+    }
+
+    public IamRoleAuthResponseV3 setAuthData(String authData) {
+        this.authData = authData;
+        return this;
+    }
+
+    public String getEncryptedDataKey() {
+        return encryptedDataKey;
+    }
+
+    public IamRoleAuthResponseV3 setEncryptedDataKey(String encryptedDataKey) {
+        this.encryptedDataKey = encryptedDataKey;
+        return this;
+    }
+
+    public String getIv() {
+        return iv;
+    }
+
+    public IamRoleAuthResponseV3 setIv(String iv) {
+        this.iv = iv;
+        return this;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.endpoints.admin;
+
+import com.google.inject.Inject;
+import com.nike.cerberus.auth.connector.GroupCachingAuthConnector;
+import com.nike.cerberus.endpoints.AdminStandardEndpoint;
+import com.nike.cerberus.security.VaultAuthPrincipal;
+import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.util.Matcher;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.SecurityContext;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Evicts cached IdP group memberships on every CMS node, either for the user given by the user_id query parameter or
+ * for all users.  Used when a group change needs to take effect before the cache entries expire.
+ */
+public class EvictUserGroupsCache extends AdminStandardEndpoint<Void, Void> {
+
+    public static final String USER_ID_QUERY_KEY = "user_id";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final GroupCachingAuthConnector groupCachingAuthConnector;
+
+    @Inject
+    public EvictUserGroupsCache(GroupCachingAuthConnector groupCachingAuthConnector) {
+        this.groupCachingAuthConnector = groupCachingAuthConnector;
+    }
+
+    @Override
+    public CompletableFuture<ResponseInfo<Void>> doExecute(final RequestInfo<Void> request,
+                                                           final Executor longRunningTaskExecutor,
+                                                           final ChannelHandlerContext ctx,
+                                                           final SecurityContext securityContext) {
+
+        final VaultAuthPrincipal vaultAuthPrincipal = (VaultAuthPrincipal) securityContext.getUserPrincipal();
+        final String principal = vaultAuthPrincipal.getName();
+        final String userId = request.getQueryParamSingle(USER_ID_QUERY_KEY);
+
+        if (StringUtils.isBlank(userId)) {
+            log.info("User Groups Cache Event: the principal {} is evicting all cached user groups", principal);
+            groupCachingAuthConnector.evictAllGroups();
+        } else {
+            log.info("User Groups Cache Event: the principal {} is evicting the cached groups of user {}",
+                    principal, userId);
+            groupCachingAuthConnector.evictGroups(userId);
+        }
+
+        return CompletableFuture.completedFuture(
+                ResponseInfo.<Void>newBuilder()
+                        .withHttpStatusCode(HttpResponseStatus.NO_CONTENT.code())
+                        .build()
+        );
+    }
+
+    @Override
+    public Matcher requestMatcher() {
+        return Matcher.match("/v1/cache/user-groups", HttpMethod.DELETE);
+    }
+
+}
@@ -17,6 +17,7 @@
 
 package com.nike.cerberus.endpoints.authentication;
 
+import com.nike.cerberus.domain.AuthPayloadEncoding;
 import com.nike.cerberus.domain.IamPrincipalCredentials;
 import com.nike.cerberus.domain.IamRoleAuthResponse;
 import com.nike.cerberus.service.AuthenticationService;
@@ -26,6 +27,7 @@ import com.nike.riposte.server.http.StandardEndpoint;
 import com.nike.riposte.util.AsyncNettyHelper;
 import com.nike.riposte.util.Matcher;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,7 +36,9 @@ import javax.inject.Inject;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 
+import static com.nike.cerberus.CerberusHttpHeaders.HEADER_X_CERBERUS_AUTH_PAYLOAD_ENCODING;
 import static com.nike.cerberus.CerberusHttpHeaders.HEADER_X_CERBERUS_CLIENT;
+import static com.nike.cerberus.CerberusHttpHeaders.getAuthPayloadEncoding;
 import static com.nike.cerberus.CerberusHttpHeaders.getClientVersion;
 import static com.nike.cerberus.CerberusHttpHeaders.getXForwardedClientIp;
 
@@ -57,13 +61,6 @@ public class AuthenticateIamPrincipal extends StandardEndpoint<IamPrincipalCrede
     public CompletableFuture<ResponseInfo<IamRoleAuthResponse>> execute(final RequestInfo<IamPrincipalCredentials> request,
                                                                         final Executor longRunningTaskExecutor,
                                                                         final ChannelHandlerContext ctx) {
-        return CompletableFuture.supplyAsync(
-                AsyncNettyHelper.supplierWithTracingAndMdc(() -> authenticate(request), ctx),
-                longRunningTaskExecutor
-        );
-    }
-
-    private ResponseInfo<IamRoleAuthResponse> authenticate(RequestInfo<IamPrincipalCredentials> request) {
         final IamPrincipalCredentials credentials = request.getContent();
 
         log.info("{}: {}, IAM Auth Event: the IAM principal {} with ip: {} in attempting to authenticate in region {}",
@@ -73,7 +70,15 @@ public class AuthenticateIamPrincipal extends StandardEndpoint<IamPrincipalCrede
                 getXForwardedClientIp(request),
                 credentials.getRegion());
 
-        return ResponseInfo.newBuilder(authenticationService.authenticate(request.getContent())).build();
+        final AuthPayloadEncoding payloadEncoding = getAuthPayloadEncoding(request);
+
+        return authenticationService.authenticateAsync(credentials, payloadEncoding)
+                .thenApply(AsyncNettyHelper.functionWithTracingAndMdc(
+                        authResponse -> ResponseInfo.newBuilder(authResponse)
+                                .withHeaders(new DefaultHttpHeaders()
+                                        .set(HEADER_X_CERBERUS_AUTH_PAYLOAD_ENCODING, payloadEncoding.getHeaderValue()))
+                                .build(),
+                        ctx));
     }
 
     @Override
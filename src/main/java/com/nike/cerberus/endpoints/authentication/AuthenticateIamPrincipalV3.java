@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.nike.cerberus.endpoints.authentication;
+
+import com.nike.cerberus.domain.AuthPayloadEncoding;
+import com.nike.cerberus.domain.IamPrincipalCredentials;
+import com.nike.cerberus.domain.IamRoleAuthResponseV3;
+import com.nike.cerberus.service.AuthenticationService;
+import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.server.http.StandardEndpoint;
+import com.nike.riposte.util.AsyncNettyHelper;
+import com.nike.riposte.util.Matcher;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static com.nike.cerberus.CerberusHttpHeaders.HEADER_X_CERBERUS_AUTH_PAYLOAD_ENCODING;
+import static com.nike.cerberus.CerberusHttpHeaders.HEADER_X_CERBERUS_CLIENT;
+import static com.nike.cerberus.CerberusHttpHeaders.getAuthPayloadEncoding;
+import static com.nike.cerberus.CerberusHttpHeaders.getClientVersion;
+import static com.nike.cerberus.CerberusHttpHeaders.getXForwardedClientIp;
+
+/**
+ * Authentication endpoint for IAM principals that returns an envelope encrypted client token.  The token is encrypted
+ * with a data key that the IAM principal will be the only one capable of decrypting via KMS.
+ */
+public class AuthenticateIamPrincipalV3 extends StandardEndpoint<IamPrincipalCredentials, IamRoleAuthResponseV3> {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final AuthenticationService authenticationService;
+
+    @Inject
+    public AuthenticateIamPrincipalV3(final AuthenticationService authenticationService) {
+        this.authenticationService = authenticationService;
+    }
+
+    @Override
+    public CompletableFuture<ResponseInfo<IamRoleAuthResponseV3>> execute(final RequestInfo<IamPrincipalCredentials> request,
+                                                                        final Executor longRunningTaskExecutor,
+                                                                        final ChannelHandlerContext ctx) {
+        final IamPrincipalCredentials credentials = request.getContent();
+
+        log.info("{}: {}, IAM Auth Event: the IAM principal {} with ip: {} in attempting to authenticate in region {}",
+                HEADER_X_CERBERUS_CLIENT,
+                getClientVersion(request),
+                credentials.getIamPrincipalArn(),
+                getXForwardedClientIp(request),
+                credentials.getRegion());
+
+        final AuthPayloadEncoding payloadEncoding = getAuthPayloadEncoding(request);
+
+        return authenticationService.authenticateWithEnvelopeEncryptionAsync(credentials, payloadEncoding)
+                .thenApply(AsyncNettyHelper.functionWithTracingAndMdc(
+                        authResponse -> ResponseInfo.newBuilder(authResponse)
+                                .withHeaders(new DefaultHttpHeaders()
+                                        .set(HEADER_X_CERBERUS_AUTH_PAYLOAD_ENCODING, payloadEncoding.getHeaderValue()))
+                                .build(),
+                        ctx));
+    }
+
+    @Override
+    public Matcher requestMatcher() {
+        return Matcher.match("/v3/auth/iam-principal", HttpMethod.POST);
+    }
+}
@@ -61,13 +61,14 @@ public class AuthenticateUser extends StandardEndpoint<Void, AuthResponse> {
     public CompletableFuture<ResponseInfo<AuthResponse>> execute(final RequestInfo<Void> request,
                                                                  final Executor longRunningTaskExecutor,
                                                                  final ChannelHandlerContext ctx) {
-        return CompletableFuture.supplyAsync(
-                AsyncNettyHelper.supplierWithTracingAndMdc(() -> authenticate(request), ctx),
-                longRunningTaskExecutor
-        );
+        return CompletableFuture.completedFuture(request)
+                .thenApply(this::extractAndLogCredentials)
+                .thenCompose(authenticationService::authenticateAsync)
+                .thenApply(AsyncNettyHelper.functionWithTracingAndMdc(
+                        authResponse -> ResponseInfo.newBuilder(authResponse).build(), ctx));
     }
 
-    private ResponseInfo<AuthResponse> authenticate(RequestInfo<Void> request) {
+    private UserCredentials extractAndLogCredentials(RequestInfo<Void> request) {
         final UserCredentials credentials = extractCredentials(request.getHeaders().get(HttpHeaders.AUTHORIZATION));
 
         log.info("{}: {}, User Auth Event: the principal: {}  with ip: {} is attempting to authenticate",
@@ -76,7 +77,7 @@ public class AuthenticateUser extends StandardEndpoint<Void, AuthResponse> {
                 credentials.getUsername(),
                 getXForwardedClientIp(request));
 
-        return ResponseInfo.newBuilder(authenticationService.authenticate(credentials)).build();
+        return credentials;
     }
 
     @Override
@@ -47,13 +47,9 @@ public class MfaCheck extends StandardEndpoint<MfaCheckRequest, AuthResponse> {
     public CompletableFuture<ResponseInfo<AuthResponse>> execute(final RequestInfo<MfaCheckRequest> request,
                                                                  final Executor longRunningTaskExecutor,
                                                                  final ChannelHandlerContext ctx) {
-        return CompletableFuture.supplyAsync(
-                AsyncNettyHelper.supplierWithTracingAndMdc(
-                        () -> ResponseInfo.newBuilder(authenticationService.mfaCheck(request.getContent())).build(),
-                        ctx
-                ),
-                longRunningTaskExecutor
-        );
+        return authenticationService.mfaCheckAsync(request.getContent())
+                .thenApply(AsyncNettyHelper.functionWithTracingAndMdc(
+                        authResponse -> ResponseInfo.newBuilder(authResponse).build(), ctx));
     }
 
     @Override
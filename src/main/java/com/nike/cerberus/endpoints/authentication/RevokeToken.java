@@ -80,7 +80,7 @@ public class RevokeToken extends StandardEndpoint<Void, Void> {
                     vaultAuthPrincipal.getName(),
                     getXForwardedClientIp(request));
 
-            authenticationService.revoke(vaultAuthPrincipal.getClientToken().getId());
+            authenticationService.revoke(vaultAuthPrincipal);
             return ResponseInfo.<Void>newBuilder().withHttpStatusCode(HttpResponseStatus.NO_CONTENT.code()).build();
         }
 
@@ -16,12 +16,16 @@
 
 package com.nike.cerberus.mapper;
 
+import com.nike.cerberus.domain.IamPrincipalPermission;
 import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
 import com.nike.cerberus.record.AwsIamRolePermissionRecord;
 import com.nike.cerberus.record.AwsIamRoleRecord;
+import com.nike.cerberus.record.AwsIamRoleResolutionRecord;
+import com.nike.cerberus.record.AwsKmsKeyPoolRecord;
 import org.apache.ibatis.annotations.Param;
 
 import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -33,6 +37,10 @@ public interface AwsIamRoleMapper {
 
     AwsIamRoleRecord getIamRole(@Param("awsIamRoleArn") String awsIamRoleArn);
 
+    List<AwsIamRoleResolutionRecord> resolveIamPrincipal(@Param("iamPrincipalArn") String iamPrincipalArn,
+                                                         @Param("baseRoleArn") String baseRoleArn,
+                                                         @Param("awsRegion") String awsRegion);
+
     AwsIamRoleKmsKeyRecord getKmsKey(@Param("awsIamRoleId") String awsIamRoleId,
                                      @Param("awsRegion") String awsRegion);
 
@@ -49,10 +57,19 @@ public interface AwsIamRoleMapper {
 
     List<AwsIamRolePermissionRecord> getIamRolePermissions(@Param("safeDepositBoxId") String safeDepositBoxId);
 
+    List<IamPrincipalPermission> getIamRolePermissionsWithArns(@Param("safeDepositBoxId") String safeDepositBoxId);
+
     int deleteIamRolePermissions(@Param("safeDepositBoxId") String safeDepositBoxId);
 
     int updateIamRoleKmsKey(@Param("record") AwsIamRoleKmsKeyRecord record);
 
+    List<AwsIamRoleKmsKeyRecord> getAllKmsKeys();
+
+    int countKmsKeyReferences(@Param("awsKmsKeyId") String awsKmsKeyId);
+
+    List<AwsIamRoleKmsKeyRecord> getKmsKeysLastValidatedBefore(@Param("ids") Collection<String> ids,
+                                                               @Param("lastValidatedTs") OffsetDateTime lastValidatedTs);
+
     List<AwsIamRoleKmsKeyRecord> getInactiveOrOrphanedKmsKeys(@Param("keyInactiveDateTime") OffsetDateTime keyInactiveDateTime);
 
     List<AwsIamRoleRecord> getOrphanedIamRoles();
@@ -60,4 +77,14 @@ public interface AwsIamRoleMapper {
     int deleteIamRoleById(@Param("id") final String id);
 
     int deleteKmsKeyById(@Param("id") final String id);
+
+    AwsKmsKeyPoolRecord getOldestPooledKmsKey(@Param("awsRegion") String awsRegion);
+
+    int countPooledKmsKeys(@Param("awsRegion") String awsRegion);
+
+    List<String> getPooledKmsKeyIds();
+
+    int createPooledKmsKey(@Param("record") AwsKmsKeyPoolRecord record);
+
+    int deletePooledKmsKeyById(@Param("id") final String id);
 }
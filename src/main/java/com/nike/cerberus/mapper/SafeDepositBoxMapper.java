@@ -18,6 +18,7 @@ package com.nike.cerberus.mapper;
 
 import com.nike.cerberus.record.SafeDepositBoxRecord;
 import com.nike.cerberus.record.SafeDepositBoxRoleRecord;
+import com.nike.cerberus.record.UserGroupSafeDepositBoxRoleRecord;
 import org.apache.ibatis.annotations.Param;
 
 import java.util.List;
@@ -30,6 +31,8 @@ public interface SafeDepositBoxMapper {
 
     List<SafeDepositBoxRoleRecord> getUserAssociatedSafeDepositBoxRoles(@Param("userGroups") final Set<String> userGroups);
 
+    List<UserGroupSafeDepositBoxRoleRecord> getAllUserGroupSafeDepositBoxRoles();
+
     List<SafeDepositBoxRoleRecord> getIamRoleAssociatedSafeDepositBoxRoles(@Param("awsIamRoleArn") final String awsIamRoleArn);
 
     List<SafeDepositBoxRecord> getUserAssociatedSafeDepositBoxes(@Param("userGroups") Set<String> userGroups);
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.mapper;
+
+import com.nike.cerberus.record.TokenRevocationRecord;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/**
+ * MyBatis mapper for executing SQL queries related to queued Vault token revocations.
+ */
+public interface TokenRevocationMapper {
+
+    int createTokenRevocationIfBelowLimit(@Param("record") final TokenRevocationRecord record,
+                                          @Param("maxSize") final int maxSize);
+
+    int createTokenRevocation(@Param("record") final TokenRevocationRecord record);
+
+    List<TokenRevocationRecord> getTokenRevocationsDue(@Param("now") final OffsetDateTime now,
+                                                       @Param("limit") final int limit);
+
+    int claimTokenRevocation(@Param("id") final String id,
+                             @Param("expectedNextAttemptTs") final OffsetDateTime expectedNextAttemptTs,
+                             @Param("leaseExpiresTs") final OffsetDateTime leaseExpiresTs);
+
+    int rescheduleTokenRevocation(@Param("id") final String id,
+                                  @Param("nextAttemptTs") final OffsetDateTime nextAttemptTs);
+
+    int abandonTokenRevocation(@Param("id") final String id);
+
+    int deleteTokenRevocation(@Param("id") final String id);
+
+    int deleteExpiredTokenRevocations(@Param("now") final OffsetDateTime now);
+
+    int countUnexpiredTokenRevocationsByHash(@Param("tokenHash") final String tokenHash,
+                                             @Param("now") final OffsetDateTime now);
+
+    int countTokenRevocations();
+
+    OffsetDateTime getOldestTokenRevocationCreatedTs();
+}
@@ -16,10 +16,12 @@
 
 package com.nike.cerberus.mapper;
 
+import com.nike.cerberus.domain.UserGroupPermission;
 import com.nike.cerberus.record.UserGroupPermissionRecord;
 import com.nike.cerberus.record.UserGroupRecord;
 import org.apache.ibatis.annotations.Param;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 
 /**
@@ -45,5 +47,15 @@ public interface UserGroupMapper {
 
     List<UserGroupPermissionRecord> getUserGroupPermissions(@Param("safeDepositBoxId") String safeDepositBoxId);
 
+    List<UserGroupPermission> getUserGroupPermissionsWithNames(@Param("safeDepositBoxId") String safeDepositBoxId);
+
     int deleteUserGroupPermissions(@Param("safeDepositBoxId") String safeDepositBoxId);
+
+    int upsertUserGroupsCacheEviction(@Param("userId") String userId,
+                                      @Param("evictedTs") OffsetDateTime evictedTs);
+
+    OffsetDateTime getLatestUserGroupsCacheEvictionTs(@Param("userId") String userId,
+                                                      @Param("allUsersId") String allUsersId);
+
+    int deleteUserGroupsCacheEvictionsBefore(@Param("evictedTs") OffsetDateTime evictedTs);
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.mapper;
+
+import com.nike.cerberus.record.VaultCompositePolicyRecord;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+/**
+ * MyBatis mapper for executing SQL queries related to composite Vault policies.
+ */
+public interface VaultCompositePolicyMapper {
+
+    int touchCompositePolicy(@Param("name") final String name, @Param("now") final OffsetDateTime now);
+
+    List<VaultCompositePolicyRecord> getCompositePoliciesLastUsedBefore(@Param("cutoff") final OffsetDateTime cutoff);
+
+    String lockCompositePolicyLastUsedBefore(@Param("name") final String name,
+                                             @Param("cutoff") final OffsetDateTime cutoff);
+
+    int deleteCompositePolicy(@Param("name") final String name);
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.record;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * POJO for representing everything IAM principal authentication needs to know about one AWS_IAM_ROLE record: the
+ * role, its KMS key in the authenticating region (if any) and the safe deposit box roles granted to it.
+ */
+public class AwsIamRoleResolutionRecord {
+
+    private String awsIamRoleId;
+
+    private AwsIamRoleRecord awsIamRole;
+
+    private AwsIamRoleKmsKeyRecord kmsKey;
+
+    private List<SafeDepositBoxRoleRecord> safeDepositBoxRoles = new ArrayList<>();
+
+    public String getAwsIamRoleId() {
+        return awsIamRoleId;
+    }
+
+    public AwsIamRoleResolutionRecord setAwsIamRoleId(String awsIamRoleId) {
+        this.awsIamRoleId = awsIamRoleId;
+        return this;
+    }
+
+    public AwsIamRoleRecord getAwsIamRole() {
+        return awsIamRole;
+    }
+
+    public AwsIamRoleResolutionRecord setAwsIamRole(AwsIamRoleRecord awsIamRole) {
+        this.awsIamRole = awsIamRole;
+        return this;
+    }
+
+    public AwsIamRoleKmsKeyRecord getKmsKey() {
+        return kmsKey;
+    }
+
+    public AwsIamRoleResolutionRecord setKmsKey(AwsIamRoleKmsKeyRecord kmsKey) {
+        this.kmsKey = kmsKey;
+        return this;
+    }
+
+    public List<SafeDepositBoxRoleRecord> getSafeDepositBoxRoles() {
+        return safeDepositBoxRoles;
+    }
+
+    public AwsIamRoleResolutionRecord setSafeDepositBoxRoles(List<SafeDepositBoxRoleRecord> safeDepositBoxRoles) {
+        this.safeDepositBoxRoles = safeDepositBoxRoles;
+        return this;
+    }
+}
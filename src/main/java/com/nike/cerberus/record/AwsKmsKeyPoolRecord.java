@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.record;
+
+import java.time.OffsetDateTime;
+import java.util.Objects;
+
+/**
+ * POJO for representing a AWS_KMS_KEY_POOL record.
+ */
+public class AwsKmsKeyPoolRecord {
+
+    private String id;
+
+    private String awsRegion;
+
+    private String awsKmsKeyId;
+
+    private String createdBy;
+
+    private OffsetDateTime createdTs;
+
+    public String getId() {
+        return id;
+    }
+
+    public AwsKmsKeyPoolRecord setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getAwsRegion() {
+        return awsRegion;
+    }
+
+    public AwsKmsKeyPoolRecord setAwsRegion(String awsRegion) {
+        this.awsRegion = awsRegion;
+        return this;
+    }
+
+    public String getAwsKmsKeyId() {
+        return awsKmsKeyId;
+    }
+
+    public AwsKmsKeyPoolRecord setAwsKmsKeyId(String awsKmsKeyId) {
+        this.awsKmsKeyId = awsKmsKeyId;
+        return this;
+    }
+
+    public String getCreatedBy() {
+        return createdBy;
+    }
+
+    public AwsKmsKeyPoolRecord setCreatedBy(String createdBy) {
+        this.createdBy = createdBy;
+        return this;
+    }
+
+    public OffsetDateTime getCreatedTs() {
+        return createdTs;
+    }
+
+    public AwsKmsKeyPoolRecord setCreatedTs(OffsetDateTime createdTs) {
+        this.createdTs = createdTs;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AwsKmsKeyPoolRecord that = (AwsKmsKeyPoolRecord) o;
+        return Objects.equals(id, that.id) &&
+                Objects.equals(awsRegion, that.awsRegion) &&
+                Objects.equals(awsKmsKeyId, that.awsKmsKeyId) &&
+                Objects.equals(createdBy, that.createdBy) &&
+                Objects.equals(createdTs, that.createdTs);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, awsRegion, awsKmsKeyId, createdBy, createdTs);
+    }
+}
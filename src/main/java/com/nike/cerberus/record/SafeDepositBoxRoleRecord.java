@@ -24,6 +24,8 @@ public class SafeDepositBoxRoleRecord {
 
     private String safeDepositBoxName;
 
+    private String safeDepositBoxPath;
+
     private String roleName;
 
     public String getSafeDepositBoxName() {
@@ -35,6 +37,15 @@ public class SafeDepositBoxRoleRecord {
         return this;
     }
 
+    public String getSafeDepositBoxPath() {
+        return safeDepositBoxPath;
+    }
+
+    public SafeDepositBoxRoleRecord setSafeDepositBoxPath(String safeDepositBoxPath) {
+        this.safeDepositBoxPath = safeDepositBoxPath;
+        return this;
+    }
+
     public String getRoleName() {
         return roleName;
     }
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.record;
+
+import java.time.OffsetDateTime;
+import java.util.Objects;
+
+/**
+ * POJO for representing a TOKEN_REVOCATION record.
+ */
+public class TokenRevocationRecord {
+
+    private String id;
+
+    private String tokenHash;
+
+    private String vaultAccessor;
+
+    private int attempts;
+
+    private OffsetDateTime createdTs;
+
+    private OffsetDateTime nextAttemptTs;
+
+    private OffsetDateTime expiresTs;
+
+    public String getId() {
+        return id;
+    }
+
+    public TokenRevocationRecord setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getTokenHash() {
+        return tokenHash;
+    }
+
+    public TokenRevocationRecord setTokenHash(String tokenHash) {
+        this.tokenHash = tokenHash;
+        return this;
+    }
+
+    public String getVaultAccessor() {
+        return vaultAccessor;
+    }
+
+    public TokenRevocationRecord setVaultAccessor(String vaultAccessor) {
+        this.vaultAccessor = vaultAccessor;
+        return this;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public TokenRevocationRecord setAttempts(int attempts) {
+        this.attempts = attempts;
+        return this;
+    }
+
+    public OffsetDateTime getCreatedTs() {
+        return createdTs;
+    }
+
+    public TokenRevocationRecord setCreatedTs(OffsetDateTime createdTs) {
+        this.createdTs = createdTs;
+        return this;
+    }
+
+    public OffsetDateTime getNextAttemptTs() {
+        return nextAttemptTs;
+    }
+
+    public TokenRevocationRecord setNextAttemptTs(OffsetDateTime nextAttemptTs) {
+        this.nextAttemptTs = nextAttemptTs;
+        return this;
+    }
+
+    public OffsetDateTime getExpiresTs() {
+        return expiresTs;
+    }
+
+    public TokenRevocationRecord setExpiresTs(OffsetDateTime expiresTs) {
+        this.expiresTs = expiresTs;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TokenRevocationRecord that = (TokenRevocationRecord) o;
+        return attempts == that.attempts &&
+                Objects.equals(id, that.id) &&
+                Objects.equals(tokenHash, that.tokenHash) &&
+                Objects.equals(vaultAccessor, that.vaultAccessor) &&
+                Objects.equals(createdTs, that.createdTs) &&
+                Objects.equals(nextAttemptTs, that.nextAttemptTs) &&
+                Objects.equals(expiresTs, that.expiresTs);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, tokenHash, vaultAccessor, attempts, createdTs, nextAttemptTs, expiresTs);
+    }
+}
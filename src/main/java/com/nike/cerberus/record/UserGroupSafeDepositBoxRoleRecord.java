@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.record;
+
+/**
+ * POJO for representing the safe deposit box to role association of a single user group.  This is used to build the
+ * in-memory index of the SDB permissions granted to every user group.
+ */
+public class UserGroupSafeDepositBoxRoleRecord {
+
+    private String userGroupName;
+
+    private String safeDepositBoxName;
+
+    private String safeDepositBoxPath;
+
+    private String roleName;
+
+    public String getUserGroupName() {
+        return userGroupName;
+    }
+
+    public UserGroupSafeDepositBoxRoleRecord setUserGroupName(String userGroupName) {
+        this.userGroupName = userGroupName;
+        return this;
+    }
+
+    public String getSafeDepositBoxName() {
+        return safeDepositBoxName;
+    }
+
+    public UserGroupSafeDepositBoxRoleRecord setSafeDepositBoxName(String safeDepositBoxName) {
+        this.safeDepositBoxName = safeDepositBoxName;
+        return this;
+    }
+
+    public String getSafeDepositBoxPath() {
+        return safeDepositBoxPath;
+    }
+
+    public UserGroupSafeDepositBoxRoleRecord setSafeDepositBoxPath(String safeDepositBoxPath) {
+        this.safeDepositBoxPath = safeDepositBoxPath;
+        return this;
+    }
+
+    public String getRoleName() {
+        return roleName;
+    }
+
+    public UserGroupSafeDepositBoxRoleRecord setRoleName(String roleName) {
+        this.roleName = roleName;
+        return this;
+    }
+}
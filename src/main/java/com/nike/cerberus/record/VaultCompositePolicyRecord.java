@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.record;
+
+import java.time.OffsetDateTime;
+import java.util.Objects;
+
+/**
+ * POJO for representing a VAULT_COMPOSITE_POLICY record.
+ */
+public class VaultCompositePolicyRecord {
+
+    private String name;
+
+    private OffsetDateTime createdTs;
+
+    private OffsetDateTime lastUsedTs;
+
+    public String getName() {
+        return name;
+    }
+
+    public VaultCompositePolicyRecord setName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public OffsetDateTime getCreatedTs() {
+        return createdTs;
+    }
+
+    public VaultCompositePolicyRecord setCreatedTs(OffsetDateTime createdTs) {
+        this.createdTs = createdTs;
+        return this;
+    }
+
+    public OffsetDateTime getLastUsedTs() {
+        return lastUsedTs;
+    }
+
+    public VaultCompositePolicyRecord setLastUsedTs(OffsetDateTime lastUsedTs) {
+        this.lastUsedTs = lastUsedTs;
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        VaultCompositePolicyRecord that = (VaultCompositePolicyRecord) o;
+        return Objects.equals(name, that.name) &&
+                Objects.equals(createdTs, that.createdTs) &&
+                Objects.equals(lastUsedTs, that.lastUsedTs);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, createdTs, lastUsedTs);
+    }
+}
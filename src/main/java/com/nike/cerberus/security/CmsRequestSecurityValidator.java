@@ -18,10 +18,9 @@ package com.nike.cerberus.security;
 
 import com.nike.backstopper.exception.ApiException;
 import com.nike.cerberus.error.DefaultApiError;
-import com.nike.vault.client.VaultAdminClient;
+import com.nike.cerberus.vault.VaultTokenLookupClient;
 import com.nike.vault.client.VaultClientException;
 import com.nike.vault.client.VaultServerException;
-import com.nike.vault.client.model.VaultClientTokenResponse;
 import com.nike.riposte.server.error.validation.RequestSecurityValidator;
 import com.nike.riposte.server.http.RequestInfo;
 import com.nike.riposte.server.http.Endpoint;
@@ -33,10 +32,18 @@ import javax.ws.rs.core.SecurityContext;
 import java.net.URI;
 import java.util.Collection;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
 
 /**
  * Request validator responsible for validating that the X-Vault-Token header is present and valid.
  * The client token entity will also be placed in the request context to be referenced downstream.
+ * <p>
+ * Riposte's {@link RequestSecurityValidator} contract is synchronous: the validator returns void and the endpoint runs
+ * as soon as it returns without throwing, so there is no way to hand Riposte a pending Vault lookup.  The validator
+ * therefore still runs off the Netty worker thread and a cache miss holds that thread for one Vault round trip.  What
+ * it does avoid is a Vault call per request: lookups go through the {@link VaultTokenCache}, which answers a hit with
+ * an already completed future, so only cache misses wait on Vault.  A fully non-blocking validator needs an
+ * asynchronous security validation hook in Riposte.
  */
 public class CmsRequestSecurityValidator implements RequestSecurityValidator {
 
@@ -48,12 +55,16 @@ public class CmsRequestSecurityValidator implements RequestSecurityValidator {
 
     private final Collection<Endpoint<?>> endpointsToValidate;
 
-    private final VaultAdminClient vaultAdminClient;
+    private final VaultTokenLookupClient vaultTokenLookupClient;
+
+    private final VaultTokenCache vaultTokenCache;
 
     public CmsRequestSecurityValidator(final Collection<Endpoint<?>> endpointsToValidate,
-                                       final VaultAdminClient vaultAdminClient) {
+                                       final VaultTokenLookupClient vaultTokenLookupClient,
+                                       final VaultTokenCache vaultTokenCache) {
         this.endpointsToValidate = endpointsToValidate;
-        this.vaultAdminClient = vaultAdminClient;
+        this.vaultTokenLookupClient = vaultTokenLookupClient;
+        this.vaultTokenCache = vaultTokenCache;
         this.endpointsToValidate.forEach(endpoint -> log.info("auth protected: {}", endpoint.getClass().getName()));
     }
 
@@ -65,24 +76,34 @@ public class CmsRequestSecurityValidator implements RequestSecurityValidator {
             throw new ApiException(DefaultApiError.AUTH_VAULT_TOKEN_INVALID);
         }
 
+        final VaultAuthPrincipal principal;
         try {
-            final VaultClientTokenResponse clientTokenResponse = vaultAdminClient.lookupToken(vaultToken);
-
-            final VaultAuthPrincipal principal = new VaultAuthPrincipal(clientTokenResponse);
-            final VaultSecurityContext securityContext = new VaultSecurityContext(principal,
-                    URI.create(requestInfo.getUri()).getScheme());
-            requestInfo.addRequestAttribute(SECURITY_CONTEXT_ATTR_KEY, securityContext);
-        } catch (VaultServerException vse) {
-            throw ApiException.newBuilder()
+            principal = vaultTokenCache.get(vaultToken, vaultTokenLookupClient::lookupToken).join();
+        } catch (CompletionException ce) {
+            throw toApiException(ce.getCause() != null ? ce.getCause() : ce);
+        }
+
+        final VaultSecurityContext securityContext = new VaultSecurityContext(principal,
+                URI.create(requestInfo.getUri()).getScheme());
+        requestInfo.addRequestAttribute(SECURITY_CONTEXT_ATTR_KEY, securityContext);
+    }
+
+    private RuntimeException toApiException(final Throwable throwable) {
+        if (throwable instanceof VaultServerException
+                && VaultTokenCache.isInvalidTokenResponse((VaultServerException) throwable)) {
+            return ApiException.newBuilder()
                     .withApiErrors(DefaultApiError.AUTH_VAULT_TOKEN_INVALID)
-                    .withExceptionCause(vse)
+                    .withExceptionCause(throwable)
                     .build();
-        } catch (VaultClientException vce) {
-            throw ApiException.newBuilder()
+        } else if (throwable instanceof VaultServerException || throwable instanceof VaultClientException) {
+            return ApiException.newBuilder()
                     .withApiErrors(DefaultApiError.SERVICE_UNAVAILABLE)
-                    .withExceptionCause(vce)
+                    .withExceptionCause(throwable)
                     .build();
+        } else if (throwable instanceof RuntimeException) {
+            return (RuntimeException) throwable;
         }
+        return new CompletionException(throwable);
     }
 
     @Override
@@ -97,6 +118,9 @@ public class CmsRequestSecurityValidator implements RequestSecurityValidator {
      * just doing the work on the Netty worker thread. <b>Bottom line: This is affected heavily by numerous factors and
      * your specific use case - you should test under high load with this turned on and off for your security validator
      * and see which one causes better behavior.</b>
+     * <p>
+     * Always false because a cache miss waits for a Vault round trip, which must never happen on a Netty worker
+     * thread.  Riposte asks once per validator rather than per request, so cache hits cannot be special cased.
      */
     @Override
     public boolean isFastEnoughToRunOnNettyWorkerThread() {
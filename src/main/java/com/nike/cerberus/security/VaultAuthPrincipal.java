@@ -67,8 +67,18 @@ public class VaultAuthPrincipal implements Principal {
 
     private final Integer tokenRefreshCount;
 
+    private final String accessor;
+
+    private final long ttlSeconds;
+
     public VaultAuthPrincipal(VaultClientTokenResponse clientToken) {
+        this(clientToken, null, 0);
+    }
+
+    public VaultAuthPrincipal(VaultClientTokenResponse clientToken, String accessor, long ttlSeconds) {
         this.clientToken = clientToken;
+        this.accessor = accessor;
+        this.ttlSeconds = ttlSeconds;
         this.roles = buildRoles(clientToken);
         this.userGroupSet = extractUserGroups(clientToken);
         this.username = extractUsername(clientToken);
@@ -148,4 +158,18 @@ public class VaultAuthPrincipal implements Principal {
     public Integer getTokenRefreshCount() {
         return tokenRefreshCount;
     }
+
+    /**
+     * @return Accessor of the token, null if it is unknown or the token has none, such as a batch token
+     */
+    public String getAccessor() {
+        return accessor;
+    }
+
+    /**
+     * @return Seconds the token had left when it was looked up, zero if unknown or the token never expires
+     */
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
 }
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.security;
+
+import com.codahale.metrics.Counter;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.collect.Lists;
+import com.nike.cerberus.service.TokenRevocationQueue;
+import com.nike.cerberus.vault.VaultTokenLookupResponse;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import com.nike.vault.client.VaultServerException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.HttpStatus;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of Vault token lookups, keyed by a SHA-256 hash of the token so raw tokens are never held as keys.
+ * Valid tokens are cached until the configured ceiling or until the token expires, whichever comes first, so a token is
+ * never honored past its TTL.  Invalid tokens are negatively cached for a much shorter period so that a client
+ * retrying with a bad token does not cost a Vault round trip per request.  Other Vault errors, such as a 503 from a
+ * sealed Vault, are never cached.
+ * <p>
+ * A logout denies the token here, for the maximum batch token TTL, and stores it in the {@link TokenRevocationQueue},
+ * queued for revocation for service tokens and as a plain deny entry for batch tokens, which Vault cannot revoke.
+ * Every lookup that misses the cache checks the queue, so other nodes reject the token as soon as their cached entry
+ * for it expires.
+ */
+@Singleton
+public class VaultTokenCache {
+
+    public static final String MAX_SIZE_PROPERTY = "cms.auth.token.cache.maxSize";
+
+    public static final String TTL_CEILING_SECONDS_PROPERTY = "cms.auth.token.cache.ttlCeilingSeconds";
+
+    public static final String NEGATIVE_TTL_SECONDS_PROPERTY = "cms.auth.token.cache.negativeTtlSeconds";
+
+    public static final String BATCH_TOKEN_MAX_TTL_SECONDS_PROPERTY = "cms.iam.token.batch.maxTtlSeconds";
+
+    public static final String METRIC_HIT = "cms.auth.token.cache.hit";
+
+    public static final String METRIC_MISS = "cms.auth.token.cache.miss";
+
+    public static final String METRIC_EVICTION = "cms.auth.token.cache.eviction";
+
+    private final Cache<String, CachedLookup> cache;
+
+    private final Cache<String, Boolean> deniedTokens;
+
+    private final TokenRevocationQueue tokenRevocationQueue;
+
+    private final Ticker ticker;
+
+    private final long ttlCeilingNanos;
+
+    private final long negativeTtlNanos;
+
+    private final Counter hitCounter;
+
+    private final Counter missCounter;
+
+    private final Counter evictionCounter;
+
+    @Inject
+    public VaultTokenCache(@Named(MAX_SIZE_PROPERTY) final long maxSize,
+                           @Named(TTL_CEILING_SECONDS_PROPERTY) final long ttlCeilingSeconds,
+                           @Named(NEGATIVE_TTL_SECONDS_PROPERTY) final long negativeTtlSeconds,
+                           @Named(BATCH_TOKEN_MAX_TTL_SECONDS_PROPERTY) final long batchTokenMaxTtlSeconds,
+                           final TokenRevocationQueue tokenRevocationQueue,
+                           final CodahaleMetricsCollector metricsCollector) {
+        this(maxSize, ttlCeilingSeconds, negativeTtlSeconds, batchTokenMaxTtlSeconds, tokenRevocationQueue,
+                metricsCollector, Ticker.systemTicker());
+    }
+
+    VaultTokenCache(final long maxSize,
+                    final long ttlCeilingSeconds,
+                    final long negativeTtlSeconds,
+                    final long batchTokenMaxTtlSeconds,
+                    final TokenRevocationQueue tokenRevocationQueue,
+                    final CodahaleMetricsCollector metricsCollector,
+                    final Ticker ticker) {
+        this.tokenRevocationQueue = tokenRevocationQueue;
+        this.ticker = ticker;
+        this.ttlCeilingNanos = TimeUnit.SECONDS.toNanos(ttlCeilingSeconds);
+        this.negativeTtlNanos = TimeUnit.SECONDS.toNanos(negativeTtlSeconds);
+        this.hitCounter = metricsCollector.getNamedCounter(METRIC_HIT);
+        this.missCounter = metricsCollector.getNamedCounter(METRIC_MISS);
+        this.evictionCounter = metricsCollector.getNamedCounter(METRIC_EVICTION);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlCeilingSeconds, TimeUnit.SECONDS)
+                .ticker(ticker)
+                .removalListener(notification -> {
+                    if (notification.getCause() != RemovalCause.REPLACED) {
+                        evictionCounter.inc();
+                    }
+                })
+                .build();
+        this.deniedTokens = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(batchTokenMaxTtlSeconds, TimeUnit.SECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Returns the principal for the given token, only calling the lookup function when the token is not cached.
+     * On a hit the returned future is already complete.
+     *
+     * @param vaultToken The client supplied Vault token
+     * @param lookup     Function that asynchronously looks the token up in Vault
+     * @return Future for the principal of the token, completed exceptionally with a {@link VaultServerException} if
+     * Vault rejected the token, either now or within the negative cache period, the token has been revoked, or Vault
+     * failed to look it up
+     */
+    public CompletableFuture<VaultAuthPrincipal> get(final String vaultToken,
+                                                     final Function<String, CompletableFuture<VaultTokenLookupResponse>> lookup) {
+        final String key = hash(vaultToken);
+        if (isDenied(key)) {
+            hitCounter.inc();
+            final CompletableFuture<VaultAuthPrincipal> denied = new CompletableFuture<>();
+            denied.completeExceptionally(deniedTokenException());
+            return denied;
+        }
+
+        final CachedLookup cached = cache.getIfPresent(key);
+
+        if (cached != null && !cached.isExpired(ticker.read())) {
+            hitCounter.inc();
+            return cached.toFuture();
+        }
+
+        missCounter.inc();
+        return lookup.apply(vaultToken).handle((lookupResponse, throwable) -> {
+            if (throwable == null) {
+                // the token may have been revoked while it was being looked up, or on another node
+                if (isDenied(key) || tokenRevocationQueue.isRevoked(vaultToken)) {
+                    throw deniedTokenException();
+                }
+                final VaultAuthPrincipal principal = new VaultAuthPrincipal(lookupResponse.getClientToken(),
+                        lookupResponse.getAccessor(), lookupResponse.getTtlSeconds());
+                cache.put(key, new CachedLookup(principal, null, ticker.read() + ttlNanos(lookupResponse)));
+                return principal;
+            }
+
+            final Throwable cause = unwrap(throwable);
+            if (cause instanceof VaultServerException && isInvalidTokenResponse((VaultServerException) cause)) {
+                cache.put(key, new CachedLookup(null, (VaultServerException) cause, ticker.read() + negativeTtlNanos));
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new CompletionException(cause);
+        });
+    }
+
+    /**
+     * Removes the given token from the cache, used when a token is revoked so it stops being honored immediately.
+     *
+     * @param vaultToken The Vault token to evict
+     */
+    public void evict(final String vaultToken) {
+        cache.invalidate(hash(vaultToken));
+    }
+
+    /**
+     * Rejects the given token on this node until the maximum batch token TTL has passed, used for batch tokens that
+     * Vault cannot revoke and for tokens whose revocation is queued.
+     *
+     * @param vaultToken The Vault token to deny
+     */
+    public void deny(final String vaultToken) {
+        final String key = hash(vaultToken);
+        deniedTokens.put(key, Boolean.TRUE);
+        cache.invalidate(key);
+    }
+
+    /**
+     * @param vse Error response from a Vault token lookup
+     * @return True if Vault rejected the token itself, false if the lookup failed for any other reason
+     */
+    public static boolean isInvalidTokenResponse(final VaultServerException vse) {
+        return vse.getCode() == HttpStatus.SC_BAD_REQUEST || vse.getCode() == HttpStatus.SC_FORBIDDEN;
+    }
+
+    /**
+     * @return How long a looked up token may be cached, the ceiling or the token's remaining TTL if that is shorter
+     */
+    private long ttlNanos(final VaultTokenLookupResponse lookupResponse) {
+        final long ttlSeconds = lookupResponse.getTtlSeconds();
+        return ttlSeconds > 0 ? Math.min(TimeUnit.SECONDS.toNanos(ttlSeconds), ttlCeilingNanos) : ttlCeilingNanos;
+    }
+
+    private boolean isDenied(final String key) {
+        return deniedTokens.getIfPresent(key) != null;
+    }
+
+    private static VaultServerException deniedTokenException() {
+        return new VaultServerException(HttpStatus.SC_FORBIDDEN, Lists.newArrayList("permission denied"));
+    }
+
+    private static Throwable unwrap(final Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+    }
+
+    private static String hash(final String vaultToken) {
+        return DigestUtils.sha256Hex(vaultToken);
+    }
+
+    /**
+     * Either a successfully resolved principal or the exception Vault returned for an invalid token.
+     */
+    private static final class CachedLookup {
+
+        private final VaultAuthPrincipal principal;
+
+        private final VaultServerException failure;
+
+        private final long expiresAtNanos;
+
+        private CachedLookup(final VaultAuthPrincipal principal,
+                             final VaultServerException failure,
+                             final long expiresAtNanos) {
+            this.principal = principal;
+            this.failure = failure;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        private boolean isExpired(final long nowNanos) {
+            return nowNanos - expiresAtNanos >= 0;
+        }
+
+        private CompletableFuture<VaultAuthPrincipal> toFuture() {
+            final CompletableFuture<VaultAuthPrincipal> future = new CompletableFuture<>();
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(principal);
+            }
+            return future;
+        }
+    }
+}
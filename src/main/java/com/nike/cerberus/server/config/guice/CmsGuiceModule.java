@@ -23,10 +23,12 @@ import com.nike.backstopper.apierror.projectspecificinfo.ProjectApiErrors;
 import com.nike.cerberus.config.CmsEnvPropertiesLoader;
 import com.nike.cerberus.endpoints.HealthCheckEndpoint;
 import com.nike.cerberus.endpoints.admin.CleanUpInactiveOrOrphanedRecords;
+import com.nike.cerberus.endpoints.admin.EvictUserGroupsCache;
 import com.nike.cerberus.endpoints.admin.GetSDBMetadata;
 import com.nike.cerberus.endpoints.admin.PutSDBMetadata;
 import com.nike.cerberus.endpoints.authentication.AuthenticateIamRole;
 import com.nike.cerberus.endpoints.authentication.AuthenticateIamPrincipal;
+import com.nike.cerberus.endpoints.authentication.AuthenticateIamPrincipalV3;
 import com.nike.cerberus.endpoints.authentication.AuthenticateUser;
 import com.nike.cerberus.endpoints.authentication.MfaCheck;
 import com.nike.cerberus.endpoints.authentication.RefreshUserToken;
@@ -47,10 +49,16 @@ import com.nike.cerberus.endpoints.sdb.UpdateSafeDepositBoxV1;
 import com.nike.cerberus.endpoints.sdb.UpdateSafeDepositBoxV2;
 import com.nike.cerberus.error.DefaultApiErrorsImpl;
 import com.nike.cerberus.auth.connector.AuthConnector;
+import com.nike.cerberus.auth.connector.GroupCachingAuthConnector;
+import com.nike.cerberus.aws.KmsClientSettings;
 import com.nike.cerberus.security.CmsRequestSecurityValidator;
+import com.nike.cerberus.security.VaultTokenCache;
+import com.nike.cerberus.service.KmsKeyPoolService;
+import com.nike.cerberus.service.TokenRevocationQueue;
 import com.nike.cerberus.util.UuidSupplier;
 import com.nike.cerberus.vault.CmsVaultCredentialsProvider;
 import com.nike.cerberus.vault.CmsVaultUrlResolver;
+import com.nike.cerberus.vault.VaultTokenLookupClient;
 import com.nike.vault.client.ClientVersion;
 import com.nike.vault.client.UrlResolver;
 import com.nike.vault.client.VaultAdminClient;
@@ -73,6 +81,8 @@ import com.google.inject.Provides;
 import com.typesafe.config.Config;
 
 import com.typesafe.config.ConfigValueFactory;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -83,6 +93,7 @@ import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import javax.inject.Named;
@@ -92,6 +103,10 @@ import javax.validation.Validator;
 
 public class CmsGuiceModule extends AbstractModule {
 
+    public static final String VAULT_HTTP_CLIENT_NAME = "VaultHttpClient";
+
+    private static final int VAULT_HTTP_TIMEOUT_SECONDS = 15;
+
     private static final String KMS_KEY_ID_KEY = "CONFIG_KEY_ID";
 
     private static final String REGION_KEY = "EC2_REGION";
@@ -122,14 +137,18 @@ public class CmsGuiceModule extends AbstractModule {
         bind(UrlResolver.class).to(CmsVaultUrlResolver.class);
         bind(VaultCredentialsProvider.class).to(CmsVaultCredentialsProvider.class);
         bind(ObjectMapper.class).toInstance(objectMapper);
+        bind(KmsKeyPoolService.class).asEagerSingleton();
+        bind(TokenRevocationQueue.class).asEagerSingleton();
 
         String className = this.appConfig.getString(AUTH_CONNECTOR_IMPL_KEY);
         try
         {
             Class<?> clazz = Class.forName(className);
             bind(AuthConnector.class)
+                    .annotatedWith(Names.named(GroupCachingAuthConnector.DELEGATE))
                     .to(clazz.asSubclass(AuthConnector.class))
                     .asEagerSingleton();
+            bind(AuthConnector.class).to(GroupCachingAuthConnector.class);
         } catch(ClassNotFoundException nfe) {
             throw new IllegalArgumentException("invalid class: " + className, nfe);
         } catch(ClassCastException cce) {
@@ -173,6 +192,7 @@ public class CmsGuiceModule extends AbstractModule {
             RefreshUserToken refreshUserToken,
             AuthenticateIamRole authenticateIamRole,
             AuthenticateIamPrincipal authenticateIamPrincipal,
+            AuthenticateIamPrincipalV3 authenticateIamPrincipalV3,
             RevokeToken revokeToken,
             GetAllRoles getAllRoles,
             GetRole getRole,
@@ -186,17 +206,18 @@ public class CmsGuiceModule extends AbstractModule {
             CreateSafeDepositBoxV2 createSafeDepositBoxV2,
             GetSDBMetadata getSDBMetadata,
             PutSDBMetadata putSDBMetadata,
-            CleanUpInactiveOrOrphanedRecords cleanUpInactiveOrOrphanedRecords
+            CleanUpInactiveOrOrphanedRecords cleanUpInactiveOrOrphanedRecords,
+            EvictUserGroupsCache evictUserGroupsCache
     ) {
         return new LinkedHashSet<>(Arrays.<Endpoint<?>>asList(
                 healthCheckEndpoint,
                 // Cerberus endpoints
                 getAllCategories, getCategory, createCategory, deleteCategory,
-                authenticateUser, authenticateIamPrincipal, mfaCheck, refreshUserToken, authenticateIamRole, revokeToken,
+                authenticateUser, authenticateIamPrincipal, authenticateIamPrincipalV3, mfaCheck, refreshUserToken, authenticateIamRole, revokeToken,
                 getAllRoles, getRole,
                 getSafeDepositBoxes, getSafeDepositBoxV1, getSafeDepositBoxV2,
                 deleteSafeDepositBox, updateSafeDepositBoxV1, updateSafeDepositBoxV2, createSafeDepositBoxV1, createSafeDepositBoxV2,
-                getSDBMetadata, putSDBMetadata, cleanUpInactiveOrOrphanedRecords
+                getSDBMetadata, putSDBMetadata, cleanUpInactiveOrOrphanedRecords, evictUserGroupsCache
         ));
     }
 
@@ -270,6 +291,12 @@ public class CmsGuiceModule extends AbstractModule {
         return new UuidSupplier();
     }
 
+    @Singleton
+    @Provides
+    public KmsClientSettings kmsClientSettings() {
+        return new KmsClientSettings(appConfig);
+    }
+
     /**
      * Binds a Vault admin client to the Guice context.  The expectation is that the VAULT_ADDR and VAULT_TOKEN
      * properties have been set and are accessible, otherwise it will attempt to fail fast.
@@ -285,6 +312,28 @@ public class CmsGuiceModule extends AbstractModule {
         return VaultClientFactory.getAdminClient(urlResolver, vaultCredentialsProvider, vaultMaxRequestsPerHost);
     }
 
+    /**
+     * Binds the OkHttp client used by CMS's own Vault clients (token lookup, batch tokens), sized like the Vault admin
+     * client and kept apart from the IdP client so that neither can starve the other of connections.
+     *
+     * @return OkHttp client for Vault
+     */
+    @Provides
+    @Singleton
+    @Named(VAULT_HTTP_CLIENT_NAME)
+    public OkHttpClient vaultHttpClient(@Named("vault.maxRequestsPerHost") int vaultMaxRequestsPerHost) {
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(vaultMaxRequestsPerHost);
+        dispatcher.setMaxRequestsPerHost(vaultMaxRequestsPerHost);
+
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectTimeout(VAULT_HTTP_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .writeTimeout(VAULT_HTTP_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .readTimeout(VAULT_HTTP_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
     @Provides
     @Singleton
     @Named("authProtectedEndpoints")
@@ -293,15 +342,17 @@ public class CmsGuiceModule extends AbstractModule {
                 || i instanceof AuthenticateUser
                 || i instanceof MfaCheck
                 || i instanceof AuthenticateIamRole
-                || i instanceof AuthenticateIamPrincipal)).collect(Collectors.toList());
+                || i instanceof AuthenticateIamPrincipal
+                || i instanceof AuthenticateIamPrincipalV3)).collect(Collectors.toList());
     }
 
     @Provides
     @Singleton
     public CmsRequestSecurityValidator authRequestSecurityValidator(
             @Named("authProtectedEndpoints") List<Endpoint<?>> authProtectedEndpoints,
-            VaultAdminClient vaultAdminClient) {
-        return new CmsRequestSecurityValidator(authProtectedEndpoints, vaultAdminClient);
+            VaultTokenLookupClient vaultTokenLookupClient,
+            VaultTokenCache vaultTokenCache) {
+        return new CmsRequestSecurityValidator(authProtectedEndpoints, vaultTokenLookupClient, vaultTokenCache);
     }
 
     @Provides
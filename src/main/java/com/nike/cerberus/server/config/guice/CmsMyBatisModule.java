@@ -16,7 +16,7 @@
 
 package com.nike.cerberus.server.config.guice;
 
-import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import com.nike.cerberus.util.AfterCommitJdbcTransactionFactory;
 import org.mybatis.guice.MyBatisModule;
 import org.mybatis.guice.datasource.c3p0.C3p0DataSourceProvider;
 
@@ -28,7 +28,7 @@ public class CmsMyBatisModule extends MyBatisModule {
     @Override
     protected void initialize() {
         bindDataSourceProviderType(C3p0DataSourceProvider.class);
-        bindTransactionFactoryType(JdbcTransactionFactory.class);
+        bindTransactionFactoryType(AfterCommitJdbcTransactionFactory.class);
 
         addSimpleAliases("com.nike.cerberus.record");
         addMapperClasses("com.nike.cerberus.mapper");
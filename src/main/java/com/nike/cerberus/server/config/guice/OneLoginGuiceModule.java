@@ -6,6 +6,7 @@ import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 
 import javax.inject.Named;
@@ -23,6 +24,11 @@ public class OneLoginGuiceModule extends AbstractModule {
 
     private static final TimeUnit DEFAULT_TIMEOUT_UNIT = TimeUnit.SECONDS;
 
+    /**
+     * Limit on concurrent asynchronous calls, OkHttp defaults to 5 per host and all OneLogin calls go to one host
+     */
+    private static final int DEFAULT_MAX_ASYNC_REQUESTS = 64;
+
     @Override
     protected void configure() {
     }
@@ -45,7 +51,12 @@ public class OneLoginGuiceModule extends AbstractModule {
     @Provides
     @Singleton
     public OkHttpClient getOkHttpClient() {
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(DEFAULT_MAX_ASYNC_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(DEFAULT_MAX_ASYNC_REQUESTS);
+
         return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
                 .connectTimeout(DEFAULT_TIMEOUT, DEFAULT_TIMEOUT_UNIT)
                 .writeTimeout(DEFAULT_TIMEOUT, DEFAULT_TIMEOUT_UNIT)
                 .readTimeout(DEFAULT_TIMEOUT, DEFAULT_TIMEOUT_UNIT)
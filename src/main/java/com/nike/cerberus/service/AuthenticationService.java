@@ -25,8 +25,11 @@ import com.amazonaws.services.kms.model.EncryptRequest;
 import com.amazonaws.services.kms.model.EncryptResult;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
@@ -34,13 +37,16 @@ import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import com.nike.backstopper.exception.ApiException;
 import com.nike.cerberus.auth.connector.AuthConnector;
+import com.nike.cerberus.auth.connector.AuthConnectorExecutor;
 import com.nike.cerberus.auth.connector.AuthData;
 import com.nike.cerberus.auth.connector.AuthResponse;
 import com.nike.cerberus.auth.connector.AuthStatus;
 import com.nike.cerberus.aws.KmsClientFactory;
-import com.nike.cerberus.dao.AwsIamRoleDao;
+import com.nike.cerberus.aws.KmsDataKeyCache;
 import com.nike.cerberus.dao.SafeDepositBoxDao;
+import com.nike.cerberus.domain.AuthPayloadEncoding;
 import com.nike.cerberus.domain.IamRoleAuthResponse;
+import com.nike.cerberus.domain.IamRoleAuthResponseV3;
 import com.nike.cerberus.domain.IamRoleCredentials;
 import com.nike.cerberus.domain.IamPrincipalCredentials;
 import com.nike.cerberus.domain.MfaCheckRequest;
@@ -48,29 +54,45 @@ import com.nike.cerberus.domain.UserCredentials;
 import com.nike.cerberus.error.DefaultApiError;
 import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
 import com.nike.cerberus.record.AwsIamRoleRecord;
+import com.nike.cerberus.record.AwsIamRoleResolutionRecord;
 import com.nike.cerberus.record.SafeDepositBoxRoleRecord;
 import com.nike.cerberus.security.VaultAuthPrincipal;
+import com.nike.cerberus.security.VaultTokenCache;
 import com.nike.cerberus.util.AwsIamRoleArnParser;
 import com.nike.cerberus.util.DateTimeSupplier;
+import com.nike.cerberus.util.VaultDurations;
+import com.nike.cerberus.vault.VaultBatchTokenClient;
+import com.nike.riposte.util.AsyncNettyHelper;
 import com.nike.vault.client.VaultAdminClient;
 import com.nike.vault.client.VaultServerException;
 import com.nike.vault.client.model.VaultAuthResponse;
 import com.nike.vault.client.model.VaultTokenAuthRequest;
+import com.nike.wingtips.Span;
+import com.nike.wingtips.Tracer;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.time.OffsetDateTime;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import static com.nike.cerberus.util.AwsIamRoleArnParser.AWS_IAM_ROLE_ARN_TEMPLATE;
 
@@ -88,21 +110,58 @@ public class AuthenticationService {
     public static final String ADMIN_IAM_ROLES_PROPERTY = "cms.admin.roles";
     public static final String USER_TOKEN_TTL_OVERRIDE = "cms.user.token.ttl.override";
     public static final String IAM_TOKEN_TTL_OVERRIDE = "cms.iam.token.ttl.override";
+    public static final String IAM_TOKEN_TYPE_OVERRIDE = "cms.iam.token.type.override";
+    public static final String SERVICE_TOKEN_TYPE = "service";
+    public static final String BATCH_TOKEN_TYPE = "batch";
     public static final String LOOKUP_SELF_POLICY = "lookup-self";
     public static final String DEFAULT_TOKEN_TTL = "1h";
+    public static final long DEFAULT_BATCH_TOKEN_MAX_TTL_SECONDS = 900;
     public static final int KMS_SIZE_LIMIT = 4096;
 
+    /**
+     * Vault 1.0 to 1.9 and Vault 1.10+ batch token prefixes
+     */
+    private static final String[] BATCH_TOKEN_PREFIXES = {"b.", "hvb."};
+
+    private static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final int GCM_IV_LENGTH_BYTES = 12;
+
+    private static final int GCM_TAG_LENGTH_BITS = 128;
+
+    /**
+     * IAM principal authentication stages, see {@link IamAuthenticationExecutors}
+     */
+    private static final String STAGE_RESOLVE = "resolve";
+    private static final String STAGE_KMS_KEY = "kmsKey";
+    private static final String STAGE_POLICIES = "policies";
+    private static final String STAGE_TOKEN = "token";
+    private static final String STAGE_DATA_KEY = "dataKey";
+    private static final String STAGE_ENCRYPT = "encrypt";
+
     private final SafeDepositBoxDao safeDepositBoxDao;
-    private final AwsIamRoleDao awsIamRoleDao;
+    private final AwsIamRoleRecordCache awsIamRoleRecordCache;
     private final AuthConnector authServiceConnector;
+
+    private final AuthConnectorExecutor authConnectorExecutor;
     private final KmsService kmsService;
     private final KmsClientFactory kmsClientFactory;
     private final VaultAdminClient vaultAdminClient;
-    private final VaultPolicyService vaultPolicyService;
     private final ObjectMapper objectMapper;
+    private final ObjectWriter compactObjectWriter;
     private final String adminGroup;
     private final DateTimeSupplier dateTimeSupplier;
     private final AwsIamRoleArnParser awsIamRoleArnParser;
+    private final VaultTokenCache vaultTokenCache;
+    private final IamPrincipalPolicyCache iamPrincipalPolicyCache;
+    private final KmsKeyPolicyValidationService kmsKeyPolicyValidationService;
+    private final KmsDataKeyCache kmsDataKeyCache;
+    private final VaultBatchTokenClient vaultBatchTokenClient;
+    private final VaultCompositePolicyService vaultCompositePolicyService;
+    private final IamAuthenticationExecutors iamAuthenticationExecutors;
+    private final UserGroupPolicyIndex userGroupPolicyIndex;
+    private final TokenRevocationQueue tokenRevocationQueue;
+    private final SecureRandom secureRandom = new SecureRandom();
 
     @Inject(optional=true)
     @Named(ADMIN_IAM_ROLES_PROPERTY)
@@ -118,34 +177,72 @@ public class AuthenticationService {
     @Named(IAM_TOKEN_TTL_OVERRIDE)
     String iamTokenTTL = DEFAULT_TOKEN_TTL;
 
+    /**
+     * The type of Vault token issued to IAM principals, 'service' or 'batch'.  Batch tokens are not persisted by Vault
+     * but cannot be revoked.  A logout stores the batch token in the DB deny list, see
+     * {@link TokenRevocationQueue#deny(String, long)}, which every CMS node checks when the token is not in its cache.
+     * A node that already cached the token honors it for up to its cache TTL ceiling, and the deny rows grow with
+     * logouts, so batch token TTLs are capped at {@link #batchTokenMaxTtlSeconds}.
+     */
+    @Inject(optional=true)
+    @Named(IAM_TOKEN_TYPE_OVERRIDE)
+    String iamTokenType = SERVICE_TOKEN_TYPE;
+
+    @Inject(optional=true)
+    @Named(VaultTokenCache.BATCH_TOKEN_MAX_TTL_SECONDS_PROPERTY)
+    long batchTokenMaxTtlSeconds = DEFAULT_BATCH_TOKEN_MAX_TTL_SECONDS;
+
     private final int maxTokenRefreshCount;
 
+    private final IamPrincipalTokenCache iamPrincipalTokenCache;
+
     @Inject
     public AuthenticationService(final SafeDepositBoxDao safeDepositBoxDao,
-                                 final AwsIamRoleDao awsIamRoleDao,
+                                 final AwsIamRoleRecordCache awsIamRoleRecordCache,
                                  final AuthConnector authConnector,
+                                 final AuthConnectorExecutor authConnectorExecutor,
                                  final KmsService kmsService,
                                  final KmsClientFactory kmsClientFactory,
                                  final VaultAdminClient vaultAdminClient,
-                                 final VaultPolicyService vaultPolicyService,
                                  final ObjectMapper objectMapper,
                                  @Named(ADMIN_GROUP_PROPERTY) final String adminGroup,
                                  @Named(MAX_TOKEN_REFRESH_COUNT) final int maxTokenRefreshCount,
                                  final DateTimeSupplier dateTimeSupplier,
-                                 final AwsIamRoleArnParser awsIamRoleArnParser) {
+                                 final AwsIamRoleArnParser awsIamRoleArnParser,
+                                 final VaultTokenCache vaultTokenCache,
+                                 final IamPrincipalPolicyCache iamPrincipalPolicyCache,
+                                 final KmsKeyPolicyValidationService kmsKeyPolicyValidationService,
+                                 final KmsDataKeyCache kmsDataKeyCache,
+                                 final IamPrincipalTokenCache iamPrincipalTokenCache,
+                                 final VaultBatchTokenClient vaultBatchTokenClient,
+                                 final VaultCompositePolicyService vaultCompositePolicyService,
+                                 final IamAuthenticationExecutors iamAuthenticationExecutors,
+                                 final UserGroupPolicyIndex userGroupPolicyIndex,
+                                 final TokenRevocationQueue tokenRevocationQueue) {
 
         this.safeDepositBoxDao = safeDepositBoxDao;
-        this.awsIamRoleDao = awsIamRoleDao;
+        this.awsIamRoleRecordCache = awsIamRoleRecordCache;
         this.authServiceConnector = authConnector;
+        this.authConnectorExecutor = authConnectorExecutor;
         this.kmsService = kmsService;
         this.kmsClientFactory = kmsClientFactory;
         this.vaultAdminClient = vaultAdminClient;
-        this.vaultPolicyService = vaultPolicyService;
         this.objectMapper = objectMapper;
+        this.compactObjectWriter = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
         this.adminGroup = adminGroup;
         this.dateTimeSupplier = dateTimeSupplier;
         this.awsIamRoleArnParser = awsIamRoleArnParser;
         this.maxTokenRefreshCount = maxTokenRefreshCount;
+        this.vaultTokenCache = vaultTokenCache;
+        this.iamPrincipalPolicyCache = iamPrincipalPolicyCache;
+        this.kmsKeyPolicyValidationService = kmsKeyPolicyValidationService;
+        this.kmsDataKeyCache = kmsDataKeyCache;
+        this.iamPrincipalTokenCache = iamPrincipalTokenCache;
+        this.vaultBatchTokenClient = vaultBatchTokenClient;
+        this.vaultCompositePolicyService = vaultCompositePolicyService;
+        this.iamAuthenticationExecutors = iamAuthenticationExecutors;
+        this.userGroupPolicyIndex = userGroupPolicyIndex;
+        this.tokenRevocationQueue = tokenRevocationQueue;
     }
 
     /**
@@ -156,15 +253,25 @@ public class AuthenticationService {
      * @return The auth response
      */
     public AuthResponse authenticate(final UserCredentials credentials) {
-        final AuthResponse authResponse = authServiceConnector.authenticate(credentials.getUsername(),
-                new String(credentials.getPassword(), Charset.defaultCharset()));
-
-        if (authResponse.getStatus() == AuthStatus.SUCCESS) {
-            authResponse.getData().setClientToken(generateToken(credentials.getUsername(),
-                    authServiceConnector.getGroups(authResponse.getData()), 0));
-        }
+        return IamAuthenticationExecutors.join(authenticateAsync(credentials));
+    }
 
-        return authResponse;
+    /**
+     * Asynchronous variant of {@link #authenticate(UserCredentials)}.  The IdP is called through the asynchronous
+     * auth connector methods and the Vault token is created on the remote call executor, so no request thread waits
+     * on either.  Both run with the tracing and MDC of the calling thread.
+     *
+     * @param credentials User credentials for the authenticating user
+     * @return Future for the auth response
+     */
+    public CompletableFuture<AuthResponse> authenticateAsync(final UserCredentials credentials) {
+        final Deque<Span> spanStack = Tracer.getInstance().getCurrentSpanStackCopy();
+        final Map<String, String> mdc = MDC.getCopyOfContextMap();
+        return authServiceConnector.authenticateAsync(credentials.getUsername(),
+                new String(credentials.getPassword(), Charset.defaultCharset()), authConnectorExecutor)
+                .thenCompose(AsyncNettyHelper.functionWithTracingAndMdc(
+                        authResponse -> addClientTokenIfAuthenticated(credentials.getUsername(), authResponse),
+                        spanStack, mdc));
     }
 
     /**
@@ -174,16 +281,39 @@ public class AuthenticationService {
      * @return The auth response
      */
     public AuthResponse mfaCheck(final MfaCheckRequest mfaCheckRequest) {
-        final AuthResponse authResponse = authServiceConnector.mfaCheck(mfaCheckRequest.getStateToken(),
+        return IamAuthenticationExecutors.join(mfaCheckAsync(mfaCheckRequest));
+    }
+
+    /**
+     * Asynchronous variant of {@link #mfaCheck(MfaCheckRequest)}.
+     *
+     * @param mfaCheckRequest Request containing the MFA token details
+     * @return Future for the auth response
+     */
+    public CompletableFuture<AuthResponse> mfaCheckAsync(final MfaCheckRequest mfaCheckRequest) {
+        final Deque<Span> spanStack = Tracer.getInstance().getCurrentSpanStackCopy();
+        final Map<String, String> mdc = MDC.getCopyOfContextMap();
+        return authServiceConnector.mfaCheckAsync(mfaCheckRequest.getStateToken(),
                 mfaCheckRequest.getDeviceId(),
-                mfaCheckRequest.getOtpToken());
+                mfaCheckRequest.getOtpToken(),
+                authConnectorExecutor)
+                .thenCompose(AsyncNettyHelper.functionWithTracingAndMdc(
+                        authResponse -> addClientTokenIfAuthenticated(authResponse.getData().getUsername(), authResponse),
+                        spanStack, mdc));
+    }
 
-        if (authResponse.getStatus() == AuthStatus.SUCCESS) {
-            authResponse.getData().setClientToken(generateToken(authResponse.getData().getUsername(),
-                    authServiceConnector.getGroups(authResponse.getData()), 0));
+    private CompletableFuture<AuthResponse> addClientTokenIfAuthenticated(final String username,
+                                                                        final AuthResponse authResponse) {
+        if (authResponse.getStatus() != AuthStatus.SUCCESS) {
+            return CompletableFuture.completedFuture(authResponse);
         }
 
-        return authResponse;
+        return iamAuthenticationExecutors.thenApplyRemote(
+                authServiceConnector.getGroupsAsync(authResponse.getData(), authConnectorExecutor),
+                userGroups -> {
+                    authResponse.getData().setClientToken(generateToken(username, userGroups, 0));
+                    return authResponse;
+                });
     }
 
     /**
@@ -193,6 +323,18 @@ public class AuthenticationService {
      * @return Encrypted auth response
      */
     public IamRoleAuthResponse authenticate(IamRoleCredentials credentials) {
+        return IamAuthenticationExecutors.join(authenticateAsync(credentials, AuthPayloadEncoding.JSON));
+    }
+
+    /**
+     * Enables an IAM role to authenticate and get back an encrypted payload that the role is only able to decrypt with
+     * KMS, without blocking the calling thread.
+     * @param credentials IAM role credentials
+     * @param payloadEncoding The encoding of the auth response inside the encrypted payload
+     * @return Encrypted auth response
+     */
+    public CompletableFuture<IamRoleAuthResponse> authenticateAsync(IamRoleCredentials credentials,
+                                                                    AuthPayloadEncoding payloadEncoding) {
 
         final String iamPrincipalArn = String.format(AWS_IAM_ROLE_ARN_TEMPLATE, credentials.getAccountId(),
                 credentials.getRoleName());
@@ -206,22 +348,184 @@ public class AuthenticationService {
         vaultAuthPrincipalMetadata.put(VaultAuthPrincipal.METADATA_KEY_AWS_ACCOUNT_ID, awsIamRoleArnParser.getAccountId(iamPrincipalArn));
         vaultAuthPrincipalMetadata.put(VaultAuthPrincipal.METADATA_KEY_AWS_IAM_ROLE_NAME, awsIamRoleArnParser.getRoleName(iamPrincipalArn));
 
-        return authenticate(iamPrincipalCredentials, vaultAuthPrincipalMetadata);
+        return authenticateAsync(iamPrincipalCredentials, vaultAuthPrincipalMetadata, payloadEncoding);
     }
 
     public IamRoleAuthResponse authenticate(IamPrincipalCredentials credentials) {
+        return IamAuthenticationExecutors.join(authenticateAsync(credentials, AuthPayloadEncoding.JSON));
+    }
 
+    /**
+     * Enables an IAM principal to authenticate and get back an encrypted payload that the principal is only able to
+     * decrypt with KMS, without blocking the calling thread.
+     * @param credentials IAM principal credentials
+     * @param payloadEncoding The encoding of the auth response inside the encrypted payload
+     * @return Encrypted auth response
+     */
+    public CompletableFuture<IamRoleAuthResponse> authenticateAsync(IamPrincipalCredentials credentials,
+                                                                    AuthPayloadEncoding payloadEncoding) {
+        return authenticateAsync(credentials, generateIamPrincipalAuthMetadata(credentials), payloadEncoding);
+    }
+
+    /**
+     * Enables an IAM principal to authenticate and get back an envelope encrypted payload.  The payload is encrypted
+     * locally with a cached data key that only the principal can decrypt with KMS, so most logins need no KMS call and
+     * the payload is not subject to the KMS size limit.
+     * @param credentials IAM principal credentials
+     * @return Envelope encrypted auth response
+     */
+    public IamRoleAuthResponseV3 authenticateWithEnvelopeEncryption(IamPrincipalCredentials credentials) {
+        return IamAuthenticationExecutors.join(
+                authenticateWithEnvelopeEncryptionAsync(credentials, AuthPayloadEncoding.JSON));
+    }
+
+    /**
+     * Enables an IAM principal to authenticate and get back an envelope encrypted payload, without blocking the
+     * calling thread.  The Vault token is only created once the principal's KMS key is known, so a principal whose
+     * key is rejected never gets a token, and it is revoked if the data key or encryption fails.
+     * @param credentials IAM principal credentials
+     * @param payloadEncoding The encoding of the auth response inside the encrypted payload
+     * @return Envelope encrypted auth response
+     */
+    public CompletableFuture<IamRoleAuthResponseV3> authenticateWithEnvelopeEncryptionAsync(
+            IamPrincipalCredentials credentials, AuthPayloadEncoding payloadEncoding) {
+
+        final Map<String, String> vaultAuthPrincipalMetadata = generateIamPrincipalAuthMetadata(credentials);
+        final CompletableFuture<AwsIamRoleResolutionRecord> resolution = resolveIamPrincipalAsync(credentials);
+        final CompletableFuture<String> keyId = getKeyIdAsync(credentials, resolution);
+        final CompletableFuture<Set<String>> policies = buildCompleteSetOfPoliciesAsync(credentials, resolution);
+
+        final CompletableFuture<VaultAuthResponse> authResponse = iamAuthenticationExecutors.thenCombineRemote(
+                keyId, policies,
+                (kmsKeyId, tokenPolicies) -> iamAuthenticationExecutors.time(STAGE_TOKEN,
+                        () -> createIamPrincipalToken(tokenPolicies, vaultAuthPrincipalMetadata)));
+        final CompletableFuture<KmsDataKeyCache.KmsDataKey> dataKey = iamAuthenticationExecutors.thenApplyRemote(keyId,
+                kmsKeyId -> iamAuthenticationExecutors.time(STAGE_DATA_KEY,
+                        () -> getDataKey(kmsKeyId, credentials.getRegion())));
+
+        return authResponse.thenCombine(dataKey, (token, key) -> iamAuthenticationExecutors.time(STAGE_ENCRYPT,
+                () -> encryptWithEnvelope(token, key, payloadEncoding)))
+                .whenComplete((response, e) -> {
+                    if (e != null) {
+                        authResponse.thenAccept(token -> revokeUnusedToken(token, credentials.getIamPrincipalArn()));
+                    }
+                });
+    }
+
+    private Map<String, String> generateIamPrincipalAuthMetadata(IamPrincipalCredentials credentials) {
         final String iamPrincipalArn = credentials.getIamPrincipalArn();
         final Map<String, String> vaultAuthPrincipalMetadata = generateCommonIamPrincipalAuthMetadata(iamPrincipalArn, credentials.getRegion());
         vaultAuthPrincipalMetadata.put(VaultAuthPrincipal.METADATA_KEY_AWS_IAM_PRINCIPAL_ARN, iamPrincipalArn);
+        return vaultAuthPrincipalMetadata;
+    }
 
-        return authenticate(credentials, vaultAuthPrincipalMetadata);
+    /**
+     * Runs IAM principal authentication as a pipeline.  The KMS key and the policy set both only depend on the
+     * principal's records, so a KMS key provisioned for a first login overlaps with the policy lookup, and the Vault
+     * token is created and encrypted once both are known.
+     */
+    private CompletableFuture<IamRoleAuthResponse> authenticateAsync(IamPrincipalCredentials credentials,
+                                                                     Map<String, String> vaultAuthPrincipalMetadata,
+                                                                     AuthPayloadEncoding payloadEncoding) {
+        final CompletableFuture<AwsIamRoleResolutionRecord> resolution = resolveIamPrincipalAsync(credentials);
+        final CompletableFuture<String> keyId = getKeyIdAsync(credentials, resolution);
+        final CompletableFuture<Set<String>> policies = buildCompleteSetOfPoliciesAsync(credentials, resolution);
+
+        return iamAuthenticationExecutors.thenCombineRemote(keyId, policies, (kmsKeyId, tokenPolicies) -> {
+            final IamPrincipalTokenCache.EncryptedToken encryptedToken = iamPrincipalTokenCache.get(
+                    credentials.getIamPrincipalArn(), credentials.getRegion(), kmsKeyId, payloadEncoding,
+                    tokenPolicies, vaultAuthPrincipalMetadata,
+                    () -> createEncryptedIamPrincipalToken(credentials, kmsKeyId, tokenPolicies,
+                            vaultAuthPrincipalMetadata, payloadEncoding));
+
+            IamRoleAuthResponse iamRoleAuthResponse = new IamRoleAuthResponse();
+            iamRoleAuthResponse.setAuthData(encryptedToken.getAuthData());
+            return iamRoleAuthResponse;
+        });
+    }
+
+    private CompletableFuture<AwsIamRoleResolutionRecord> resolveIamPrincipalAsync(IamPrincipalCredentials credentials) {
+        return iamAuthenticationExecutors.supplyDb(STAGE_RESOLVE, () -> resolveIamRoleAndKmsKey(credentials));
+    }
+
+    private CompletableFuture<String> getKeyIdAsync(IamPrincipalCredentials credentials,
+                                                    CompletableFuture<AwsIamRoleResolutionRecord> resolution) {
+        // provisioning waits for KMS quota and for other logins of the same principal, keep it off the remote pool
+        return iamAuthenticationExecutors.thenApplyRemoteOrProvisioning(resolution,
+                resolved -> resolved.getKmsKey() == null,
+                resolved -> iamAuthenticationExecutors.time(STAGE_KMS_KEY, () -> getKeyIdOrReject(credentials, resolved)));
+    }
+
+    /**
+     * Waits for the principal to be resolved, because resolving a principal that is not cached also caches its
+     * policy set from the same query.
+     */
+    private CompletableFuture<Set<String>> buildCompleteSetOfPoliciesAsync(IamPrincipalCredentials credentials,
+                                                                           CompletableFuture<AwsIamRoleResolutionRecord> resolution) {
+        return iamAuthenticationExecutors.thenApplyDb(resolution,
+                resolved -> iamAuthenticationExecutors.time(STAGE_POLICIES,
+                        () -> buildCompleteSetOfPolicies(credentials.getIamPrincipalArn())));
     }
 
-    private IamRoleAuthResponse authenticate(IamPrincipalCredentials credentials, Map<String, String> vaultAuthPrincipalMetadata) {
+    private IamPrincipalTokenCache.EncryptedToken createEncryptedIamPrincipalToken(IamPrincipalCredentials credentials,
+                                                                                   String keyId,
+                                                                                   Set<String> policies,
+                                                                                   Map<String, String> vaultAuthPrincipalMetadata,
+                                                                                   AuthPayloadEncoding payloadEncoding) {
+        final VaultAuthResponse authResponse = iamAuthenticationExecutors.time(STAGE_TOKEN,
+                () -> createIamPrincipalToken(policies, vaultAuthPrincipalMetadata));
+        final String clientToken = authResponse.getClientToken();
+
+        byte[] authResponseJson = serializeAuthResponse(authResponse, payloadEncoding);
+        authResponseJson = validateAuthPayloadSizeAndTruncateIfLargerThanMaxKmsSupportedSize(authResponseJson,
+                authResponse, credentials.getIamPrincipalArn(), payloadEncoding);
+
+        final byte[] payload = authResponseJson;
+        final byte[] encryptedAuthResponse = iamAuthenticationExecutors.time(STAGE_ENCRYPT,
+                () -> encrypt(credentials.getRegion(), keyId, payload));
+
+        return new IamPrincipalTokenCache.EncryptedToken(clientToken, Base64.encodeBase64String(encryptedAuthResponse));
+    }
+
+    private KmsDataKeyCache.KmsDataKey getDataKey(String keyId, String regionName) {
+        try {
+            return kmsDataKeyCache.getDataKey(keyId, regionName);
+        } catch (AmazonClientException ace) {
+            throw ApiException.newBuilder()
+                    .withApiErrors(DefaultApiError.INTERNAL_SERVER_ERROR)
+                    .withExceptionCause(ace)
+                    .withExceptionMessage(String.format(
+                            "Unexpected error communicating with AWS KMS for region %s.", regionName))
+                    .build();
+        }
+    }
+
+    private IamRoleAuthResponseV3 encryptWithEnvelope(VaultAuthResponse authResponse,
+                                                      KmsDataKeyCache.KmsDataKey dataKey,
+                                                      AuthPayloadEncoding payloadEncoding) {
+        final byte[] authResponseJson = serializeAuthResponse(authResponse, payloadEncoding);
+
+        final byte[] iv = new byte[GCM_IV_LENGTH_BYTES];
+        secureRandom.nextBytes(iv);
+
+        return new IamRoleAuthResponseV3()
+                .setAuthData(Base64.encodeBase64String(encryptWithDataKey(dataKey.getPlaintext(), iv, authResponseJson)))
+                .setEncryptedDataKey(Base64.encodeBase64String(dataKey.getCiphertext()))
+                .setIv(Base64.encodeBase64String(iv));
+    }
+
+    private void revokeUnusedToken(VaultAuthResponse authResponse, String iamPrincipalArn) {
+        try {
+            revoke(authResponse.getClientToken());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to revoke the unused token created for IAM principal: {}", iamPrincipalArn, e);
+        }
+    }
+
+    private String getKeyIdOrReject(IamPrincipalCredentials credentials, AwsIamRoleResolutionRecord resolution) {
         final String keyId;
         try {
-            keyId = getKeyId(credentials);
+            keyId = getKeyId(credentials, resolution);
         } catch (AmazonServiceException e) {
             if ("InvalidArnException".equals(e.getErrorCode())) {
                 throw ApiException.newBuilder()
@@ -234,20 +538,32 @@ public class AuthenticationService {
             }
             throw e;
         }
+        return keyId;
+    }
 
-        final Set<String> policies = buildCompleteSetOfPolicies(credentials.getIamPrincipalArn());
-
+    private VaultAuthResponse createIamPrincipalToken(Set<String> policies,
+                                                      Map<String, String> vaultAuthPrincipalMetadata) {
         final VaultTokenAuthRequest tokenAuthRequest = new VaultTokenAuthRequest()
                 .setPolicies(policies)
                 .setMeta(vaultAuthPrincipalMetadata)
                 .setTtl(iamTokenTTL)
                 .setNoDefaultPolicy(true);
 
-        VaultAuthResponse authResponse = vaultAdminClient.createOrphanToken(tokenAuthRequest);
+        if (StringUtils.equalsIgnoreCase(iamTokenType, BATCH_TOKEN_TYPE)) {
+            // a revoked batch token is kept on the DB deny list until it expires, so keep its lifetime short
+            final long ttlSeconds = Math.min(VaultDurations.toSeconds(iamTokenTTL), batchTokenMaxTtlSeconds);
+            tokenAuthRequest.setTtl(ttlSeconds + "s");
+            return vaultBatchTokenClient.createOrphanBatchToken(tokenAuthRequest);
+        }
+        return vaultAdminClient.createOrphanToken(tokenAuthRequest);
+    }
 
-        byte[] authResponseJson;
+    private byte[] serializeAuthResponse(VaultAuthResponse authResponse, AuthPayloadEncoding payloadEncoding) {
         try {
-            authResponseJson = objectMapper.writeValueAsBytes(authResponse);
+            if (payloadEncoding == AuthPayloadEncoding.COMPACT_JSON) {
+                return compactObjectWriter.writeValueAsBytes(authResponse);
+            }
+            return objectMapper.writeValueAsBytes(authResponse);
         } catch (JsonProcessingException e) {
             throw ApiException.newBuilder()
                     .withApiErrors(DefaultApiError.INTERNAL_SERVER_ERROR)
@@ -255,15 +571,6 @@ public class AuthenticationService {
                     .withExceptionMessage("Failed to write IAM role authentication response as JSON for encrypting.")
                     .build();
         }
-
-        authResponseJson = validateAuthPayloadSizeAndTruncateIfLargerThanMaxKmsSupportedSize(authResponseJson,
-                authResponse, credentials.getIamPrincipalArn());
-
-        final byte[] encryptedAuthResponse = encrypt(credentials.getRegion(), keyId, authResponseJson);
-
-        IamRoleAuthResponse iamRoleAuthResponse = new IamRoleAuthResponse();
-        iamRoleAuthResponse.setAuthData(Base64.encodeBase64String(encryptedAuthResponse));
-        return iamRoleAuthResponse;
     }
 
     /**
@@ -275,11 +582,13 @@ public class AuthenticationService {
      * @param authResponseJson The current serialized auth payload
      * @param authResponse The response object, with the original policies and metadata
      * @param iamPrincipal The calling iam principal
+     * @param payloadEncoding The encoding of the auth payload
      * @return a serialized auth payload that KMS can encrypt
      */
     protected byte[] validateAuthPayloadSizeAndTruncateIfLargerThanMaxKmsSupportedSize(byte[] authResponseJson,
                                                                                      VaultAuthResponse authResponse,
-                                                                                     String iamPrincipal) {
+                                                                                     String iamPrincipal,
+                                                                                     AuthPayloadEncoding payloadEncoding) {
 
         if (authResponseJson.length <= KMS_SIZE_LIMIT) {
             return authResponseJson;
@@ -307,16 +616,7 @@ public class AuthenticationService {
                 originalPolicies
         );
 
-        try {
-            return objectMapper.writeValueAsBytes(authResponse);
-        } catch (JsonProcessingException e) {
-            throw ApiException.newBuilder()
-                    .withApiErrors(DefaultApiError.INTERNAL_SERVER_ERROR)
-                    .withExceptionCause(e)
-                    .withExceptionMessage("Failed to write IAM role authentication response as JSON for encrypting.")
-                    .build();
-        }
-
+        return serializeAuthResponse(authResponse, payloadEncoding);
     }
 
     /**
@@ -344,7 +644,7 @@ public class AuthenticationService {
                     .build();
         }
 
-        revoke(authPrincipal.getClientToken().getId());
+        revoke(authPrincipal);
 
         final AuthResponse authResponse = new AuthResponse();
         authResponse.setStatus(AuthStatus.SUCCESS);
@@ -359,11 +659,54 @@ public class AuthenticationService {
     }
 
     /**
-     * Requests Vault revoke the specified token.  If the token doesn't exist, we simply ignore and move along.
+     * Revokes the token of the given principal, for a logout or a token refresh.  The token is evicted from the reuse
+     * cache and denied by the lookup cache first, so it stops being handed out or honored even if Vault is slow to
+     * respond.  Batch tokens cannot be revoked in Vault, so they are only denied, see {@link VaultTokenCache#deny}.
+     * The Vault call is made in the background by the revocation queue when it is enabled and not full, every CMS
+     * node rejects the token while it waits there.
+     * <p>
+     * While IAM principal tokens are reused the token may be held by other callers of the same principal, so it is
+     * only evicted from the reuse cache and expires with its TTL, see {@link IamPrincipalTokenCache}.
+     *
+     * @param authPrincipal Principal of the token to be revoked
+     */
+    public void revoke(final VaultAuthPrincipal authPrincipal) {
+        final String vaultToken = authPrincipal.getClientToken().getId();
+        iamPrincipalTokenCache.evict(vaultToken);
+        if (authPrincipal.isIamPrincipal() && iamPrincipalTokenCache.isEnabled()) {
+            return;
+        }
+        vaultTokenCache.deny(vaultToken);
+        if (StringUtils.startsWithAny(vaultToken, BATCH_TOKEN_PREFIXES)) {
+            // Vault cannot revoke batch tokens, so every node rejects it until it expires instead
+            if (!tokenRevocationQueue.deny(vaultToken, authPrincipal.getTtlSeconds())) {
+                logger.warn("Failed to store denied batch token, only this node rejects it until it expires");
+            }
+            return;
+        }
+        if (tokenRevocationQueue.enqueue(vaultToken, authPrincipal.getAccessor(), authPrincipal.getTtlSeconds())) {
+            return;
+        }
+        revokeInVault(vaultToken);
+    }
+
+    /**
+     * Requests Vault revoke the specified token, used for tokens CMS created but never handed out.  If the token
+     * doesn't exist, we simply ignore and move along.
      *
      * @param vaultToken Token to be revoked
      */
-    public void revoke(final String vaultToken) {
+    private void revoke(final String vaultToken) {
+        iamPrincipalTokenCache.evict(vaultToken);
+        if (StringUtils.startsWithAny(vaultToken, BATCH_TOKEN_PREFIXES)) {
+            vaultTokenCache.deny(vaultToken);
+            return;
+        }
+        vaultTokenCache.evict(vaultToken);
+        revokeInVault(vaultToken);
+    }
+
+    private void revokeInVault(final String vaultToken) {
         try {
             vaultAdminClient.revokeOrphanToken(vaultToken);
         } catch (VaultServerException vse) {
@@ -417,54 +760,46 @@ public class AuthenticationService {
      * @return Set of policies to be associated
      */
     private Set<String> buildPolicySet(final Set<String> groups) {
-        final Set<String> policies = Sets.newHashSet(LOOKUP_SELF_POLICY);
-        final List<SafeDepositBoxRoleRecord> sdbRoles = safeDepositBoxDao.getUserAssociatedSafeDepositBoxRoles(groups);
-
-        sdbRoles.forEach(i -> {
-            policies.add(vaultPolicyService.buildPolicyName(i.getSafeDepositBoxName(), i.getRoleName()));
-        });
-
-        return policies;
+        return buildPolicySet(userGroupPolicyIndex.getSafeDepositBoxRoles(groups));
     }
 
     /**
      * Builds the policy set with permissions given to the specific IAM principal
      * (e.g. arn:aws:iam::1111111111:instance-profile/example), as well as the base role that is assumed by that
-     * principal (i.e. arn:aws:iam::1111111111:role/example)
+     * principal (i.e. arn:aws:iam::1111111111:role/example).  Results are served from the policy cache when present.
      * @param iamPrincipalArn - The given IAM principal ARN during authentication
      * @return - List of all policies the given ARN has access to
      */
     protected Set<String> buildCompleteSetOfPolicies(final String iamPrincipalArn) {
+        return iamPrincipalPolicyCache.get(iamPrincipalArn, () -> resolveCompleteSetOfPolicies(iamPrincipalArn));
+    }
 
-        final Set<String> allPolicies = buildPolicySet(iamPrincipalArn);
+    private Set<String> resolveCompleteSetOfPolicies(final String iamPrincipalArn) {
+
+        final List<SafeDepositBoxRoleRecord> sdbRoles =
+                Lists.newArrayList(safeDepositBoxDao.getIamRoleAssociatedSafeDepositBoxRoles(iamPrincipalArn));
 
         if (! awsIamRoleArnParser.isRoleArn(iamPrincipalArn)) {
             logger.debug("Detected non-role ARN, attempting to collect policies for the principal's base role...");
             final String iamPrincipalInRoleFormat = awsIamRoleArnParser.convertPrincipalArnToRoleArn(iamPrincipalArn);
 
-            final Set<String> additionalPolicies = buildPolicySet(iamPrincipalInRoleFormat);
-            allPolicies.addAll(additionalPolicies);
+            sdbRoles.addAll(safeDepositBoxDao.getIamRoleAssociatedSafeDepositBoxRoles(iamPrincipalInRoleFormat));
         }
 
-        return allPolicies;
+        return buildPolicySet(sdbRoles);
     }
 
     /**
      * Builds the policy set to be associated with the to-be generated Vault token.  The lookup-self policy is
-     * included by default.  All other associated policies are based on what permissions are granted to the IAM role.
+     * included by default.  All other associated policies grant the given SDB permissions, either one standard policy
+     * per SDB or a single composite policy.
      *
-     * @param iamRoleArn IAM role ARN
+     * @param sdbRoles SDB permissions of the user or IAM principal
      * @return Set of policies to be associated
      */
-    private Set<String> buildPolicySet(final String iamRoleArn) {
+    private Set<String> buildPolicySet(final Collection<SafeDepositBoxRoleRecord> sdbRoles) {
         final Set<String> policies = Sets.newHashSet(LOOKUP_SELF_POLICY);
-        final List<SafeDepositBoxRoleRecord> sdbRoles =
-                safeDepositBoxDao.getIamRoleAssociatedSafeDepositBoxRoles(iamRoleArn);
-
-        sdbRoles.forEach(i -> {
-            policies.add(vaultPolicyService.buildPolicyName(i.getSafeDepositBoxName(), i.getRoleName()));
-        });
-
+        policies.addAll(vaultCompositePolicyService.getPolicyNames(sdbRoles));
         return policies;
     }
 
@@ -476,8 +811,35 @@ public class AuthenticationService {
      * @return KMS Key id
      */
     protected String getKeyId(IamPrincipalCredentials credentials) {
+        return getKeyId(credentials, resolveIamRoleAndKmsKey(credentials));
+    }
+
+    /**
+     * Looks up the IAM role record and, if there is one yet, the KMS key record for the principal in the region.
+     *
+     * The cache is consulted by principal ARN, which also finds the base role of instance profile and assumed role
+     * principals once they have been resolved.  When the role and key are not both cached, the role, key and SDB roles
+     * for the principal and its base role are read with a single query, which also primes the policy cache used when
+     * the token is created.
+     *
+     * @param credentials IAM role credentials
+     * @return The IAM role and KMS key records, the KMS key record is null if none was provisioned for the region yet
+     */
+    private AwsIamRoleResolutionRecord resolveIamRoleAndKmsKey(IamPrincipalCredentials credentials) {
         final String iamPrincipalArn = credentials.getIamPrincipalArn();
-        final Optional<AwsIamRoleRecord> iamRole = findIamRoleAssociatedWithSdb(iamPrincipalArn);
+        final String region = credentials.getRegion();
+
+        Optional<AwsIamRoleRecord> iamRole = awsIamRoleRecordCache.getCachedIamRole(iamPrincipalArn);
+        Optional<AwsIamRoleKmsKeyRecord> kmsKey =
+                iamRole.flatMap(role -> awsIamRoleRecordCache.getCachedKmsKey(role.getId(), region));
+
+        if (!kmsKey.isPresent()) {
+            final Optional<AwsIamRoleResolutionRecord> resolution =
+                    findIamRoleAssociatedWithSdb(iamPrincipalArn, resolveIamPrincipal(iamPrincipalArn, region));
+            iamRole = resolution.map(AwsIamRoleResolutionRecord::getAwsIamRole);
+            kmsKey = resolution.map(AwsIamRoleResolutionRecord::getKmsKey);
+            iamRole.ifPresent(role -> awsIamRoleRecordCache.putPrincipalIamRole(iamPrincipalArn, role));
+        }
 
         if (!iamRole.isPresent()) {
             throw ApiException.newBuilder()
@@ -486,21 +848,40 @@ public class AuthenticationService {
                     .build();
         }
 
-        final Optional<AwsIamRoleKmsKeyRecord> kmsKey = awsIamRoleDao.getKmsKey(iamRole.get().getId(), credentials.getRegion());
+        return new AwsIamRoleResolutionRecord()
+                .setAwsIamRoleId(iamRole.get().getId())
+                .setAwsIamRole(iamRole.get())
+                .setKmsKey(kmsKey.orElse(null));
+    }
 
-        final String kmsKeyId;
-        final AwsIamRoleKmsKeyRecord kmsKeyRecord;
-        final OffsetDateTime now = dateTimeSupplier.get();
+    private String getKeyId(IamPrincipalCredentials credentials, AwsIamRoleResolutionRecord resolution) {
+        final String iamPrincipalArn = credentials.getIamPrincipalArn();
+        final AwsIamRoleKmsKeyRecord kmsKeyRecord = resolution.getKmsKey();
 
-        if (!kmsKey.isPresent()) {
-            kmsKeyId = kmsService.provisionKmsKey(iamRole.get().getId(), iamPrincipalArn, credentials.getRegion(), SYSTEM_USER, now);
-        } else {
-            kmsKeyRecord = kmsKey.get();
-            kmsKeyId = kmsKeyRecord.getAwsKmsKeyId();
-            kmsService.validateKeyAndPolicy(kmsKeyRecord, iamPrincipalArn);
+        if (kmsKeyRecord == null) {
+            return kmsService.provisionKmsKey(resolution.getAwsIamRoleId(), iamPrincipalArn, credentials.getRegion(),
+                    SYSTEM_USER, dateTimeSupplier.get());
         }
 
-        return kmsKeyId;
+        kmsKeyPolicyValidationService.requestValidation(kmsKeyRecord, iamPrincipalArn);
+        return kmsKeyRecord.getAwsKmsKeyId();
+    }
+
+    /**
+     * Reads the IAM role records for the principal and its base role with a single query and caches the complete
+     * policy set for the principal from the same rows.
+     */
+    private List<AwsIamRoleResolutionRecord> resolveIamPrincipal(final String iamPrincipalArn, final String region) {
+        final String baseRoleArn = awsIamRoleArnParser.isRoleArn(iamPrincipalArn) ?
+                iamPrincipalArn : awsIamRoleArnParser.convertPrincipalArnToRoleArn(iamPrincipalArn);
+        final List<AwsIamRoleResolutionRecord> resolutions =
+                awsIamRoleRecordCache.resolveIamPrincipal(iamPrincipalArn, baseRoleArn, region);
+
+        iamPrincipalPolicyCache.get(iamPrincipalArn, () -> buildPolicySet(resolutions.stream()
+                .flatMap(resolution -> resolution.getSafeDepositBoxRoles().stream())
+                .collect(Collectors.toList())));
+
+        return resolutions;
     }
 
     /**
@@ -539,6 +920,28 @@ public class AuthenticationService {
         }
     }
 
+    /**
+     * Encrypts the data provided locally with AES-GCM using the given plaintext data key.
+     *
+     * @param dataKey AES-256 data key
+     * @param iv Unique initialization vector for this message
+     * @param data Data to be encrypted
+     * @return encrypted data with the authentication tag appended
+     */
+    protected byte[] encryptWithDataKey(final byte[] dataKey, final byte[] iv, final byte[] data) {
+        try {
+            final Cipher cipher = Cipher.getInstance(GCM_TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(dataKey, "AES"), new GCMParameterSpec(GCM_TAG_LENGTH_BITS, iv));
+            return cipher.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw ApiException.newBuilder()
+                    .withApiErrors(DefaultApiError.INTERNAL_SERVER_ERROR)
+                    .withExceptionCause(e)
+                    .withExceptionMessage("Failed to encrypt IAM principal authentication response with data key.")
+                    .build();
+        }
+    }
+
     private Set<String> getAdminRoleArnSet() {
         if (adminRoleArnSet == null) {
             adminRoleArnSet = new HashSet<>();
@@ -582,23 +985,24 @@ public class AuthenticationService {
     }
 
     /**
-     * Search for the given IAM principal (e.g. arn:aws:iam::1111111111:instance-profile/example), if not found, then
-     * also search for the base role that the principal assumes (i.e. arn:aws:iam::1111111111:role/example)
+     * Picks the record for the given IAM principal (e.g. arn:aws:iam::1111111111:instance-profile/example), if not
+     * found, then the record for the base role that the principal assumes (i.e. arn:aws:iam::1111111111:role/example)
      * @param iamPrincipalArn - The authenticating IAM principal ARN
+     * @param resolutions - The records read for the principal and its base role
      * @return - The associated IAM role record
      */
-    protected Optional<AwsIamRoleRecord> findIamRoleAssociatedWithSdb(final String iamPrincipalArn) {
-        Optional<AwsIamRoleRecord> iamRole = awsIamRoleDao.getIamRole(iamPrincipalArn);
-
-        // if the arn is not already in 'role' format, and cannot be found,
-        // then try checking for the generic "arn:aws:iam::0000000000:role/foo" format
-        if (!iamRole.isPresent() && !awsIamRoleArnParser.isRoleArn(iamPrincipalArn) ) {
-            logger.debug("Detected non-role ARN, attempting to find SDBs associated with the principal's base role...");
-            final String iamPrincipalInRoleFormat = awsIamRoleArnParser.convertPrincipalArnToRoleArn(iamPrincipalArn);
-
-            iamRole = awsIamRoleDao.getIamRole(iamPrincipalInRoleFormat);
+    protected Optional<AwsIamRoleResolutionRecord> findIamRoleAssociatedWithSdb(final String iamPrincipalArn,
+                                                                               final List<AwsIamRoleResolutionRecord> resolutions) {
+        final Optional<AwsIamRoleResolutionRecord> iamPrincipal = resolutions.stream()
+                .filter(resolution -> StringUtils.equals(resolution.getAwsIamRole().getAwsIamRoleArn(), iamPrincipalArn))
+                .findFirst();
+
+        if (iamPrincipal.isPresent()) {
+            return iamPrincipal;
         }
 
-        return iamRole;
+        // if the arn is not already in 'role' format, and cannot be found,
+        // then use the generic "arn:aws:iam::0000000000:role/foo" format
+        return resolutions.stream().findFirst();
     }
 }
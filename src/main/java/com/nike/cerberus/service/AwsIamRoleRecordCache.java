@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nike.cerberus.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.nike.cerberus.dao.AwsIamRoleDao;
+import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
+import com.nike.cerberus.record.AwsIamRoleRecord;
+import com.nike.cerberus.record.AwsIamRoleResolutionRecord;
+import com.nike.cerberus.util.CacheMetrics;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache of the IAM role and KMS key records used on every IAM authentication.  These rows almost never
+ * change, so most logins can resolve their KMS key without a DB round trip.  Only rows that exist are cached, so a
+ * newly granted principal or newly provisioned key is visible immediately; callers that update or delete these records
+ * must invalidate the affected entries.  Entries also expire after a short period so that changes made through other
+ * CMS nodes are picked up.
+ * <p>
+ * Instance profile and assumed role principals usually authenticate through their base role's record, so the role a
+ * principal resolved to is remembered by principal ARN as well.  Those mappings are dropped whenever IAM permissions
+ * change, because a grant can create a record for the principal itself.
+ */
+@Singleton
+public class AwsIamRoleRecordCache {
+
+    public static final String MAX_SIZE_PROPERTY = "cms.auth.iam.role.cache.maxSize";
+
+    public static final String EXPIRE_AFTER_WRITE_SECONDS_PROPERTY = "cms.auth.iam.role.cache.expireAfterWriteSeconds";
+
+    private final AwsIamRoleDao awsIamRoleDao;
+
+    private final Cache<String, AwsIamRoleRecord> iamRoleCache;
+
+    private final Cache<KmsKeyCacheKey, AwsIamRoleKmsKeyRecord> kmsKeyCache;
+
+    private final Cache<String, String> principalRoleArnCache;
+
+    @Inject
+    public AwsIamRoleRecordCache(final AwsIamRoleDao awsIamRoleDao,
+                                 @Named(MAX_SIZE_PROPERTY) final long maxSize,
+                                 @Named(EXPIRE_AFTER_WRITE_SECONDS_PROPERTY) final long expireAfterWriteSeconds,
+                                 final CodahaleMetricsCollector metricsCollector) {
+        this.awsIamRoleDao = awsIamRoleDao;
+        this.iamRoleCache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.kmsKeyCache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        this.principalRoleArnCache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CacheMetrics.register(metricsCollector, "cms.auth.iam.role.cache", iamRoleCache);
+        CacheMetrics.register(metricsCollector, "cms.auth.iam.principal.cache", principalRoleArnCache);
+        CacheMetrics.register(metricsCollector, "cms.auth.iam.kmsKey.cache", kmsKeyCache);
+    }
+
+    public Optional<AwsIamRoleRecord> getIamRole(final String awsIamRoleArn) {
+        return get(iamRoleCache, awsIamRoleArn, () -> awsIamRoleDao.getIamRole(awsIamRoleArn));
+    }
+
+    public Optional<AwsIamRoleKmsKeyRecord> getKmsKey(final String awsIamRoleId, final String awsRegion) {
+        return get(kmsKeyCache, new KmsKeyCacheKey(awsIamRoleId, awsRegion),
+                () -> awsIamRoleDao.getKmsKey(awsIamRoleId, awsRegion));
+    }
+
+    /**
+     * Returns the IAM role the given principal ARN resolves to only if it is cached, without reading the DB.  That is
+     * the role with the same ARN, or the role remembered by {@link #putPrincipalIamRole(String, AwsIamRoleRecord)}.
+     */
+    public Optional<AwsIamRoleRecord> getCachedIamRole(final String iamPrincipalArn) {
+        final AwsIamRoleRecord iamRole = iamRoleCache.getIfPresent(iamPrincipalArn);
+        if (iamRole != null) {
+            return Optional.of(iamRole);
+        }
+        return Optional.ofNullable(principalRoleArnCache.getIfPresent(iamPrincipalArn))
+                .map(iamRoleCache::getIfPresent);
+    }
+
+    /**
+     * Remembers that the given principal resolved to the given IAM role, e.g. an assumed role principal to the
+     * record of its base role.
+     */
+    public void putPrincipalIamRole(final String iamPrincipalArn, final AwsIamRoleRecord iamRole) {
+        iamRoleCache.put(iamRole.getAwsIamRoleArn(), iamRole);
+        if (!StringUtils.equals(iamPrincipalArn, iamRole.getAwsIamRoleArn())) {
+            principalRoleArnCache.put(iamPrincipalArn, iamRole.getAwsIamRoleArn());
+        }
+    }
+
+    /**
+     * Forgets which role each principal resolved to, called after IAM permissions change
+     */
+    public void invalidatePrincipalIamRoles() {
+        principalRoleArnCache.invalidateAll();
+    }
+
+    /**
+     * Returns the KMS key for the given IAM role and region only if it is cached, without reading the DB.
+     */
+    public Optional<AwsIamRoleKmsKeyRecord> getCachedKmsKey(final String awsIamRoleId, final String awsRegion) {
+        return Optional.ofNullable(kmsKeyCache.getIfPresent(new KmsKeyCacheKey(awsIamRoleId, awsRegion)));
+    }
+
+    /**
+     * Reads the IAM role records for a principal and its base role with a single query, see
+     * {@link AwsIamRoleDao#resolveIamPrincipal(String, String, String)}, and caches the roles and KMS keys found.
+     */
+    public List<AwsIamRoleResolutionRecord> resolveIamPrincipal(final String iamPrincipalArn,
+                                                                final String baseRoleArn,
+                                                                final String awsRegion) {
+        final List<AwsIamRoleResolutionRecord> records =
+                awsIamRoleDao.resolveIamPrincipal(iamPrincipalArn, baseRoleArn, awsRegion);
+
+        records.forEach(record -> {
+            iamRoleCache.put(record.getAwsIamRole().getAwsIamRoleArn(), record.getAwsIamRole());
+            if (record.getKmsKey() != null) {
+                putKmsKey(record.getKmsKey());
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Caches a KMS key record that was just created, so that logins racing the provisioning transaction see it.
+     */
+    public void putKmsKey(final AwsIamRoleKmsKeyRecord kmsKeyRecord) {
+        kmsKeyCache.put(new KmsKeyCacheKey(kmsKeyRecord.getAwsIamRoleId(), kmsKeyRecord.getAwsRegion()), kmsKeyRecord);
+    }
+
+    public void invalidateIamRoleById(final String awsIamRoleId) {
+        iamRoleCache.asMap().values().removeIf(record -> StringUtils.equals(record.getId(), awsIamRoleId));
+        kmsKeyCache.asMap().keySet().removeIf(key -> StringUtils.equals(key.awsIamRoleId, awsIamRoleId));
+    }
+
+    public void invalidateKmsKey(final String awsIamRoleId, final String awsRegion) {
+        kmsKeyCache.invalidate(new KmsKeyCacheKey(awsIamRoleId, awsRegion));
+    }
+
+    public void invalidateKmsKeyById(final String kmsKeyId) {
+        kmsKeyCache.asMap().values().removeIf(record -> StringUtils.equals(record.getId(), kmsKeyId));
+    }
+
+    private static <K, V> Optional<V> get(final Cache<K, V> cache, final K key, final Supplier<Optional<V>> loader) {
+        final V cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        final Optional<V> loaded = loader.get();
+        loaded.ifPresent(value -> cache.put(key, value));
+        return loaded;
+    }
+
+    private static final class KmsKeyCacheKey {
+
+        private final String awsIamRoleId;
+
+        private final String awsRegion;
+
+        private KmsKeyCacheKey(final String awsIamRoleId, final String awsRegion) {
+            this.awsIamRoleId = awsIamRoleId;
+            this.awsRegion = awsRegion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            KmsKeyCacheKey that = (KmsKeyCacheKey) o;
+            return Objects.equals(awsIamRoleId, that.awsIamRoleId) &&
+                    Objects.equals(awsRegion, that.awsRegion);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(awsIamRoleId, awsRegion);
+        }
+
+    }
+}
@@ -29,36 +29,46 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.OffsetDateTime;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static com.nike.cerberus.service.KmsService.SOONEST_A_KMS_KEY_CAN_BE_DELETED;
 
 /**
- * Service to clean up inactive and orphaned KMS keys
+ * Service to clean up inactive and orphaned KMS keys, orphaned IAM roles and unused composite Vault policies
  */
 @Singleton
 public class CleanUpService {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private static final int DEFAULT_SLEEP_BETWEEN_KMS_CALLS = 10;  // in seconds
-
     private static final int DEFAULT_KMS_KEY_INACTIVE_AFTER_N_DAYS = 30;
 
+    private static final int UNREFERENCED_KMS_KEY_MIN_AGE_IN_DAYS = 1;
+
     private final KmsService kmsService;
 
     private final AwsIamRoleDao awsIamRoleDao;
 
     private final DateTimeSupplier dateTimeSupplier;
 
+    private final AwsIamRoleRecordCache awsIamRoleRecordCache;
+
+    private final VaultCompositePolicyService vaultCompositePolicyService;
+
     @Inject
     public CleanUpService(KmsService kmsService,
                           AwsIamRoleDao awsIamRoleDao,
-                          DateTimeSupplier dateTimeSupplier) {
+                          DateTimeSupplier dateTimeSupplier,
+                          AwsIamRoleRecordCache awsIamRoleRecordCache,
+                          VaultCompositePolicyService vaultCompositePolicyService) {
         this.kmsService = kmsService;
         this.awsIamRoleDao = awsIamRoleDao;
         this.dateTimeSupplier = dateTimeSupplier;
+        this.awsIamRoleRecordCache = awsIamRoleRecordCache;
+        this.vaultCompositePolicyService = vaultCompositePolicyService;
     }
 
     public void cleanUp(final CleanUpRequest cleanUpRequest) {
@@ -67,24 +77,16 @@ public class CleanUpService {
 
         cleanUpInactiveAndOrphanedKmsKeys(kmsKeysInactiveAfterNDays);
         cleanUpOrphanedIamRoles();
+        cleanUpUnreferencedKmsKeys();
+        vaultCompositePolicyService.deleteUnusedCompositePolicies();
     }
 
     /**
      * Delete all AWS KMS keys and DB records for KMS keys that have not been used recently
-     * or are no longer associated with an SDB.
-     */
-    protected void cleanUpInactiveAndOrphanedKmsKeys(final int kmsKeysInactiveAfterNDays) {
-
-        cleanUpInactiveAndOrphanedKmsKeys(kmsKeysInactiveAfterNDays, DEFAULT_SLEEP_BETWEEN_KMS_CALLS);
-    }
-
-    /**
-     * Delete all AWS KMS keys and DB records for KMS keys that have not been used recently
-     * or are no longer associated with an SDB.
+     * or are no longer associated with an SDB.  KMS calls are paced by the housekeeping class of the KMS quota.
      * @param kmsKeysInactiveAfterNDays - Consider KMS keys to be inactive after 'n' number of days
-     * @param sleepInSeconds - Sleep for 'n' seconds between AWS calls, to keep from exceeding the API limit
      */
-    protected void cleanUpInactiveAndOrphanedKmsKeys(final int kmsKeysInactiveAfterNDays, final int sleepInSeconds) {
+    protected void cleanUpInactiveAndOrphanedKmsKeys(final int kmsKeysInactiveAfterNDays) {
 
         // get orphaned and inactive kms keys (not used in 'n' days)
         final OffsetDateTime inactiveDateTime = dateTimeSupplier.get().minusDays(kmsKeysInactiveAfterNDays);
@@ -104,10 +106,6 @@ public class CleanUpService {
                     kmsService.validatePolicyAllowsCMSToDeleteCMK(kmsKeyArn, kmsKeyRegion);
                     kmsService.scheduleKmsKeyDeletion(kmsKeyArn, kmsKeyRegion, SOONEST_A_KMS_KEY_CAN_BE_DELETED);
                     kmsService.deleteKmsKeyById(kmsKeyRecord.getId());
-                    TimeUnit.SECONDS.sleep(sleepInSeconds);
-                } catch (InterruptedException ie) {
-                    logger.error("Timeout between KMS key deletion was interrupted", ie);
-                    Thread.currentThread().interrupt();
                 } catch (Exception e) {
                     logger.error("There was a problem deleting KMS key with id: {}, region: {}",
                             kmsKeyRecord.getAwsIamRoleId(),
@@ -134,6 +132,7 @@ public class CleanUpService {
                         awsIamRoleRecord.getAwsIamRoleArn(),
                         awsIamRoleRecord.getLastUpdatedTs());
                 awsIamRoleDao.deleteIamRoleById(awsIamRoleRecord.getId());
+                awsIamRoleRecordCache.invalidateIamRoleById(awsIamRoleRecord.getId());
             } catch(Exception e) {
                 logger.error("There was a problem deleting orphaned IAM role with ARN: {}",
                     awsIamRoleRecord.getAwsIamRoleArn(),
@@ -141,5 +140,52 @@ public class CleanUpService {
             }
         });
     }
-}
 
+    /**
+     * Schedule deletion of AWS KMS keys that CMS provisioned but that have no DB record, e.g. the duplicate keys created
+     * when several instances of a new IAM role authenticated at the same time.  KMS calls are paced by the
+     * housekeeping class of the KMS quota.
+     *
+     * Provisioning moves a key from the pool to the key table, so the pool is read first, a key claimed in between is
+     * then found in the key table.  Each key is still looked up again right before its deletion is scheduled, because
+     * listing the aliases can take long enough for a pooled key to be claimed and saved in the meantime.
+     *
+     * Keys of other Cerberus environments in the same account share the alias prefix but are managed by their own CMS
+     * role, {@link KmsService#findUnreferencedKmsKeys} skips them.
+     */
+    protected void cleanUpUnreferencedKmsKeys() {
+
+        // pooled keys have aliases but are not assigned to a role yet
+        final Set<String> kmsKeyRecordIds = new HashSet<>(awsIamRoleDao.getPooledKmsKeyIds());
+        final List<AwsIamRoleKmsKeyRecord> kmsKeys = awsIamRoleDao.getAllKmsKeys();
+        kmsKeys.forEach(kmsKey -> kmsKeyRecordIds.add(kmsKey.getId()));
+        final Set<String> regions = kmsKeys.stream()
+                .map(AwsIamRoleKmsKeyRecord::getAwsRegion)
+                .collect(Collectors.toSet());
+        final OffsetDateTime createdBefore = dateTimeSupplier.get().minusDays(UNREFERENCED_KMS_KEY_MIN_AGE_IN_DAYS);
+
+        for (final String region : regions) {
+            final List<String> unreferencedKmsKeyArns;
+            try {
+                unreferencedKmsKeyArns = kmsService.findUnreferencedKmsKeys(region, kmsKeyRecordIds, createdBefore);
+            } catch (Exception e) {
+                logger.error("There was a problem finding unreferenced KMS keys in region: {}", region, e);
+                continue;
+            }
+
+            for (final String kmsKeyArn : unreferencedKmsKeyArns) {
+                try {
+                    if (awsIamRoleDao.isKmsKeyReferenced(kmsKeyArn)) {
+                        logger.info("Skipping KMS key: {} in region: {} that was assigned since the cleanup started",
+                                kmsKeyArn, region);
+                        continue;
+                    }
+                    logger.info("Deleting unreferenced KMS key: id={}, region={}", kmsKeyArn, region);
+                    kmsService.scheduleKmsKeyDeletion(kmsKeyArn, region, SOONEST_A_KMS_KEY_CAN_BE_DELETED);
+                } catch (Exception e) {
+                    logger.error("There was a problem deleting unreferenced KMS key: {}, region: {}", kmsKeyArn, region, e);
+                }
+            }
+        }
+    }
+}
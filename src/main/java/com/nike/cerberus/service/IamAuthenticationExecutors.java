@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.service;
+
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nike.backstopper.exception.ApiException;
+import com.nike.cerberus.error.DefaultApiError;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import com.nike.riposte.util.AsyncNettyHelper;
+import com.nike.wingtips.Span;
+import com.nike.wingtips.Tracer;
+import org.slf4j.MDC;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Dedicated executors for the stages of IAM principal authentication, one for DB work, one for calls to KMS and
+ * Vault, and one for lazily provisioning KMS keys, so that a slow dependency cannot starve the others or the shared
+ * long running task executor.  The duration of each stage is recorded in a timer named {@value #METRIC_PREFIX} + the
+ * stage name.
+ * <p>
+ * Provisioning a key waits for KMS quota and joins the provisioning of the same principal already in flight, which can
+ * take as long as the create key and put policy calls and their retries.  Running it on its own pool means a KMS
+ * throttle parks at most the provisioning threads, while logins of principals that already have a key keep using the
+ * remote threads, whose remaining waits for quota are bounded by {@code cms.kms.quota.interactiveMaxWaitMillis}.
+ * <p>
+ * Like {@link com.nike.cerberus.auth.connector.AuthConnectorExecutor} all executors have bounded queues, once the
+ * threads are busy and the queue is full a stage fails fast with a service unavailable error.  Stages run with the
+ * tracing and MDC of the thread that assembled the pipeline, so their logs carry the request's trace id.
+ */
+@Singleton
+public class IamAuthenticationExecutors {
+
+    public static final String METRIC_PREFIX = "cms.auth.iam.stage.";
+
+    private final Executor dbExecutor;
+
+    private final Executor remoteExecutor;
+
+    private final Executor provisioningExecutor;
+
+    private final CodahaleMetricsCollector metricsCollector;
+
+    @Inject
+    public IamAuthenticationExecutors(@Named("cms.auth.iam.executor.dbThreads") final int dbThreads,
+                                      @Named("cms.auth.iam.executor.dbQueueSize") final int dbQueueSize,
+                                      @Named("cms.auth.iam.executor.remoteThreads") final int remoteThreads,
+                                      @Named("cms.auth.iam.executor.remoteQueueSize") final int remoteQueueSize,
+                                      @Named("cms.auth.iam.executor.provisioningThreads") final int provisioningThreads,
+                                      @Named("cms.auth.iam.executor.provisioningQueueSize") final int provisioningQueueSize,
+                                      final CodahaleMetricsCollector metricsCollector) {
+        this(newBoundedExecutor(dbThreads, dbQueueSize, "iam-auth-db-%d"),
+                newBoundedExecutor(remoteThreads, remoteQueueSize, "iam-auth-remote-%d"),
+                newBoundedExecutor(provisioningThreads, provisioningQueueSize, "iam-auth-provisioning-%d"),
+                metricsCollector);
+    }
+
+    IamAuthenticationExecutors(final Executor dbExecutor,
+                               final Executor remoteExecutor,
+                               final Executor provisioningExecutor,
+                               final CodahaleMetricsCollector metricsCollector) {
+        this.dbExecutor = dbExecutor;
+        this.remoteExecutor = remoteExecutor;
+        this.provisioningExecutor = provisioningExecutor;
+        this.metricsCollector = metricsCollector;
+    }
+
+    private static Executor newBoundedExecutor(final int threads, final int queueSize, final String nameFormat) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder()
+                        .setNameFormat(nameFormat)
+                        .setDaemon(true)
+                        .build());
+    }
+
+    /**
+     * Runs the given stage on the DB executor.
+     */
+    public <T> CompletableFuture<T> supplyDb(final String stage, final Supplier<T> supplier) {
+        return submit(dbExecutor, () -> time(stage, supplier), currentSpanStack(), MDC.getCopyOfContextMap());
+    }
+
+    /**
+     * Runs the given stage on the KMS and Vault executor.
+     */
+    public <T> CompletableFuture<T> supplyRemote(final String stage, final Supplier<T> supplier) {
+        return submit(remoteExecutor, () -> time(stage, supplier), currentSpanStack(), MDC.getCopyOfContextMap());
+    }
+
+    /**
+     * Applies the given function to the result of the source stage on the DB executor.
+     */
+    public <T, U> CompletableFuture<U> thenApplyDb(final CompletableFuture<T> source, final Function<T, U> function) {
+        final Deque<Span> spanStack = currentSpanStack();
+        final Map<String, String> mdc = MDC.getCopyOfContextMap();
+        return source.thenCompose(value -> submit(dbExecutor, () -> function.apply(value), spanStack, mdc));
+    }
+
+    /**
+     * Applies the given function to the result of the source stage on the KMS and Vault executor.
+     */
+    public <T, U> CompletableFuture<U> thenApplyRemote(final CompletableFuture<T> source,
+                                                       final Function<T, U> function) {
+        final Deque<Span> spanStack = currentSpanStack();
+        final Map<String, String> mdc = MDC.getCopyOfContextMap();
+        return source.thenCompose(value -> submit(remoteExecutor, () -> function.apply(value), spanStack, mdc));
+    }
+
+    /**
+     * Applies the given function to the result of the source stage on the KMS key provisioning executor when the
+     * result needs provisioning, and on the KMS and Vault executor otherwise.
+     */
+    public <T, U> CompletableFuture<U> thenApplyRemoteOrProvisioning(final CompletableFuture<T> source,
+                                                                     final Predicate<T> needsProvisioning,
+                                                                     final Function<T, U> function) {
+        final Deque<Span> spanStack = currentSpanStack();
+        final Map<String, String> mdc = MDC.getCopyOfContextMap();
+        return source.thenCompose(value -> submit(needsProvisioning.test(value) ? provisioningExecutor : remoteExecutor,
+                () -> function.apply(value), spanStack, mdc));
+    }
+
+    /**
+     * Applies the given function to the results of both stages on the KMS and Vault executor, once both completed
+     * successfully.
+     */
+    public <T, U, V> CompletableFuture<V> thenCombineRemote(final CompletableFuture<T> first,
+                                                            final CompletableFuture<U> second,
+                                                            final BiFunction<T, U, V> function) {
+        final Deque<Span> spanStack = currentSpanStack();
+        final Map<String, String> mdc = MDC.getCopyOfContextMap();
+        return first.thenCombine(second, (a, b) -> (Supplier<V>) () -> function.apply(a, b))
+                .thenCompose(supplier -> submit(remoteExecutor, supplier, spanStack, mdc));
+    }
+
+    /**
+     * Runs the given stage on the calling thread and records its duration.
+     */
+    public <T> T time(final String stage, final Supplier<T> supplier) {
+        final Timer.Context timer = metricsCollector.getNamedTimer(METRIC_PREFIX + stage).time();
+        try {
+            return supplier.get();
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Waits for the given future, rethrowing the exception of a failed stage as is rather than wrapped.
+     */
+    public static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static <T> CompletableFuture<T> submit(final Executor executor,
+                                                   final Supplier<T> supplier,
+                                                   final Deque<Span> spanStack,
+                                                   final Map<String, String> mdc) {
+        try {
+            return CompletableFuture.supplyAsync(
+                    AsyncNettyHelper.supplierWithTracingAndMdc(supplier, spanStack, mdc), executor);
+        } catch (RejectedExecutionException e) {
+            final CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(ApiException.newBuilder()
+                    .withApiErrors(DefaultApiError.SERVICE_UNAVAILABLE)
+                    .withExceptionCause(e)
+                    .withExceptionMessage("Too many pending IAM authentication stages")
+                    .build());
+            return future;
+        }
+    }
+
+    private static Deque<Span> currentSpanStack() {
+        return Tracer.getInstance().getCurrentSpanStackCopy();
+    }
+}
@@ -24,13 +24,13 @@ import com.nike.cerberus.domain.Role;
 import com.nike.cerberus.error.DefaultApiError;
 import com.nike.cerberus.record.AwsIamRolePermissionRecord;
 import com.nike.cerberus.record.AwsIamRoleRecord;
+import com.nike.cerberus.util.AfterCommitJdbcTransactionFactory;
 import com.nike.cerberus.util.UuidSupplier;
 import org.mybatis.guice.transactional.Transactional;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.time.OffsetDateTime;
-import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
@@ -46,13 +46,25 @@ public class IamPrincipalPermissionService {
 
     private final AwsIamRoleDao awsIamRoleDao;
 
+    private final IamPrincipalPolicyCache iamPrincipalPolicyCache;
+
+    private final IamPrincipalTokenCache iamPrincipalTokenCache;
+
+    private final AwsIamRoleRecordCache awsIamRoleRecordCache;
+
     @Inject
     public IamPrincipalPermissionService(final UuidSupplier uuidSupplier,
                                          final RoleService roleService,
-                                         final AwsIamRoleDao awsIamRoleDao) {
+                                         final AwsIamRoleDao awsIamRoleDao,
+                                         final IamPrincipalPolicyCache iamPrincipalPolicyCache,
+                                         final IamPrincipalTokenCache iamPrincipalTokenCache,
+                                         final AwsIamRoleRecordCache awsIamRoleRecordCache) {
         this.uuidSupplier = uuidSupplier;
         this.roleService = roleService;
         this.awsIamRoleDao = awsIamRoleDao;
+        this.iamPrincipalPolicyCache = iamPrincipalPolicyCache;
+        this.iamPrincipalTokenCache = iamPrincipalTokenCache;
+        this.awsIamRoleRecordCache = awsIamRoleRecordCache;
     }
 
     /**
@@ -122,6 +134,7 @@ public class IamPrincipalPermissionService {
         permissionRecord.setCreatedTs(dateTime);
         permissionRecord.setLastUpdatedTs(dateTime);
         awsIamRoleDao.createIamRolePermission(permissionRecord);
+        invalidateCachesAfterCommit();
     }
 
     /**
@@ -172,6 +185,7 @@ public class IamPrincipalPermissionService {
         record.setLastUpdatedBy(user);
         record.setLastUpdatedTs(dateTime);
         awsIamRoleDao.updateIamRolePermission(record);
+        invalidateCachesAfterCommit();
     }
 
     /**
@@ -216,33 +230,28 @@ public class IamPrincipalPermissionService {
         }
 
         awsIamRoleDao.deleteIamRolePermission(safeDepositBoxId, iamRole.get().getId());
+        invalidateCachesAfterCommit();
     }
 
     public Set<IamPrincipalPermission> getIamPrincipalPermissions(final String safeDepositBoxId) {
-        final Set<IamPrincipalPermission> iamPrincipalPermissionSet = Sets.newHashSet();
-        final List<AwsIamRolePermissionRecord> permissionRecords = awsIamRoleDao.getIamRolePermissions(safeDepositBoxId);
-
-        permissionRecords.forEach(r -> {
-            final Optional<AwsIamRoleRecord> iamRoleRecord = awsIamRoleDao.getIamRoleById(r.getAwsIamRoleId());
-
-            if (iamRoleRecord.isPresent()) {
-                final IamPrincipalPermission permission = new IamPrincipalPermission();
-                permission.setId(r.getId());
-                permission.setIamPrincipalArn(iamRoleRecord.get().getAwsIamRoleArn());
-                permission.setRoleId(r.getRoleId());
-                permission.setCreatedBy(r.getCreatedBy());
-                permission.setLastUpdatedBy(r.getLastUpdatedBy());
-                permission.setCreatedTs(r.getCreatedTs());
-                permission.setLastUpdatedTs(r.getLastUpdatedTs());
-                iamPrincipalPermissionSet.add(permission);
-            }
-        });
-
-        return iamPrincipalPermissionSet;
+        return Sets.newHashSet(awsIamRoleDao.getIamRolePermissionsWithArns(safeDepositBoxId));
     }
 
     @Transactional
     public void deleteIamPrincipalPermissions(final String safeDepositBoxId) {
         awsIamRoleDao.deleteIamRolePermissions(safeDepositBoxId);
+        invalidateCachesAfterCommit();
+    }
+
+    /**
+     * Cached policies, tokens and principal to role mappings are only dropped once the permission change has
+     * committed, otherwise a request racing the transaction could reload the old permissions and cache them again.
+     */
+    private void invalidateCachesAfterCommit() {
+        AfterCommitJdbcTransactionFactory.runAfterCommit(() -> {
+            iamPrincipalPolicyCache.invalidateAll();
+            iamPrincipalTokenCache.invalidateAll();
+            awsIamRoleRecordCache.invalidatePrincipalIamRoles();
+        });
     }
 }
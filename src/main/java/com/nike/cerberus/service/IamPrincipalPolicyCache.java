@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nike.cerberus.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.nike.cerberus.util.CacheMetrics;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Cache of IAM principal ARN to the complete set of Vault policies granted to it, including those granted to its base
+ * role.  Entries are invalidated whenever IAM principal permissions change on this node and expire after a short
+ * period so that changes made through other CMS nodes are picked up.
+ */
+@Singleton
+public class IamPrincipalPolicyCache {
+
+    public static final String MAX_SIZE_PROPERTY = "cms.auth.iam.policy.cache.maxSize";
+
+    public static final String EXPIRE_AFTER_WRITE_SECONDS_PROPERTY = "cms.auth.iam.policy.cache.expireAfterWriteSeconds";
+
+    public static final String METRIC_PREFIX = "cms.auth.iam.policy.cache";
+
+    private final Cache<String, Set<String>> cache;
+
+    @Inject
+    public IamPrincipalPolicyCache(@Named(MAX_SIZE_PROPERTY) final long maxSize,
+                                   @Named(EXPIRE_AFTER_WRITE_SECONDS_PROPERTY) final long expireAfterWriteSeconds,
+                                   final CodahaleMetricsCollector metricsCollector) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CacheMetrics.register(metricsCollector, METRIC_PREFIX, cache);
+    }
+
+    /**
+     * Returns the cached policy set for the principal, resolving and caching it with the given supplier on a miss.
+     *
+     * @param iamPrincipalArn The authenticating IAM principal ARN
+     * @param policyResolver  Resolves the complete set of policies for the principal
+     * @return Immutable set of policy names
+     */
+    public Set<String> get(final String iamPrincipalArn, final Supplier<Set<String>> policyResolver) {
+        try {
+            return cache.get(iamPrincipalArn, () -> ImmutableSet.copyOf(policyResolver.get()));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to resolve policies for IAM principal: " + iamPrincipalArn, e);
+        }
+    }
+
+    /**
+     * Drops every cached policy set.  A permission granted to a base role applies to every principal that assumes it,
+     * so the whole cache is cleared rather than tracking which principals map to which role.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
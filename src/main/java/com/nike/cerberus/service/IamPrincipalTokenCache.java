@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nike.cerberus.service;
+package com.nike.cerberus.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.nike.cerberus.domain.AuthPayloadEncoding;
+import com.nike.cerberus.util.CacheMetrics;
+import com.nike.cerberus.util.VaultDurations;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Opt-in cache of IAM principal auth responses, so that repeat logins of the same principal in the same region reuse a
+ * recently created Vault token instead of writing a new orphan token to Vault on every login.
+ * <p>
+ * Only the auth payload already encrypted under the principal's KMS key is cached, so the token is never held in
+ * plaintext.  Entries are keyed by the principal, region, KMS key, payload encoding and a hash of the token's policies
+ * and metadata, so any permission change produces a different key, and are additionally cleared when permissions change through
+ * this node.  Entries expire after the configured max age, which bounds how much of the token's TTL can have been
+ * used by the time it is handed out again, so it must be shorter than the IAM token TTL (cms.iam.token.ttl.override).  Revoking a token through CMS evicts it.
+ * <p>
+ * A reused token is shared by every caller that authenticates as the same principal through the node that created it,
+ * e.g. all the instances of an auto scaling group.  So while reuse is enabled a logout of an IAM principal token with
+ * DELETE /v1/auth only stops it being handed out again, it is not revoked and stays valid until it expires, otherwise
+ * one caller's logout would break every other caller holding the same token.
+ */
+@Singleton
+public class IamPrincipalTokenCache {
+
+    public static final String ENABLED_PROPERTY = "cms.auth.iam.token.reuse.enabled";
+
+    public static final String MAX_SIZE_PROPERTY = "cms.auth.iam.token.reuse.maxSize";
+
+    public static final String MAX_AGE_SECONDS_PROPERTY = "cms.auth.iam.token.reuse.maxAgeSeconds";
+
+    public static final String METRIC_PREFIX = "cms.auth.iam.token.reuse";
+
+    private final boolean enabled;
+
+    private final Cache<String, EncryptedToken> cache;
+
+    @Inject
+    public IamPrincipalTokenCache(@Named(ENABLED_PROPERTY) final boolean enabled,
+                                  @Named(MAX_SIZE_PROPERTY) final long maxSize,
+                                  @Named(MAX_AGE_SECONDS_PROPERTY) final long maxAgeSeconds,
+                                  @Named(AuthenticationService.IAM_TOKEN_TTL_OVERRIDE) final String iamTokenTtl,
+                                  final CodahaleMetricsCollector metricsCollector) {
+        if (enabled && maxAgeSeconds >= VaultDurations.toSeconds(iamTokenTtl)) {
+            throw new IllegalArgumentException(String.format(
+                    "%s (%ds) must be shorter than the IAM token TTL (%s), otherwise expired tokens would be reused",
+                    MAX_AGE_SECONDS_PROPERTY, maxAgeSeconds, iamTokenTtl));
+        }
+        this.enabled = enabled;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(maxAgeSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CacheMetrics.register(metricsCollector, METRIC_PREFIX, cache);
+    }
+
+    /**
+     * Returns the cached encrypted auth payload for the principal, or creates, caches and returns a new one with the
+     * given supplier.  Concurrent logins of the same principal share a single token.  When reuse is disabled the
+     * supplier is always called.
+     *
+     * @param iamPrincipalArn The authenticating IAM principal ARN
+     * @param region          The region of the principal's KMS key
+     * @param kmsKeyId        The KMS key the payload is encrypted with
+     * @param payloadEncoding The encoding of the auth response inside the payload
+     * @param policies        The policies of the token
+     * @param metadata        The metadata of the token
+     * @param tokenCreator    Creates a new token and returns its encrypted auth payload
+     * @return The encrypted auth payload
+     */
+    public EncryptedToken get(final String iamPrincipalArn,
+                              final String region,
+                              final String kmsKeyId,
+                              final AuthPayloadEncoding payloadEncoding,
+                              final Set<String> policies,
+                              final Map<String, String> metadata,
+                              final Supplier<EncryptedToken> tokenCreator) {
+        if (!enabled) {
+            return tokenCreator.get();
+        }
+
+        final String key = StringUtils.join(new Object[]{iamPrincipalArn, region, kmsKeyId, payloadEncoding,
+                DigestUtils.sha256Hex(new TreeSet<>(policies).toString() + new TreeMap<>(metadata).toString())}, '\n');
+        try {
+            return cache.get(key, tokenCreator::get);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Failed to create token for IAM principal: " + iamPrincipalArn, e);
+        }
+    }
+
+    /**
+     * @return True if tokens are reused, in which case an IAM principal token may be held by several callers
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Stops handing out the given token, e.g. because it was revoked.
+     */
+    public void evict(final String vaultToken) {
+        if (enabled) {
+            final String tokenHash = DigestUtils.sha256Hex(vaultToken);
+            cache.asMap().values().removeIf(token -> StringUtils.equals(token.tokenHash, tokenHash));
+        }
+    }
+
+    /**
+     * Drops every cached token.  Called when IAM principal permissions change, for the same reason as
+     * {@link IamPrincipalPolicyCache#invalidateAll()}.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * An auth payload encrypted under the principal's KMS key, with a hash of the Vault token it contains
+     */
+    public static final class EncryptedToken {
+
+        private final String tokenHash;
+
+        private final String authData;
+
+        public EncryptedToken(final String vaultToken, final String authData) {
+            this.tokenHash = DigestUtils.sha256Hex(vaultToken);
+            this.authData = authData;
+        }
+
+        public String getAuthData() {
+            return authData;
+        }
+    }
+}
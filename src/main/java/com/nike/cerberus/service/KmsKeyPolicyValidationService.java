@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nike.cerberus.dao.AwsIamRoleDao;
+import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
+import com.nike.cerberus.util.DateTimeSupplier;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Validates KMS key policies in the background so that IAM authentication never waits on the KMS and DB calls that
+ * validation requires.
+ * <p>
+ * The authentication path only records which principal is using a key and, if the key is already due, queues it.
+ * A periodic sweep queues keys that will become due before the next sweep.  Only keys that have been used on this
+ * node since their last validation are queued, because the last validated timestamp is also what the clean up job
+ * uses to find inactive keys, so the sweep only reads those keys from AWS_IAM_ROLE_KMS_KEY, in batches.  Queued validations are spread out with a random delay to avoid bursts of KMS
+ * calls.
+ */
+@Singleton
+public class KmsKeyPolicyValidationService {
+
+    public static final String METRIC_QUEUE_DEPTH = "cms.kms.policy.validation.queueDepth";
+
+    public static final String METRIC_LATENCY = "cms.kms.policy.validation.latency";
+
+    /**
+     * Maximum number of key IDs per sweep query, keeps the IN list well within statement size limits
+     */
+    static final int SWEEP_BATCH_SIZE = 500;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final KmsService kmsService;
+
+    private final AwsIamRoleDao awsIamRoleDao;
+
+    private final DateTimeSupplier dateTimeSupplier;
+
+    private final ScheduledExecutorService executor;
+
+    private final long sweepIntervalSeconds;
+
+    private final long maxJitterMillis;
+
+    private final Timer latencyTimer;
+
+    /**
+     * KMS key record ID to the ARN of the IAM principal that most recently authenticated with it
+     */
+    private final ConcurrentMap<String, String> usedKeys = new ConcurrentHashMap<>();
+
+    private final Set<String> queuedKeys = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean sweepStarted = new AtomicBoolean(false);
+
+    @Inject
+    public KmsKeyPolicyValidationService(final KmsService kmsService,
+                                         final AwsIamRoleDao awsIamRoleDao,
+                                         final DateTimeSupplier dateTimeSupplier,
+                                         final CodahaleMetricsCollector metricsCollector,
+                                         @Named("cms.kms.policy.validation.threads") final int threads,
+                                         @Named("cms.kms.policy.validation.sweepIntervalSeconds") final long sweepIntervalSeconds,
+                                         @Named("cms.kms.policy.validation.maxJitterMillis") final long maxJitterMillis) {
+        this(kmsService, awsIamRoleDao, dateTimeSupplier, metricsCollector,
+                Executors.newScheduledThreadPool(threads, new ThreadFactoryBuilder()
+                        .setNameFormat("kms-policy-validation-%d")
+                        .setDaemon(true)
+                        .build()),
+                sweepIntervalSeconds, maxJitterMillis);
+    }
+
+    KmsKeyPolicyValidationService(final KmsService kmsService,
+                                  final AwsIamRoleDao awsIamRoleDao,
+                                  final DateTimeSupplier dateTimeSupplier,
+                                  final CodahaleMetricsCollector metricsCollector,
+                                  final ScheduledExecutorService executor,
+                                  final long sweepIntervalSeconds,
+                                  final long maxJitterMillis) {
+        this.kmsService = kmsService;
+        this.awsIamRoleDao = awsIamRoleDao;
+        this.dateTimeSupplier = dateTimeSupplier;
+        this.executor = executor;
+        this.sweepIntervalSeconds = sweepIntervalSeconds;
+        this.maxJitterMillis = maxJitterMillis;
+        this.latencyTimer = metricsCollector.getNamedTimer(METRIC_LATENCY);
+
+        final MetricRegistry registry = metricsCollector.getMetricRegistry();
+        registry.remove(METRIC_QUEUE_DEPTH);
+        registry.register(METRIC_QUEUE_DEPTH, (Gauge<Integer>) queuedKeys::size);
+    }
+
+    /**
+     * Records that the given principal authenticated with the given key, and queues the key for validation if its
+     * validation interval has passed.  Never blocks on the validation itself.
+     *
+     * @param kmsKeyRecord - The CMK record used for authentication
+     * @param iamPrincipalArn - The authenticating principal, which should have decrypt permission
+     */
+    public void requestValidation(final AwsIamRoleKmsKeyRecord kmsKeyRecord, final String iamPrincipalArn) {
+        startSweep();
+        usedKeys.put(kmsKeyRecord.getId(), iamPrincipalArn);
+
+        if (kmsService.kmsPolicyNeedsValidation(kmsKeyRecord)) {
+            enqueue(kmsKeyRecord, iamPrincipalArn);
+        }
+    }
+
+    /**
+     * Queues validation for used keys whose validation interval will pass before the next sweep.
+     */
+    protected void sweep() {
+        if (usedKeys.isEmpty()) {
+            return;
+        }
+
+        final OffsetDateTime cutoff = dateTimeSupplier.get()
+                .minus(kmsService.getKmsKeyPolicyValidationIntervalMillis(), ChronoUnit.MILLIS)
+                .plusSeconds(sweepIntervalSeconds);
+        for (final List<String> ids : Lists.partition(new ArrayList<>(usedKeys.keySet()), SWEEP_BATCH_SIZE)) {
+            awsIamRoleDao.getKmsKeysLastValidatedBefore(ids, cutoff).forEach(kmsKeyRecord -> {
+                final String iamPrincipalArn = usedKeys.get(kmsKeyRecord.getId());
+                if (iamPrincipalArn != null) {
+                    enqueue(kmsKeyRecord, iamPrincipalArn);
+                }
+            });
+        }
+    }
+
+    private void enqueue(final AwsIamRoleKmsKeyRecord kmsKeyRecord, final String iamPrincipalArn) {
+        if (!queuedKeys.add(kmsKeyRecord.getId())) {
+            return;
+        }
+
+        final long delayMillis = maxJitterMillis > 0 ? ThreadLocalRandom.current().nextLong(maxJitterMillis + 1) : 0;
+        try {
+            executor.schedule(() -> validate(kmsKeyRecord, iamPrincipalArn), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            queuedKeys.remove(kmsKeyRecord.getId());
+            logger.error("Failed to queue validation of KMS key: {}", kmsKeyRecord.getAwsKmsKeyId(), e);
+        }
+    }
+
+    private void validate(final AwsIamRoleKmsKeyRecord kmsKeyRecord, final String iamPrincipalArn) {
+        final Timer.Context timer = latencyTimer.time();
+        try {
+            // cleared before validating so that a login during validation marks the key as used again
+            usedKeys.remove(kmsKeyRecord.getId(), iamPrincipalArn);
+            kmsService.validateKeyAndPolicyNow(kmsKeyRecord, iamPrincipalArn);
+        } catch (RuntimeException e) {
+            logger.error("Failed to validate KMS key: {} for IAM principal: {} in region: {}",
+                    kmsKeyRecord.getAwsKmsKeyId(), iamPrincipalArn, kmsKeyRecord.getAwsRegion(), e);
+        } finally {
+            queuedKeys.remove(kmsKeyRecord.getId());
+            timer.stop();
+        }
+    }
+
+    private void startSweep() {
+        if (sweepStarted.compareAndSet(false, true)) {
+            executor.scheduleWithFixedDelay(() -> {
+                try {
+                    sweep();
+                } catch (RuntimeException e) {
+                    logger.error("KMS key policy validation sweep failed", e);
+                }
+            }, sweepIntervalSeconds, sweepIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.service;
+
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nike.cerberus.aws.KmsCallPriority;
+import com.nike.cerberus.dao.AwsIamRoleDao;
+import com.nike.cerberus.record.AwsKmsKeyPoolRecord;
+import com.nike.cerberus.util.DateTimeSupplier;
+import com.nike.cerberus.util.UuidSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.nike.cerberus.service.AuthenticationService.SYSTEM_USER;
+
+/**
+ * Keeps a pool of pre-created, unassigned KMS CMKs in each configured region so that the first authentication of an
+ * IAM principal in a region can claim a key and bind it with a single policy update, instead of waiting on key and
+ * alias creation.
+ * <p>
+ * Pooled keys are stored in AWS_KMS_KEY_POOL so the pool survives restarts and is shared by every CMS node.  Each
+ * node tops the pool up to the target size on a fixed schedule, so concurrent refills can overfill a region by at
+ * most the target size per node.  Keys are claimed by {@link KmsService} when it provisions a key for a role.
+ */
+@Singleton
+public class KmsKeyPoolService {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final KmsService kmsService;
+
+    private final KmsPolicyService kmsPolicyService;
+
+    private final AwsIamRoleDao awsIamRoleDao;
+
+    private final UuidSupplier uuidSupplier;
+
+    private final DateTimeSupplier dateTimeSupplier;
+
+    private final List<String> regions;
+
+    private final int targetSize;
+
+    @Inject
+    public KmsKeyPoolService(final KmsService kmsService,
+                             final KmsPolicyService kmsPolicyService,
+                             final AwsIamRoleDao awsIamRoleDao,
+                             final UuidSupplier uuidSupplier,
+                             final DateTimeSupplier dateTimeSupplier,
+                             @Named("cms.kms.key.pool.regions") final String regions,
+                             @Named("cms.kms.key.pool.targetSize") final int targetSize,
+                             @Named("cms.kms.key.pool.refillIntervalSeconds") final long refillIntervalSeconds) {
+        this(kmsService, kmsPolicyService, awsIamRoleDao, uuidSupplier, dateTimeSupplier, regions, targetSize);
+
+        if (!this.regions.isEmpty() && targetSize > 0) {
+            final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("kms-key-pool-%d")
+                    .setDaemon(true)
+                    .build());
+            executor.scheduleWithFixedDelay(this::refillAll, 0, refillIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    KmsKeyPoolService(final KmsService kmsService,
+                      final KmsPolicyService kmsPolicyService,
+                      final AwsIamRoleDao awsIamRoleDao,
+                      final UuidSupplier uuidSupplier,
+                      final DateTimeSupplier dateTimeSupplier,
+                      final String regions,
+                      final int targetSize) {
+        this.kmsService = kmsService;
+        this.kmsPolicyService = kmsPolicyService;
+        this.awsIamRoleDao = awsIamRoleDao;
+        this.uuidSupplier = uuidSupplier;
+        this.dateTimeSupplier = dateTimeSupplier;
+        this.regions = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(regions);
+        this.targetSize = targetSize;
+    }
+
+    /**
+     * Tops up the pool in every configured region, a failure in one region does not stop the others
+     */
+    protected void refillAll() {
+        regions.forEach(region -> {
+            try {
+                refill(region);
+            } catch (RuntimeException e) {
+                logger.error("Failed to refill the KMS key pool in region: {}", region, e);
+            }
+        });
+    }
+
+    /**
+     * Creates unassigned keys until the pool for the given region reaches the target size
+     *
+     * @param region - The region to refill
+     * @return - The number of keys added to the pool
+     */
+    protected int refill(final String region) {
+        final int missing = targetSize - awsIamRoleDao.countPooledKmsKeys(region);
+        int added = 0;
+
+        for (int i = 0; i < missing; i++) {
+            final String id = uuidSupplier.get();
+            final String arn = kmsService.createKmsKey(id, region, kmsPolicyService.generateUnassignedKmsPolicy(),
+                    KmsCallPriority.HOUSEKEEPING);
+
+            final AwsKmsKeyPoolRecord record = new AwsKmsKeyPoolRecord()
+                    .setId(id)
+                    .setAwsRegion(region)
+                    .setAwsKmsKeyId(arn)
+                    .setCreatedBy(SYSTEM_USER)
+                    .setCreatedTs(dateTimeSupplier.get());
+            try {
+                awsIamRoleDao.createPooledKmsKey(record);
+            } catch (RuntimeException e) {
+                logger.error("Failed to save pooled KMS key: {} in region: {}, scheduling the unused key for deletion",
+                        arn, region, e);
+                kmsService.scheduleKmsKeyDeletionQuietly(arn, region);
+                throw e;
+            }
+            added++;
+        }
+
+        if (added > 0) {
+            logger.info("Added {} KMS keys to the pool in region: {}", added, region);
+        }
+        return added;
+    }
+}
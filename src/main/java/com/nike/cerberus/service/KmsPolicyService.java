@@ -25,6 +25,13 @@ import com.amazonaws.auth.policy.Statement;
 import com.amazonaws.auth.policy.actions.KMSActions;
 import com.amazonaws.auth.policy.internal.JsonPolicyReader;
 import com.amazonaws.services.kms.model.PutKeyPolicyRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,8 +39,13 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -56,6 +68,8 @@ public class KmsPolicyService {
 
     protected static final String CERBERUS_MANAGEMENT_SERVICE_SID = "CMS Role Key Access";
 
+    private static final long MAX_CACHED_POLICIES = 10_000;
+
     private final String rootUserArn;
 
     private final String adminRoleArn;
@@ -64,13 +78,25 @@ public class KmsPolicyService {
 
     private final JsonPolicyReader policyReader;
 
+    private final ObjectMapper objectMapper;
+
+    /**
+     * SHA-256 of a policy document to what the Cerberus validation rules need to know about it.  Policies are content
+     * addressed, so cached entries never go stale.
+     */
+    private final Cache<String, KmsPolicySummary> policySummaries = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_POLICIES)
+            .build();
+
     @Inject
     public KmsPolicyService(@Named(ROOT_USER_ARN_PROPERTY) String rootUserArn,
                             @Named(ADMIN_ROLE_ARN_PROPERTY) String adminRoleArn,
-                            @Named(CMS_ROLE_ARN_PROPERTY) String cmsRoleArn) {
+                            @Named(CMS_ROLE_ARN_PROPERTY) String cmsRoleArn,
+                            ObjectMapper objectMapper) {
         this.rootUserArn = rootUserArn;
         this.adminRoleArn = adminRoleArn;
         this.cmsRoleArn = cmsRoleArn;
+        this.objectMapper = objectMapper;
 
         PolicyReaderOptions policyReaderOptions = new PolicyReaderOptions();
         policyReaderOptions.setStripAwsPrincipalIdHyphensEnabled(false);
@@ -86,7 +112,8 @@ public class KmsPolicyService {
      * @return true if the policy is valid, false if the policy contains an ID because the ARN had been deleted and recreated
      */
     public boolean isPolicyValid(String policyJson, String iamRoleArn) {
-        return iamPrincipalCanAccessKey(policyJson, iamRoleArn) && cmsHasKeyDeletePermissions(policyJson);
+        final KmsPolicySummary summary = summarize(policyJson);
+        return summary.consumerPrincipals.contains(iamRoleArn) && summary.cmsHasKeyDeletePermissions;
     }
 
     /**
@@ -100,41 +127,116 @@ public class KmsPolicyService {
      * @param iamPrincipalArn - The IAM Role that is supposed to have decrypt permissions
      */
     protected boolean iamPrincipalCanAccessKey(String policyJson, String iamPrincipalArn) {
+        return summarize(policyJson).consumerPrincipals.contains(iamPrincipalArn);
+    }
+
+    /**
+     * Validate that the IAM principal for the CMS has permissions to schedule and cancel deletion of the KMS key.
+     * @param policyJson - The KMS key policy as a String
+     */
+    protected boolean cmsHasKeyDeletePermissions(String policyJson) {
+        return summarize(policyJson).cmsHasKeyDeletePermissions;
+    }
+
+    /**
+     * Validate that this CMS, and no other principal, manages the KMS key: the management statement grants this CMS's
+     * role permission to schedule and cancel deletion and names no other principal.  Keys of another Cerberus
+     * environment in the same account carry that environment's CMS role instead.
+     * @param policyJson - The KMS key policy as a String
+     */
+    protected boolean isManagedByThisCms(String policyJson) {
+        final KmsPolicySummary summary = summarize(policyJson);
+        return summary.cmsHasKeyDeletePermissions && summary.managementPrincipals.equals(ImmutableSet.of(cmsRoleArn));
+    }
+
+    /**
+     * Parses the policy once and evaluates every validation rule in a single pass over its statements.  Results are
+     * memoized by the SHA-256 of the policy, so repeated validation of an unchanged policy does not parse it again.
+     * A policy that cannot be parsed fails every rule.
+     */
+    private KmsPolicySummary summarize(String policyJson) {
+        if (policyJson == null) {
+            return KmsPolicySummary.INVALID;
+        }
+
+        final String policyHash = Hashing.sha256().hashString(policyJson, StandardCharsets.UTF_8).toString();
+        KmsPolicySummary summary = policySummaries.getIfPresent(policyHash);
+        if (summary == null) {
+            summary = parseSummary(policyJson);
+            policySummaries.put(policyHash, summary);
+        }
+        return summary;
+    }
+
+    private KmsPolicySummary parseSummary(String policyJson) {
+        final Set<String> consumerPrincipals = new HashSet<>();
+        final Set<String> managementPrincipals = new HashSet<>();
+        boolean cmsCanDelete = false;
+
         try {
-            Policy policy = policyReader.createPolicyFromJsonString(policyJson);
-            return policy.getStatements()
-                    .stream()
-                    .anyMatch(statement ->
-                            StringUtils.equals(statement.getId(), CERBERUS_CONSUMER_SID) &&
-                                    statementAppliesToPrincipal(statement, iamPrincipalArn));
+            final JsonNode statementsNode = objectMapper.readTree(policyJson).path("Statement");
+            final Iterable<JsonNode> statements = statementsNode.isObject() ?
+                    Collections.singletonList(statementsNode) : statementsNode;
+            for (JsonNode statement : statements) {
+                final String sid = statement.path("Sid").asText(null);
+
+                if (StringUtils.equals(sid, CERBERUS_CONSUMER_SID)) {
+                    forEachValue(statement.path("Principal"), consumerPrincipals::add);
+                } else if (StringUtils.equals(sid, CERBERUS_MANAGEMENT_SERVICE_SID)) {
+                    final Set<String> principals = new HashSet<>();
+                    final Set<String> actions = new HashSet<>();
+                    forEachValue(statement.path("Principal"), principals::add);
+                    forEachValue(statement.path("Action"), actions::add);
+                    managementPrincipals.addAll(principals);
+
+                    final String effect = statement.path("Effect").asText(null);
+
+                    cmsCanDelete = cmsCanDelete || (StringUtils.equals(effect, Statement.Effect.Allow.name()) &&
+                            principals.contains(cmsRoleArn) &&
+                            actions.contains(KMSActions.ScheduleKeyDeletion.getActionName()) &&
+                            actions.contains(KMSActions.CancelKeyDeletion.getActionName()));
+                }
+            }
         } catch (Exception e) {
             // if we can't deserialize we will assume policy has been corrupted manually and regenerate it
             logger.error("Failed to validate policy, did someone manually edit the kms policy?", e);
+            return KmsPolicySummary.INVALID;
         }
 
-        return false;
+        return new KmsPolicySummary(consumerPrincipals, managementPrincipals, cmsCanDelete);
     }
 
     /**
-     * Validate that the IAM principal for the CMS has permissions to schedule and cancel deletion of the KMS key.
-     * @param policyJson - The KMS key policy as a String
+     * Visits the text values of a policy element that may be a string, an array of strings, or an object (i.e. a
+     * principal) mapping providers to either of those.
      */
-    protected boolean cmsHasKeyDeletePermissions(String policyJson) {
-        try {
-            Policy policy = policyReader.createPolicyFromJsonString(policyJson);
-            return policy.getStatements()
-                    .stream()
-                    .anyMatch(statement ->
-                            StringUtils.equals(statement.getId(), CERBERUS_MANAGEMENT_SERVICE_SID) &&
-                                    statementAppliesToPrincipal(statement, cmsRoleArn) &&
-                                    statement.getEffect() == Statement.Effect.Allow &&
-                                    statementIncludesAction(statement, KMSActions.ScheduleKeyDeletion) &&
-                                    statementIncludesAction(statement, KMSActions.CancelKeyDeletion));
-        } catch (Exception e) {
-            logger.error("Failed to validate that CMS can delete KMS key, there may be something wrong with the policy", e);
+    private void forEachValue(JsonNode node, Consumer<String> consumer) {
+        if (node.isTextual()) {
+            consumer.accept(node.asText());
+        } else if (node.isArray()) {
+            node.forEach(value -> forEachValue(value, consumer));
+        } else if (node.isObject()) {
+            node.elements().forEachRemaining(value -> forEachValue(value, consumer));
         }
+    }
 
-        return false;
+    /**
+     * Overwrite the policy statement for CMS with the standard statement and remove the consumer statement, see
+     * {@link #overwriteCMSPolicy(String)} and {@link #removeConsumerPrincipalFromPolicy(String)}, parsing the policy
+     * only once.
+     *
+     * @param policyJson - The KMS key policy in JSON format
+     * @return - The updated JSON KMS policy containing only the standard statement for CMS and no consumer statement
+     */
+    protected String overwriteCMSPolicyAndRemoveConsumer(String policyJson) {
+        Policy policy = policyReader.createPolicyFromJsonString(policyJson);
+        List<Statement> statements = policy.getStatements().stream()
+                .filter(statement -> ! StringUtils.equals(statement.getId(), CERBERUS_MANAGEMENT_SERVICE_SID) &&
+                        ! StringUtils.equals(statement.getId(), CERBERUS_CONSUMER_SID))
+                .collect(Collectors.toList());
+        statements.add(generateStandardCMSPolicyStatement());
+        policy.setStatements(statements);
+        return policy.toJson();
     }
 
     /**
@@ -225,6 +327,34 @@ public class KmsPolicyService {
     public String generateStandardKmsPolicy(String iamRoleArn) {
         Policy kmsPolicy = new Policy();
 
+        Statement iamRoleUsageStatement = new Statement(Statement.Effect.Allow);
+        iamRoleUsageStatement.withId(CERBERUS_CONSUMER_SID);
+        iamRoleUsageStatement.withPrincipals(
+                new Principal(AWS_PROVIDER, iamRoleArn, false));
+        iamRoleUsageStatement.withActions(KMSActions.Decrypt);
+        iamRoleUsageStatement.withResources(new Resource("*"));
+
+        List<Statement> statements = generateStandardOwnerStatements();
+        statements.add(iamRoleUsageStatement);
+        kmsPolicy.setStatements(statements);
+
+        return kmsPolicy.toJson();
+    }
+
+    /**
+     * Generates the KMS key policy for a pooled key that has not been assigned to an IAM principal yet, i.e. the
+     * standard policy without the consumer statement.
+     */
+    public String generateUnassignedKmsPolicy() {
+        Policy kmsPolicy = new Policy();
+        kmsPolicy.setStatements(generateStandardOwnerStatements());
+        return kmsPolicy.toJson();
+    }
+
+    /**
+     * Generates the root user, admin role and CMS statements that every Cerberus KMS key policy contains
+     */
+    protected List<Statement> generateStandardOwnerStatements() {
         Statement rootUserStatement = new Statement(Statement.Effect.Allow);
         rootUserStatement.withId("Root User Has All Actions");
         rootUserStatement.withPrincipals(new Principal(AWS_PROVIDER, rootUserArn, false));
@@ -239,18 +369,30 @@ public class KmsPolicyService {
 
         Statement instanceUsageStatement = generateStandardCMSPolicyStatement();
 
-        Statement iamRoleUsageStatement = new Statement(Statement.Effect.Allow);
-        iamRoleUsageStatement.withId(CERBERUS_CONSUMER_SID);
-        iamRoleUsageStatement.withPrincipals(
-                new Principal(AWS_PROVIDER, iamRoleArn, false));
-        iamRoleUsageStatement.withActions(KMSActions.Decrypt);
-        iamRoleUsageStatement.withResources(new Resource("*"));
-
-        kmsPolicy.withStatements(rootUserStatement,
+        return Lists.newArrayList(rootUserStatement,
                 keyAdministratorStatement,
-                instanceUsageStatement,
-                iamRoleUsageStatement);
+                instanceUsageStatement);
+    }
 
-        return kmsPolicy.toJson();
+    /**
+     * What the validation rules need to know about a KMS key policy
+     */
+    private static final class KmsPolicySummary {
+
+        private static final KmsPolicySummary INVALID = new KmsPolicySummary(ImmutableSet.of(), ImmutableSet.of(), false);
+
+        private final Set<String> consumerPrincipals;
+
+        private final Set<String> managementPrincipals;
+
+        private final boolean cmsHasKeyDeletePermissions;
+
+        private KmsPolicySummary(Set<String> consumerPrincipals,
+                                 Set<String> managementPrincipals,
+                                 boolean cmsHasKeyDeletePermissions) {
+            this.consumerPrincipals = ImmutableSet.copyOf(consumerPrincipals);
+            this.managementPrincipals = ImmutableSet.copyOf(managementPrincipals);
+            this.cmsHasKeyDeletePermissions = cmsHasKeyDeletePermissions;
+        }
     }
 }
@@ -26,15 +26,19 @@ import com.amazonaws.services.kms.model.GetKeyPolicyRequest;
 import com.amazonaws.services.kms.model.KeyMetadata;
 import com.amazonaws.services.kms.model.KeyState;
 import com.amazonaws.services.kms.model.KeyUsageType;
+import com.amazonaws.services.kms.model.ListAliasesRequest;
+import com.amazonaws.services.kms.model.ListAliasesResult;
 import com.amazonaws.services.kms.model.NotFoundException;
 import com.amazonaws.services.kms.model.PutKeyPolicyRequest;
 import com.amazonaws.services.kms.model.ScheduleKeyDeletionRequest;
 import com.google.inject.name.Named;
 import com.nike.backstopper.exception.ApiException;
+import com.nike.cerberus.aws.KmsCallPriority;
 import com.nike.cerberus.aws.KmsClientFactory;
 import com.nike.cerberus.dao.AwsIamRoleDao;
 import com.nike.cerberus.error.DefaultApiError;
 import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
+import com.nike.cerberus.record.AwsKmsKeyPoolRecord;
 import com.nike.cerberus.util.DateTimeSupplier;
 import com.nike.cerberus.util.UuidSupplier;
 import org.apache.commons.lang3.StringUtils;
@@ -46,7 +50,14 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.time.OffsetDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.nike.cerberus.service.AuthenticationService.SYSTEM_USER;
 
@@ -60,6 +71,10 @@ public class KmsService {
 
     private static final String KMS_ALIAS_FORMAT = "alias/cerberus/%s";
 
+    private static final String KMS_ALIAS_PREFIX = "alias/cerberus/";
+
+    private static final String KMS_KEY_DESCRIPTION = "Key used by Cerberus for IAM role authentication.";
+
     private static final String KMS_POLICY_VALIDATION_INTERVAL_OVERRIDE = "cms.kms.policy.validation.interval.millis.override";
 
     private static final Integer DEFAULT_KMS_VALIDATION_INTERVAL = 6000;  // in milliseconds
@@ -76,6 +91,10 @@ public class KmsService {
 
     private final DateTimeSupplier dateTimeSupplier;
 
+    private final AwsIamRoleRecordCache awsIamRoleRecordCache;
+
+    private final ConcurrentMap<String, CompletableFuture<String>> inFlightProvisioning = new ConcurrentHashMap<>();
+
     @com.google.inject.Inject(optional=true)
     @Named(KMS_POLICY_VALIDATION_INTERVAL_OVERRIDE)
     Integer kmsKeyPolicyValidationInterval = DEFAULT_KMS_VALIDATION_INTERVAL;
@@ -85,17 +104,22 @@ public class KmsService {
                       final UuidSupplier uuidSupplier,
                       final KmsClientFactory kmsClientFactory,
                       final KmsPolicyService kmsPolicyService,
-                      final DateTimeSupplier dateTimeSupplier) {
+                      final DateTimeSupplier dateTimeSupplier,
+                      final AwsIamRoleRecordCache awsIamRoleRecordCache) {
         this.awsIamRoleDao = awsIamRoleDao;
         this.uuidSupplier = uuidSupplier;
         this.kmsClientFactory = kmsClientFactory;
         this.kmsPolicyService = kmsPolicyService;
         this.dateTimeSupplier = dateTimeSupplier;
+        this.awsIamRoleRecordCache = awsIamRoleRecordCache;
     }
 
     /**
      * Provisions a new KMS CMK in the specified region to be used by the specified role.
      *
+     * Concurrent calls for the same role and region within this JVM share a single provisioning.  Across CMS nodes
+     * the first key record saved wins and every caller gets that key, see {@link #provisionKmsKeyIfAbsent}.
+     *
      * @param iamRoleId        The IAM role that this CMK will be associated with
      * @param iamPrincipalArn  The AWS IAM principal ARN
      * @param awsRegion        The region to provision the key in
@@ -103,33 +127,82 @@ public class KmsService {
      * @param dateTime         The date of creation
      * @return The AWS Key ID ARN
      */
-    @Transactional
     public String provisionKmsKey(final String iamRoleId,
                                   final String iamPrincipalArn,
                                   final String awsRegion,
                                   final String user,
                                   final OffsetDateTime dateTime) {
-        final AWSKMSClient kmsClient = kmsClientFactory.getClient(awsRegion);
+        final String provisioningKey = iamRoleId + '/' + awsRegion;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        final CompletableFuture<String> inFlight = inFlightProvisioning.putIfAbsent(provisioningKey, future);
+
+        if (inFlight != null) {
+            try {
+                return inFlight.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
 
-        final String awsIamPrincipalKmsKeyId = uuidSupplier.get();
+        try {
+            final String awsKmsKeyArn = provisionKmsKeyIfAbsent(iamRoleId, iamPrincipalArn, awsRegion, user, dateTime);
+            future.complete(awsKmsKeyArn);
+            return awsKmsKeyArn;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightProvisioning.remove(provisioningKey, future);
+        }
+    }
 
-        final CreateKeyRequest request = new CreateKeyRequest();
-        request.setKeyUsage(KeyUsageType.ENCRYPT_DECRYPT);
-        request.setDescription("Key used by Cerberus for IAM role authentication.");
-        request.setPolicy(kmsPolicyService.generateStandardKmsPolicy(iamPrincipalArn));
-        final CreateKeyResult result = kmsClient.createKey(request);
+    /**
+     * Provisions a KMS CMK unless the role already has one in the region.  A pre-created key is claimed from the
+     * {@link KmsKeyPoolService} pool when one is available, otherwise a new key is created.
+     *
+     * No database lock or transaction is held while talking to KMS.  If another CMS node saves a key for the same role
+     * and region first, the unique index on the key table rejects this node's record, the winner's key is used and the
+     * key prepared here is scheduled for deletion.
+     */
+    protected String provisionKmsKeyIfAbsent(final String iamRoleId,
+                                             final String iamPrincipalArn,
+                                             final String awsRegion,
+                                             final String user,
+                                             final OffsetDateTime dateTime) {
+        final Optional<AwsIamRoleKmsKeyRecord> existingKmsKey = awsIamRoleDao.getKmsKey(iamRoleId, awsRegion);
+        if (existingKmsKey.isPresent()) {
+            logger.info("KMS key for IAM role: {} in region: {} was provisioned concurrently, using it", iamRoleId, awsRegion);
+            awsIamRoleRecordCache.putKmsKey(existingKmsKey.get());
+            return existingKmsKey.get().getAwsKmsKeyId();
+        }
 
-        final CreateAliasRequest aliasRequest = new CreateAliasRequest();
-        aliasRequest.setAliasName(getAliasName(awsIamPrincipalKmsKeyId));
-        KeyMetadata keyMetadata = result.getKeyMetadata();
-        String arn = keyMetadata.getArn();
-        aliasRequest.setTargetKeyId(arn);
-        kmsClient.createAlias(aliasRequest);
+        final String awsIamPrincipalKmsKeyId;
+        final String arn;
+        final Optional<AwsKmsKeyPoolRecord> pooledKmsKey = awsIamRoleDao.claimPooledKmsKey(awsRegion);
+        if (pooledKmsKey.isPresent()) {
+            // the pooled key already has its alias, binding it to the principal only needs a policy update
+            awsIamPrincipalKmsKeyId = pooledKmsKey.get().getId();
+            arn = pooledKmsKey.get().getAwsKmsKeyId();
+            try {
+                updateKmsKeyPolicy(kmsPolicyService.generateStandardKmsPolicy(iamPrincipalArn), arn, awsRegion,
+                        KmsCallPriority.PROVISIONING);
+            } catch (RuntimeException e) {
+                // the key has left the pool, nothing references it any more
+                logger.error("Failed to bind the pooled KMS key: {} to IAM role: {} in region: {}, scheduling it for deletion",
+                        arn, iamRoleId, awsRegion, e);
+                scheduleKmsKeyDeletionQuietly(arn, awsRegion);
+                throw e;
+            }
+        } else {
+            awsIamPrincipalKmsKeyId = uuidSupplier.get();
+            arn = createKmsKey(awsIamPrincipalKmsKeyId, awsRegion,
+                    kmsPolicyService.generateStandardKmsPolicy(iamPrincipalArn), KmsCallPriority.PROVISIONING);
+        }
 
         final AwsIamRoleKmsKeyRecord awsIamRoleKmsKeyRecord = new AwsIamRoleKmsKeyRecord();
         awsIamRoleKmsKeyRecord.setId(awsIamPrincipalKmsKeyId);
         awsIamRoleKmsKeyRecord.setAwsIamRoleId(iamRoleId);
-        awsIamRoleKmsKeyRecord.setAwsKmsKeyId(result.getKeyMetadata().getArn());
+        awsIamRoleKmsKeyRecord.setAwsKmsKeyId(arn);
         awsIamRoleKmsKeyRecord.setAwsRegion(awsRegion);
         awsIamRoleKmsKeyRecord.setCreatedBy(user);
         awsIamRoleKmsKeyRecord.setLastUpdatedBy(user);
@@ -137,9 +210,55 @@ public class KmsService {
         awsIamRoleKmsKeyRecord.setLastUpdatedTs(dateTime);
         awsIamRoleKmsKeyRecord.setLastValidatedTs(dateTime);
 
-        awsIamRoleDao.createIamRoleKmsKey(awsIamRoleKmsKeyRecord);
+        try {
+            awsIamRoleDao.createIamRoleKmsKey(awsIamRoleKmsKeyRecord);
+        } catch (RuntimeException e) {
+            final Optional<AwsIamRoleKmsKeyRecord> winningKmsKey = awsIamRoleDao.getKmsKey(iamRoleId, awsRegion);
+            scheduleKmsKeyDeletionQuietly(arn, awsRegion);
+            if (winningKmsKey.isPresent()) {
+                logger.info("KMS key for IAM role: {} in region: {} was saved concurrently by another node, " +
+                        "using it and scheduling the unused key: {} for deletion", iamRoleId, awsRegion, arn);
+                awsIamRoleRecordCache.putKmsKey(winningKmsKey.get());
+                return winningKmsKey.get().getAwsKmsKeyId();
+            }
+            logger.error("Failed to save the KMS key: {} for IAM role: {} in region: {}, scheduling the unused key for deletion",
+                    arn, iamRoleId, awsRegion, e);
+            throw e;
+        }
+        awsIamRoleRecordCache.putKmsKey(awsIamRoleKmsKeyRecord);
 
-        return result.getKeyMetadata().getArn();
+        return arn;
+    }
+
+    /**
+     * Creates a KMS CMK with the given policy and the Cerberus alias for the given KMS key record ID
+     *
+     * @param kmsKeyRecordId The ID of the record that will reference the CMK, used for the alias
+     * @param awsRegion      The region to create the key in
+     * @param policy         The key policy JSON
+     * @param priority       The KMS quota priority class of the caller
+     * @return The AWS Key ID ARN
+     */
+    protected String createKmsKey(final String kmsKeyRecordId,
+                                  final String awsRegion,
+                                  final String policy,
+                                  final KmsCallPriority priority) {
+        final AWSKMSClient kmsClient = kmsClientFactory.getClient(awsRegion, priority);
+
+        final CreateKeyRequest request = new CreateKeyRequest();
+        request.setKeyUsage(KeyUsageType.ENCRYPT_DECRYPT);
+        request.setDescription(KMS_KEY_DESCRIPTION);
+        request.setPolicy(policy);
+        final CreateKeyResult result = kmsClient.createKey(request);
+
+        final CreateAliasRequest aliasRequest = new CreateAliasRequest();
+        aliasRequest.setAliasName(getAliasName(kmsKeyRecordId));
+        KeyMetadata keyMetadata = result.getKeyMetadata();
+        String arn = keyMetadata.getArn();
+        aliasRequest.setTargetKeyId(arn);
+        kmsClient.createAlias(aliasRequest);
+
+        return arn;
     }
 
     /**
@@ -174,11 +293,13 @@ public class KmsService {
         updatedKmsKeyRecord.setLastValidatedTs(lastValidatedTs);
         updatedKmsKeyRecord.setAwsRegion(kmsKeyRecord.getAwsRegion());
         awsIamRoleDao.updateIamRoleKmsKey(updatedKmsKeyRecord);
+        awsIamRoleRecordCache.invalidateKmsKey(awsIamRoleId, awsRegion);
     }
 
     @Transactional
     public void deleteKmsKeyById(final String kmsKeyId) {
         awsIamRoleDao.deleteKmsKeyById(kmsKeyId);
+        awsIamRoleRecordCache.invalidateKmsKeyById(kmsKeyId);
     }
 
     protected String getAliasName(String awsIamRoleKmsKeyId) {
@@ -210,10 +331,22 @@ public class KmsService {
             return;
         }
 
+        validateKeyAndPolicyNow(kmsKeyRecord, iamPrincipalArn);
+    }
+
+    /**
+     * Same as {@link #validateKeyAndPolicy(AwsIamRoleKmsKeyRecord, String)} but without checking the validation
+     * interval, used by the background validation sweep to validate keys shortly before their interval passes.
+     *
+     * @param kmsKeyRecord - The CMK record to validate policy on
+     * @param iamPrincipalArn - The principal ARN that should have decrypt permission
+     */
+    protected void validateKeyAndPolicyNow(AwsIamRoleKmsKeyRecord kmsKeyRecord, String iamPrincipalArn) {
+
         String kmsCMKRegion = kmsKeyRecord.getAwsRegion();
         String awsKmsKeyArn = kmsKeyRecord.getAwsKmsKeyId();
         try {
-            String keyPolicy = getKmsKeyPolicy(awsKmsKeyArn, kmsCMKRegion);
+            String keyPolicy = getKmsKeyPolicy(awsKmsKeyArn, kmsCMKRegion, KmsCallPriority.VALIDATION);
 
             if (!kmsPolicyService.isPolicyValid(keyPolicy, iamPrincipalArn)) {
                 logger.info("The KMS key: {} generated for IAM principal: {} contained an invalid policy, regenerating",
@@ -221,7 +354,7 @@ public class KmsService {
 
                 String updatedPolicy = kmsPolicyService.generateStandardKmsPolicy(iamPrincipalArn);
 
-                updateKmsKeyPolicy(updatedPolicy, awsKmsKeyArn, kmsCMKRegion);
+                updateKmsKeyPolicy(updatedPolicy, awsKmsKeyArn, kmsCMKRegion, KmsCallPriority.VALIDATION);
             }
 
             validateKmsKeyIsUsable(kmsKeyRecord, iamPrincipalArn);
@@ -249,18 +382,16 @@ public class KmsService {
     protected void validatePolicyAllowsCMSToDeleteCMK(String awsKmsKeyId, String kmsCMKRegion) {
 
         try {
-            String policyJson = getKmsKeyPolicy(awsKmsKeyId, kmsCMKRegion);
+            String policyJson = getKmsKeyPolicy(awsKmsKeyId, kmsCMKRegion, KmsCallPriority.HOUSEKEEPING);
 
             if (!kmsPolicyService.cmsHasKeyDeletePermissions(policyJson)) {
                 // Overwrite the policy statement for CMS only, instead of regenerating the entire policy because regenerating
-                // the full policy would require unnecessarily looking up the associated IAM principal in the DB
-                String updatedPolicy = kmsPolicyService.overwriteCMSPolicy(policyJson);
-
+                // the full policy would require unnecessarily looking up the associated IAM principal in the DB.
                 // If the consumer IAM principal has been deleted then the policy will contain a principal 'ID' instead
                 // of and ARN, rendering the policy invalid. So delete the consumer statement here just in case
-                String updatedPolicyWithNoConsumer = kmsPolicyService.removeConsumerPrincipalFromPolicy(updatedPolicy);
+                String updatedPolicyWithNoConsumer = kmsPolicyService.overwriteCMSPolicyAndRemoveConsumer(policyJson);
 
-                updateKmsKeyPolicy(updatedPolicyWithNoConsumer, awsKmsKeyId, kmsCMKRegion);
+                updateKmsKeyPolicy(updatedPolicyWithNoConsumer, awsKmsKeyId, kmsCMKRegion, KmsCallPriority.HOUSEKEEPING);
             }
         } catch (AmazonServiceException ase) {
             logger.error("Failed to validate that CMS can delete the given KMS key, ARN: {}, region: {}", awsKmsKeyId, kmsCMKRegion, ase);
@@ -311,9 +442,9 @@ public class KmsService {
     /**
      * Gets the KMS key policy from AWS for the given CMK
      */
-    protected String getKmsKeyPolicy(String kmsKeyId, String kmsCMKRegion) {
+    protected String getKmsKeyPolicy(String kmsKeyId, String kmsCMKRegion, KmsCallPriority priority) {
 
-        AWSKMSClient kmsClient = kmsClientFactory.getClient(kmsCMKRegion);
+        AWSKMSClient kmsClient = kmsClientFactory.getClient(kmsCMKRegion, priority);
 
         GetKeyPolicyRequest request = new GetKeyPolicyRequest().withKeyId(kmsKeyId).withPolicyName("default");
 
@@ -323,9 +454,10 @@ public class KmsService {
     /**
      * Updates the KMS key policy in AWS for the given CMK
      */
-    protected void updateKmsKeyPolicy(String updatedPolicyJson, String awsKmsKeyArn, String kmsCMKRegion) {
+    protected void updateKmsKeyPolicy(String updatedPolicyJson, String awsKmsKeyArn, String kmsCMKRegion,
+                                      KmsCallPriority priority) {
 
-        AWSKMSClient kmsClient = kmsClientFactory.getClient(kmsCMKRegion);
+        AWSKMSClient kmsClient = kmsClientFactory.getClient(kmsCMKRegion, priority);
 
         kmsClient.putKeyPolicy(new PutKeyPolicyRequest()
                 .withKeyId(awsKmsKeyArn)
@@ -342,7 +474,7 @@ public class KmsService {
      */
     protected String getKmsKeyState(String kmsKeyId, String region) {
 
-        AWSKMSClient kmsClient = kmsClientFactory.getClient(region);
+        AWSKMSClient kmsClient = kmsClientFactory.getClient(region, KmsCallPriority.VALIDATION);
         DescribeKeyRequest request = new DescribeKeyRequest().withKeyId(kmsKeyId);
 
         return kmsClient.describeKey(request)
@@ -357,7 +489,7 @@ public class KmsService {
      */
     protected void scheduleKmsKeyDeletion(String kmsKeyId, String region, Integer pendingWindowInDays) {
 
-        final AWSKMSClient kmsClient = kmsClientFactory.getClient(region);
+        final AWSKMSClient kmsClient = kmsClientFactory.getClient(region, KmsCallPriority.HOUSEKEEPING);
         final ScheduleKeyDeletionRequest scheduleKeyDeletionRequest = new ScheduleKeyDeletionRequest()
                 .withKeyId(kmsKeyId)
                 .withPendingWindowInDays(pendingWindowInDays);
@@ -365,6 +497,60 @@ public class KmsService {
         kmsClient.scheduleKeyDeletion(scheduleKeyDeletionRequest);
     }
 
+    /**
+     * Schedule deletion of a CMK, logging instead of failing if KMS rejects the request
+     */
+    protected void scheduleKmsKeyDeletionQuietly(String kmsKeyId, String region) {
+        try {
+            scheduleKmsKeyDeletion(kmsKeyId, region, SOONEST_A_KMS_KEY_CAN_BE_DELETED);
+        } catch (AmazonServiceException ase) {
+            logger.error("Failed to schedule deletion of KMS key: {} in region: {}", kmsKeyId, region, ase);
+        }
+    }
+
+    /**
+     * Finds enabled CMKs that were provisioned by this CMS, under the Cerberus alias prefix, but have no key record in
+     * the DB, e.g. the redundant keys created by concurrent first time authentications.  Keys created after the given
+     * time are ignored so that keys whose provisioning has not been committed yet are never reported.
+     * <p>
+     * The alias prefix is shared by every Cerberus environment in the account, so a key is only reported when its
+     * policy names this CMS's role, and no other, as the managing principal.  Another environment's keys name its own
+     * CMS role and are skipped, which is why environments sharing an account must not share a CMS role.
+     *
+     * @param region - The region to search
+     * @param kmsKeyRecordIds - The IDs of every KMS key record in the DB
+     * @param createdBefore - Only report keys created before this time
+     * @return - The ARNs of the unreferenced keys
+     */
+    public List<String> findUnreferencedKmsKeys(String region, Set<String> kmsKeyRecordIds, OffsetDateTime createdBefore) {
+
+        final AWSKMSClient kmsClient = kmsClientFactory.getClient(region, KmsCallPriority.HOUSEKEEPING);
+        final List<String> unreferencedKmsKeyArns = new ArrayList<>();
+
+        String marker = null;
+        do {
+            final ListAliasesResult result = kmsClient.listAliases(new ListAliasesRequest().withMarker(marker));
+            result.getAliases().stream()
+                    .filter(alias -> StringUtils.startsWith(alias.getAliasName(), KMS_ALIAS_PREFIX))
+                    .filter(alias -> alias.getTargetKeyId() != null)
+                    .filter(alias -> !kmsKeyRecordIds.contains(StringUtils.removeStart(alias.getAliasName(), KMS_ALIAS_PREFIX)))
+                    .forEach(alias -> {
+                        final KeyMetadata keyMetadata = kmsClient.describeKey(
+                                new DescribeKeyRequest().withKeyId(alias.getTargetKeyId())).getKeyMetadata();
+
+                        if (StringUtils.equals(keyMetadata.getKeyState(), KeyState.Enabled.toString()) &&
+                                StringUtils.equals(keyMetadata.getDescription(), KMS_KEY_DESCRIPTION) &&
+                                keyMetadata.getCreationDate().toInstant().isBefore(createdBefore.toInstant()) &&
+                                kmsPolicyService.isManagedByThisCms(getKmsKeyPolicy(keyMetadata.getArn(), region, KmsCallPriority.HOUSEKEEPING))) {
+                            unreferencedKmsKeyArns.add(keyMetadata.getArn());
+                        }
+                    });
+            marker = Boolean.TRUE.equals(result.getTruncated()) ? result.getNextMarker() : null;
+        } while (marker != null);
+
+        return unreferencedKmsKeyArns;
+    }
+
     /**
      * Determines if given KMS policy should be validated
      * @param kmsKeyRecord - KMS key record to check for validation
@@ -377,4 +563,11 @@ public class KmsService {
 
         return timeSinceLastValidatedInMillis >= kmsKeyPolicyValidationInterval;
     }
+
+    /**
+     * @return The minimum time in milliseconds between validations of the same KMS key policy
+     */
+    protected long getKmsKeyPolicyValidationIntervalMillis() {
+        return kmsKeyPolicyValidationInterval;
+    }
 }
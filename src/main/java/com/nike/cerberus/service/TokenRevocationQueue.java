@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.service;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nike.cerberus.dao.TokenRevocationDao;
+import com.nike.cerberus.record.TokenRevocationRecord;
+import com.nike.cerberus.util.DateTimeSupplier;
+import com.nike.cerberus.util.UuidSupplier;
+import com.nike.cerberus.vault.VaultTokenRevocationClient;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import com.nike.vault.client.VaultServerException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Revokes Vault tokens in the background so that token refreshes and logouts do not wait on Vault.
+ * <p>
+ * Revocations are stored in TOKEN_REVOCATION, so they survive restarts and are drained by every CMS node.  Only the
+ * token's accessor and a SHA-256 hash of the token are stored, the token itself never is.  Vault revokes the token by
+ * its accessor, and every CMS node rejects the token by its hash from the moment it is queued, see
+ * {@link #isRevoked(String)}, so the token stops working before Vault gets to it.
+ * <p>
+ * Each node polls for due revocations, claims them with a lease and runs them on a fixed number of worker threads,
+ * which also smooths out bursts of revocations.  If a node dies mid attempt, another node retries the revocation once
+ * the lease runs out.  A failed revocation is retried with exponential back off up to the configured number of
+ * attempts, after which the token is still rejected by CMS until it expires.
+ * <p>
+ * The queue is bounded across the fleet, once it is full or the DB cannot be reached
+ * {@link #enqueue(String, String, long)} returns false and the caller should revoke the token itself.
+ * <p>
+ * Tokens that cannot be revoked in Vault, batch tokens, are stored by {@link #deny(String, long)} without an accessor
+ * and are only rejected, whether or not the queue is enabled.
+ */
+@Singleton
+public class TokenRevocationQueue {
+
+    public static final String METRIC_QUEUE_DEPTH = "cms.token.revocation.queue.depth";
+
+    public static final String METRIC_OLDEST_AGE_MILLIS = "cms.token.revocation.queue.oldestAgeMillis";
+
+    public static final String METRIC_FAILURES = "cms.token.revocation.queue.failures";
+
+    public static final String METRIC_ABANDONED = "cms.token.revocation.queue.abandoned";
+
+    public static final String METRIC_OVERFLOWS = "cms.token.revocation.queue.overflows";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final VaultTokenRevocationClient vaultTokenRevocationClient;
+
+    private final TokenRevocationDao tokenRevocationDao;
+
+    private final UuidSupplier uuidSupplier;
+
+    private final DateTimeSupplier dateTimeSupplier;
+
+    private final boolean enabled;
+
+    private final int maxQueueSize;
+
+    private final int maxAttempts;
+
+    private final long retryBaseDelayMillis;
+
+    private final int batchSize;
+
+    private final long leaseSeconds;
+
+    private final Executor workerExecutor;
+
+    private final Counter failureCounter;
+
+    private final Counter abandonedCounter;
+
+    private final Counter overflowCounter;
+
+    /**
+     * Depth and age of the queue across the fleet as of the last poll, so that reading the gauges never hits the DB
+     */
+    private volatile int queueDepth;
+
+    private volatile long oldestAgeMillis;
+
+    @Inject
+    public TokenRevocationQueue(final VaultTokenRevocationClient vaultTokenRevocationClient,
+                                final TokenRevocationDao tokenRevocationDao,
+                                final UuidSupplier uuidSupplier,
+                                final DateTimeSupplier dateTimeSupplier,
+                                @Named("cms.token.revocation.queue.enabled") final boolean enabled,
+                                @Named("cms.token.revocation.queue.threads") final int threads,
+                                @Named("cms.token.revocation.queue.maxSize") final int maxQueueSize,
+                                @Named("cms.token.revocation.queue.maxAttempts") final int maxAttempts,
+                                @Named("cms.token.revocation.queue.retryBaseDelayMillis") final long retryBaseDelayMillis,
+                                @Named("cms.token.revocation.queue.batchSize") final int batchSize,
+                                @Named("cms.token.revocation.queue.leaseSeconds") final long leaseSeconds,
+                                @Named("cms.token.revocation.queue.pollIntervalMillis") final long pollIntervalMillis,
+                                final CodahaleMetricsCollector metricsCollector) {
+        this(vaultTokenRevocationClient, tokenRevocationDao, uuidSupplier, dateTimeSupplier, enabled, maxQueueSize, maxAttempts,
+                retryBaseDelayMillis, batchSize, leaseSeconds, metricsCollector,
+                Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                        .setNameFormat("token-revocation-%d")
+                        .setDaemon(true)
+                        .build()));
+
+        if (enabled) {
+            final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("token-revocation-poller-%d")
+                    .setDaemon(true)
+                    .build());
+            poller.scheduleWithFixedDelay(this::poll, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    TokenRevocationQueue(final VaultTokenRevocationClient vaultTokenRevocationClient,
+                         final TokenRevocationDao tokenRevocationDao,
+                         final UuidSupplier uuidSupplier,
+                         final DateTimeSupplier dateTimeSupplier,
+                         final boolean enabled,
+                         final int maxQueueSize,
+                         final int maxAttempts,
+                         final long retryBaseDelayMillis,
+                         final int batchSize,
+                         final long leaseSeconds,
+                         final CodahaleMetricsCollector metricsCollector,
+                         final Executor workerExecutor) {
+        Preconditions.checkArgument(maxAttempts > 0, "Token revocations must be attempted at least once");
+
+        this.vaultTokenRevocationClient = vaultTokenRevocationClient;
+        this.tokenRevocationDao = tokenRevocationDao;
+        this.uuidSupplier = uuidSupplier;
+        this.dateTimeSupplier = dateTimeSupplier;
+        this.enabled = enabled;
+        this.maxQueueSize = maxQueueSize;
+        this.maxAttempts = maxAttempts;
+        this.retryBaseDelayMillis = retryBaseDelayMillis;
+        this.batchSize = batchSize;
+        this.leaseSeconds = leaseSeconds;
+        this.workerExecutor = workerExecutor;
+        this.failureCounter = metricsCollector.getNamedCounter(METRIC_FAILURES);
+        this.abandonedCounter = metricsCollector.getNamedCounter(METRIC_ABANDONED);
+        this.overflowCounter = metricsCollector.getNamedCounter(METRIC_OVERFLOWS);
+
+        final MetricRegistry registry = metricsCollector.getMetricRegistry();
+        registry.remove(METRIC_QUEUE_DEPTH);
+        registry.register(METRIC_QUEUE_DEPTH, (Gauge<Integer>) () -> queueDepth);
+        registry.remove(METRIC_OLDEST_AGE_MILLIS);
+        registry.register(METRIC_OLDEST_AGE_MILLIS, (Gauge<Long>) () -> oldestAgeMillis);
+    }
+
+    /**
+     * Queues the given token to be revoked in Vault.  Never blocks on Vault.
+     *
+     * @param vaultToken Token to be revoked, only its hash is stored
+     * @param accessor   Accessor of the token, used to revoke it
+     * @param ttlSeconds Seconds until the token expires, how long CMS keeps rejecting it
+     * @return True if the token was queued, false if the queue is disabled, full or unavailable, or the token has no
+     * accessor or expiry, and the caller should revoke it
+     */
+    public boolean enqueue(final String vaultToken, final String accessor, final long ttlSeconds) {
+        if (!enabled || StringUtils.isBlank(accessor) || ttlSeconds <= 0) {
+            return false;
+        }
+
+        final OffsetDateTime now = dateTimeSupplier.get();
+        final TokenRevocationRecord record = new TokenRevocationRecord()
+                .setId(uuidSupplier.get())
+                .setTokenHash(hash(vaultToken))
+                .setVaultAccessor(accessor)
+                .setAttempts(0)
+                .setCreatedTs(now)
+                .setNextAttemptTs(now)
+                .setExpiresTs(now.plusSeconds(ttlSeconds));
+        try {
+            if (tokenRevocationDao.createTokenRevocationIfBelowLimit(record, maxQueueSize)) {
+                return true;
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to queue token revocation", e);
+            return false;
+        }
+
+        overflowCounter.inc();
+        return false;
+    }
+
+    /**
+     * Stores the given token so that every CMS node rejects it until it expires, without ever revoking it in Vault.
+     * Used for batch tokens, which Vault cannot revoke.  Works whether or not the queue is enabled.
+     *
+     * @param vaultToken Token to be rejected, only its hash is stored
+     * @param ttlSeconds Seconds until the token expires, how long CMS keeps rejecting it
+     * @return True if the token was stored, false if the DB cannot be reached or the token has no expiry, in which
+     * case only the caller's node rejects it
+     */
+    public boolean deny(final String vaultToken, final long ttlSeconds) {
+        if (ttlSeconds <= 0) {
+            return false;
+        }
+
+        final OffsetDateTime now = dateTimeSupplier.get();
+        final TokenRevocationRecord record = new TokenRevocationRecord()
+                .setId(uuidSupplier.get())
+                .setTokenHash(hash(vaultToken))
+                .setAttempts(0)
+                .setCreatedTs(now)
+                .setExpiresTs(now.plusSeconds(ttlSeconds));
+        try {
+            // the poller that normally clears expired rows only runs while the queue is enabled
+            tokenRevocationDao.deleteExpiredTokenRevocations(now);
+            return tokenRevocationDao.createTokenRevocation(record) == 1;
+        } catch (RuntimeException e) {
+            logger.error("Failed to store denied token", e);
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether the given token has been queued for revocation or denied, on any node, and not yet expired.
+     * Called when a token lookup misses the cache, so the token is rejected by every node even though it is still
+     * valid in Vault.  If the DB cannot be reached the token is not treated as revoked, so that a DB outage does not
+     * reject every request.
+     *
+     * @param vaultToken The client supplied Vault token
+     * @return True if the token must be rejected
+     */
+    public boolean isRevoked(final String vaultToken) {
+        try {
+            return tokenRevocationDao.isTokenRevoked(hash(vaultToken), dateTimeSupplier.get());
+        } catch (RuntimeException e) {
+            logger.error("Failed to check whether a token revocation is queued", e);
+            return false;
+        }
+    }
+
+    /**
+     * Claims the revocations that are due and attempts them on the worker threads, returning once all attempts are
+     * done so that polls never overlap.
+     */
+    protected void poll() {
+        try {
+            final OffsetDateTime now = dateTimeSupplier.get();
+            tokenRevocationDao.deleteExpiredTokenRevocations(now);
+            updateQueueStats(now);
+
+            final List<TokenRevocationRecord> claimed = tokenRevocationDao.getTokenRevocationsDue(now, batchSize)
+                    .stream()
+                    .filter(record -> claim(record, now))
+                    .collect(Collectors.toList());
+
+            CompletableFuture.allOf(claimed.stream()
+                    .map(record -> CompletableFuture.runAsync(() -> attempt(record), workerExecutor))
+                    .toArray(CompletableFuture[]::new))
+                    .join();
+        } catch (RuntimeException e) {
+            logger.error("Failed to process the token revocation queue", e);
+        }
+    }
+
+    private void updateQueueStats(final OffsetDateTime now) {
+        queueDepth = tokenRevocationDao.countTokenRevocations();
+        oldestAgeMillis = tokenRevocationDao.getOldestTokenRevocationCreatedTs()
+                .map(oldest -> Math.max(0, Duration.between(oldest, now).toMillis()))
+                .orElse(0L);
+    }
+
+    private boolean claim(final TokenRevocationRecord record, final OffsetDateTime now) {
+        if (!tokenRevocationDao.claimTokenRevocation(record.getId(), record.getNextAttemptTs(),
+                now.plusSeconds(leaseSeconds))) {
+            return false;
+        }
+        record.setAttempts(record.getAttempts() + 1);
+        return true;
+    }
+
+    private void attempt(final TokenRevocationRecord record) {
+        try {
+            vaultTokenRevocationClient.revokeAccessor(record.getVaultAccessor());
+        } catch (VaultServerException vse) {
+            // the token does not exist, which is what revoking it is meant to achieve
+            if (vse.getCode() != HttpStatus.SC_BAD_REQUEST) {
+                retryOrAbandon(record, vse);
+                return;
+            }
+        } catch (RuntimeException e) {
+            retryOrAbandon(record, e);
+            return;
+        }
+        tokenRevocationDao.deleteTokenRevocation(record.getId());
+    }
+
+    private void retryOrAbandon(final TokenRevocationRecord record, final RuntimeException cause) {
+        failureCounter.inc();
+
+        if (record.getAttempts() < maxAttempts) {
+            final long delayMillis = retryBaseDelayMillis << (record.getAttempts() - 1);
+            logger.warn("Failed to revoke token on attempt {} of {}, retrying in {} ms",
+                    record.getAttempts(), maxAttempts, delayMillis, cause);
+            tokenRevocationDao.rescheduleTokenRevocation(record.getId(),
+                    dateTimeSupplier.get().plus(Duration.ofMillis(delayMillis)));
+            return;
+        }
+
+        tokenRevocationDao.abandonTokenRevocation(record.getId());
+        abandonedCounter.inc();
+        logger.error("Gave up revoking token after {} attempts, it stays valid in Vault but is rejected by CMS " +
+                "until it expires", record.getAttempts(), cause);
+    }
+
+    private static String hash(final String vaultToken) {
+        return DigestUtils.sha256Hex(vaultToken);
+    }
+}
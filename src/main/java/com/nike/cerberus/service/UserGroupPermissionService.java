@@ -24,13 +24,13 @@ import com.nike.cerberus.domain.UserGroupPermission;
 import com.nike.cerberus.error.DefaultApiError;
 import com.nike.cerberus.record.UserGroupPermissionRecord;
 import com.nike.cerberus.record.UserGroupRecord;
+import com.nike.cerberus.util.AfterCommitJdbcTransactionFactory;
 import com.nike.cerberus.util.UuidSupplier;
 import org.mybatis.guice.transactional.Transactional;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.time.OffsetDateTime;
-import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
@@ -46,13 +46,17 @@ public class UserGroupPermissionService {
 
     private final UserGroupDao userGroupDao;
 
+    private final UserGroupPolicyIndex userGroupPolicyIndex;
+
     @Inject
     public UserGroupPermissionService(final UuidSupplier uuidSupplier,
                                       final RoleService roleService,
-                                      final UserGroupDao userGroupDao) {
+                                      final UserGroupDao userGroupDao,
+                                      final UserGroupPolicyIndex userGroupPolicyIndex) {
         this.uuidSupplier = uuidSupplier;
         this.roleService = roleService;
         this.userGroupDao = userGroupDao;
+        this.userGroupPolicyIndex = userGroupPolicyIndex;
     }
 
     /**
@@ -122,6 +126,7 @@ public class UserGroupPermissionService {
         permissionsRecord.setCreatedTs(dateTime);
         permissionsRecord.setLastUpdatedTs(dateTime);
         userGroupDao.createUserGroupPermission(permissionsRecord);
+        refreshUserGroupAfterCommit(userGroupPermission.getName());
     }
 
     /**
@@ -173,6 +178,7 @@ public class UserGroupPermissionService {
         record.setLastUpdatedBy(user);
         record.setLastUpdatedTs(dateTime);
         userGroupDao.updateUserGroupPermission(record);
+        refreshUserGroupAfterCommit(userGroupPermission.getName());
     }
 
     /**
@@ -217,34 +223,30 @@ public class UserGroupPermissionService {
         }
 
         userGroupDao.deleteUserGroupPermission(safeDepositBoxId, userGroupRecord.get().getId());
+        refreshUserGroupAfterCommit(userGroupPermission.getName());
     }
 
+    /**
+     * Gets the user group permissions of an SDB, including the group names, with a single query.
+     *
+     * @param safeDepositBoxId The safe deposit box id
+     * @return The set of user group permissions
+     */
     public Set<UserGroupPermission> getUserGroupPermissions(final String safeDepositBoxId) {
-        final Set<UserGroupPermission> permissionsSet = Sets.newHashSet();
-        final List<UserGroupPermissionRecord> permissionRecords =
-                userGroupDao.getUserGroupPermissions(safeDepositBoxId);
-
-        permissionRecords.forEach(r -> {
-            final Optional<UserGroupRecord> userGroupRecord = userGroupDao.getUserGroup(r.getUserGroupId());
-
-            if (userGroupRecord.isPresent()) {
-                UserGroupPermission permission = new UserGroupPermission();
-                permission.setId(r.getId());
-                permission.setRoleId(r.getRoleId());
-                permission.setName(userGroupRecord.get().getName());
-                permission.setCreatedBy(r.getCreatedBy());
-                permission.setCreatedTs(r.getCreatedTs());
-                permission.setLastUpdatedBy(r.getLastUpdatedBy());
-                permission.setLastUpdatedTs(r.getLastUpdatedTs());
-                permissionsSet.add(permission);
-            }
-        });
-
-        return permissionsSet;
+        return Sets.newHashSet(userGroupDao.getUserGroupPermissionsWithNames(safeDepositBoxId));
     }
 
     @Transactional
     public void deleteUserGroupPermissions(final String safeDepositBoxId) {
         userGroupDao.deleteUserGroupPermissions(safeDepositBoxId);
+        AfterCommitJdbcTransactionFactory.runAfterCommit(userGroupPolicyIndex::invalidateAll);
+    }
+
+    /**
+     * The index is only updated once the permission change has committed, otherwise the refresh would not see the
+     * change, or a login racing the transaction could rebuild the index from the old permissions.
+     */
+    private void refreshUserGroupAfterCommit(final String userGroupName) {
+        AfterCommitJdbcTransactionFactory.runAfterCommit(() -> userGroupPolicyIndex.refreshUserGroup(userGroupName));
     }
 }
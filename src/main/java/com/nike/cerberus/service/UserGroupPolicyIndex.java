@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.nike.cerberus.dao.SafeDepositBoxDao;
+import com.nike.cerberus.record.SafeDepositBoxRoleRecord;
+import com.nike.cerberus.record.UserGroupSafeDepositBoxRoleRecord;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory index of user group name to the SDB permissions granted to that group, so that building the policy set
+ * for a user login or token refresh is a union of a few precomputed lists instead of a four-way join with an IN list
+ * of every group the user belongs to.
+ * <p>
+ * The index is built on first use, refreshed one group at a time once a change to user group permissions on this node
+ * has committed and rebuilt periodically so that changes made through other CMS nodes are picked up.  Group names are matched case
+ * insensitively, like the USER_GROUP.NAME column.
+ */
+@Singleton
+public class UserGroupPolicyIndex {
+
+    public static final String ENABLED_PROPERTY = "cms.user.policy.index.enabled";
+
+    public static final String REBUILD_INTERVAL_SECONDS_PROPERTY = "cms.user.policy.index.rebuildIntervalSeconds";
+
+    public static final String METRIC_INDEXED_GROUPS = "cms.user.policy.index.groups";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final SafeDepositBoxDao safeDepositBoxDao;
+
+    private final boolean enabled;
+
+    private final long rebuildIntervalSeconds;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Serializes full rebuilds and single group refreshes, lookups never take it once the index is built
+     */
+    private final Object lock = new Object();
+
+    private final AtomicBoolean rebuildStarted = new AtomicBoolean(false);
+
+    /**
+     * Normalized user group name to the SDB permissions of the group, null until built or after being invalidated
+     */
+    private volatile ConcurrentMap<String, List<SafeDepositBoxRoleRecord>> index;
+
+    @Inject
+    public UserGroupPolicyIndex(final SafeDepositBoxDao safeDepositBoxDao,
+                                @Named(ENABLED_PROPERTY) final boolean enabled,
+                                @Named(REBUILD_INTERVAL_SECONDS_PROPERTY) final long rebuildIntervalSeconds,
+                                final CodahaleMetricsCollector metricsCollector) {
+        this(safeDepositBoxDao, enabled, rebuildIntervalSeconds, metricsCollector,
+                Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("user-policy-index-%d")
+                        .setDaemon(true)
+                        .build()));
+    }
+
+    UserGroupPolicyIndex(final SafeDepositBoxDao safeDepositBoxDao,
+                         final boolean enabled,
+                         final long rebuildIntervalSeconds,
+                         final CodahaleMetricsCollector metricsCollector,
+                         final ScheduledExecutorService executor) {
+        this.safeDepositBoxDao = safeDepositBoxDao;
+        this.enabled = enabled;
+        this.rebuildIntervalSeconds = rebuildIntervalSeconds;
+        this.executor = executor;
+
+        final MetricRegistry registry = metricsCollector.getMetricRegistry();
+        registry.remove(METRIC_INDEXED_GROUPS);
+        registry.register(METRIC_INDEXED_GROUPS, (Gauge<Integer>) () -> {
+            final Map<String, List<SafeDepositBoxRoleRecord>> current = index;
+            return current == null ? 0 : current.size();
+        });
+    }
+
+    /**
+     * Gets the SDB permissions granted to any of the given user groups.  The same SDB may be listed more than once if
+     * it is granted to more than one of the groups.
+     *
+     * @param userGroups Groups the user is a member of
+     * @return The SDB permissions of the groups
+     */
+    public List<SafeDepositBoxRoleRecord> getSafeDepositBoxRoles(final Set<String> userGroups) {
+        if (!enabled) {
+            return safeDepositBoxDao.getUserAssociatedSafeDepositBoxRoles(userGroups);
+        }
+
+        startRebuild();
+        final Map<String, List<SafeDepositBoxRoleRecord>> current = getIndex();
+
+        final List<SafeDepositBoxRoleRecord> sdbRoles = new ArrayList<>();
+        for (final String userGroup : userGroups) {
+            if (userGroup == null) {
+                continue;
+            }
+            final List<SafeDepositBoxRoleRecord> groupRoles = current.get(normalize(userGroup));
+            if (groupRoles != null) {
+                sdbRoles.addAll(groupRoles);
+            }
+        }
+        return sdbRoles;
+    }
+
+    /**
+     * Reloads the SDB permissions of a single user group, to be called after permissions of the group change.
+     *
+     * @param userGroupName The user group whose permissions changed
+     */
+    public void refreshUserGroup(final String userGroupName) {
+        if (!enabled) {
+            return;
+        }
+
+        synchronized (lock) {
+            final Map<String, List<SafeDepositBoxRoleRecord>> current = index;
+            if (current == null) {
+                // not built yet, the first lookup will load every group
+                return;
+            }
+
+            final List<SafeDepositBoxRoleRecord> groupRoles = ImmutableList.copyOf(
+                    safeDepositBoxDao.getUserAssociatedSafeDepositBoxRoles(Collections.singleton(userGroupName)));
+            if (groupRoles.isEmpty()) {
+                current.remove(normalize(userGroupName));
+            } else {
+                current.put(normalize(userGroupName), groupRoles);
+            }
+        }
+    }
+
+    /**
+     * Drops the whole index so that the next lookup rebuilds it, for changes that affect an unknown set of groups
+     * such as deleting an SDB.
+     */
+    public void invalidateAll() {
+        synchronized (lock) {
+            index = null;
+        }
+    }
+
+    /**
+     * Replaces the index with a freshly loaded one.
+     */
+    protected void rebuild() {
+        synchronized (lock) {
+            index = loadIndex();
+        }
+    }
+
+    private Map<String, List<SafeDepositBoxRoleRecord>> getIndex() {
+        final Map<String, List<SafeDepositBoxRoleRecord>> current = index;
+        if (current != null) {
+            return current;
+        }
+
+        synchronized (lock) {
+            if (index == null) {
+                index = loadIndex();
+            }
+            return index;
+        }
+    }
+
+    private ConcurrentMap<String, List<SafeDepositBoxRoleRecord>> loadIndex() {
+        final Map<String, List<SafeDepositBoxRoleRecord>> groupRoles = new HashMap<>();
+        for (final UserGroupSafeDepositBoxRoleRecord record : safeDepositBoxDao.getAllUserGroupSafeDepositBoxRoles()) {
+            groupRoles.computeIfAbsent(normalize(record.getUserGroupName()), userGroup -> new ArrayList<>())
+                    .add(new SafeDepositBoxRoleRecord()
+                            .setSafeDepositBoxName(record.getSafeDepositBoxName())
+                            .setSafeDepositBoxPath(record.getSafeDepositBoxPath())
+                            .setRoleName(record.getRoleName()));
+        }
+
+        final ConcurrentMap<String, List<SafeDepositBoxRoleRecord>> loaded = new ConcurrentHashMap<>(groupRoles.size());
+        groupRoles.forEach((userGroup, roles) -> loaded.put(userGroup, ImmutableList.copyOf(roles)));
+        logger.debug("Loaded SDB permissions of {} user groups", loaded.size());
+        return loaded;
+    }
+
+    private void startRebuild() {
+        if (rebuildStarted.compareAndSet(false, true)) {
+            executor.scheduleWithFixedDelay(() -> {
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    logger.error("User group policy index rebuild failed", e);
+                }
+            }, rebuildIntervalSeconds, rebuildIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private static String normalize(final String userGroupName) {
+        return userGroupName.toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.service;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.nike.cerberus.dao.VaultCompositePolicyDao;
+import com.nike.cerberus.record.SafeDepositBoxRoleRecord;
+import com.nike.cerberus.record.VaultCompositePolicyRecord;
+import com.nike.cerberus.util.DateTimeSupplier;
+import com.nike.vault.client.model.VaultPolicy;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.mybatis.guice.transactional.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Maps a set of SDB permissions to the Vault policies a token is given.
+ * <p>
+ * When enabled, a token gets a single composite policy holding the rules of all its SDB permissions instead of one
+ * standard policy per SDB, which keeps token policy lists short for principals with access to many SDBs.  Composite
+ * policies are named by a hash of their rules, so principals with the same permissions share one policy and a change
+ * to the permissions yields a new policy rather than altering the policy of existing tokens.
+ * <p>
+ * The last use of each composite policy is recorded in VAULT_COMPOSITE_POLICY, at most once per touch interval per
+ * node, and the clean up job deletes policies unused for longer than the grace period.  The grace period must exceed
+ * the longest token TTL plus the touch interval and the IAM policy cache expiry, so that no live token refers to a
+ * deleted policy.
+ */
+@Singleton
+public class VaultCompositePolicyService {
+
+    public static final String COMPOSITE_POLICY_PREFIX = "composite-";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final VaultPolicyService vaultPolicyService;
+
+    private final VaultCompositePolicyDao vaultCompositePolicyDao;
+
+    private final DateTimeSupplier dateTimeSupplier;
+
+    private final boolean enabled;
+
+    private final long gracePeriodSeconds;
+
+    /**
+     * Composite policies this node has written to Vault and touched within the touch interval
+     */
+    private final Cache<String, Boolean> recentlyTouched;
+
+    @Inject
+    public VaultCompositePolicyService(final VaultPolicyService vaultPolicyService,
+                                       final VaultCompositePolicyDao vaultCompositePolicyDao,
+                                       final DateTimeSupplier dateTimeSupplier,
+                                       @Named("cms.vault.composite.policy.enabled") final boolean enabled,
+                                       @Named("cms.vault.composite.policy.touchIntervalSeconds") final long touchIntervalSeconds,
+                                       @Named("cms.vault.composite.policy.gracePeriodSeconds") final long gracePeriodSeconds) {
+        Preconditions.checkArgument(gracePeriodSeconds > touchIntervalSeconds,
+                "The composite policy grace period must be longer than the touch interval");
+
+        this.vaultPolicyService = vaultPolicyService;
+        this.vaultCompositePolicyDao = vaultCompositePolicyDao;
+        this.dateTimeSupplier = dateTimeSupplier;
+        this.enabled = enabled;
+        this.gracePeriodSeconds = gracePeriodSeconds;
+        this.recentlyTouched = CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(touchIntervalSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Gets the names of the Vault policies that grant the given SDB permissions, writing the composite policy to
+     * Vault first if needed.
+     *
+     * @param sdbRoles The SDB permissions
+     * @return The composite policy, or the standard policy for each permission if composite policies are disabled
+     */
+    public Set<String> getPolicyNames(final Collection<SafeDepositBoxRoleRecord> sdbRoles) {
+        if (!enabled || sdbRoles.isEmpty()) {
+            return buildStandardPolicyNames(sdbRoles);
+        }
+
+        final SortedSet<String> rules = new TreeSet<>();
+        for (final SafeDepositBoxRoleRecord sdbRole : sdbRoles) {
+            if (StringUtils.isBlank(sdbRole.getSafeDepositBoxPath())) {
+                logger.warn("No path for SDB: {}, using the standard policies", sdbRole.getSafeDepositBoxName());
+                return buildStandardPolicyNames(sdbRoles);
+            }
+            rules.add(vaultPolicyService.buildPolicyForRole(sdbRole.getSafeDepositBoxPath(), sdbRole.getRoleName())
+                    .getRules());
+        }
+
+        final String compositeRules = StringUtils.join(rules, '\n');
+        final String policyName = COMPOSITE_POLICY_PREFIX + DigestUtils.sha256Hex(compositeRules);
+        touch(policyName, compositeRules);
+
+        return Collections.singleton(policyName);
+    }
+
+    /**
+     * Deletes the composite policies that have not been used within the grace period from Vault and the DB.
+     */
+    public void deleteUnusedCompositePolicies() {
+        final OffsetDateTime cutoff = dateTimeSupplier.get().minusSeconds(gracePeriodSeconds);
+        final List<VaultCompositePolicyRecord> unusedPolicies =
+                vaultCompositePolicyDao.getCompositePoliciesLastUsedBefore(cutoff);
+
+        unusedPolicies.forEach(policyRecord -> {
+            try {
+                if (deleteCompositePolicyIfUnused(policyRecord.getName(), cutoff)) {
+                    logger.info("Deleted unused composite policy: {}, lastUsed={}",
+                            policyRecord.getName(), policyRecord.getLastUsedTs());
+                }
+            } catch (Exception e) {
+                logger.error("There was a problem deleting composite policy: {}", policyRecord.getName(), e);
+            }
+        });
+    }
+
+    /**
+     * The record stays locked while the Vault policy is deleted, so a concurrent login either touches the record
+     * first, and the policy is kept, or waits and then writes the policy again.
+     */
+    @Transactional
+    protected boolean deleteCompositePolicyIfUnused(final String policyName, final OffsetDateTime cutoff) {
+        if (!vaultCompositePolicyDao.lockCompositePolicyLastUsedBefore(policyName, cutoff)) {
+            return false;
+        }
+
+        vaultPolicyService.deletePolicy(policyName);
+        vaultCompositePolicyDao.deleteCompositePolicy(policyName);
+        recentlyTouched.invalidate(policyName);
+        return true;
+    }
+
+    /**
+     * The record is touched before the policy is written, so that the clean up job cannot delete the policy in between.
+     */
+    private void touch(final String policyName, final String compositeRules) {
+        if (recentlyTouched.getIfPresent(policyName) != null) {
+            return;
+        }
+
+        vaultCompositePolicyDao.touchCompositePolicy(policyName, dateTimeSupplier.get());
+
+        final VaultPolicy policy = new VaultPolicy();
+        policy.setRules(compositeRules);
+        vaultPolicyService.putPolicy(policyName, policy);
+
+        recentlyTouched.put(policyName, Boolean.TRUE);
+    }
+
+    private Set<String> buildStandardPolicyNames(final Collection<SafeDepositBoxRoleRecord> sdbRoles) {
+        return sdbRoles.stream()
+                .map(i -> vaultPolicyService.buildPolicyName(i.getSafeDepositBoxName(), i.getRoleName()))
+                .collect(Collectors.toSet());
+    }
+}
@@ -93,6 +93,35 @@ public class VaultPolicyService {
         }
     }
 
+    /**
+     * Writes a policy that is not one of the standard SDB policies, e.g. a composite policy.
+     *
+     * @param policyName Policy name
+     * @param policy Policy to write
+     */
+    public void putPolicy(final String policyName, final VaultPolicy policy) {
+        try {
+            vaultAdminClient.putPolicy(policyName, policy);
+        } catch (VaultClientException vce) {
+            logger.error("Failed to write policy: {} to Vault.", policyName, vce);
+            throw ApiException.newBuilder()
+                    .withApiErrors(DefaultApiError.SERVICE_UNAVAILABLE)
+                    .build();
+        }
+    }
+
+    public void deletePolicy(final String policyName) {
+        try {
+            vaultAdminClient.deletePolicy(policyName);
+        } catch (VaultClientException vce) {
+            throw ApiException.newBuilder()
+                    .withApiErrors(DefaultApiError.SERVICE_UNAVAILABLE)
+                    .withExceptionCause(vce)
+                    .withExceptionMessage("Failed to delete policy: " + policyName + " from Vault.")
+                    .build();
+        }
+    }
+
     /**
      * Outputs the expected policy name format used in Vault.
      *
@@ -124,6 +153,28 @@ public class VaultPolicyService {
         return vaultPolicy;
     }
 
+    /**
+     * Create the policy for the given role.
+     *
+     * @param sdbPath Safe deposit box path
+     * @param roleName Role for safe deposit box
+     * @return Vault policy
+     */
+    public VaultPolicy buildPolicyForRole(final String sdbPath, final String roleName) {
+        Preconditions.checkArgument(StringUtils.isNotBlank(roleName), "roleName cannot be blank!");
+
+        switch (StringUtils.lowerCase(roleName)) {
+            case RoleRecord.ROLE_OWNER:
+                return buildOwnerPolicy(sdbPath);
+            case RoleRecord.ROLE_WRITE:
+                return buildWritePolicy(sdbPath);
+            case RoleRecord.ROLE_READ:
+                return buildReadPolicy(sdbPath);
+            default:
+                throw new IllegalArgumentException("Unknown role: " + roleName);
+        }
+    }
+
     /**
      * Create owner policy.
      *
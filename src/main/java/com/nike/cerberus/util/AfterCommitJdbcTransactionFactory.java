@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.util;
+
+import org.apache.ibatis.session.TransactionIsolationLevel;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JDBC transaction factory that lets callers defer work, such as cache invalidation, until the
+ * transaction open on the current thread has committed.  Nested {@code @Transactional} methods share the
+ * outer managed session, so callbacks registered anywhere inside it only run once the outermost commit
+ * succeeds.  They are discarded if the transaction is rolled back or closed without committing.
+ */
+public class AfterCommitJdbcTransactionFactory extends JdbcTransactionFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(AfterCommitJdbcTransactionFactory.class);
+
+    private static final ThreadLocal<AfterCommitJdbcTransaction> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Runs the callback after the transaction open on the current thread commits, or immediately if there
+     * is none.
+     *
+     * @param callback The work to run once the changes are visible to other connections
+     */
+    public static void runAfterCommit(final Runnable callback) {
+        final AfterCommitJdbcTransaction transaction = CURRENT.get();
+        if (transaction == null) {
+            callback.run();
+        } else {
+            transaction.callbacks.add(callback);
+        }
+    }
+
+    @Override
+    public Transaction newTransaction(final Connection conn) {
+        return new AfterCommitJdbcTransaction(conn);
+    }
+
+    @Override
+    public Transaction newTransaction(final DataSource ds,
+                                      final TransactionIsolationLevel level,
+                                      final boolean autoCommit) {
+        return new AfterCommitJdbcTransaction(ds, level, autoCommit);
+    }
+
+    private static class AfterCommitJdbcTransaction extends JdbcTransaction {
+
+        private final List<Runnable> callbacks = new ArrayList<>();
+
+        private final AfterCommitJdbcTransaction previous = CURRENT.get();
+
+        AfterCommitJdbcTransaction(final Connection connection) {
+            super(connection);
+            CURRENT.set(this);
+        }
+
+        AfterCommitJdbcTransaction(final DataSource ds,
+                                   final TransactionIsolationLevel level,
+                                   final boolean autoCommit) {
+            super(ds, level, autoCommit);
+            CURRENT.set(this);
+        }
+
+        @Override
+        public void commit() throws SQLException {
+            super.commit();
+            final List<Runnable> committed = new ArrayList<>(callbacks);
+            callbacks.clear();
+            for (final Runnable callback : committed) {
+                try {
+                    callback.run();
+                } catch (RuntimeException e) {
+                    logger.error("After commit callback failed", e);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            callbacks.clear();
+            if (CURRENT.get() == this) {
+                if (previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previous);
+                }
+            }
+            super.close();
+        }
+    }
+}
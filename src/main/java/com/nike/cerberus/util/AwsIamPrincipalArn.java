@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.util;
+
+import static com.nike.cerberus.util.AwsIamRoleArnParser.AWS_IAM_ROLE_ARN_TEMPLATE;
+
+/**
+ * Immutable result of parsing an IAM principal ARN (e.g. 'arn:aws:iam::0000000000:instance-profile/example' or
+ * 'arn:aws:sts::0000000000:assumed-role/example/session-name') in a single pass.
+ * <p>
+ * Accepts the ARNs matched by {@link AwsIamRoleArnParser#AWS_IAM_PRINCIPAL_ARN_REGEX}, except that a trailing line
+ * terminator is rejected rather than ignored.
+ */
+public final class AwsIamPrincipalArn {
+
+    private static final String ARN_PREFIX = "arn:aws:";
+
+    private static final String IAM_SERVICE = "iam";
+
+    private static final String STS_SERVICE = "sts";
+
+    private static final String ROLE_RESOURCE_TYPE = "role";
+
+    private static final String ASSUMED_ROLE_RESOURCE_TYPE = "assumed-role";
+
+    private final String arn;
+
+    private final boolean iam;
+
+    private final String accountId;
+
+    private final String resourceType;
+
+    private final String resourceName;
+
+    private final String roleArn;
+
+    private AwsIamPrincipalArn(final String arn,
+                               final boolean iam,
+                               final String accountId,
+                               final String resourceType,
+                               final String resourceName) {
+        this.arn = arn;
+        this.iam = iam;
+        this.accountId = accountId;
+        this.resourceType = resourceType;
+        this.resourceName = resourceName;
+        this.roleArn = isRoleArn() ? arn : buildRoleArn();
+    }
+
+    /**
+     * Parses the given ARN.
+     * @param arn - ARN to parse
+     * @return - The parsed ARN, or null if the ARN is not an IAM principal ARN
+     */
+    public static AwsIamPrincipalArn parse(final String arn) {
+        if (arn == null || !arn.startsWith(ARN_PREFIX)) {
+            return null;
+        }
+
+        // service, followed by an empty region
+        final int serviceStart = ARN_PREFIX.length();
+        final boolean iam;
+        if (arn.startsWith(IAM_SERVICE, serviceStart)) {
+            iam = true;
+        } else if (arn.startsWith(STS_SERVICE, serviceStart)) {
+            iam = false;
+        } else {
+            return null;
+        }
+        final int regionEnd = serviceStart + IAM_SERVICE.length();
+        if (!arn.startsWith("::", regionEnd)) {
+            return null;
+        }
+
+        // account id, one or more ASCII digits
+        final int accountStart = regionEnd + 2;
+        int accountEnd = accountStart;
+        while (accountEnd < arn.length() && isAsciiDigit(arn.charAt(accountEnd))) {
+            accountEnd++;
+        }
+        if (accountEnd == accountStart || accountEnd == arn.length() || arn.charAt(accountEnd) != ':') {
+            return null;
+        }
+
+        // resource type, at least one character, up to the first slash
+        final int resourceStart = accountEnd + 1;
+        if (arn.startsWith("group", resourceStart)) {
+            return null;
+        }
+        final int slash = arn.indexOf('/', resourceStart + 1);
+        if (slash < 0 || slash == arn.length() - 1) {
+            return null;
+        }
+
+        for (int i = resourceStart; i < arn.length(); i++) {
+            if (isLineTerminator(arn.charAt(i))) {
+                return null;
+            }
+        }
+
+        return new AwsIamPrincipalArn(arn,
+                iam,
+                arn.substring(accountStart, accountEnd),
+                arn.substring(resourceStart, slash),
+                arn.substring(slash + 1));
+    }
+
+    public String getArn() {
+        return arn;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    /**
+     * @return - The resource type, e.g. 'role', 'instance-profile' or 'assumed-role'
+     */
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    /**
+     * @return - Everything after the resource type, e.g. 'path/to/role' or 'role-name/session-name'
+     */
+    public String getResourceName() {
+        return resourceName;
+    }
+
+    /**
+     * @return - True if the ARN is in format 'arn:aws:iam::000000000:role/example'
+     */
+    public boolean isRoleArn() {
+        return iam && ROLE_RESOURCE_TYPE.equals(resourceType);
+    }
+
+    /**
+     * @return - True if the ARN is in format 'arn:aws:sts::000000000:assumed-role/...'
+     */
+    public boolean isAssumedRoleArn() {
+        return !iam && ASSUMED_ROLE_RESOURCE_TYPE.equals(resourceType);
+    }
+
+    /**
+     * @return - The base role ARN (i.e. 'arn:aws:iam::000000000:role/example'), or null for an assumed role ARN that
+     * has no session name
+     */
+    public String getRoleArn() {
+        return roleArn;
+    }
+
+    private String buildRoleArn() {
+        String roleName = resourceName;
+        if (isAssumedRoleArn()) {
+            final int sessionSlash = resourceName.lastIndexOf('/');
+            if (sessionSlash < 1 || sessionSlash == resourceName.length() - 1) {
+                return null;
+            }
+            roleName = resourceName.substring(0, sessionSlash);
+        }
+        return String.format(AWS_IAM_ROLE_ARN_TEMPLATE, accountId, roleName);
+    }
+
+    private static boolean isAsciiDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * The characters that '.' does not match in a Java regex
+     */
+    private static boolean isLineTerminator(final char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    @Override
+    public String toString() {
+        return arn;
+    }
+}
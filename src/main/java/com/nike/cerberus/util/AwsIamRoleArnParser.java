@@ -17,34 +17,52 @@
 
 package com.nike.cerberus.util;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.nike.backstopper.exception.ApiException;
 import com.nike.cerberus.error.InvalidIamRoleArnApiError;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Utility class for concatenating and parsing AWS IAM role ARNs.
+ * <p>
+ * ARNs are parsed once into an immutable {@link AwsIamPrincipalArn} and the result is kept in a bounded cache shared
+ * by every instance, so that the authentication path, the request validators and the permission lookups all reuse
+ * the same parse of a given ARN.
  */
 public class AwsIamRoleArnParser {
 
     public static final String AWS_IAM_ROLE_ARN_TEMPLATE = "arn:aws:iam::%s:role/%s";
 
+    /**
+     * Documents the accepted format, see {@link AwsIamPrincipalArn#parse(String)}
+     */
     public static final String AWS_IAM_PRINCIPAL_ARN_REGEX = "^arn:aws:(iam|sts)::(?<accountId>\\d+?):(?!group).+?/(?<roleName>.+)$";
 
-    private static final String AWS_IAM_ROLE_ARN_REGEX = "^arn:aws:iam::(?<accountId>\\d+?):role/(?<roleName>.+)$";
-
-    private static final String AWS_IAM_ASSUMED_ROLE_ARN_REGEX = "^arn:aws:sts::(?<accountId>\\d+?):assumed-role/(?<roleName>.+)/.+$";
-
-    private static final String GENERIC_ASSUMED_ROLE_REGEX = "^arn:aws:sts::(?<accountId>\\d+?):assumed-role/.+$";
+    private static final long MAX_CACHED_ARNS = 10_000;
 
-    private static final Pattern IAM_PRINCIPAL_ARN_PATTERN = Pattern.compile(AWS_IAM_PRINCIPAL_ARN_REGEX);
+    private static final Cache<String, AwsIamPrincipalArn> PARSED_ARNS = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_ARNS)
+            .build();
 
-    private static final Pattern IAM_ROLE_ARN_PATTERN = Pattern.compile(AWS_IAM_ROLE_ARN_REGEX);
-
-    private static final Pattern IAM_ASSUMED_ROLE_ARN_PATTERN = Pattern.compile(AWS_IAM_ASSUMED_ROLE_ARN_REGEX);
+    /**
+     * Parses an IAM principal ARN, serving recently seen ARNs from the cache.  Invalid ARNs are not cached.
+     * @param arn - ARN to parse
+     * @return - The parsed ARN, or null if it is not a valid IAM principal ARN
+     */
+    public AwsIamPrincipalArn parse(final String arn) {
+        if (arn == null) {
+            return null;
+        }
 
-    private static final Pattern GENERIC_ASSUMED_ROLE_PATTERN = Pattern.compile(GENERIC_ASSUMED_ROLE_REGEX);
+        AwsIamPrincipalArn parsed = PARSED_ARNS.getIfPresent(arn);
+        if (parsed == null) {
+            parsed = AwsIamPrincipalArn.parse(arn);
+            if (parsed != null) {
+                PARSED_ARNS.put(arn, parsed);
+            }
+        }
+        return parsed;
+    }
 
     /**
      * Gets account ID from a 'role' ARN
@@ -53,7 +71,7 @@ public class AwsIamRoleArnParser {
      */
     public String getAccountId(final String roleArn) {
 
-        return getNamedGroupFromRegexPattern(IAM_ROLE_ARN_PATTERN, "accountId", roleArn);
+        return parseRoleArn(roleArn).getAccountId();
     }
 
     /**
@@ -63,7 +81,7 @@ public class AwsIamRoleArnParser {
      */
     public String getRoleName(final String roleArn) {
 
-        return getNamedGroupFromRegexPattern(IAM_ROLE_ARN_PATTERN, "roleName", roleArn);
+        return parseRoleArn(roleArn).getResourceName();
 
     }
 
@@ -74,9 +92,9 @@ public class AwsIamRoleArnParser {
      */
     public boolean isRoleArn(final String arn) {
 
-        final Matcher iamRoleArnMatcher = IAM_ROLE_ARN_PATTERN.matcher(arn);
+        final AwsIamPrincipalArn parsed = parse(arn);
 
-        return iamRoleArnMatcher.find();
+        return parsed != null && parsed.isRoleArn();
     }
 
     /**
@@ -87,30 +105,29 @@ public class AwsIamRoleArnParser {
      */
     public String convertPrincipalArnToRoleArn(final String principalArn) {
 
-        if (isRoleArn(principalArn)) {
-            return principalArn;
-        }
-
-        final boolean isAssumedRole = GENERIC_ASSUMED_ROLE_PATTERN.matcher(principalArn).find();
-        final Pattern patternToMatch = isAssumedRole ? IAM_ASSUMED_ROLE_ARN_PATTERN : IAM_PRINCIPAL_ARN_PATTERN;
+        final AwsIamPrincipalArn parsed = parse(principalArn);
 
-        final String accountId = getNamedGroupFromRegexPattern(patternToMatch, "accountId", principalArn);
-        final String roleName = getNamedGroupFromRegexPattern(patternToMatch, "roleName", principalArn);
+        if (parsed == null || parsed.getRoleArn() == null) {
+            throw invalidArn(principalArn, "ARN is not a valid IAM principal ARN");
+        }
 
-        return String.format(AWS_IAM_ROLE_ARN_TEMPLATE, accountId, roleName);
+        return parsed.getRoleArn();
     }
 
+    private AwsIamPrincipalArn parseRoleArn(final String roleArn) {
+        final AwsIamPrincipalArn parsed = parse(roleArn);
 
-    private String getNamedGroupFromRegexPattern(final Pattern pattern, final String groupName, final String input) {
-        final Matcher iamRoleArnMatcher = pattern.matcher(input);
-
-        if (! iamRoleArnMatcher.find()) {
-            throw ApiException.newBuilder()
-                    .withApiErrors(new InvalidIamRoleArnApiError(input))
-                    .withExceptionMessage("ARN does not match pattern: " + pattern.toString())
-                    .build();
+        if (parsed == null || !parsed.isRoleArn()) {
+            throw invalidArn(roleArn, "ARN is not a valid IAM role ARN");
         }
 
-        return iamRoleArnMatcher.group(groupName);
+        return parsed;
+    }
+
+    private ApiException invalidArn(final String arn, final String message) {
+        return ApiException.newBuilder()
+                .withApiErrors(new InvalidIamRoleArnApiError(arn))
+                .withExceptionMessage(message + ": " + arn)
+                .build();
     }
 }
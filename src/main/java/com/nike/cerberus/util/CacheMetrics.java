@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nike.cerberus.util;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+
+/**
+ * Utility for exporting the statistics of a Guava cache built with recordStats() as Codahale gauges.
+ */
+public final class CacheMetrics {
+
+    private CacheMetrics() {
+    }
+
+    /**
+     * Registers hit ratio, hit, miss and eviction count gauges for the given cache under the given prefix.
+     *
+     * @param metricsCollector The metrics collector to register the gauges with
+     * @param prefix           The metric name prefix, e.g. cms.auth.iam.policy.cache
+     * @param cache            The cache to report on
+     */
+    public static void register(final CodahaleMetricsCollector metricsCollector,
+                                final String prefix,
+                                final Cache<?, ?> cache) {
+        final MetricRegistry registry = metricsCollector.getMetricRegistry();
+        register(registry, prefix + ".hitRatio", () -> cache.stats().hitRate());
+        register(registry, prefix + ".hit", () -> cache.stats().hitCount());
+        register(registry, prefix + ".miss", () -> cache.stats().missCount());
+        register(registry, prefix + ".eviction", () -> cache.stats().evictionCount());
+    }
+
+    private static <T> void register(final MetricRegistry registry, final String name, final Gauge<T> gauge) {
+        registry.remove(name);
+        registry.register(name, gauge);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the duration strings Vault accepts for token TTLs, e.g. "3600", "90s", "30m", "1h" or "1h30m".
+ */
+public final class VaultDurations {
+
+    private static final Pattern DURATION = Pattern.compile("(\\d+[hms]?)+");
+
+    private static final Pattern PART = Pattern.compile("(\\d+)([hms]?)");
+
+    private VaultDurations() {
+    }
+
+    /**
+     * @param duration - A Vault duration, a number without a unit is in seconds
+     * @return - The duration in seconds
+     * @throws IllegalArgumentException - If the duration cannot be parsed
+     */
+    public static long toSeconds(final String duration) {
+        if (duration == null || !DURATION.matcher(duration.trim()).matches()) {
+            throw new IllegalArgumentException("Invalid Vault duration: " + duration);
+        }
+
+        long seconds = 0;
+        final Matcher part = PART.matcher(duration.trim());
+        while (part.find()) {
+            final long amount = Long.parseLong(part.group(1));
+            switch (part.group(2)) {
+                case "h":
+                    seconds += TimeUnit.HOURS.toSeconds(amount);
+                    break;
+                case "m":
+                    seconds += TimeUnit.MINUTES.toSeconds(amount);
+                    break;
+                default:
+                    seconds += amount;
+            }
+        }
+        return seconds;
+    }
+}
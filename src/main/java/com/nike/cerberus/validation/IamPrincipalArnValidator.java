@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.nike.cerberus.validation;
+
+import com.nike.cerberus.util.AwsIamRoleArnParser;
+
+import javax.validation.ConstraintValidator;
+import javax.validation.ConstraintValidatorContext;
+
+/**
+ * Validator class for validating that a string is an IAM principal ARN, using the same cached parse as the
+ * authentication path.
+ */
+public class IamPrincipalArnValidator implements ConstraintValidator<ValidIamPrincipalArn, String> {
+
+    private final AwsIamRoleArnParser awsIamRoleArnParser = new AwsIamRoleArnParser();
+
+    public void initialize(ValidIamPrincipalArn constraint) {
+        // no-op
+    }
+
+    public boolean isValid(String iamPrincipalArn, ConstraintValidatorContext context) {
+        return iamPrincipalArn == null || awsIamRoleArnParser.parse(iamPrincipalArn) != null;
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.vault;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import com.nike.cerberus.server.config.guice.CmsGuiceModule;
+import com.nike.vault.client.UrlResolver;
+import com.nike.vault.client.VaultClientException;
+import com.nike.vault.client.VaultServerException;
+import com.nike.vault.client.auth.VaultCredentialsProvider;
+import com.nike.vault.client.model.VaultAuthResponse;
+import com.nike.vault.client.model.VaultTokenAuthRequest;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Client for creating Vault batch tokens.  Batch tokens are encrypted blobs that Vault does not persist, so creating
+ * one costs Vault no storage write and the token needs no storage cleanup when it expires.  Batch tokens cannot be
+ * renewed or revoked, they are valid until their TTL passes.  Requires Vault 1.0 or later.
+ * <p>
+ * The Vault client library predates batch tokens, so the create request is made directly.
+ */
+@Singleton
+public class VaultBatchTokenClient {
+
+    private static final MediaType DEFAULT_MEDIA_TYPE = MediaType.parse("application/json");
+
+    private static final String HEADER_X_VAULT_TOKEN = "X-Vault-Token";
+
+    private static final String CREATE_ORPHAN_PATH = "v1/auth/token/create-orphan";
+
+    private static final String BATCH_TOKEN_TYPE = "batch";
+
+    private final UrlResolver urlResolver;
+
+    private final VaultCredentialsProvider vaultCredentialsProvider;
+
+    private final OkHttpClient httpClient;
+
+    private final ObjectMapper objectMapper;
+
+    @Inject
+    public VaultBatchTokenClient(final UrlResolver urlResolver,
+                                 final VaultCredentialsProvider vaultCredentialsProvider,
+                                 @Named(CmsGuiceModule.VAULT_HTTP_CLIENT_NAME) final OkHttpClient httpClient,
+                                 final ObjectMapper objectMapper) {
+        this.urlResolver = urlResolver;
+        this.vaultCredentialsProvider = vaultCredentialsProvider;
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Creates an orphan batch token.
+     *
+     * @param vaultTokenAuthRequest The token's policies, metadata and TTL
+     * @return The created token, with the same fields as a service token
+     * @throws VaultServerException when Vault rejects the request
+     * @throws VaultClientException when Vault could not be reached or its response could not be parsed
+     */
+    public VaultAuthResponse createOrphanBatchToken(final VaultTokenAuthRequest vaultTokenAuthRequest) {
+        final Request request;
+        try {
+            request = buildRequest(vaultTokenAuthRequest);
+        } catch (JsonProcessingException e) {
+            throw new VaultClientException("Failed to build the batch token create request.", e);
+        }
+
+        try (Response response = httpClient.newCall(request).execute()) {
+            return parseResponse(response);
+        } catch (IOException e) {
+            throw new VaultClientException("I/O error while communicating with vault.", e);
+        }
+    }
+
+    protected Request buildRequest(final VaultTokenAuthRequest vaultTokenAuthRequest) throws JsonProcessingException {
+        final ObjectNode body = objectMapper.valueToTree(vaultTokenAuthRequest);
+        final List<String> nullFields = Lists.newArrayList();
+        body.fields().forEachRemaining(field -> {
+            if (field.getValue().isNull()) {
+                nullFields.add(field.getKey());
+            }
+        });
+        body.remove(nullFields);
+        body.put("type", BATCH_TOKEN_TYPE);
+
+        return new Request.Builder()
+                .url(buildUrl())
+                .addHeader(HEADER_X_VAULT_TOKEN, vaultCredentialsProvider.getCredentials().getToken())
+                .addHeader("Accept", DEFAULT_MEDIA_TYPE.toString())
+                .post(RequestBody.create(DEFAULT_MEDIA_TYPE, objectMapper.writeValueAsBytes(body)))
+                .build();
+    }
+
+    protected HttpUrl buildUrl() {
+        String baseUrl = urlResolver.resolve();
+
+        if (!StringUtils.endsWith(baseUrl, "/")) {
+            baseUrl += "/";
+        }
+
+        return HttpUrl.parse(baseUrl + CREATE_ORPHAN_PATH);
+    }
+
+    protected VaultAuthResponse parseResponse(final Response response) {
+        final JsonNode body;
+        try (ResponseBody responseBody = response.body()) {
+            body = objectMapper.readTree(responseBody.string());
+        } catch (IOException e) {
+            throw new VaultClientException("Error parsing the batch token create response from vault.", e);
+        }
+
+        if (!response.isSuccessful()) {
+            final List<String> errors = Lists.newArrayList();
+            if (body != null && body.has("errors")) {
+                body.get("errors").forEach(error -> errors.add(error.asText()));
+            }
+            throw new VaultServerException(response.code(), errors);
+        }
+
+        try {
+            return objectMapper.treeToValue(body.get("auth"), VaultAuthResponse.class);
+        } catch (JsonProcessingException e) {
+            throw new VaultClientException("Error parsing the batch token create response from vault.", e);
+        }
+    }
+}
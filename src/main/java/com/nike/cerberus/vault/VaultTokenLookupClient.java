@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.vault;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.codahale.metrics.Counter;
+import com.google.common.collect.Lists;
+import com.nike.cerberus.server.config.guice.CmsGuiceModule;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import com.nike.vault.client.UrlResolver;
+import com.nike.vault.client.VaultClientException;
+import com.nike.vault.client.VaultServerException;
+import com.nike.vault.client.auth.VaultCredentialsProvider;
+import com.nike.vault.client.model.VaultClientTokenResponse;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Non-blocking client for Vault's token lookup API.  The request is dispatched on OkHttp's async dispatcher and the
+ * returned future is completed from the response callback, so no caller thread waits on Vault while it is in flight.
+ * <p>
+ * Concurrent lookups of the same token are coalesced into a single Vault call whose result, or error, is shared by
+ * every caller.  Each caller gets its own dependent future, so completing or cancelling it does not affect the others.
+ * Nothing is retained once the call completes.
+ */
+@Singleton
+public class VaultTokenLookupClient {
+
+    private static final MediaType DEFAULT_MEDIA_TYPE = MediaType.parse("application/json");
+
+    private static final String HEADER_X_VAULT_TOKEN = "X-Vault-Token";
+
+    private static final String LOOKUP_PATH = "v1/auth/token/lookup";
+
+    public static final String METRIC_COALESCED = "cms.vault.token.lookup.coalesced";
+
+    private final UrlResolver urlResolver;
+
+    private final VaultCredentialsProvider vaultCredentialsProvider;
+
+    private final OkHttpClient httpClient;
+
+    private final ObjectMapper objectMapper;
+
+    private final Counter coalescedCounter;
+
+    private final ConcurrentMap<String, CompletableFuture<VaultTokenLookupResponse>> inFlightLookups =
+            new ConcurrentHashMap<>();
+
+    @Inject
+    public VaultTokenLookupClient(final UrlResolver urlResolver,
+                                  final VaultCredentialsProvider vaultCredentialsProvider,
+                                  @Named(CmsGuiceModule.VAULT_HTTP_CLIENT_NAME) final OkHttpClient httpClient,
+                                  final ObjectMapper objectMapper,
+                                  final CodahaleMetricsCollector metricsCollector) {
+        this.urlResolver = urlResolver;
+        this.vaultCredentialsProvider = vaultCredentialsProvider;
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.coalescedCounter = metricsCollector.getNamedCounter(METRIC_COALESCED);
+    }
+
+    /**
+     * Looks up the details of the given token.
+     *
+     * @param vaultToken Token to look up
+     * @return Future completed with the token details, accessor and remaining TTL, or exceptionally with a {@link VaultServerException} when Vault
+     * rejects the token and a {@link VaultClientException} when Vault could not be reached, either wrapped in a
+     * {@link java.util.concurrent.CompletionException}
+     */
+    public CompletableFuture<VaultTokenLookupResponse> lookupToken(final String vaultToken) {
+        final String key = DigestUtils.sha256Hex(vaultToken);
+        final CompletableFuture<VaultTokenLookupResponse> future = new CompletableFuture<>();
+        final CompletableFuture<VaultTokenLookupResponse> inFlight = inFlightLookups.putIfAbsent(key, future);
+
+        if (inFlight != null) {
+            coalescedCounter.inc();
+            return inFlight.thenApply(Function.identity());
+        }
+
+        future.whenComplete((response, throwable) -> inFlightLookups.remove(key, future));
+        try {
+            execute(vaultToken, future);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future.thenApply(Function.identity());
+    }
+
+    private void execute(final String vaultToken, final CompletableFuture<VaultTokenLookupResponse> future) {
+        final Request request;
+        try {
+            request = buildRequest(vaultToken);
+        } catch (JsonProcessingException e) {
+            future.completeExceptionally(new VaultClientException("Failed to build the token lookup request.", e));
+            return;
+        }
+
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(new VaultClientException("I/O error while communicating with vault.", e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    future.complete(parseResponse(response));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    protected Request buildRequest(final String vaultToken) throws JsonProcessingException {
+        return new Request.Builder()
+                .url(buildUrl())
+                .addHeader(HEADER_X_VAULT_TOKEN, vaultCredentialsProvider.getCredentials().getToken())
+                .addHeader("Accept", DEFAULT_MEDIA_TYPE.toString())
+                .post(RequestBody.create(DEFAULT_MEDIA_TYPE,
+                        objectMapper.writeValueAsBytes(ImmutableMap.of("token", vaultToken))))
+                .build();
+    }
+
+    protected HttpUrl buildUrl() {
+        String baseUrl = urlResolver.resolve();
+
+        if (!StringUtils.endsWith(baseUrl, "/")) {
+            baseUrl += "/";
+        }
+
+        return HttpUrl.parse(baseUrl + LOOKUP_PATH);
+    }
+
+    protected VaultTokenLookupResponse parseResponse(final Response response) {
+        final JsonNode body;
+        try (ResponseBody responseBody = response.body()) {
+            body = objectMapper.readTree(responseBody.string());
+        } catch (IOException e) {
+            throw new VaultClientException("Error parsing the token lookup response from vault.", e);
+        }
+
+        if (!response.isSuccessful()) {
+            final List<String> errors = Lists.newArrayList();
+            if (body != null && body.has("errors")) {
+                body.get("errors").forEach(error -> errors.add(error.asText()));
+            }
+            throw new VaultServerException(response.code(), errors);
+        }
+
+        final JsonNode data = body.get("data");
+        try {
+            return new VaultTokenLookupResponse()
+                    .setClientToken(objectMapper.treeToValue(data, VaultClientTokenResponse.class))
+                    .setAccessor(data.path("accessor").asText(null))
+                    .setTtlSeconds(data.path("ttl").asLong(0));
+        } catch (JsonProcessingException e) {
+            throw new VaultClientException("Error parsing the token lookup response from vault.", e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.vault;
+
+import com.nike.vault.client.model.VaultClientTokenResponse;
+
+/**
+ * Result of a Vault token lookup, the token details plus the accessor and remaining TTL that the Vault client's model
+ * does not carry.
+ */
+public class VaultTokenLookupResponse {
+
+    private VaultClientTokenResponse clientToken;
+
+    private String accessor;
+
+    private long ttlSeconds;
+
+    public VaultClientTokenResponse getClientToken() {
+        return clientToken;
+    }
+
+    public VaultTokenLookupResponse setClientToken(VaultClientTokenResponse clientToken) {
+        this.clientToken = clientToken;
+        return this;
+    }
+
+    /**
+     * @return Accessor of the token, null if Vault did not return one
+     */
+    public String getAccessor() {
+        return accessor;
+    }
+
+    public VaultTokenLookupResponse setAccessor(String accessor) {
+        this.accessor = accessor;
+        return this;
+    }
+
+    /**
+     * @return Seconds until the token expires as of the lookup, zero for tokens that never expire
+     */
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public VaultTokenLookupResponse setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+        return this;
+    }
+}
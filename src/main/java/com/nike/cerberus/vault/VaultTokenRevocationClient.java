@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.vault;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.nike.cerberus.server.config.guice.CmsGuiceModule;
+import com.nike.vault.client.UrlResolver;
+import com.nike.vault.client.VaultClientException;
+import com.nike.vault.client.VaultServerException;
+import com.nike.vault.client.auth.VaultCredentialsProvider;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Client for revoking Vault tokens by accessor, so that a token can be revoked later without keeping the token itself.
+ * CMS only creates orphan tokens, so revoking by accessor has the same effect as revoking the orphan token.
+ * <p>
+ * The Vault client library has no revoke by accessor call, so the request is made directly.
+ */
+@Singleton
+public class VaultTokenRevocationClient {
+
+    private static final MediaType DEFAULT_MEDIA_TYPE = MediaType.parse("application/json");
+
+    private static final String HEADER_X_VAULT_TOKEN = "X-Vault-Token";
+
+    private static final String REVOKE_ACCESSOR_PATH = "v1/auth/token/revoke-accessor";
+
+    private final UrlResolver urlResolver;
+
+    private final VaultCredentialsProvider vaultCredentialsProvider;
+
+    private final OkHttpClient httpClient;
+
+    private final ObjectMapper objectMapper;
+
+    @Inject
+    public VaultTokenRevocationClient(final UrlResolver urlResolver,
+                                      final VaultCredentialsProvider vaultCredentialsProvider,
+                                      @Named(CmsGuiceModule.VAULT_HTTP_CLIENT_NAME) final OkHttpClient httpClient,
+                                      final ObjectMapper objectMapper) {
+        this.urlResolver = urlResolver;
+        this.vaultCredentialsProvider = vaultCredentialsProvider;
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Revokes the token with the given accessor.
+     *
+     * @param accessor Accessor of the token to revoke
+     * @throws VaultServerException when Vault rejects the request, with a 400 if the token does not exist
+     * @throws VaultClientException when Vault could not be reached or its response could not be parsed
+     */
+    public void revokeAccessor(final String accessor) {
+        final Request request;
+        try {
+            request = buildRequest(accessor);
+        } catch (JsonProcessingException e) {
+            throw new VaultClientException("Failed to build the token revoke request.", e);
+        }
+
+        try (Response response = httpClient.newCall(request).execute()) {
+            parseResponse(response);
+        } catch (IOException e) {
+            throw new VaultClientException("I/O error while communicating with vault.", e);
+        }
+    }
+
+    protected Request buildRequest(final String accessor) throws JsonProcessingException {
+        return new Request.Builder()
+                .url(buildUrl())
+                .addHeader(HEADER_X_VAULT_TOKEN, vaultCredentialsProvider.getCredentials().getToken())
+                .addHeader("Accept", DEFAULT_MEDIA_TYPE.toString())
+                .post(RequestBody.create(DEFAULT_MEDIA_TYPE,
+                        objectMapper.writeValueAsBytes(ImmutableMap.of("accessor", accessor))))
+                .build();
+    }
+
+    protected HttpUrl buildUrl() {
+        String baseUrl = urlResolver.resolve();
+
+        if (!StringUtils.endsWith(baseUrl, "/")) {
+            baseUrl += "/";
+        }
+
+        return HttpUrl.parse(baseUrl + REVOKE_ACCESSOR_PATH);
+    }
+
+    protected void parseResponse(final Response response) {
+        if (response.isSuccessful()) {
+            return;
+        }
+
+        final List<String> errors = Lists.newArrayList();
+        try (ResponseBody responseBody = response.body()) {
+            final JsonNode body = objectMapper.readTree(responseBody.string());
+            if (body != null && body.has("errors")) {
+                body.get("errors").forEach(error -> errors.add(error.asText()));
+            }
+        } catch (IOException e) {
+            throw new VaultClientException("Error parsing the token revoke response from vault.", e);
+        }
+        throw new VaultServerException(response.code(), errors);
+    }
+}
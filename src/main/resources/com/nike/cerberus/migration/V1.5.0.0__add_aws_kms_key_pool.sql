@@ -0,0 +1,18 @@
+###
+#
+# Pool of pre-created KMS keys, not yet assigned to an IAM role
+#
+###
+
+CREATE TABLE AWS_KMS_KEY_POOL(
+  ID CHAR(36) NOT NULL,
+  AWS_REGION VARCHAR(32) NOT NULL,
+  AWS_KMS_KEY_ID VARCHAR(255) NOT NULL,
+  CREATED_BY VARCHAR(255) NOT NULL,
+  CREATED_TS DATETIME NOT NULL,
+  PRIMARY KEY (ID)
+)
+  ENGINE = InnoDB DEFAULT CHARSET = utf8;
+
+ALTER TABLE AWS_KMS_KEY_POOL
+  ADD INDEX `IX_KMS_KEY_POOL_REGION` (AWS_REGION, CREATED_TS);
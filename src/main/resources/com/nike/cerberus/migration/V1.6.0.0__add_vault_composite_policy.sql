@@ -0,0 +1,16 @@
+###
+#
+# Composite Vault policies, one per distinct set of SDB permissions, named by a hash of their rules
+#
+###
+
+CREATE TABLE VAULT_COMPOSITE_POLICY(
+  NAME VARCHAR(128) NOT NULL,
+  CREATED_TS DATETIME NOT NULL,
+  LAST_USED_TS DATETIME NOT NULL,
+  PRIMARY KEY (NAME)
+)
+  ENGINE = InnoDB DEFAULT CHARSET = utf8;
+
+ALTER TABLE VAULT_COMPOSITE_POLICY
+  ADD INDEX `IX_VAULT_COMPOSITE_POLICY_LAST_USED` (LAST_USED_TS);
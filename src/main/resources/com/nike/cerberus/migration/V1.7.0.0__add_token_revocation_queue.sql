@@ -0,0 +1,28 @@
+###
+#
+# Vault tokens waiting to be revoked in the background, shared by every CMS node so they survive restarts.  Only a
+# SHA-256 hash of the token and its accessor are stored, never the token itself.  Every CMS node rejects a token whose
+# hash is listed until the row expires along with the token, so a queued revocation takes effect right away.
+#
+###
+
+CREATE TABLE TOKEN_REVOCATION(
+  ID CHAR(36) NOT NULL,
+  TOKEN_HASH CHAR(64) NOT NULL,
+  VAULT_ACCESSOR VARCHAR(255) NULL,
+  ATTEMPTS INT NOT NULL,
+  CREATED_TS DATETIME NOT NULL,
+  NEXT_ATTEMPT_TS DATETIME NULL,
+  EXPIRES_TS DATETIME NOT NULL,
+  PRIMARY KEY (ID)
+)
+  ENGINE = InnoDB DEFAULT CHARSET = utf8;
+
+ALTER TABLE TOKEN_REVOCATION
+  ADD INDEX `IX_TOKEN_REVOCATION_NEXT_ATTEMPT` (NEXT_ATTEMPT_TS);
+
+ALTER TABLE TOKEN_REVOCATION
+  ADD INDEX `IX_TOKEN_REVOCATION_TOKEN_HASH` (TOKEN_HASH);
+
+ALTER TABLE TOKEN_REVOCATION
+  ADD INDEX `IX_TOKEN_REVOCATION_EXPIRES` (EXPIRES_TS);
@@ -0,0 +1,14 @@
+###
+#
+# When the cached IdP group memberships of a user, or of all users (USER_ID '*'), were last evicted.  Every CMS node
+# checks this before using a cached entry and reloads entries loaded before the eviction, so an eviction requested on
+# one node applies to the whole fleet.
+#
+###
+
+CREATE TABLE USER_GROUPS_CACHE_EVICTION(
+  USER_ID VARCHAR(255) NOT NULL,
+  EVICTED_TS DATETIME NOT NULL,
+  PRIMARY KEY (USER_ID)
+)
+  ENGINE = InnoDB DEFAULT CHARSET = utf8;
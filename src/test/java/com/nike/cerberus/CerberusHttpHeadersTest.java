@@ -1,5 +1,6 @@
 package com.nike.cerberus;
 
+import com.nike.cerberus.domain.AuthPayloadEncoding;
 import com.nike.riposte.server.http.RequestInfo;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpHeaders;
@@ -57,4 +58,31 @@ public class CerberusHttpHeadersTest {
 
         Assert.assertNull(CerberusHttpHeaders.getXForwardedClientIp(request));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void test_getAuthPayloadEncoding_compact() {
+        HttpHeaders headers = new DefaultHttpHeaders();
+        headers.add(CerberusHttpHeaders.HEADER_X_CERBERUS_AUTH_PAYLOAD_ENCODING, "Compact-JSON");
+        RequestInfo request = mock(RequestInfo.class);
+        when(request.getHeaders()).thenReturn(headers);
+
+        Assert.assertEquals(AuthPayloadEncoding.COMPACT_JSON, CerberusHttpHeaders.getAuthPayloadEncoding(request));
+    }
+
+    @Test
+    public void test_getAuthPayloadEncoding_defaults_to_json_for_unknown_encodings() {
+        HttpHeaders headers = new DefaultHttpHeaders();
+        headers.add(CerberusHttpHeaders.HEADER_X_CERBERUS_AUTH_PAYLOAD_ENCODING, "cbor");
+        RequestInfo request = mock(RequestInfo.class);
+        when(request.getHeaders()).thenReturn(headers);
+
+        Assert.assertEquals(AuthPayloadEncoding.JSON, CerberusHttpHeaders.getAuthPayloadEncoding(request));
+    }
+
+    @Test
+    public void test_getAuthPayloadEncoding_when_null() {
+        RequestInfo request = mock(RequestInfo.class);
+
+        Assert.assertEquals(AuthPayloadEncoding.JSON, CerberusHttpHeaders.getAuthPayloadEncoding(request));
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.auth.connector;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Sets;
+import com.nike.cerberus.dao.UserGroupDao;
+import com.nike.cerberus.util.DateTimeSupplier;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GroupCachingAuthConnectorTest {
+
+    private static final String USER_ID = "user-id";
+
+    private AuthConnector delegate;
+
+    private AuthConnectorExecutor authConnectorExecutor;
+
+    private UserGroupDao userGroupDao;
+
+    private DateTimeSupplier dateTimeSupplier;
+
+    private OffsetDateTime now;
+
+    private CodahaleMetricsCollector metricsCollector;
+
+    private AtomicLong nanos;
+
+    private List<Runnable> refreshTasks;
+
+    private GroupCachingAuthConnector subject;
+
+    @Before
+    public void setup() {
+        delegate = mock(AuthConnector.class);
+        authConnectorExecutor = new AuthConnectorExecutor(Runnable::run);
+        userGroupDao = mock(UserGroupDao.class);
+        when(userGroupDao.getLatestUserGroupsCacheEvictionTs(anyString())).thenReturn(Optional.empty());
+        now = OffsetDateTime.of(2017, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+        dateTimeSupplier = mock(DateTimeSupplier.class);
+        when(dateTimeSupplier.get()).thenAnswer(invocation -> now);
+        metricsCollector = new CodahaleMetricsCollector();
+        nanos = new AtomicLong();
+        refreshTasks = new ArrayList<>();
+        subject = newSubject(true);
+    }
+
+    private GroupCachingAuthConnector newSubject(boolean enabled) {
+        return new GroupCachingAuthConnector(delegate, enabled, 100, 60, 600, userGroupDao, dateTimeSupplier,
+                metricsCollector, refreshTasks::add,
+                new Ticker() {
+                    @Override
+                    public long read() {
+                        return nanos.get();
+                    }
+                });
+    }
+
+    @Test
+    public void test_that_getGroups_only_calls_the_idp_once_within_the_refresh_interval() {
+        when(delegate.getGroups(any(AuthData.class))).thenReturn(Sets.newHashSet("group1"));
+
+        Set<String> first = subject.getGroups(new AuthData().setUserId(USER_ID));
+        Set<String> second = subject.getGroups(new AuthData().setUserId(USER_ID));
+
+        assertThat(first).containsOnly("group1");
+        assertThat(second).containsOnly("group1");
+        verify(delegate, times(1)).getGroups(any(AuthData.class));
+        assertThat(metricsCollector.getNamedCounter(GroupCachingAuthConnector.METRIC_IDP_CALLS).getCount())
+                .isEqualTo(1);
+        assertThat(metricsCollector.getNamedCounter(GroupCachingAuthConnector.METRIC_IDP_CALLS_AVOIDED).getCount())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_getGroups_serves_the_cached_groups_while_refreshing_a_stale_entry() {
+        when(delegate.getGroups(any(AuthData.class)))
+                .thenReturn(Sets.newHashSet("group1"))
+                .thenReturn(Sets.newHashSet("group2"));
+
+        subject.getGroups(new AuthData().setUserId(USER_ID));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+
+        Set<String> stale = subject.getGroups(new AuthData().setUserId(USER_ID));
+        assertThat(stale).containsOnly("group1");
+        assertThat(refreshTasks).hasSize(1);
+
+        refreshTasks.forEach(Runnable::run);
+        Set<String> refreshed = subject.getGroups(new AuthData().setUserId(USER_ID));
+
+        assertThat(refreshed).containsOnly("group2");
+        verify(delegate, times(2)).getGroups(any(AuthData.class));
+    }
+
+    @Test
+    public void test_that_getGroups_calls_the_idp_again_once_the_entry_has_expired() {
+        when(delegate.getGroups(any(AuthData.class)))
+                .thenReturn(Sets.newHashSet("group1"))
+                .thenReturn(Sets.newHashSet("group2"));
+
+        subject.getGroups(new AuthData().setUserId(USER_ID));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(601));
+
+        assertThat(subject.getGroups(new AuthData().setUserId(USER_ID))).containsOnly("group2");
+    }
+
+    @Test
+    public void test_that_getGroupsAsync_caches_the_groups_returned_by_the_idp() {
+        when(delegate.getGroupsAsync(any(AuthData.class), any(AuthConnectorExecutor.class)))
+                .thenReturn(CompletableFuture.completedFuture(Sets.newHashSet("group1")));
+
+        Set<String> first = subject.getGroupsAsync(new AuthData().setUserId(USER_ID), authConnectorExecutor).join();
+        Set<String> second = subject.getGroupsAsync(new AuthData().setUserId(USER_ID), authConnectorExecutor).join();
+
+        assertThat(first).containsOnly("group1");
+        assertThat(second).containsOnly("group1");
+        verify(delegate, times(1)).getGroupsAsync(any(AuthData.class), any(AuthConnectorExecutor.class));
+        verify(delegate, never()).getGroups(any(AuthData.class));
+        assertThat(metricsCollector.getNamedCounter(GroupCachingAuthConnector.METRIC_IDP_CALLS_AVOIDED).getCount())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_evictGroups_forces_the_next_login_to_call_the_idp() {
+        when(delegate.getGroups(any(AuthData.class))).thenReturn(Sets.newHashSet("group1"));
+
+        subject.getGroups(new AuthData().setUserId(USER_ID));
+        subject.evictGroups(USER_ID);
+        subject.getGroups(new AuthData().setUserId(USER_ID));
+        subject.evictAllGroups();
+        subject.getGroups(new AuthData().setUserId(USER_ID));
+
+        verify(delegate, times(3)).getGroups(any(AuthData.class));
+        verify(userGroupDao).upsertUserGroupsCacheEviction(USER_ID, now);
+        verify(userGroupDao).upsertUserGroupsCacheEviction(UserGroupDao.ALL_USERS_ID, now);
+        verify(userGroupDao, times(2)).deleteUserGroupsCacheEvictionsBefore(now.minusSeconds(600));
+    }
+
+    @Test
+    public void test_that_getGroups_reloads_groups_evicted_on_another_node() {
+        when(delegate.getGroups(any(AuthData.class)))
+                .thenReturn(Sets.newHashSet("group1"))
+                .thenReturn(Sets.newHashSet("group2"));
+
+        subject.getGroups(new AuthData().setUserId(USER_ID));
+        now = now.plusSeconds(30);
+        when(userGroupDao.getLatestUserGroupsCacheEvictionTs(USER_ID)).thenReturn(Optional.of(now));
+        now = now.plusSeconds(5);
+
+        assertThat(subject.getGroups(new AuthData().setUserId(USER_ID))).containsOnly("group2");
+        assertThat(subject.getGroups(new AuthData().setUserId(USER_ID))).containsOnly("group2");
+        verify(delegate, times(2)).getGroups(any(AuthData.class));
+    }
+
+    @Test
+    public void test_that_getGroups_reloads_groups_loaded_in_the_same_second_as_an_eviction() {
+        when(delegate.getGroups(any(AuthData.class))).thenReturn(Sets.newHashSet("group1"));
+        when(userGroupDao.getLatestUserGroupsCacheEvictionTs(USER_ID)).thenReturn(Optional.of(now));
+
+        now = now.plusNanos(500_000_000);
+        subject.getGroups(new AuthData().setUserId(USER_ID));
+        subject.getGroups(new AuthData().setUserId(USER_ID));
+
+        verify(delegate, times(2)).getGroups(any(AuthData.class));
+    }
+
+    @Test
+    public void test_that_getGroups_calls_the_idp_when_the_evictions_cannot_be_read() {
+        when(delegate.getGroups(any(AuthData.class))).thenReturn(Sets.newHashSet("group1"));
+
+        subject.getGroups(new AuthData().setUserId(USER_ID));
+        when(userGroupDao.getLatestUserGroupsCacheEvictionTs(USER_ID)).thenThrow(new RuntimeException("db down"));
+
+        assertThat(subject.getGroups(new AuthData().setUserId(USER_ID))).containsOnly("group1");
+        verify(delegate, times(2)).getGroups(any(AuthData.class));
+    }
+
+    @Test
+    public void test_that_getGroups_does_not_cache_when_disabled() {
+        subject = newSubject(false);
+        when(delegate.getGroups(any(AuthData.class))).thenReturn(Sets.newHashSet("group1"));
+
+        subject.getGroups(new AuthData().setUserId(USER_ID));
+        subject.getGroups(new AuthData().setUserId(USER_ID));
+
+        verify(delegate, times(2)).getGroups(any(AuthData.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_that_the_refresh_interval_must_be_less_than_the_expiry() {
+        new GroupCachingAuthConnector(delegate, true, 100, 600, 600, userGroupDao, dateTimeSupplier,
+                metricsCollector, Runnable::run, Ticker.systemTicker());
+    }
+}
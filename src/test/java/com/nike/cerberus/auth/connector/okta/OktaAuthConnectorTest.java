@@ -19,6 +19,7 @@ package com.nike.cerberus.auth.connector.okta;
 
 import com.google.common.collect.Lists;
 import com.nike.backstopper.exception.ApiException;
+import com.nike.cerberus.auth.connector.AuthConnectorExecutor;
 import com.nike.cerberus.auth.connector.AuthData;
 import com.nike.cerberus.auth.connector.AuthResponse;
 import com.okta.sdk.models.auth.AuthResult;
@@ -31,13 +32,17 @@ import org.junit.Test;
 import org.mockito.Mock;
 
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyList;
 import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -225,4 +230,39 @@ public class OktaAuthConnectorTest {
         assertTrue(result.contains(name1));
         assertTrue(result.contains(name2));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getGroupsAsyncHappy() {
+
+        String id = "id";
+        AuthData authData = mock(AuthData.class);
+        when(authData.getUserId()).thenReturn(id);
+
+        UserGroupProfile profile = mock(UserGroupProfile.class);
+        UserGroup group = mock(UserGroup.class);
+        when(profile.getName()).thenReturn("name");
+        when(group.getProfile()).thenReturn(profile);
+
+        when(oktaApiClientHelper.getUserGroups(id)).thenReturn(Lists.newArrayList(group));
+
+        // do the call
+        Set<String> result = this.oktaAuthConnector.getGroupsAsync(authData,
+                new AuthConnectorExecutor(Runnable::run)).join();
+
+        // verify results
+        assertEquals(1, result.size());
+        assertTrue(result.contains("name"));
+    }
+
+    @Test
+    public void getGroupsAsyncFailsFastWhenTheExecutorIsFull() {
+
+        CompletableFuture<Set<String>> result = this.oktaAuthConnector.getGroupsAsync(new AuthData().setUserId("id"),
+                new AuthConnectorExecutor(command -> {
+                    throw new RejectedExecutionException();
+                }));
+
+        assertTrue(result.isCompletedExceptionally());
+        verify(oktaApiClientHelper, never()).getUserGroups("id");
+    }
+}
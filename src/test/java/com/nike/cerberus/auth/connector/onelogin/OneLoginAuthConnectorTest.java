@@ -4,6 +4,8 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.nike.backstopper.apierror.ApiError;
 import com.nike.backstopper.exception.ApiException;
+import com.nike.cerberus.auth.connector.AuthConnectorExecutor;
+import com.nike.cerberus.auth.connector.AuthData;
 import com.nike.cerberus.auth.connector.AuthResponse;
 import com.nike.cerberus.auth.connector.AuthStatus;
 import com.nike.cerberus.error.DefaultApiError;
@@ -11,10 +13,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static com.nike.cerberus.error.DefaultApiError.MFA_SETUP_REQUIRED;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class OneLoginAuthConnectorTest {
@@ -220,6 +225,30 @@ public class OneLoginAuthConnectorTest {
     }
 
 
+    @Test
+    public void test_getGroupsAsync() {
+        ResponseStatus status = new ResponseStatus();
+        status.setError(false);
+
+        UserData userData = new UserData();
+        userData.setId(USER_ID);
+        userData.setMemberOf("CN=Foo.Bar,OU=Groups,DC=example,DC=com");
+
+        GetUserResponse getUserResponse = new GetUserResponse();
+        getUserResponse.setData(Lists.newArrayList(userData));
+        getUserResponse.setStatus(status);
+
+        when(oneLoginClient.getUserByIdAsync(USER_ID)).thenReturn(CompletableFuture.completedFuture(getUserResponse));
+
+        // invoke method under test
+        Set<String> groups = oneLoginAuthConnector.getGroupsAsync(new AuthData().setUserId(String.valueOf(USER_ID)),
+                mock(AuthConnectorExecutor.class)).join();
+
+        assertEquals(1, groups.size());
+        assertTrue(groups.contains("Foo.Bar"));
+        verify(oneLoginClient, never()).getUserById(USER_ID);
+    }
+
     @Test
     public void test_getUserById_gives_error() {
         ResponseStatus status = new ResponseStatus();
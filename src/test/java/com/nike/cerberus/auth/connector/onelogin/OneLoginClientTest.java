@@ -1,14 +1,27 @@
 package com.nike.cerberus.auth.connector.onelogin;
 
+import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
 import com.nike.backstopper.exception.ApiException;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class OneLoginClientTest {
@@ -22,10 +35,21 @@ public class OneLoginClientTest {
     private OneLoginHttpClient httpClient;
     private OneLoginClient oneLoginClient;
 
+    private AtomicLong nanos;
+    private List<Runnable> refreshTasks;
+
     @Before
     public void setup() {
         httpClient = mock(OneLoginHttpClient.class);
-        oneLoginClient = new OneLoginClient(clientId, clientSecret, subdomain, httpClient);
+        nanos = new AtomicLong();
+        refreshTasks = new ArrayList<>();
+        oneLoginClient = new OneLoginClient(clientId, clientSecret, subdomain, 300, 30, httpClient,
+                refreshTasks::add, new Ticker() {
+                    @Override
+                    public long read() {
+                        return nanos.get();
+                    }
+                });
     }
 
     @Test
@@ -135,6 +159,201 @@ public class OneLoginClientTest {
         oneLoginClient.requestAccessToken();
     }
 
+    @Test
+    public void test_that_the_access_token_is_reused_until_it_is_due_for_refresh() {
+
+        setupMocksToGiveAccessTokens(3600, "token1");
+        GetUserResponse response = new GetUserResponse();
+        when(httpClient.execute(eq("api/1/users/101"), eq("GET"), anyMapOf(String.class, String.class), any(),
+                eq(GetUserResponse.class))).thenReturn(response);
+
+        oneLoginClient.getUserById(101L);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(3000));
+        oneLoginClient.getUserById(101L);
+
+        verifyAccessTokenRequests(1);
+        assertEquals(0, refreshTasks.size());
+    }
+
+    @Test
+    public void test_that_the_access_token_is_refreshed_in_the_background_before_it_expires() {
+
+        setupMocksToGiveAccessTokens(3600, "token1", "token2");
+
+        oneLoginClient.buildAuthorizationBearerHeader();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(3301));
+
+        assertEquals("bearer:token1", oneLoginClient.buildAuthorizationBearerHeader().get("Authorization"));
+        assertEquals("bearer:token1", oneLoginClient.buildAuthorizationBearerHeader().get("Authorization"));
+        assertEquals(1, refreshTasks.size());
+
+        refreshTasks.get(0).run();
+
+        assertEquals("bearer:token2", oneLoginClient.buildAuthorizationBearerHeader().get("Authorization"));
+        verifyAccessTokenRequests(2);
+    }
+
+    @Test
+    public void test_that_an_expired_access_token_is_replaced_before_use() {
+
+        setupMocksToGiveAccessTokens(3600, "token1", "token2");
+
+        oneLoginClient.buildAuthorizationBearerHeader();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(3600));
+
+        assertEquals("bearer:token2", oneLoginClient.buildAuthorizationBearerHeader().get("Authorization"));
+    }
+
+    @Test
+    public void test_that_a_401_forces_one_access_token_refresh_and_retry() {
+
+        setupMocksToGiveAccessTokens(3600, "token1", "token2", "token3");
+        GetUserResponse unauthorized = new GetUserResponse()
+                .setStatus(new ResponseStatus().setError(true).setCode(401L));
+        GetUserResponse ok = new GetUserResponse().setStatus(new ResponseStatus().setCode(200L));
+        when(httpClient.execute(eq("api/1/users/101"), eq("GET"), anyMapOf(String.class, String.class), any(),
+                eq(GetUserResponse.class))).thenReturn(unauthorized, unauthorized, ok);
+
+        oneLoginClient.getUserById(101L);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+
+        GetUserResponse actualResponse = oneLoginClient.getUserById(101L);
+
+        assertEquals(ok, actualResponse);
+        verifyAccessTokenRequests(2);
+        verify(httpClient, times(3)).execute(eq("api/1/users/101"), eq("GET"), anyMapOf(String.class, String.class),
+                any(), eq(GetUserResponse.class));
+    }
+
+    @Test
+    public void test_that_a_401_does_not_refresh_a_newly_issued_access_token() {
+
+        setupMocksToGiveAccessTokens(3600, "token1", "token2");
+        GetUserResponse unauthorized = new GetUserResponse()
+                .setStatus(new ResponseStatus().setError(true).setCode(401L));
+        when(httpClient.execute(eq("api/1/users/101"), eq("GET"), anyMapOf(String.class, String.class), any(),
+                eq(GetUserResponse.class))).thenReturn(unauthorized);
+
+        GetUserResponse actualResponse = oneLoginClient.getUserById(101L);
+
+        assertEquals(unauthorized, actualResponse);
+        verifyAccessTokenRequests(1);
+    }
+
+    @Test
+    public void test_that_getUserByIdAsync_retries_once_with_a_new_access_token_after_a_401() {
+
+        setupMocksToGiveAccessTokens(3600, "token1", "token2");
+        GetUserResponse unauthorized = new GetUserResponse()
+                .setStatus(new ResponseStatus().setError(true).setCode(401L));
+        GetUserResponse ok = new GetUserResponse().setStatus(new ResponseStatus().setCode(200L));
+        when(httpClient.executeAsync(eq("api/1/users/101"), eq("GET"), anyMapOf(String.class, String.class), any(),
+                eq(GetUserResponse.class)))
+                .thenReturn(CompletableFuture.completedFuture(unauthorized), CompletableFuture.completedFuture(ok));
+
+        oneLoginClient.buildAuthorizationBearerHeader();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+
+        CompletableFuture<GetUserResponse> actualResponse = oneLoginClient.getUserByIdAsync(101L);
+
+        // the forced token refresh runs on the refresh executor
+        assertEquals(1, refreshTasks.size());
+        refreshTasks.get(0).run();
+
+        assertEquals(ok, actualResponse.join());
+        verifyAccessTokenRequests(2);
+        verify(httpClient, never()).execute(eq("api/1/users/101"), anyString(), anyMapOf(String.class, String.class),
+                any(), eq(GetUserResponse.class));
+    }
+
+    @Test
+    public void test_that_a_bad_credential_401_from_login_is_not_replayed() {
+
+        setupMocksToGiveAccessTokens(3600, "token1", "token2");
+        CreateSessionLoginTokenResponse unauthorized = new CreateSessionLoginTokenResponse()
+                .setStatus(new ResponseStatus().setError(true).setCode(401L)
+                        .setMessage("Authentication Failed: Invalid user credentials"));
+        when(httpClient.execute(eq("api/1/login/auth"), eq("POST"), anyMapOf(String.class, String.class), any(),
+                eq(CreateSessionLoginTokenResponse.class))).thenReturn(unauthorized);
+
+        oneLoginClient.buildAuthorizationBearerHeader();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+
+        assertEquals(unauthorized, oneLoginClient.createSessionLoginToken("username", "wrong-password"));
+
+        verify(httpClient, times(1)).execute(eq("api/1/login/auth"), eq("POST"),
+                anyMapOf(String.class, String.class), any(), eq(CreateSessionLoginTokenResponse.class));
+        verifyAccessTokenRequests(1);
+    }
+
+    @Test
+    public void test_that_a_bad_otp_401_from_verify_factor_is_not_replayed() {
+
+        setupMocksToGiveAccessTokens(3600, "token1", "token2");
+        VerifyFactorResponse unauthorized = new VerifyFactorResponse()
+                .setStatus(new ResponseStatus().setError(true).setCode(401L)
+                        .setMessage("Failed authentication with this factor"));
+        when(httpClient.execute(eq("api/1/login/verify_factor"), eq("POST"), anyMapOf(String.class, String.class),
+                any(), eq(VerifyFactorResponse.class))).thenReturn(unauthorized);
+
+        oneLoginClient.buildAuthorizationBearerHeader();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+
+        assertEquals(unauthorized, oneLoginClient.verifyFactor("device-id", "state-token", "wrong-otp"));
+
+        verify(httpClient, times(1)).execute(eq("api/1/login/verify_factor"), eq("POST"),
+                anyMapOf(String.class, String.class), any(), eq(VerifyFactorResponse.class));
+        verifyAccessTokenRequests(1);
+    }
+
+    @Test
+    public void test_that_a_bad_credential_401_from_async_login_is_not_replayed() {
+
+        setupMocksToGiveAccessTokens(3600, "token1", "token2");
+        CreateSessionLoginTokenResponse unauthorized = new CreateSessionLoginTokenResponse()
+                .setStatus(new ResponseStatus().setError(true).setCode(401L)
+                        .setMessage("Authentication Failed: Invalid user credentials"));
+        when(httpClient.executeAsync(eq("api/1/login/auth"), eq("POST"), anyMapOf(String.class, String.class), any(),
+                eq(CreateSessionLoginTokenResponse.class))).thenReturn(CompletableFuture.completedFuture(unauthorized));
+
+        oneLoginClient.buildAuthorizationBearerHeader();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+
+        assertEquals(unauthorized, oneLoginClient.createSessionLoginTokenAsync("username", "wrong-password").join());
+
+        assertEquals(0, refreshTasks.size());
+        verify(httpClient, times(1)).executeAsync(eq("api/1/login/auth"), eq("POST"),
+                anyMapOf(String.class, String.class), any(), eq(CreateSessionLoginTokenResponse.class));
+        verifyAccessTokenRequests(1);
+    }
+
+    private void setupMocksToGiveAccessTokens(int expiresIn, String... accessTokens) {
+
+        ResponseStatus status = new ResponseStatus();
+        status.setError(false);
+        status.setCode(200L);
+
+        List<GenerateTokenResponse> responses = new ArrayList<>();
+        for (String token : accessTokens) {
+            GenerateTokenResponseData data = new GenerateTokenResponseData()
+                    .setAccessToken(token)
+                    .setExpiresIn(expiresIn);
+
+            GenerateTokenResponse response = new GenerateTokenResponse();
+            response.setStatus(status);
+            response.setData(Lists.newArrayList(data));
+            responses.add(response);
+        }
+
+        when(httpClient.execute("auth/oauth2/token", "POST", oneLoginClient.buildAuthorizationHeader(), new GenerateTokenRequest(), GenerateTokenResponse.class))
+                .thenReturn(responses.get(0), responses.subList(1, responses.size()).toArray(new GenerateTokenResponse[0]));
+    }
+
+    private void verifyAccessTokenRequests(int count) {
+        verify(httpClient, times(count)).execute("auth/oauth2/token", "POST", oneLoginClient.buildAuthorizationHeader(),
+                new GenerateTokenRequest(), GenerateTokenResponse.class);
+    }
+
     private void setupMocksToGiveAccessToken() {
 
         ResponseStatus status = new ResponseStatus();
@@ -12,11 +12,17 @@ import org.junit.Test;
 
 import javax.net.ssl.SSLException;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
@@ -54,6 +60,45 @@ public class OneLoginHttpClientTest {
         assertEquals(userId, actualResponse.getData().get(0).getId());
     }
 
+    @Test
+    public void test_executeAsync() throws Exception {
+
+        Response response = createFakeGetUserResponse(200L, 100L);
+        Call call = mock(Call.class);
+        doAnswer(invocation -> {
+            ((Callback) invocation.getArguments()[0]).onResponse(call, response);
+            return null;
+        }).when(call).enqueue(any(Callback.class));
+        when(httpClient.newCall(any())).thenReturn(call);
+
+        // invoke method under test
+        GetUserResponse actualResponse = oneLoginHttpClient.executeAsync("fake/path", "GET", null, null, GetUserResponse.class).join();
+
+        assertEquals(100L, actualResponse.getData().get(0).getId());
+        verify(call, never()).execute();
+    }
+
+    @Test
+    public void test_executeAsync_handles_io_error() throws Exception {
+
+        Call call = mock(Call.class);
+        doAnswer(invocation -> {
+            ((Callback) invocation.getArguments()[0]).onFailure(call, new IOException("connection reset"));
+            return null;
+        }).when(call).enqueue(any(Callback.class));
+        when(httpClient.newCall(any())).thenReturn(call);
+
+        // invoke method under test
+        CompletableFuture<GetUserResponse> future = oneLoginHttpClient.executeAsync("fake/path", "GET", null, null, GetUserResponse.class);
+
+        try {
+            future.join();
+            fail("expected exception not thrown");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof ApiException);
+        }
+    }
+
     @Test(expected = ApiException.class)
     public void test_execute_handles_error() throws Exception {
 
@@ -20,6 +20,8 @@ import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.kms.AWSKMSClient;
 import com.nike.backstopper.exception.ApiException;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import com.typesafe.config.ConfigFactory;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -36,11 +38,16 @@ public class KmsClientFactoryTest {
 
     private final String badRegionName = "zz-space-1";
 
+    private CodahaleMetricsCollector metricsCollector;
+
     private KmsClientFactory subject;
 
     @Before
     public void setup() {
-        subject = new KmsClientFactory();
+        metricsCollector = new CodahaleMetricsCollector();
+        subject = new KmsClientFactory(new KmsQuotaManager(100, 1, 250, metricsCollector),
+                new KmsClientSettings(ConfigFactory.parseString(KmsClientSettingsTest.KMS_CLIENT_CONFIG)),
+                metricsCollector);
     }
 
     @Test
@@ -57,6 +64,26 @@ public class KmsClientFactoryTest {
         assertThat(client).isNotNull();
     }
 
+    @Test
+    public void get_client_returns_a_separate_cached_client_per_priority() {
+        AWSKMSClient authClient = subject.getClient(goodRegionName, KmsCallPriority.AUTHENTICATION);
+        AWSKMSClient housekeepingClient = subject.getClient(goodRegionName, KmsCallPriority.HOUSEKEEPING);
+
+        assertThat(subject.getClient(goodRegion)).isSameAs(authClient);
+        assertThat(subject.getClient(goodRegion, KmsCallPriority.HOUSEKEEPING)).isSameAs(housekeepingClient);
+        assertThat(housekeepingClient).isNotSameAs(authClient);
+    }
+
+    @Test
+    public void get_client_registers_the_region_metrics() {
+        subject.getClient(goodRegionName, KmsCallPriority.VALIDATION);
+
+        assertThat(metricsCollector.getMetricRegistry().getGauges())
+                .containsKey(KmsClientFactory.METRIC_PREFIX + ".inFlight." + goodRegionName);
+        assertThat(metricsCollector.getMetricRegistry().getTimers())
+                .containsKey(KmsClientFactory.METRIC_PREFIX + ".latency." + goodRegionName);
+    }
+
     @Test(expected = ApiException.class)
     public void get_client_by_region_string_throws_exception_if_bad_region_passed() {
         subject.getClient(badRegionName);
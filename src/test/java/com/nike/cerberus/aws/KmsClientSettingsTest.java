@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.aws;
+
+import com.amazonaws.ClientConfiguration;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KmsClientSettingsTest {
+
+    static final String KMS_CLIENT_CONFIG = "cms.kms.client.default.maxConnections=50\n" +
+            "cms.kms.client.default.connectionTimeoutMillis=2000\n" +
+            "cms.kms.client.default.socketTimeoutMillis=5000\n" +
+            "cms.kms.client.default.requestTimeoutMillis=10000\n" +
+            "cms.kms.client.default.maxErrorRetry=3\n" +
+            "cms.kms.client.region.us-west-2.socketTimeoutMillis=1000\n" +
+            "cms.kms.client.region.us-west-2.maxErrorRetry=1\n";
+
+    private KmsClientSettings subject;
+
+    @Before
+    public void setup() {
+        subject = new KmsClientSettings(ConfigFactory.parseString(KMS_CLIENT_CONFIG));
+    }
+
+    @Test
+    public void test_that_defaults_apply_to_regions_without_overrides() {
+        ClientConfiguration clientConfiguration = subject.getClientConfiguration("us-east-1");
+
+        assertThat(clientConfiguration.getMaxConnections()).isEqualTo(50);
+        assertThat(clientConfiguration.getConnectionTimeout()).isEqualTo(2000);
+        assertThat(clientConfiguration.getSocketTimeout()).isEqualTo(5000);
+        assertThat(clientConfiguration.getRequestTimeout()).isEqualTo(10000);
+        assertThat(clientConfiguration.getRetryPolicy().getMaxErrorRetry()).isEqualTo(3);
+    }
+
+    @Test
+    public void test_that_region_overrides_replace_only_the_given_settings() {
+        ClientConfiguration clientConfiguration = subject.getClientConfiguration("us-west-2");
+
+        assertThat(clientConfiguration.getMaxConnections()).isEqualTo(50);
+        assertThat(clientConfiguration.getSocketTimeout()).isEqualTo(1000);
+        assertThat(clientConfiguration.getRetryPolicy().getMaxErrorRetry()).isEqualTo(1);
+    }
+}
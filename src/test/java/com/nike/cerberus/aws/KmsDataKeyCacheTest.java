@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.aws;
+
+import com.amazonaws.services.kms.AWSKMSClient;
+import com.amazonaws.services.kms.model.GenerateDataKeyRequest;
+import com.amazonaws.services.kms.model.GenerateDataKeyResult;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KmsDataKeyCacheTest {
+
+    private static final String KEY_ID = "arn:aws:kms:us-west-2:1111111111:key/key-id";
+
+    private static final String REGION = "us-west-2";
+
+    private AWSKMSClient kmsClient;
+
+    private KmsDataKeyCache subject;
+
+    @Before
+    public void setup() {
+        kmsClient = mock(AWSKMSClient.class);
+        KmsClientFactory kmsClientFactory = mock(KmsClientFactory.class);
+        when(kmsClientFactory.getClient(REGION)).thenReturn(kmsClient);
+        when(kmsClient.generateDataKey(any(GenerateDataKeyRequest.class))).thenAnswer(invocation ->
+                new GenerateDataKeyResult()
+                        .withKeyId(KEY_ID)
+                        .withPlaintext(ByteBuffer.wrap(new byte[32]))
+                        .withCiphertextBlob(ByteBuffer.wrap(new byte[]{1, 2, 3})));
+
+        subject = new KmsDataKeyCache(kmsClientFactory, 100, 300, 2, new CodahaleMetricsCollector());
+    }
+
+    @Test
+    public void test_that_data_keys_are_reused_until_max_uses() {
+        KmsDataKeyCache.KmsDataKey first = subject.getDataKey(KEY_ID, REGION);
+        KmsDataKeyCache.KmsDataKey second = subject.getDataKey(KEY_ID, REGION);
+        KmsDataKeyCache.KmsDataKey third = subject.getDataKey(KEY_ID, REGION);
+
+        assertThat(second).isSameAs(first);
+        assertThat(third).isNotSameAs(first);
+        assertThat(first.getCiphertext()).isEqualTo(new byte[]{1, 2, 3});
+        verify(kmsClient, times(2)).generateDataKey(any(GenerateDataKeyRequest.class));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.aws;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.services.kms.model.DecryptRequest;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class KmsQuotaManagerTest {
+
+    private static final String REGION = "us-west-2";
+
+    private AtomicLong nanoTime;
+
+    private CodahaleMetricsCollector metricsCollector;
+
+    private KmsQuotaManager subject;
+
+    @Before
+    public void setup() {
+        nanoTime = new AtomicLong();
+        metricsCollector = new CodahaleMetricsCollector();
+        subject = new KmsQuotaManager(11, 1, 250, metricsCollector, nanoTime::get);
+    }
+
+    @Test
+    public void test_that_housekeeping_leaves_a_reserve_for_authentication() {
+        // housekeeping must leave half of the 10 tokens above the last one
+        for (int i = 0; i < 6; i++) {
+            assertThat(subject.tryAcquire(REGION, KmsCallPriority.HOUSEKEEPING)).isEqualTo(0);
+        }
+        assertThat(subject.tryAcquire(REGION, KmsCallPriority.HOUSEKEEPING)).isGreaterThan(0);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(subject.tryAcquire(REGION, KmsCallPriority.AUTHENTICATION)).isEqualTo(0);
+        }
+        assertThat(subject.tryAcquire(REGION, KmsCallPriority.AUTHENTICATION)).isGreaterThan(0);
+    }
+
+    @Test
+    public void test_that_tokens_are_refilled_at_the_configured_rate() {
+        for (int i = 0; i < 11; i++) {
+            subject.tryAcquire(REGION, KmsCallPriority.AUTHENTICATION);
+        }
+        long waitNanos = subject.tryAcquire(REGION, KmsCallPriority.AUTHENTICATION);
+        assertThat(waitNanos).isGreaterThan(0);
+
+        nanoTime.addAndGet(waitNanos);
+
+        assertThat(subject.tryAcquire(REGION, KmsCallPriority.AUTHENTICATION)).isEqualTo(0);
+    }
+
+    @Test
+    public void test_that_throttling_halves_the_rate_and_success_recovers_it() {
+        subject.onThrottled(REGION, KmsCallPriority.AUTHENTICATION);
+        subject.onThrottled(REGION, KmsCallPriority.AUTHENTICATION);
+
+        assertThat(subject.getRequestsPerSecond(REGION, KmsCallPriority.AUTHENTICATION)).isEqualTo(2.75);
+        assertThat(subject.getRequestsPerSecond(REGION, KmsCallPriority.HOUSEKEEPING)).isEqualTo(2.75);
+        assertThat(subject.getRequestsPerSecond("us-east-1", KmsCallPriority.AUTHENTICATION)).isEqualTo(11);
+        assertThat(metricsCollector.getNamedCounter(KmsQuotaManager.METRIC_THROTTLED).getCount()).isEqualTo(2);
+
+        for (int i = 0; i < 200; i++) {
+            subject.onSuccess(REGION, KmsCallPriority.AUTHENTICATION);
+        }
+
+        assertThat(subject.getRequestsPerSecond(REGION, KmsCallPriority.AUTHENTICATION)).isEqualTo(11);
+        assertThat(subject.getRequestsPerSecond(REGION, KmsCallPriority.HOUSEKEEPING)).isEqualTo(2.75);
+    }
+
+    @Test
+    public void test_that_a_housekeeping_throttle_leaves_the_authentication_rate_unchanged() {
+        subject.onThrottled(REGION, KmsCallPriority.HOUSEKEEPING);
+        subject.onThrottled(REGION, KmsCallPriority.HOUSEKEEPING);
+
+        assertThat(subject.getRequestsPerSecond(REGION, KmsCallPriority.HOUSEKEEPING)).isEqualTo(2.75);
+        assertThat(subject.getRequestsPerSecond(REGION, KmsCallPriority.VALIDATION)).isEqualTo(11);
+        assertThat(subject.getRequestsPerSecond(REGION, KmsCallPriority.AUTHENTICATION)).isEqualTo(11);
+
+        assertThat(subject.tryAcquire(REGION, KmsCallPriority.HOUSEKEEPING)).isGreaterThan(0);
+        for (int i = 0; i < 11; i++) {
+            assertThat(subject.tryAcquire(REGION, KmsCallPriority.AUTHENTICATION)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void test_that_interactive_calls_fail_fast_when_the_wait_is_too_long() {
+        subject.onThrottled(REGION, KmsCallPriority.AUTHENTICATION);
+        subject.onThrottled(REGION, KmsCallPriority.AUTHENTICATION);
+        subject.onThrottled(REGION, KmsCallPriority.AUTHENTICATION);
+
+        try {
+            subject.acquire(REGION, KmsCallPriority.AUTHENTICATION);
+            fail("expected the call to be rejected");
+        } catch (AmazonClientException e) {
+            assertThat(e.getMessage()).contains("AUTHENTICATION");
+        }
+        assertThat(metricsCollector.getNamedCounter(KmsQuotaManager.METRIC_REJECTED).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_acquire_records_the_wait_per_priority() {
+        subject.acquire(REGION, KmsCallPriority.VALIDATION);
+
+        assertThat(metricsCollector.getNamedTimer(KmsQuotaManager.getWaitMetricName(KmsCallPriority.VALIDATION))
+                .getCount()).isEqualTo(1);
+        assertThat(metricsCollector.getNamedTimer(KmsQuotaManager.getWaitMetricName(KmsCallPriority.AUTHENTICATION))
+                .getCount()).isEqualTo(0);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(nanoTime.get())).isEqualTo(0);
+    }
+
+    @Test
+    public void test_that_each_retry_takes_a_token() {
+        RetryPolicy retryPolicy = subject.newRetryPolicy(REGION, KmsCallPriority.AUTHENTICATION, 3);
+        for (int i = 0; i < 10; i++) {
+            subject.tryAcquire(REGION, KmsCallPriority.AUTHENTICATION);
+        }
+
+        retryPolicy.getBackoffStrategy().delayBeforeNextRetry(new DecryptRequest(), new AmazonClientException("reset"), 0);
+
+        assertThat(retryPolicy.getMaxErrorRetry()).isEqualTo(3);
+        assertThat(subject.tryAcquire(REGION, KmsCallPriority.AUTHENTICATION)).isGreaterThan(0);
+    }
+
+    @Test
+    public void test_that_a_throttled_attempt_backs_off_the_rate_before_the_retry() {
+        // the throttle empties the class bucket, so the retry waits for a refill on the real clock
+        subject = new KmsQuotaManager(11, 1, 250, metricsCollector, System::nanoTime);
+        RetryPolicy retryPolicy = subject.newRetryPolicy(REGION, KmsCallPriority.HOUSEKEEPING, 3);
+        AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+        throttled.setErrorCode("ThrottlingException");
+
+        retryPolicy.getBackoffStrategy().delayBeforeNextRetry(new DecryptRequest(), throttled, 0);
+
+        assertThat(subject.getRequestsPerSecond(REGION, KmsCallPriority.HOUSEKEEPING)).isEqualTo(5.5);
+        assertThat(subject.getRequestsPerSecond(REGION, KmsCallPriority.AUTHENTICATION)).isEqualTo(11);
+        assertThat(metricsCollector.getNamedCounter(KmsQuotaManager.METRIC_THROTTLED).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_an_interactive_retry_fails_fast_when_the_quota_is_exhausted() {
+        RetryPolicy retryPolicy = subject.newRetryPolicy(REGION, KmsCallPriority.AUTHENTICATION, 3);
+        subject.onThrottled(REGION, KmsCallPriority.AUTHENTICATION);
+        subject.onThrottled(REGION, KmsCallPriority.AUTHENTICATION);
+        subject.onThrottled(REGION, KmsCallPriority.AUTHENTICATION);
+
+        try {
+            retryPolicy.getBackoffStrategy().delayBeforeNextRetry(new DecryptRequest(), new AmazonClientException("reset"), 0);
+            fail("expected the retry to be rejected");
+        } catch (AmazonClientException e) {
+            assertThat(e.getMessage()).contains("AUTHENTICATION");
+        }
+    }
+}
@@ -17,20 +17,26 @@
 package com.nike.cerberus.dao;
 
 import com.google.common.collect.Lists;
+import com.nike.cerberus.domain.IamPrincipalPermission;
 import com.nike.cerberus.mapper.AwsIamRoleMapper;
 import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
 import com.nike.cerberus.record.AwsIamRolePermissionRecord;
 import com.nike.cerberus.record.AwsIamRoleRecord;
+import com.nike.cerberus.record.AwsKmsKeyPoolRecord;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class AwsIamRoleDaoTest {
@@ -179,6 +185,28 @@ public class AwsIamRoleDaoTest {
         assertThat(actual).hasSameElementsAs(awsIamRolePermissionRecordList);
     }
 
+    @Test
+    public void getIamRolePermissionsWithArns_returns_list_of_permissions() {
+        final IamPrincipalPermission permission = new IamPrincipalPermission();
+        permission.setIamPrincipalArn(awsIamRoleArn);
+        permission.setRoleId(roleId);
+        when(awsIamRoleMapper.getIamRolePermissionsWithArns(safeDepositBoxId))
+                .thenReturn(Lists.newArrayList(permission));
+
+        List<IamPrincipalPermission> actual = subject.getIamRolePermissionsWithArns(safeDepositBoxId);
+
+        assertThat(actual).containsExactly(permission);
+    }
+
+    @Test
+    public void getIamRolePermissionsWithArns_returns_empty_list_when_sdb_has_no_permissions() {
+        when(awsIamRoleMapper.getIamRolePermissionsWithArns(safeDepositBoxId)).thenReturn(Lists.newArrayList());
+
+        List<IamPrincipalPermission> actual = subject.getIamRolePermissionsWithArns(safeDepositBoxId);
+
+        assertThat(actual).isEmpty();
+    }
+
     @Test
     public void createIamRolePermission_returns_record_count() {
         final int recordCount = 1;
@@ -277,4 +305,56 @@ public class AwsIamRoleDaoTest {
 
         assertThat(actualCount).isEqualTo(recordCount);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void claimPooledKmsKey_returns_the_pooled_key_it_deleted() {
+        final AwsKmsKeyPoolRecord pooledKmsKey = new AwsKmsKeyPoolRecord().setId(iamRoleKmsKeyId).setAwsRegion(awsRegion);
+        when(awsIamRoleMapper.getOldestPooledKmsKey(awsRegion)).thenReturn(pooledKmsKey);
+        when(awsIamRoleMapper.deletePooledKmsKeyById(iamRoleKmsKeyId)).thenReturn(1);
+
+        final Optional<AwsKmsKeyPoolRecord> actual = subject.claimPooledKmsKey(awsRegion);
+
+        assertThat(actual).contains(pooledKmsKey);
+    }
+
+    @Test
+    public void claimPooledKmsKey_moves_on_when_another_node_claimed_the_key_first() {
+        final AwsKmsKeyPoolRecord claimedElsewhere = new AwsKmsKeyPoolRecord().setId("CLAIMED").setAwsRegion(awsRegion);
+        final AwsKmsKeyPoolRecord pooledKmsKey = new AwsKmsKeyPoolRecord().setId(iamRoleKmsKeyId).setAwsRegion(awsRegion);
+        when(awsIamRoleMapper.getOldestPooledKmsKey(awsRegion)).thenReturn(claimedElsewhere, pooledKmsKey);
+        when(awsIamRoleMapper.deletePooledKmsKeyById("CLAIMED")).thenReturn(0);
+        when(awsIamRoleMapper.deletePooledKmsKeyById(iamRoleKmsKeyId)).thenReturn(1);
+
+        final Optional<AwsKmsKeyPoolRecord> actual = subject.claimPooledKmsKey(awsRegion);
+
+        assertThat(actual).contains(pooledKmsKey);
+    }
+
+    @Test
+    public void claimPooledKmsKey_returns_empty_when_the_pool_is_empty() {
+        when(awsIamRoleMapper.getOldestPooledKmsKey(awsRegion)).thenReturn(null);
+
+        assertThat(subject.claimPooledKmsKey(awsRegion)).isEmpty();
+    }
+
+    @Test
+    public void isKmsKeyReferenced_returns_true_when_the_key_is_assigned_or_pooled() {
+        when(awsIamRoleMapper.countKmsKeyReferences(awsKmsKeyId)).thenReturn(1);
+
+        assertThat(subject.isKmsKeyReferenced(awsKmsKeyId)).isTrue();
+    }
+
+    @Test
+    public void isKmsKeyReferenced_returns_false_when_the_key_is_unknown() {
+        when(awsIamRoleMapper.countKmsKeyReferences(awsKmsKeyId)).thenReturn(0);
+
+        assertThat(subject.isKmsKeyReferenced(awsKmsKeyId)).isFalse();
+    }
+
+    @Test
+    public void getKmsKeysLastValidatedBefore_skips_the_query_when_no_ids_are_given() {
+        assertThat(subject.getKmsKeysLastValidatedBefore(Collections.emptyList(), OffsetDateTime.now())).isEmpty();
+
+        verify(awsIamRoleMapper, never()).getKmsKeysLastValidatedBefore(any(), any());
+    }
+}
@@ -21,6 +21,7 @@ import com.google.common.collect.Sets;
 import com.nike.cerberus.mapper.SafeDepositBoxMapper;
 import com.nike.cerberus.record.SafeDepositBoxRecord;
 import com.nike.cerberus.record.SafeDepositBoxRoleRecord;
+import com.nike.cerberus.record.UserGroupSafeDepositBoxRoleRecord;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -103,6 +104,17 @@ public class SafeDepositBoxDaoTest {
         assertThat(actual).hasSameElementsAs(safeDepositBoxRoleRecordList);
     }
 
+    @Test
+    public void getAllUserGroupSafeDepositBoxRoles_returns_list_of_role_records() {
+        final List<UserGroupSafeDepositBoxRoleRecord> records = Lists.newArrayList(
+                new UserGroupSafeDepositBoxRoleRecord().setUserGroupName("group").setRoleName("owner"));
+        when(safeDepositBoxMapper.getAllUserGroupSafeDepositBoxRoles()).thenReturn(records);
+
+        List<UserGroupSafeDepositBoxRoleRecord> actual = subject.getAllUserGroupSafeDepositBoxRoles();
+
+        assertThat(actual).hasSameElementsAs(records);
+    }
+
     @Test
     public void getIamRoleAssociatedSafeDepositBoxRoles_returns_list_of_role_records() {
         when(safeDepositBoxMapper.getIamRoleAssociatedSafeDepositBoxRoles(awsIamRoleArn))
@@ -17,6 +17,7 @@
 package com.nike.cerberus.dao;
 
 import com.google.common.collect.Lists;
+import com.nike.cerberus.domain.UserGroupPermission;
 import com.nike.cerberus.mapper.UserGroupMapper;
 import com.nike.cerberus.record.UserGroupPermissionRecord;
 import com.nike.cerberus.record.UserGroupRecord;
@@ -153,6 +154,28 @@ public class UserGroupDaoTest {
         assertThat(actual).hasSameElementsAs(userGroupPermissionRecordList);
     }
 
+    @Test
+    public void getUserGroupPermissionsWithNames_returns_list_of_permissions() {
+        final UserGroupPermission permission = new UserGroupPermission();
+        permission.setName(userGroupName);
+        permission.setRoleId(roleId);
+        when(userGroupMapper.getUserGroupPermissionsWithNames(safeDepositBoxId))
+                .thenReturn(Lists.newArrayList(permission));
+
+        List<UserGroupPermission> actual = subject.getUserGroupPermissionsWithNames(safeDepositBoxId);
+
+        assertThat(actual).containsExactly(permission);
+    }
+
+    @Test
+    public void getUserGroupPermissionsWithNames_returns_empty_list_when_sdb_has_no_permissions() {
+        when(userGroupMapper.getUserGroupPermissionsWithNames(safeDepositBoxId)).thenReturn(Lists.newArrayList());
+
+        List<UserGroupPermission> actual = subject.getUserGroupPermissionsWithNames(safeDepositBoxId);
+
+        assertThat(actual).isEmpty();
+    }
+
     @Test
     public void createUserGroupPermission_returns_record_count() {
         final int recordCount = 1;
@@ -192,4 +215,21 @@ public class UserGroupDaoTest {
 
         assertThat(actualCount).isEqualTo(recordCount);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getLatestUserGroupsCacheEvictionTs_checks_the_user_and_all_users() {
+        when(userGroupMapper.getLatestUserGroupsCacheEvictionTs("user-id", UserGroupDao.ALL_USERS_ID))
+                .thenReturn(createdTs);
+
+        final Optional<OffsetDateTime> actual = subject.getLatestUserGroupsCacheEvictionTs("user-id");
+
+        assertThat(actual).contains(createdTs);
+    }
+
+    @Test
+    public void getLatestUserGroupsCacheEvictionTs_returns_empty_when_never_evicted() {
+        final Optional<OffsetDateTime> actual = subject.getLatestUserGroupsCacheEvictionTs("user-id");
+
+        assertThat(actual.isPresent()).isFalse();
+    }
+}
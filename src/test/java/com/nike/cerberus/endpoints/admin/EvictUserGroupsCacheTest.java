@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.endpoints.admin;
+
+import com.nike.cerberus.auth.connector.GroupCachingAuthConnector;
+import com.nike.cerberus.security.VaultAuthPrincipal;
+import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
+import com.nike.riposte.util.Matcher;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.SecurityContext;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EvictUserGroupsCacheTest {
+
+    private final Executor executor = Executors.newSingleThreadExecutor();
+
+    private GroupCachingAuthConnector groupCachingAuthConnector;
+
+    private RequestInfo<Void> requestInfo;
+
+    private SecurityContext securityContext;
+
+    private EvictUserGroupsCache subject;
+
+    @Before
+    public void before() {
+        groupCachingAuthConnector = mock(GroupCachingAuthConnector.class);
+        requestInfo = mock(RequestInfo.class);
+        final VaultAuthPrincipal principal = mock(VaultAuthPrincipal.class);
+        when(principal.getName()).thenReturn("admin");
+        securityContext = mock(SecurityContext.class);
+        when(securityContext.getUserPrincipal()).thenReturn(principal);
+        subject = new EvictUserGroupsCache(groupCachingAuthConnector);
+    }
+
+    @Test
+    public void requestMatcher_is_http_delete() {
+        final Matcher matcher = subject.requestMatcher();
+        assertThat(matcher.matchingMethods()).containsOnly(HttpMethod.DELETE);
+    }
+
+    @Test
+    public void doExecute_evicts_the_given_user() {
+        when(requestInfo.getQueryParamSingle(EvictUserGroupsCache.USER_ID_QUERY_KEY)).thenReturn("user-id");
+
+        final ResponseInfo<Void> responseInfo =
+                subject.doExecute(requestInfo, executor, null, securityContext).join();
+
+        assertThat(responseInfo.getHttpStatusCode()).isEqualTo(HttpResponseStatus.NO_CONTENT.code());
+        verify(groupCachingAuthConnector).evictGroups("user-id");
+        verify(groupCachingAuthConnector, never()).evictAllGroups();
+    }
+
+    @Test
+    public void doExecute_evicts_all_users_without_a_user_id() {
+        final ResponseInfo<Void> responseInfo =
+                subject.doExecute(requestInfo, executor, null, securityContext).join();
+
+        assertThat(responseInfo.getHttpStatusCode()).isEqualTo(HttpResponseStatus.NO_CONTENT.code());
+        verify(groupCachingAuthConnector).evictAllGroups();
+        verify(groupCachingAuthConnector, never()).evictGroups(anyString());
+    }
+}
@@ -17,11 +17,14 @@
 
 package com.nike.cerberus.endpoints.authentication;
 
+import com.nike.cerberus.CerberusHttpHeaders;
+import com.nike.cerberus.domain.AuthPayloadEncoding;
 import com.nike.cerberus.domain.IamPrincipalCredentials;
 import com.nike.cerberus.domain.IamRoleAuthResponse;
 import com.nike.cerberus.service.AuthenticationService;
 import com.nike.riposte.server.http.RequestInfo;
 import com.nike.riposte.server.http.ResponseInfo;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
 import org.junit.Before;
 import org.junit.Test;
@@ -64,7 +67,8 @@ public class AuthenticateIamPrincipalTest {
         final IamPrincipalCredentials credentials = new IamPrincipalCredentials();
         final RequestInfo<IamPrincipalCredentials> requestInfo = mock(RequestInfo.class);
         when(requestInfo.getContent()).thenReturn(credentials);
-        when(authenticationService.authenticate(credentials)).thenReturn(iamRoleAuthResponse);
+        when(authenticationService.authenticateAsync(credentials, AuthPayloadEncoding.JSON))
+                .thenReturn(CompletableFuture.completedFuture(iamRoleAuthResponse));
 
         final CompletableFuture<ResponseInfo<IamRoleAuthResponse>> completableFuture =
                 subject.execute(requestInfo, executor, null);
@@ -72,4 +76,23 @@ public class AuthenticateIamPrincipalTest {
 
         assertThat(responseInfo.getContentForFullResponse()).isEqualTo(iamRoleAuthResponse);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void execute_uses_the_requested_auth_payload_encoding() {
+        final IamRoleAuthResponse iamRoleAuthResponse = new IamRoleAuthResponse();
+        iamRoleAuthResponse.setAuthData("AUTH_DATA");
+        final IamPrincipalCredentials credentials = new IamPrincipalCredentials();
+        final RequestInfo<IamPrincipalCredentials> requestInfo = mock(RequestInfo.class);
+        when(requestInfo.getContent()).thenReturn(credentials);
+        when(requestInfo.getHeaders()).thenReturn(new DefaultHttpHeaders()
+                .set(CerberusHttpHeaders.HEADER_X_CERBERUS_AUTH_PAYLOAD_ENCODING, "compact-json"));
+        when(authenticationService.authenticateAsync(credentials, AuthPayloadEncoding.COMPACT_JSON))
+                .thenReturn(CompletableFuture.completedFuture(iamRoleAuthResponse));
+
+        final ResponseInfo<IamRoleAuthResponse> responseInfo = subject.execute(requestInfo, executor, null).join();
+
+        assertThat(responseInfo.getContentForFullResponse()).isEqualTo(iamRoleAuthResponse);
+        assertThat(responseInfo.getHeaders().get(CerberusHttpHeaders.HEADER_X_CERBERUS_AUTH_PAYLOAD_ENCODING))
+                .isEqualTo("compact-json");
+    }
+}
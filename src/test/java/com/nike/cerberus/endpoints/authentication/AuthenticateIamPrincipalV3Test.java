@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.nike.cerberus.endpoints.authentication;
+
+import com.nike.cerberus.domain.AuthPayloadEncoding;
+import com.nike.cerberus.domain.IamPrincipalCredentials;
+import com.nike.cerberus.domain.IamRoleAuthResponseV3;
+import com.nike.cerberus.service.AuthenticationService;
+import com.nike.riposte.server.http.RequestInfo;
+import com.nike.riposte.server.http.ResponseInfo;
+import io.netty.handler.codec.http.HttpMethod;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AuthenticateIamPrincipalV3Test {
+
+    private final Executor executor = Executors.newSingleThreadExecutor();
+
+    private AuthenticationService authenticationService;
+
+    private AuthenticateIamPrincipalV3 subject;
+
+    @Before
+    public void setUp() throws Exception {
+        authenticationService = mock(AuthenticationService.class);
+        subject = new AuthenticateIamPrincipalV3(authenticationService);
+    }
+
+    @Test
+    public void requestMatcher_is_http_post() {
+        final Collection<HttpMethod> httpMethods = subject.requestMatcher().matchingMethods();
+
+        assertThat(httpMethods).hasSize(1);
+        assertThat(httpMethods).contains(HttpMethod.POST);
+    }
+
+    @Test
+    public void execute_returns_envelope_encrypted_auth_response() {
+        final IamRoleAuthResponseV3 iamRoleAuthResponse = new IamRoleAuthResponseV3();
+        iamRoleAuthResponse.setAuthData("AUTH_DATA");
+        final IamPrincipalCredentials credentials = new IamPrincipalCredentials();
+        final RequestInfo<IamPrincipalCredentials> requestInfo = mock(RequestInfo.class);
+        when(requestInfo.getContent()).thenReturn(credentials);
+        when(authenticationService.authenticateWithEnvelopeEncryptionAsync(credentials, AuthPayloadEncoding.JSON))
+                .thenReturn(CompletableFuture.completedFuture(iamRoleAuthResponse));
+
+        final CompletableFuture<ResponseInfo<IamRoleAuthResponseV3>> completableFuture =
+                subject.execute(requestInfo, executor, null);
+        final ResponseInfo<IamRoleAuthResponseV3> responseInfo = completableFuture.join();
+
+        assertThat(responseInfo.getContentForFullResponse()).isEqualTo(iamRoleAuthResponse);
+    }
+}
\ No newline at end of file
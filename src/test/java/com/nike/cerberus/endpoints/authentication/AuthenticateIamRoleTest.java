@@ -16,6 +16,7 @@
 
 package com.nike.cerberus.endpoints.authentication;
 
+import com.nike.cerberus.domain.AuthPayloadEncoding;
 import com.nike.cerberus.domain.IamRoleAuthResponse;
 import com.nike.cerberus.domain.IamRoleCredentials;
 import com.nike.cerberus.service.AuthenticationService;
@@ -63,7 +64,8 @@ public class AuthenticateIamRoleTest {
         final IamRoleCredentials credentials = new IamRoleCredentials();
         final RequestInfo<IamRoleCredentials> requestInfo = mock(RequestInfo.class);
         when(requestInfo.getContent()).thenReturn(credentials);
-        when(authenticationService.authenticate(credentials)).thenReturn(iamRoleAuthResponse);
+        when(authenticationService.authenticateAsync(credentials, AuthPayloadEncoding.JSON))
+                .thenReturn(CompletableFuture.completedFuture(iamRoleAuthResponse));
 
         final CompletableFuture<ResponseInfo<IamRoleAuthResponse>> completableFuture =
                 subject.execute(requestInfo, executor, null);
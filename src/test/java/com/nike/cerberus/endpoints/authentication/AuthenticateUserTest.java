@@ -79,7 +79,8 @@ public class AuthenticateUserTest {
         final HttpHeaders httpHeaders = new DefaultHttpHeaders();
         httpHeaders.add(HttpHeaders.Names.AUTHORIZATION, validAuthorizationHeader);
         when(requestInfo.getHeaders()).thenReturn(httpHeaders);
-        when(authenticationService.authenticate(any(UserCredentials.class))).thenReturn(authResponse);
+        when(authenticationService.authenticateAsync(any(UserCredentials.class)))
+                .thenReturn(CompletableFuture.completedFuture(authResponse));
 
         final CompletableFuture<ResponseInfo<AuthResponse>> completableFuture =
                 subject.execute(requestInfo, executor, null);
@@ -19,7 +19,11 @@ package com.nike.cerberus.security;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.nike.backstopper.exception.ApiException;
-import com.nike.vault.client.VaultAdminClient;
+import com.nike.cerberus.error.DefaultApiError;
+import com.nike.cerberus.service.TokenRevocationQueue;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import com.nike.cerberus.vault.VaultTokenLookupClient;
+import com.nike.cerberus.vault.VaultTokenLookupResponse;
 import com.nike.vault.client.VaultClientException;
 import com.nike.vault.client.VaultServerException;
 import com.nike.vault.client.model.VaultClientTokenResponse;
@@ -34,12 +38,15 @@ import javax.ws.rs.core.SecurityContext;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static com.nike.cerberus.security.CmsRequestSecurityValidator.SECURITY_CONTEXT_ATTR_KEY;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -51,14 +58,20 @@ public class CmsRequestSecurityValidatorTest {
 
     private final Collection<Endpoint<?>> securedEndpoints = Lists.newArrayList(securedEndpoint);
 
-    private VaultAdminClient vaultAdminClient;
+    private VaultTokenLookupClient vaultTokenLookupClient;
+
+    private TokenRevocationQueue tokenRevocationQueue;
+
+    private VaultTokenCache vaultTokenCache;
 
     private CmsRequestSecurityValidator subject;
 
     @Before
     public void setUp() throws Exception {
-        vaultAdminClient = mock(VaultAdminClient.class);
-        subject = new CmsRequestSecurityValidator(securedEndpoints, vaultAdminClient);
+        vaultTokenLookupClient = mock(VaultTokenLookupClient.class);
+        tokenRevocationQueue = mock(TokenRevocationQueue.class);
+        vaultTokenCache = new VaultTokenCache(100, 30, 5, 900, tokenRevocationQueue, new CodahaleMetricsCollector());
+        subject = new CmsRequestSecurityValidator(securedEndpoints, vaultTokenLookupClient, vaultTokenCache);
     }
 
     @Test
@@ -76,13 +89,71 @@ public class CmsRequestSecurityValidatorTest {
         final VaultClientTokenResponse clientTokenResponse = new VaultClientTokenResponse()
                 .setId(vaultToken)
                 .setMeta(meta);
-        when(vaultAdminClient.lookupToken(vaultToken)).thenReturn(clientTokenResponse);
+        when(vaultTokenLookupClient.lookupToken(vaultToken)).thenReturn(lookupResponse(clientTokenResponse));
 
         subject.validateSecureRequestForEndpoint(requestInfo, securedEndpoint);
 
         verify(requestInfo).addRequestAttribute(eq(SECURITY_CONTEXT_ATTR_KEY), any(SecurityContext.class));
     }
 
+    @Test
+    public void test_validateSecureRequestForEndpoint_only_looks_up_token_once_while_cached() {
+        final RequestInfo<Void> requestInfo = mock(RequestInfo.class);
+        when(requestInfo.getUri()).thenReturn("https://localhost");
+        final HttpHeaders httpHeaders = new DefaultHttpHeaders();
+        httpHeaders.add(CmsRequestSecurityValidator.HEADER_X_VAULT_TOKEN, vaultToken);
+        when(requestInfo.getHeaders()).thenReturn(httpHeaders);
+
+        final Map<String, String> meta = Maps.newHashMap();
+        meta.put(VaultAuthPrincipal.METADATA_KEY_USERNAME, "username");
+        when(vaultTokenLookupClient.lookupToken(vaultToken))
+                .thenReturn(lookupResponse(new VaultClientTokenResponse().setId(vaultToken).setMeta(meta)));
+
+        subject.validateSecureRequestForEndpoint(requestInfo, securedEndpoint);
+        subject.validateSecureRequestForEndpoint(requestInfo, securedEndpoint);
+
+        verify(vaultTokenLookupClient, times(1)).lookupToken(vaultToken);
+        verify(requestInfo, times(2)).addRequestAttribute(eq(SECURITY_CONTEXT_ATTR_KEY), any(SecurityContext.class));
+    }
+
+    @Test
+    public void test_validateSecureRequestForEndpoint_rejects_a_cached_token_once_its_revocation_is_queued() {
+        final RequestInfo<Void> requestInfo = requestWithToken();
+        final Map<String, String> meta = Maps.newHashMap();
+        meta.put(VaultAuthPrincipal.METADATA_KEY_USERNAME, "username");
+        when(vaultTokenLookupClient.lookupToken(vaultToken))
+                .thenReturn(lookupResponse(new VaultClientTokenResponse().setId(vaultToken).setMeta(meta)));
+        subject.validateSecureRequestForEndpoint(requestInfo, securedEndpoint);
+
+        // a logout denies the token before queueing its revocation, Vault still considers it valid
+        vaultTokenCache.deny(vaultToken);
+
+        try {
+            subject.validateSecureRequestForEndpoint(requestInfo, securedEndpoint);
+            fail("expected ApiException");
+        } catch (ApiException e) {
+            assertThat(e.getApiErrors()).containsExactly(DefaultApiError.AUTH_VAULT_TOKEN_INVALID);
+        }
+        verify(vaultTokenLookupClient, times(1)).lookupToken(vaultToken);
+    }
+
+    @Test
+    public void test_validateSecureRequestForEndpoint_rejects_a_token_queued_for_revocation_by_another_node() {
+        final RequestInfo<Void> requestInfo = requestWithToken();
+        final Map<String, String> meta = Maps.newHashMap();
+        meta.put(VaultAuthPrincipal.METADATA_KEY_USERNAME, "username");
+        when(vaultTokenLookupClient.lookupToken(vaultToken))
+                .thenReturn(lookupResponse(new VaultClientTokenResponse().setId(vaultToken).setMeta(meta)));
+        when(tokenRevocationQueue.isRevoked(vaultToken)).thenReturn(true);
+
+        try {
+            subject.validateSecureRequestForEndpoint(requestInfo, securedEndpoint);
+            fail("expected ApiException");
+        } catch (ApiException e) {
+            assertThat(e.getApiErrors()).containsExactly(DefaultApiError.AUTH_VAULT_TOKEN_INVALID);
+        }
+    }
+
     @Test(expected = ApiException.class)
     public void test_validateSecureRequestForEndpoint_throws_error_when_no_vault_token_header() {
         final RequestInfo<?> requestInfo = mock(RequestInfo.class);
@@ -99,11 +170,29 @@ public class CmsRequestSecurityValidatorTest {
         httpHeaders.add(CmsRequestSecurityValidator.HEADER_X_VAULT_TOKEN, vaultToken);
         when(requestInfo.getHeaders()).thenReturn(httpHeaders);
 
-        when(vaultAdminClient.lookupToken(vaultToken)).thenThrow(new VaultServerException(1, Lists.newArrayList()));
+        when(vaultTokenLookupClient.lookupToken(vaultToken)).thenReturn(failedFuture(new VaultServerException(1, Lists.newArrayList())));
 
         subject.validateSecureRequestForEndpoint(requestInfo, securedEndpoint);
     }
 
+    @Test
+    public void test_validateSecureRequestForEndpoint_throws_service_unavailable_when_vault_is_unavailable() {
+        final RequestInfo<?> requestInfo = mock(RequestInfo.class);
+        final HttpHeaders httpHeaders = new DefaultHttpHeaders();
+        httpHeaders.add(CmsRequestSecurityValidator.HEADER_X_VAULT_TOKEN, vaultToken);
+        when(requestInfo.getHeaders()).thenReturn(httpHeaders);
+
+        when(vaultTokenLookupClient.lookupToken(vaultToken))
+                .thenReturn(failedFuture(new VaultServerException(503, Lists.newArrayList("Vault is sealed"))));
+
+        try {
+            subject.validateSecureRequestForEndpoint(requestInfo, securedEndpoint);
+            fail("expected ApiException");
+        } catch (ApiException e) {
+            assertThat(e.getApiErrors()).containsExactly(DefaultApiError.SERVICE_UNAVAILABLE);
+        }
+    }
+
     @Test(expected = ApiException.class)
     public void test_validateSecureRequestForEndpoint_throws_error_when_vault_client_exception_caught() {
         final RequestInfo<?> requestInfo = mock(RequestInfo.class);
@@ -111,7 +200,7 @@ public class CmsRequestSecurityValidatorTest {
         httpHeaders.add(CmsRequestSecurityValidator.HEADER_X_VAULT_TOKEN, vaultToken);
         when(requestInfo.getHeaders()).thenReturn(httpHeaders);
 
-        when(vaultAdminClient.lookupToken(vaultToken)).thenThrow(new VaultClientException("Failure"));
+        when(vaultTokenLookupClient.lookupToken(vaultToken)).thenReturn(failedFuture(new VaultClientException("Failure")));
 
         subject.validateSecureRequestForEndpoint(requestInfo, securedEndpoint);
     }
@@ -153,4 +242,26 @@ public class CmsRequestSecurityValidatorTest {
     public void test_endpointsToValidate_returns_endpoints_given_to_constructor() {
         assertThat(subject.endpointsToValidate()).containsExactlyElementsOf(securedEndpoints);
     }
-}
\ No newline at end of file
+
+    private RequestInfo<Void> requestWithToken() {
+        final RequestInfo<Void> requestInfo = mock(RequestInfo.class);
+        when(requestInfo.getUri()).thenReturn("https://localhost");
+        final HttpHeaders httpHeaders = new DefaultHttpHeaders();
+        httpHeaders.add(CmsRequestSecurityValidator.HEADER_X_VAULT_TOKEN, vaultToken);
+        when(requestInfo.getHeaders()).thenReturn(httpHeaders);
+        return requestInfo;
+    }
+
+    private CompletableFuture<VaultTokenLookupResponse> lookupResponse(final VaultClientTokenResponse clientToken) {
+        return CompletableFuture.completedFuture(new VaultTokenLookupResponse()
+                .setClientToken(clientToken)
+                .setAccessor("token-accessor")
+                .setTtlSeconds(3600));
+    }
+
+    private CompletableFuture<VaultTokenLookupResponse> failedFuture(final Throwable throwable) {
+        final CompletableFuture<VaultTokenLookupResponse> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.security;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.nike.cerberus.service.TokenRevocationQueue;
+import com.nike.cerberus.vault.VaultTokenLookupResponse;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import com.nike.vault.client.VaultServerException;
+import com.nike.vault.client.model.VaultClientTokenResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class VaultTokenCacheTest {
+
+    private final String vaultToken = "123-123-123-123-123";
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    private CodahaleMetricsCollector metricsCollector;
+
+    private TokenRevocationQueue tokenRevocationQueue;
+
+    private VaultTokenCache subject;
+
+    @Before
+    public void setUp() throws Exception {
+        metricsCollector = new CodahaleMetricsCollector();
+        tokenRevocationQueue = mock(TokenRevocationQueue.class);
+        subject = new VaultTokenCache(100, 30, 5, 900, tokenRevocationQueue, metricsCollector, ticker);
+    }
+
+    @Test
+    public void test_that_get_only_calls_lookup_on_miss() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final Function<String, CompletableFuture<VaultTokenLookupResponse>> lookup = token -> {
+            lookups.incrementAndGet();
+            return CompletableFuture.completedFuture(tokenResponse(token));
+        };
+
+        final VaultAuthPrincipal first = subject.get(vaultToken, lookup).join();
+        final VaultAuthPrincipal second = subject.get(vaultToken, lookup).join();
+
+        assertThat(second).isSameAs(first);
+        assertThat(lookups.get()).isEqualTo(1);
+        assertThat(metricsCollector.getNamedCounter(VaultTokenCache.METRIC_HIT).getCount()).isEqualTo(1);
+        assertThat(metricsCollector.getNamedCounter(VaultTokenCache.METRIC_MISS).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_entries_expire_after_ttl_ceiling() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final Function<String, CompletableFuture<VaultTokenLookupResponse>> lookup = token -> {
+            lookups.incrementAndGet();
+            return CompletableFuture.completedFuture(tokenResponse(token));
+        };
+
+        subject.get(vaultToken, lookup).join();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        subject.get(vaultToken, lookup).join();
+
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_that_a_token_with_less_ttl_left_than_the_ceiling_expires_with_the_token() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final Function<String, CompletableFuture<VaultTokenLookupResponse>> lookup = token -> {
+            lookups.incrementAndGet();
+            return CompletableFuture.completedFuture(tokenResponse(token).setTtlSeconds(5));
+        };
+
+        subject.get(vaultToken, lookup).join();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(4));
+        subject.get(vaultToken, lookup).join();
+        assertThat(lookups.get()).isEqualTo(1);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        subject.get(vaultToken, lookup).join();
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_that_a_token_that_never_expires_is_cached_for_the_ceiling() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final Function<String, CompletableFuture<VaultTokenLookupResponse>> lookup = token -> {
+            lookups.incrementAndGet();
+            return CompletableFuture.completedFuture(tokenResponse(token).setTtlSeconds(0));
+        };
+
+        subject.get(vaultToken, lookup).join();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(29));
+        subject.get(vaultToken, lookup).join();
+        assertThat(lookups.get()).isEqualTo(1);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        subject.get(vaultToken, lookup).join();
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_that_invalid_tokens_are_negatively_cached_for_a_short_period() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final Function<String, CompletableFuture<VaultTokenLookupResponse>> lookup = token -> {
+            lookups.incrementAndGet();
+            final CompletableFuture<VaultTokenLookupResponse> future = new CompletableFuture<>();
+            future.completeExceptionally(new VaultServerException(403, Lists.newArrayList("permission denied")));
+            return future;
+        };
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                subject.get(vaultToken, lookup).join();
+                fail("expected VaultServerException");
+            } catch (CompletionException ce) {
+                assertThat(ce.getCause()).isInstanceOf(VaultServerException.class);
+                assertThat(((VaultServerException) ce.getCause()).getCode()).isEqualTo(403);
+            }
+        }
+        assertThat(lookups.get()).isEqualTo(1);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(6));
+        try {
+            subject.get(vaultToken, lookup).join();
+            fail("expected VaultServerException");
+        } catch (CompletionException ce) {
+            assertThat(lookups.get()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void test_that_vault_server_errors_are_not_cached() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final Function<String, CompletableFuture<VaultTokenLookupResponse>> lookup = token -> {
+            final CompletableFuture<VaultTokenLookupResponse> future = new CompletableFuture<>();
+            if (lookups.incrementAndGet() == 1) {
+                future.completeExceptionally(new VaultServerException(503, Lists.newArrayList("Vault is sealed")));
+            } else {
+                future.complete(tokenResponse(token));
+            }
+            return future;
+        };
+
+        try {
+            subject.get(vaultToken, lookup).join();
+            fail("expected VaultServerException");
+        } catch (CompletionException ce) {
+            assertThat(((VaultServerException) ce.getCause()).getCode()).isEqualTo(503);
+        }
+
+        assertThat(subject.get(vaultToken, lookup).join()).isNotNull();
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_that_evict_forces_a_new_lookup() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final Function<String, CompletableFuture<VaultTokenLookupResponse>> lookup = token -> {
+            lookups.incrementAndGet();
+            return CompletableFuture.completedFuture(tokenResponse(token));
+        };
+
+        subject.get(vaultToken, lookup).join();
+        subject.evict(vaultToken);
+        subject.get(vaultToken, lookup).join();
+
+        assertThat(lookups.get()).isEqualTo(2);
+        assertThat(metricsCollector.getNamedCounter(VaultTokenCache.METRIC_EVICTION).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_a_denied_token_is_rejected_until_the_batch_token_max_ttl_passes() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final Function<String, CompletableFuture<VaultTokenLookupResponse>> lookup = token -> {
+            lookups.incrementAndGet();
+            return CompletableFuture.completedFuture(tokenResponse(token));
+        };
+
+        subject.get(vaultToken, lookup).join();
+        subject.deny(vaultToken);
+
+        try {
+            subject.get(vaultToken, lookup).join();
+            fail("expected the denied token to be rejected");
+        } catch (CompletionException e) {
+            assertThat(e.getCause()).isInstanceOf(VaultServerException.class);
+            assertThat(VaultTokenCache.isInvalidTokenResponse((VaultServerException) e.getCause())).isTrue();
+        }
+        assertThat(lookups.get()).isEqualTo(1);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(901));
+
+        subject.get(vaultToken, lookup).join();
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_that_a_token_queued_for_revocation_is_rejected_on_a_miss() {
+        when(tokenRevocationQueue.isRevoked(vaultToken)).thenReturn(true);
+
+        try {
+            subject.get(vaultToken, token -> CompletableFuture.completedFuture(tokenResponse(token))).join();
+            fail("expected the revoked token to be rejected");
+        } catch (CompletionException e) {
+            assertThat(e.getCause()).isInstanceOf(VaultServerException.class);
+            assertThat(VaultTokenCache.isInvalidTokenResponse((VaultServerException) e.getCause())).isTrue();
+        }
+    }
+
+    @Test
+    public void test_that_the_principal_carries_the_accessor_and_ttl() {
+        final VaultAuthPrincipal principal = subject.get(vaultToken,
+                token -> CompletableFuture.completedFuture(tokenResponse(token))).join();
+
+        assertThat(principal.getAccessor()).isEqualTo("token-accessor");
+        assertThat(principal.getTtlSeconds()).isEqualTo(3600);
+    }
+
+    @Test
+    public void test_that_a_token_denied_during_its_lookup_is_not_cached() {
+        final CompletableFuture<VaultTokenLookupResponse> pending = new CompletableFuture<>();
+
+        final CompletableFuture<VaultAuthPrincipal> inFlight = subject.get(vaultToken, token -> pending);
+        subject.deny(vaultToken);
+        pending.complete(tokenResponse(vaultToken));
+
+        assertThat(inFlight.isCompletedExceptionally()).isTrue();
+    }
+
+    private VaultTokenLookupResponse tokenResponse(final String token) {
+        final Map<String, String> meta = Maps.newHashMap();
+        meta.put(VaultAuthPrincipal.METADATA_KEY_USERNAME, "username");
+        return new VaultTokenLookupResponse()
+                .setClientToken(new VaultClientTokenResponse().setId(token).setMeta(meta))
+                .setAccessor("token-accessor")
+                .setTtlSeconds(3600);
+    }
+}
@@ -17,32 +17,57 @@
 
 package com.nike.cerberus.service;
 
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.regions.Region;
+import com.amazonaws.services.kms.AWSKMSClient;
+import com.amazonaws.services.kms.model.EncryptRequest;
+import com.amazonaws.services.kms.model.EncryptResult;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Maps;
 import com.nike.backstopper.exception.ApiException;
 import com.nike.cerberus.auth.connector.AuthConnector;
+import com.nike.cerberus.auth.connector.AuthConnectorExecutor;
+import com.nike.cerberus.auth.connector.AuthData;
+import com.nike.cerberus.auth.connector.AuthResponse;
+import com.nike.cerberus.auth.connector.AuthStatus;
 import com.nike.cerberus.aws.KmsClientFactory;
+import com.nike.cerberus.aws.KmsDataKeyCache;
 import com.nike.cerberus.dao.AwsIamRoleDao;
 import com.nike.cerberus.dao.SafeDepositBoxDao;
+import com.nike.cerberus.dao.VaultCompositePolicyDao;
+import com.nike.cerberus.domain.AuthPayloadEncoding;
 import com.nike.cerberus.domain.IamPrincipalCredentials;
+import com.nike.cerberus.domain.UserCredentials;
 import com.nike.cerberus.error.DefaultApiError;
 import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
 import com.nike.cerberus.record.AwsIamRoleRecord;
+import com.nike.cerberus.record.AwsIamRoleResolutionRecord;
 import com.nike.cerberus.record.SafeDepositBoxRoleRecord;
 import com.nike.cerberus.security.VaultAuthPrincipal;
+import com.nike.cerberus.security.VaultTokenCache;
 import com.nike.cerberus.server.config.CmsConfig;
 import com.nike.cerberus.util.AwsIamRoleArnParser;
 import com.nike.cerberus.util.DateTimeSupplier;
+import com.nike.cerberus.vault.VaultBatchTokenClient;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
 import com.nike.vault.client.VaultAdminClient;
 import com.nike.vault.client.model.VaultAuthResponse;
 import com.nike.vault.client.model.VaultClientTokenResponse;
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.assertj.core.util.Lists;
 import org.assertj.core.util.Sets;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.HashMap;
@@ -52,6 +77,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static com.nike.cerberus.service.AuthenticationService.LOOKUP_SELF_POLICY;
 import static com.nike.cerberus.util.AwsIamRoleArnParser.AWS_IAM_ROLE_ARN_TEMPLATE;
@@ -59,9 +85,16 @@ import static org.junit.Assert.assertEquals;
 
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -93,6 +126,9 @@ public class AuthenticationServiceTest {
     @Mock
     private VaultPolicyService vaultPolicyService;
 
+    @Mock
+    private VaultCompositePolicyDao vaultCompositePolicyDao;
+
     private ObjectMapper objectMapper;
 
     @Mock
@@ -101,18 +137,50 @@ public class AuthenticationServiceTest {
     @Mock
     private AwsIamRoleArnParser awsIamRoleArnParser;
 
+    @Mock
+    private VaultTokenCache vaultTokenCache;
+
+    @Mock
+    private KmsKeyPolicyValidationService kmsKeyPolicyValidationService;
+
+    @Mock
+    private VaultBatchTokenClient vaultBatchTokenClient;
+
+    @Mock
+    private KmsDataKeyCache kmsDataKeyCache;
+
+    @Mock
+    private TokenRevocationQueue tokenRevocationQueue;
+
     private AuthenticationService authenticationService;
 
     private static int MAX_LIMIT = 2;
 
+    private CodahaleMetricsCollector metricsCollector;
+
     @Before
     public void setup() {
         initMocks(this);
         objectMapper = CmsConfig.configureObjectMapper();
-        authenticationService = new AuthenticationService(safeDepositBoxDao,
-                awsIamRoleDao, authConnector, kmsService, kmsClientFactory,
-                vaultAdminClient, vaultPolicyService, objectMapper, "foo", MAX_LIMIT,
-                dateTimeSupplier, awsIamRoleArnParser);
+        metricsCollector = new CodahaleMetricsCollector();
+        authenticationService = newAuthenticationService(
+                new IamPrincipalTokenCache(false, 100, 60, "1h", new CodahaleMetricsCollector()));
+    }
+
+    private AuthenticationService newAuthenticationService(IamPrincipalTokenCache iamPrincipalTokenCache) {
+        return new AuthenticationService(safeDepositBoxDao,
+                new AwsIamRoleRecordCache(awsIamRoleDao, 100, 60, new CodahaleMetricsCollector()), authConnector,
+                new AuthConnectorExecutor(Runnable::run), kmsService, kmsClientFactory,
+                vaultAdminClient, objectMapper, "foo", MAX_LIMIT,
+                dateTimeSupplier, awsIamRoleArnParser, vaultTokenCache,
+                new IamPrincipalPolicyCache(100, 60, new CodahaleMetricsCollector()), kmsKeyPolicyValidationService,
+                kmsDataKeyCache,
+                iamPrincipalTokenCache, vaultBatchTokenClient,
+                new VaultCompositePolicyService(vaultPolicyService, vaultCompositePolicyDao, dateTimeSupplier,
+                        false, 3600, 172800),
+                new IamAuthenticationExecutors(Runnable::run, Runnable::run, Runnable::run, metricsCollector),
+                new UserGroupPolicyIndex(safeDepositBoxDao, false, 60, metricsCollector),
+                tokenRevocationQueue);
     }
 
     @Test
@@ -154,22 +222,90 @@ public class AuthenticationServiceTest {
         AwsIamRoleRecord awsIamRoleRecord = new AwsIamRoleRecord().setAwsIamRoleArn(principalArn);
         awsIamRoleRecord.setAwsIamRoleArn(principalArn);
         awsIamRoleRecord.setId(iamRoleId);
-        when(awsIamRoleDao.getIamRole(principalArn)).thenReturn(Optional.of(awsIamRoleRecord));
 
         AwsIamRoleKmsKeyRecord awsIamRoleKmsKeyRecord = new AwsIamRoleKmsKeyRecord();
         awsIamRoleKmsKeyRecord.setId(kmsKeyId);
+        awsIamRoleKmsKeyRecord.setAwsIamRoleId(iamRoleId);
+        awsIamRoleKmsKeyRecord.setAwsRegion(region);
         awsIamRoleKmsKeyRecord.setAwsKmsKeyId(cmkId);
         awsIamRoleKmsKeyRecord.setLastValidatedTs(dateTime);
 
-        when(awsIamRoleDao.getKmsKey(iamRoleId, region)).thenReturn(Optional.of(awsIamRoleKmsKeyRecord));
+        when(awsIamRoleArnParser.isRoleArn(principalArn)).thenReturn(true);
+        when(awsIamRoleDao.resolveIamPrincipal(principalArn, principalArn, region)).thenReturn(Lists.newArrayList(
+                new AwsIamRoleResolutionRecord().setAwsIamRoleId(iamRoleId).setAwsIamRole(awsIamRoleRecord)
+                        .setKmsKey(awsIamRoleKmsKeyRecord)));
 
         when(dateTimeSupplier.get()).thenReturn(now);
 
         String result = authenticationService.getKeyId(iamPrincipalCredentials);
 
-        // verify validate is called once interval has passed
+        // verify validation is requested, never performed inline
         assertEquals(cmkId, result);
-        verify(kmsService, times(1)).validateKeyAndPolicy(awsIamRoleKmsKeyRecord, principalArn);
+        verify(kmsKeyPolicyValidationService, times(1)).requestValidation(awsIamRoleKmsKeyRecord, principalArn);
+        verify(kmsService, never()).validateKeyAndPolicy(awsIamRoleKmsKeyRecord, principalArn);
+    }
+
+    @Test
+    public void test_that_getKeyId_resolves_the_iam_principal_with_one_query_and_then_uses_the_cache() {
+
+        String principalArn = "arn:aws:iam::0000000000:role/example";
+        String region = "us-west-2";
+        String iamRoleId = "iam role id";
+        String cmkId = "key id";
+
+        IamPrincipalCredentials iamPrincipalCredentials = new IamPrincipalCredentials();
+        iamPrincipalCredentials.setIamPrincipalArn(principalArn);
+        iamPrincipalCredentials.setRegion(region);
+
+        AwsIamRoleRecord awsIamRoleRecord = new AwsIamRoleRecord().setId(iamRoleId).setAwsIamRoleArn(principalArn);
+        AwsIamRoleKmsKeyRecord awsIamRoleKmsKeyRecord = new AwsIamRoleKmsKeyRecord().setId("kms id")
+                .setAwsIamRoleId(iamRoleId).setAwsRegion(region).setAwsKmsKeyId(cmkId);
+        SafeDepositBoxRoleRecord sdbRole = new SafeDepositBoxRoleRecord().setSafeDepositBoxName("sdb").setRoleName("read");
+
+        when(awsIamRoleArnParser.isRoleArn(principalArn)).thenReturn(true);
+        when(awsIamRoleDao.resolveIamPrincipal(principalArn, principalArn, region)).thenReturn(Lists.newArrayList(
+                new AwsIamRoleResolutionRecord().setAwsIamRoleId(iamRoleId).setAwsIamRole(awsIamRoleRecord)
+                        .setKmsKey(awsIamRoleKmsKeyRecord).setSafeDepositBoxRoles(Lists.newArrayList(sdbRole))));
+        when(vaultPolicyService.buildPolicyName("sdb", "read")).thenReturn("sdb-read");
+
+        assertEquals(cmkId, authenticationService.getKeyId(iamPrincipalCredentials));
+        assertEquals(cmkId, authenticationService.getKeyId(iamPrincipalCredentials));
+        Set<String> policies = authenticationService.buildCompleteSetOfPolicies(principalArn);
+
+        assertEquals(Sets.newLinkedHashSet(LOOKUP_SELF_POLICY, "sdb-read"), policies);
+        verify(awsIamRoleDao, times(1)).resolveIamPrincipal(principalArn, principalArn, region);
+        verify(awsIamRoleDao, never()).getIamRole(anyString());
+        verify(awsIamRoleDao, never()).getKmsKey(anyString(), anyString());
+        verify(safeDepositBoxDao, never()).getIamRoleAssociatedSafeDepositBoxRoles(anyString());
+    }
+
+    @Test
+    public void test_that_getKeyId_caches_the_base_role_of_an_assumed_role_principal() {
+
+        String principalArn = "arn:aws:sts::0000000000:assumed-role/example/session";
+        String roleArn = "arn:aws:iam::0000000000:role/example";
+        String region = "us-west-2";
+        String iamRoleId = "iam role id";
+        String cmkId = "key id";
+
+        IamPrincipalCredentials iamPrincipalCredentials = new IamPrincipalCredentials();
+        iamPrincipalCredentials.setIamPrincipalArn(principalArn);
+        iamPrincipalCredentials.setRegion(region);
+
+        AwsIamRoleRecord awsIamRoleRecord = new AwsIamRoleRecord().setId(iamRoleId).setAwsIamRoleArn(roleArn);
+        AwsIamRoleKmsKeyRecord awsIamRoleKmsKeyRecord = new AwsIamRoleKmsKeyRecord().setId("kms id")
+                .setAwsIamRoleId(iamRoleId).setAwsRegion(region).setAwsKmsKeyId(cmkId);
+
+        when(awsIamRoleArnParser.isRoleArn(principalArn)).thenReturn(false);
+        when(awsIamRoleArnParser.convertPrincipalArnToRoleArn(principalArn)).thenReturn(roleArn);
+        when(awsIamRoleDao.resolveIamPrincipal(principalArn, roleArn, region)).thenReturn(Lists.newArrayList(
+                new AwsIamRoleResolutionRecord().setAwsIamRoleId(iamRoleId).setAwsIamRole(awsIamRoleRecord)
+                        .setKmsKey(awsIamRoleKmsKeyRecord)));
+
+        assertEquals(cmkId, authenticationService.getKeyId(iamPrincipalCredentials));
+        assertEquals(cmkId, authenticationService.getKeyId(iamPrincipalCredentials));
+
+        verify(awsIamRoleDao, times(1)).resolveIamPrincipal(principalArn, roleArn, region);
     }
 
     @Test
@@ -209,54 +345,90 @@ public class AuthenticationServiceTest {
     }
 
     @Test
-    public void test_that_findIamRoleAssociatedWithSdb_returns_first_matching_iam_role_record_if_found() {
+    public void test_that_buildCompleteSetOfPolicies_only_queries_the_db_once_while_cached() {
 
-        String principalArn = "principal arn";
-        AwsIamRoleRecord awsIamRoleRecord = mock(AwsIamRoleRecord.class);
-        when(awsIamRoleDao.getIamRole(principalArn)).thenReturn(Optional.of(awsIamRoleRecord));
+        String roleArn = String.format(AWS_IAM_ROLE_ARN_TEMPLATE, "0000000000", "role/path");
+        when(awsIamRoleArnParser.isRoleArn(roleArn)).thenReturn(true);
+        when(safeDepositBoxDao.getIamRoleAssociatedSafeDepositBoxRoles(roleArn)).thenReturn(Lists.newArrayList());
 
-        Optional<AwsIamRoleRecord> result = authenticationService.findIamRoleAssociatedWithSdb(principalArn);
+        Set<String> first = authenticationService.buildCompleteSetOfPolicies(roleArn);
+        Set<String> second = authenticationService.buildCompleteSetOfPolicies(roleArn);
 
-        assertEquals(awsIamRoleRecord, result.get());
+        assertEquals(first, second);
+        verify(safeDepositBoxDao, times(1)).getIamRoleAssociatedSafeDepositBoxRoles(roleArn);
     }
 
     @Test
-    public void test_that_findIamRoleAssociatedWithSdb_returns_generic_role_when_iam_principal_not_found() {
+    public void test_that_findIamRoleAssociatedWithSdb_returns_first_matching_iam_role_record_if_found() {
 
         String accountId = "0000000000";
         String roleName = "role/path";
         String principalArn = String.format("arn:aws:iam::%s:instance-profile/%s", accountId, roleName);
         String roleArn = String.format(AWS_IAM_ROLE_ARN_TEMPLATE, accountId, roleName);
 
-        AwsIamRoleRecord awsIamRoleRecord = mock(AwsIamRoleRecord.class);
-        when(awsIamRoleDao.getIamRole(principalArn)).thenReturn(Optional.empty());
-        when(awsIamRoleDao.getIamRole(roleArn)).thenReturn(Optional.of(awsIamRoleRecord));
-
-        when(awsIamRoleArnParser.isRoleArn(principalArn)).thenReturn(false);
-        when(awsIamRoleArnParser.convertPrincipalArnToRoleArn(principalArn)).thenReturn(roleArn);
+        AwsIamRoleResolutionRecord roleResolution = resolution(roleArn);
+        AwsIamRoleResolutionRecord principalResolution = resolution(principalArn);
 
-        Optional<AwsIamRoleRecord> result = authenticationService.findIamRoleAssociatedWithSdb(principalArn);
+        Optional<AwsIamRoleResolutionRecord> result = authenticationService.findIamRoleAssociatedWithSdb(principalArn,
+                Lists.newArrayList(roleResolution, principalResolution));
 
-        assertEquals(awsIamRoleRecord, result.get());
+        assertEquals(principalResolution, result.get());
     }
 
     @Test
-    public void test_that_findIamRoleAssociatedWithSdb_returns_empty_optional_when_roles_not_found() {
+    public void test_that_findIamRoleAssociatedWithSdb_returns_generic_role_when_iam_principal_not_found() {
 
         String accountId = "0000000000";
         String roleName = "role/path";
         String principalArn = String.format("arn:aws:iam::%s:instance-profile/%s", accountId, roleName);
-        String roleArn = String.format("arn:aws:iam::%s:role/%s", accountId, roleName);
+        String roleArn = String.format(AWS_IAM_ROLE_ARN_TEMPLATE, accountId, roleName);
+
+        AwsIamRoleResolutionRecord roleResolution = resolution(roleArn);
+
+        Optional<AwsIamRoleResolutionRecord> result = authenticationService.findIamRoleAssociatedWithSdb(principalArn,
+                Lists.newArrayList(roleResolution));
+
+        assertEquals(roleResolution, result.get());
+    }
+
+    @Test
+    public void test_that_findIamRoleAssociatedWithSdb_returns_empty_optional_when_roles_not_found() {
+
+        String principalArn = "arn:aws:iam::0000000000:instance-profile/role/path";
+
+        Optional<AwsIamRoleResolutionRecord> result = authenticationService.findIamRoleAssociatedWithSdb(principalArn,
+                Lists.newArrayList());
+
+        assertFalse(result.isPresent());
+    }
+
+    @Test
+    public void test_that_getKeyId_throws_when_neither_the_principal_nor_its_base_role_is_found() {
+
+        String principalArn = "arn:aws:iam::0000000000:instance-profile/role/path";
+        String roleArn = "arn:aws:iam::0000000000:role/role/path";
+        String region = "us-west-2";
 
-        when(awsIamRoleDao.getIamRole(principalArn)).thenReturn(Optional.empty());
-        when(awsIamRoleDao.getIamRole(roleArn)).thenReturn(Optional.empty());
+        IamPrincipalCredentials iamPrincipalCredentials = new IamPrincipalCredentials();
+        iamPrincipalCredentials.setIamPrincipalArn(principalArn);
+        iamPrincipalCredentials.setRegion(region);
 
         when(awsIamRoleArnParser.isRoleArn(principalArn)).thenReturn(false);
         when(awsIamRoleArnParser.convertPrincipalArnToRoleArn(principalArn)).thenReturn(roleArn);
+        when(awsIamRoleDao.resolveIamPrincipal(principalArn, roleArn, region)).thenReturn(Lists.newArrayList());
 
-        Optional<AwsIamRoleRecord> result = authenticationService.findIamRoleAssociatedWithSdb(principalArn);
+        try {
+            authenticationService.getKeyId(iamPrincipalCredentials);
+            fail("expected ApiException");
+        } catch (ApiException e) {
+            assertTrue(e.getApiErrors().contains(DefaultApiError.AUTH_IAM_PRINCIPAL_INVALID));
+        }
+        verify(kmsService, never()).provisionKmsKey(anyString(), anyString(), anyString(), anyString(), any());
+    }
 
-        assertFalse(result.isPresent());
+    private AwsIamRoleResolutionRecord resolution(final String arn) {
+        return new AwsIamRoleResolutionRecord().setAwsIamRoleId(arn)
+                .setAwsIamRole(new AwsIamRoleRecord().setId(arn).setAwsIamRoleArn(arn));
     }
 
     @Test
@@ -270,7 +442,8 @@ public class AuthenticationServiceTest {
 
         byte[] serializedAuth = new ObjectMapper().writeValueAsBytes(response);
 
-        byte[] actual = authenticationService.validateAuthPayloadSizeAndTruncateIfLargerThanMaxKmsSupportedSize(serializedAuth, response, "foo");
+        byte[] actual = authenticationService.validateAuthPayloadSizeAndTruncateIfLargerThanMaxKmsSupportedSize(serializedAuth, response, "foo",
+                AuthPayloadEncoding.JSON);
 
         assertEquals(serializedAuth, actual);
     }
@@ -293,12 +466,127 @@ public class AuthenticationServiceTest {
         byte[] serializedAuth = new ObjectMapper().writeValueAsBytes(response);
         assertTrue(serializedAuth.length > AuthenticationService.KMS_SIZE_LIMIT);
 
-        byte[] actual = authenticationService.validateAuthPayloadSizeAndTruncateIfLargerThanMaxKmsSupportedSize(serializedAuth, response, "foo");
+        byte[] actual = authenticationService.validateAuthPayloadSizeAndTruncateIfLargerThanMaxKmsSupportedSize(serializedAuth, response, "foo",
+                AuthPayloadEncoding.JSON);
 
         assertNotEquals(serializedAuth, actual);
         assertTrue(actual.length < AuthenticationService.KMS_SIZE_LIMIT);
     }
 
+    @Test
+    public void tests_that_validateAuthPayloadSizeAndTruncateIfLargerThanMaxKmsSupportedSize_keeps_the_compact_encoding_when_truncating() throws Exception {
+        Set<String> policies = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            policies.add(RandomStringUtils.randomAlphanumeric(25));
+        }
+
+        VaultAuthResponse response = new VaultAuthResponse()
+                .setClientToken(UUID.randomUUID().toString())
+                .setLeaseDuration(3600)
+                .setMetadata(new HashMap<>())
+                .setPolicies(policies)
+                .setRenewable(false);
+
+        byte[] serializedAuth = objectMapper.writeValueAsBytes(response);
+        assertTrue(serializedAuth.length > AuthenticationService.KMS_SIZE_LIMIT);
+
+        byte[] actual = authenticationService.validateAuthPayloadSizeAndTruncateIfLargerThanMaxKmsSupportedSize(serializedAuth, response, "foo",
+                AuthPayloadEncoding.COMPACT_JSON);
+
+        assertFalse(new String(actual, StandardCharsets.UTF_8).contains("\n"));
+        assertEquals(response.getClientToken(), objectMapper.readValue(actual, VaultAuthResponse.class).getClientToken());
+    }
+
+    @Test
+    public void test_that_authenticateWithEnvelopeEncryption_creates_no_token_when_the_kms_key_cannot_be_provisioned() {
+        String principalArn = "arn:aws:iam::0000000000:role/example";
+        String region = "us-west-2";
+
+        IamPrincipalCredentials credentials = new IamPrincipalCredentials();
+        credentials.setIamPrincipalArn(principalArn);
+        credentials.setRegion(region);
+
+        AmazonServiceException invalidArn = new AmazonServiceException("invalid arn");
+        invalidArn.setErrorCode("InvalidArnException");
+        when(awsIamRoleArnParser.isRoleArn(principalArn)).thenReturn(true);
+        when(awsIamRoleDao.resolveIamPrincipal(principalArn, principalArn, region))
+                .thenReturn(Lists.newArrayList(resolution(principalArn)));
+        when(kmsService.provisionKmsKey(any(), any(), any(), any(), any())).thenThrow(invalidArn);
+
+        try {
+            authenticationService.authenticateWithEnvelopeEncryption(credentials);
+            fail("expected the KMS key provisioning failure to be surfaced");
+        } catch (ApiException e) {
+            assertTrue(e.getApiErrors().contains(DefaultApiError.AUTH_IAM_ROLE_REJECTED));
+        }
+
+        verify(vaultAdminClient, never()).createOrphanToken(any());
+        verify(kmsDataKeyCache, never()).getDataKey(anyString(), anyString());
+    }
+
+    @Test
+    public void test_that_authenticate_records_the_duration_of_each_stage() {
+        String principalArn = "arn:aws:iam::0000000000:role/example";
+        String region = "us-west-2";
+
+        IamPrincipalCredentials credentials = new IamPrincipalCredentials();
+        credentials.setIamPrincipalArn(principalArn);
+        credentials.setRegion(region);
+
+        AwsIamRoleKmsKeyRecord kmsKeyRecord = new AwsIamRoleKmsKeyRecord().setId("kms id").setAwsKmsKeyId("key id");
+        when(awsIamRoleArnParser.isRoleArn(principalArn)).thenReturn(true);
+        when(awsIamRoleDao.resolveIamPrincipal(principalArn, principalArn, region))
+                .thenReturn(Lists.newArrayList(resolution(principalArn).setKmsKey(kmsKeyRecord)));
+        when(vaultAdminClient.createOrphanToken(any())).thenReturn(new VaultAuthResponse().setClientToken("s.token"));
+        AWSKMSClient kmsClient = mock(AWSKMSClient.class);
+        when(kmsClientFactory.getClient(any(Region.class))).thenReturn(kmsClient);
+        when(kmsClient.encrypt(any(EncryptRequest.class)))
+                .thenReturn(new EncryptResult().withCiphertextBlob(ByteBuffer.wrap(new byte[]{1, 2, 3})));
+
+        assertEquals(Base64.encodeBase64String(new byte[]{1, 2, 3}),
+                authenticationService.authenticate(credentials).getAuthData());
+
+        for (String stage : new String[]{"resolve", "kmsKey", "policies", "token", "encrypt"}) {
+            assertEquals(1, metricsCollector.getNamedTimer(IamAuthenticationExecutors.METRIC_PREFIX + stage).getCount());
+        }
+    }
+
+    @Test
+    public void tests_that_authenticateAsync_adds_a_client_token_when_the_user_is_authenticated() {
+        AuthResponse authResponse = new AuthResponse()
+                .setStatus(AuthStatus.SUCCESS)
+                .setData(new AuthData().setUserId("user-id").setUsername("username"));
+        VaultAuthResponse clientToken = new VaultAuthResponse();
+        when(authConnector.authenticateAsync(eq("username"), eq("password"), any()))
+                .thenReturn(CompletableFuture.completedFuture(authResponse));
+        when(authConnector.getGroupsAsync(eq(authResponse.getData()), any()))
+                .thenReturn(CompletableFuture.completedFuture(Sets.newLinkedHashSet("group1")));
+        when(vaultAdminClient.createOrphanToken(any())).thenReturn(clientToken);
+
+        AuthResponse result = authenticationService.authenticateAsync(
+                new UserCredentials("username", "password".getBytes(StandardCharsets.UTF_8))).join();
+
+        assertEquals(clientToken, result.getData().getClientToken());
+        verify(authConnector, never()).authenticate(anyString(), anyString());
+        verify(authConnector, never()).getGroups(any());
+    }
+
+    @Test
+    public void tests_that_authenticateAsync_does_not_look_up_groups_when_mfa_is_required() {
+        AuthResponse authResponse = new AuthResponse()
+                .setStatus(AuthStatus.MFA_REQUIRED)
+                .setData(new AuthData().setUserId("user-id").setUsername("username"));
+        when(authConnector.authenticateAsync(eq("username"), eq("password"), any()))
+                .thenReturn(CompletableFuture.completedFuture(authResponse));
+
+        AuthResponse result = authenticationService.authenticateAsync(
+                new UserCredentials("username", "password".getBytes(StandardCharsets.UTF_8))).join();
+
+        assertEquals(authResponse, result);
+        verify(authConnector, never()).getGroupsAsync(any(), any());
+        verify(vaultAdminClient, never()).createOrphanToken(any());
+    }
+
     @Test
     public void tests_that_refreshUserToken_throws_access_denied_when_an_iam_principal_tries_to_call_it() {
         VaultAuthPrincipal principal = mock(VaultAuthPrincipal.class);
@@ -349,4 +637,95 @@ public class AuthenticationServiceTest {
         assertTrue(e instanceof ApiException);
         assertTrue(((ApiException) e).getApiErrors().contains(DefaultApiError.MAXIMUM_TOKEN_REFRESH_COUNT_REACHED));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void tests_that_revoke_denies_batch_tokens_instead_of_calling_vault() {
+        authenticationService.revoke(principal("b.AAAAAQKq", null));
+
+        verify(vaultAdminClient, never()).revokeOrphanToken(anyString());
+        verify(vaultTokenCache).deny("b.AAAAAQKq");
+        verify(tokenRevocationQueue).deny("b.AAAAAQKq", 3600);
+        verify(tokenRevocationQueue, never()).enqueue(anyString(), anyString(), anyLong());
+    }
+
+    @Test
+    public void tests_that_revoke_revokes_service_tokens_in_vault() {
+        authenticationService.revoke(principal("s.service-token", "token-accessor"));
+
+        verify(vaultTokenCache).deny("s.service-token");
+        verify(vaultAdminClient).revokeOrphanToken("s.service-token");
+    }
+
+    @Test
+    public void tests_that_revoke_denies_the_token_and_does_not_wait_on_vault_when_the_token_is_queued() {
+        when(tokenRevocationQueue.enqueue("s.service-token", "token-accessor", 3600)).thenReturn(true);
+
+        authenticationService.revoke(principal("s.service-token", "token-accessor"));
+
+        InOrder inOrder = inOrder(vaultTokenCache, tokenRevocationQueue);
+        inOrder.verify(vaultTokenCache).deny("s.service-token");
+        inOrder.verify(tokenRevocationQueue).enqueue("s.service-token", "token-accessor", 3600);
+        verify(vaultAdminClient, never()).revokeOrphanToken(anyString());
+    }
+
+    @Test
+    public void tests_that_one_callers_logout_does_not_break_another_callers_login_while_tokens_are_reused() {
+        authenticationService = newAuthenticationService(
+                new IamPrincipalTokenCache(true, 100, 60, "1h", new CodahaleMetricsCollector()));
+        String principalArn = "arn:aws:iam::0000000000:role/example";
+        String region = "us-west-2";
+
+        IamPrincipalCredentials credentials = new IamPrincipalCredentials();
+        credentials.setIamPrincipalArn(principalArn);
+        credentials.setRegion(region);
+
+        AwsIamRoleKmsKeyRecord kmsKeyRecord = new AwsIamRoleKmsKeyRecord().setId("kms id").setAwsKmsKeyId("key id");
+        when(awsIamRoleArnParser.isRoleArn(principalArn)).thenReturn(true);
+        when(awsIamRoleDao.resolveIamPrincipal(principalArn, principalArn, region))
+                .thenReturn(Lists.newArrayList(resolution(principalArn).setKmsKey(kmsKeyRecord)));
+        when(vaultAdminClient.createOrphanToken(any()))
+                .thenReturn(new VaultAuthResponse().setClientToken("s.shared-token"));
+        AWSKMSClient kmsClient = mock(AWSKMSClient.class);
+        when(kmsClient.encrypt(any(EncryptRequest.class)))
+                .thenReturn(new EncryptResult().withCiphertextBlob(ByteBuffer.wrap(new byte[]{1, 2, 3})));
+        when(kmsClientFactory.getClient(any(Region.class))).thenReturn(kmsClient);
+
+        // two instances of the same role log in and share one token
+        String firstCaller = authenticationService.authenticate(credentials).getAuthData();
+        String secondCaller = authenticationService.authenticate(credentials).getAuthData();
+        assertEquals(firstCaller, secondCaller);
+        verify(vaultAdminClient, times(1)).createOrphanToken(any());
+
+        // the first instance logs out
+        Map<String, String> meta = Maps.newHashMap();
+        meta.put(VaultAuthPrincipal.METADATA_KEY_IS_IAM_PRINCIPAL, "true");
+        meta.put(VaultAuthPrincipal.METADATA_KEY_USERNAME, principalArn);
+        authenticationService.revoke(new VaultAuthPrincipal(
+                new VaultClientTokenResponse().setId("s.shared-token").setMeta(meta), "token-accessor", 3600));
+
+        // the token the second instance holds is neither revoked nor denied, and logins keep working
+        verify(vaultAdminClient, never()).revokeOrphanToken(anyString());
+        verify(vaultTokenCache, never()).deny(anyString());
+        verify(tokenRevocationQueue, never()).enqueue(anyString(), anyString(), anyLong());
+        assertNotNull(authenticationService.authenticate(credentials).getAuthData());
+    }
+
+    private VaultAuthPrincipal principal(String token, String accessor) {
+        return new VaultAuthPrincipal(new VaultClientTokenResponse().setId(token), accessor, 3600);
+    }
+
+    @Test
+    public void test_that_encryptWithDataKey_output_can_be_decrypted_with_the_data_key() throws Exception {
+        byte[] dataKey = new byte[32];
+        byte[] iv = new byte[12];
+        iv[0] = 1;
+        byte[] payload = "{\"client_token\": \"token\"}".getBytes(StandardCharsets.UTF_8);
+
+        byte[] encrypted = authenticationService.encryptWithDataKey(dataKey, iv, payload);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(dataKey, "AES"), new GCMParameterSpec(128, iv));
+        assertEquals(new String(payload, StandardCharsets.UTF_8),
+                new String(cipher.doFinal(encrypted), StandardCharsets.UTF_8));
+    }
+}
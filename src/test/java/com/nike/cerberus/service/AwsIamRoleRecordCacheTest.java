@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.service;
+
+import com.nike.cerberus.dao.AwsIamRoleDao;
+import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
+import com.nike.cerberus.record.AwsIamRoleRecord;
+import com.nike.cerberus.record.AwsIamRoleResolutionRecord;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.assertj.core.util.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AwsIamRoleRecordCacheTest {
+
+    private static final String ROLE_ID = "role-id";
+
+    private static final String ROLE_ARN = "arn:aws:iam::1111111111:role/example";
+
+    private static final String REGION = "us-west-2";
+
+    private AwsIamRoleDao awsIamRoleDao;
+
+    private AwsIamRoleRecordCache subject;
+
+    @Before
+    public void setup() {
+        awsIamRoleDao = mock(AwsIamRoleDao.class);
+        subject = new AwsIamRoleRecordCache(awsIamRoleDao, 100, 60, new CodahaleMetricsCollector());
+    }
+
+    @Test
+    public void test_that_existing_records_are_only_read_once() {
+        when(awsIamRoleDao.getIamRole(ROLE_ARN)).thenReturn(Optional.of(new AwsIamRoleRecord().setId(ROLE_ID)));
+        when(awsIamRoleDao.getKmsKey(ROLE_ID, REGION)).thenReturn(Optional.of(kmsKeyRecord("key-id")));
+
+        subject.getIamRole(ROLE_ARN);
+        subject.getKmsKey(ROLE_ID, REGION);
+        assertThat(subject.getIamRole(ROLE_ARN).get().getId()).isEqualTo(ROLE_ID);
+        assertThat(subject.getKmsKey(ROLE_ID, REGION).get().getId()).isEqualTo("key-id");
+
+        verify(awsIamRoleDao, times(1)).getIamRole(ROLE_ARN);
+        verify(awsIamRoleDao, times(1)).getKmsKey(ROLE_ID, REGION);
+    }
+
+    @Test
+    public void test_that_missing_records_are_not_cached() {
+        when(awsIamRoleDao.getKmsKey(ROLE_ID, REGION)).thenReturn(Optional.empty());
+
+        assertThat(subject.getKmsKey(ROLE_ID, REGION).isPresent()).isFalse();
+        assertThat(subject.getKmsKey(ROLE_ID, REGION).isPresent()).isFalse();
+
+        verify(awsIamRoleDao, times(2)).getKmsKey(ROLE_ID, REGION);
+    }
+
+    @Test
+    public void test_that_invalidateIamRoleById_removes_the_role_and_its_keys() {
+        when(awsIamRoleDao.getIamRole(ROLE_ARN)).thenReturn(Optional.of(new AwsIamRoleRecord().setId(ROLE_ID)));
+        when(awsIamRoleDao.getKmsKey(ROLE_ID, REGION)).thenReturn(Optional.of(kmsKeyRecord("key-id")));
+        subject.getIamRole(ROLE_ARN);
+        subject.getKmsKey(ROLE_ID, REGION);
+
+        subject.invalidateIamRoleById(ROLE_ID);
+        subject.getIamRole(ROLE_ARN);
+        subject.getKmsKey(ROLE_ID, REGION);
+
+        verify(awsIamRoleDao, times(2)).getIamRole(ROLE_ARN);
+        verify(awsIamRoleDao, times(2)).getKmsKey(ROLE_ID, REGION);
+    }
+
+    @Test
+    public void test_that_putKmsKey_makes_a_new_key_visible_without_a_read() {
+        subject.putKmsKey(kmsKeyRecord("key-id"));
+
+        assertThat(subject.getKmsKey(ROLE_ID, REGION).get().getId()).isEqualTo("key-id");
+        verify(awsIamRoleDao, times(0)).getKmsKey(ROLE_ID, REGION);
+    }
+
+    @Test
+    public void test_that_resolveIamPrincipal_caches_the_roles_and_keys_it_reads() {
+        AwsIamRoleRecord iamRole = new AwsIamRoleRecord().setId(ROLE_ID).setAwsIamRoleArn(ROLE_ARN);
+        when(awsIamRoleDao.resolveIamPrincipal(ROLE_ARN, ROLE_ARN, REGION)).thenReturn(Lists.newArrayList(
+                new AwsIamRoleResolutionRecord().setAwsIamRoleId(ROLE_ID).setAwsIamRole(iamRole)
+                        .setKmsKey(kmsKeyRecord("key-id"))));
+
+        assertThat(subject.resolveIamPrincipal(ROLE_ARN, ROLE_ARN, REGION)).hasSize(1);
+
+        assertThat(subject.getCachedIamRole(ROLE_ARN).get()).isSameAs(iamRole);
+        assertThat(subject.getCachedKmsKey(ROLE_ID, REGION).get().getId()).isEqualTo("key-id");
+        verify(awsIamRoleDao, times(0)).getIamRole(ROLE_ARN);
+        verify(awsIamRoleDao, times(0)).getKmsKey(ROLE_ID, REGION);
+    }
+
+    @Test
+    public void test_that_an_assumed_role_principal_finds_its_base_role_once_resolved() {
+        String principalArn = "arn:aws:sts::1111111111:assumed-role/example/session";
+        AwsIamRoleRecord iamRole = new AwsIamRoleRecord().setId(ROLE_ID).setAwsIamRoleArn(ROLE_ARN);
+
+        assertThat(subject.getCachedIamRole(principalArn).isPresent()).isFalse();
+
+        subject.putPrincipalIamRole(principalArn, iamRole);
+
+        assertThat(subject.getCachedIamRole(principalArn).get()).isSameAs(iamRole);
+        assertThat(subject.getCachedIamRole(ROLE_ARN).get()).isSameAs(iamRole);
+
+        subject.invalidatePrincipalIamRoles();
+
+        assertThat(subject.getCachedIamRole(principalArn).isPresent()).isFalse();
+        assertThat(subject.getCachedIamRole(ROLE_ARN).get()).isSameAs(iamRole);
+    }
+
+    @Test
+    public void test_that_a_principal_mapping_is_not_used_once_its_role_is_invalidated() {
+        String principalArn = "arn:aws:sts::1111111111:assumed-role/example/session";
+        subject.putPrincipalIamRole(principalArn, new AwsIamRoleRecord().setId(ROLE_ID).setAwsIamRoleArn(ROLE_ARN));
+
+        subject.invalidateIamRoleById(ROLE_ID);
+
+        assertThat(subject.getCachedIamRole(principalArn).isPresent()).isFalse();
+    }
+
+    private AwsIamRoleKmsKeyRecord kmsKeyRecord(final String id) {
+        return new AwsIamRoleKmsKeyRecord().setId(id).setAwsIamRoleId(ROLE_ID).setAwsRegion(REGION);
+    }
+}
@@ -4,6 +4,7 @@ import com.nike.cerberus.dao.AwsIamRoleDao;
 import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
 import com.nike.cerberus.record.AwsIamRoleRecord;
 import com.nike.cerberus.util.DateTimeSupplier;
+import com.google.common.collect.Sets;
 import org.assertj.core.util.Lists;
 import org.junit.Before;
 import org.junit.Test;
@@ -13,7 +14,10 @@ import java.time.OffsetDateTime;
 
 import static com.nike.cerberus.service.KmsService.SOONEST_A_KMS_KEY_CAN_BE_DELETED;
 import static java.time.ZoneOffset.UTC;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -36,6 +40,12 @@ public class CleanUpServiceTest {
     @Mock
     private DateTimeSupplier dateTimeSupplier;
 
+    @Mock
+    private AwsIamRoleRecordCache awsIamRoleRecordCache;
+
+    @Mock
+    private VaultCompositePolicyService vaultCompositePolicyService;
+
     private OffsetDateTime now = OffsetDateTime.now(UTC);
 
     @Before
@@ -43,7 +53,8 @@ public class CleanUpServiceTest {
 
         initMocks(this);
 
-        cleanUpService = new CleanUpService(kmsService, awsIamRoleDao, dateTimeSupplier);
+        cleanUpService = new CleanUpService(kmsService, awsIamRoleDao, dateTimeSupplier, awsIamRoleRecordCache,
+                vaultCompositePolicyService);
     }
 
     @Test
@@ -63,7 +74,7 @@ public class CleanUpServiceTest {
         when(awsIamRoleDao.getInactiveOrOrphanedKmsKeys(inactiveCutoffDate)).thenReturn(Lists.newArrayList(keyRecord));
 
         // perform the call
-        cleanUpService.cleanUpInactiveAndOrphanedKmsKeys(inactivePeriod, 0);
+        cleanUpService.cleanUpInactiveAndOrphanedKmsKeys(inactivePeriod);
 
         verify(awsIamRoleDao).getInactiveOrOrphanedKmsKeys(inactiveCutoffDate);
         verify(kmsService).deleteKmsKeyById(keyRecordId);
@@ -105,6 +116,7 @@ public class CleanUpServiceTest {
 
         verify(awsIamRoleDao).getOrphanedIamRoles();
         verify(awsIamRoleDao).deleteIamRoleById(iamRoleRecordId);
+        verify(awsIamRoleRecordCache).invalidateIamRoleById(iamRoleRecordId);
     }
 
     @Test
@@ -120,4 +132,49 @@ public class CleanUpServiceTest {
 
         cleanUpService.cleanUpOrphanedIamRoles();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void test_that_cleanUpUnreferencedKmsKeys_schedules_deletion_of_unreferenced_keys() {
+
+        String keyRecordId = "key record id";
+        String keyRegion = "key region";
+        String unreferencedKeyArn = "unreferenced key arn";
+        AwsIamRoleKmsKeyRecord keyRecord = mock(AwsIamRoleKmsKeyRecord.class);
+        when(keyRecord.getId()).thenReturn(keyRecordId);
+        when(keyRecord.getAwsRegion()).thenReturn(keyRegion);
+        when(dateTimeSupplier.get()).thenReturn(now);
+
+        when(awsIamRoleDao.getAllKmsKeys()).thenReturn(Lists.newArrayList(keyRecord));
+        when(awsIamRoleDao.getPooledKmsKeyIds()).thenReturn(Lists.newArrayList("pooled-key-record-id"));
+        when(kmsService.findUnreferencedKmsKeys(keyRegion, Sets.newHashSet(keyRecordId, "pooled-key-record-id"), now.minusDays(1)))
+                .thenReturn(Lists.newArrayList(unreferencedKeyArn));
+
+        // perform the call
+        cleanUpService.cleanUpUnreferencedKmsKeys();
+
+        verify(kmsService).scheduleKmsKeyDeletion(unreferencedKeyArn, keyRegion, SOONEST_A_KMS_KEY_CAN_BE_DELETED);
+    }
+
+    @Test
+    public void test_that_cleanUpUnreferencedKmsKeys_skips_keys_assigned_after_the_lookup() {
+
+        String keyRecordId = "key record id";
+        String keyRegion = "key region";
+        String claimedKeyArn = "claimed key arn";
+        AwsIamRoleKmsKeyRecord keyRecord = mock(AwsIamRoleKmsKeyRecord.class);
+        when(keyRecord.getId()).thenReturn(keyRecordId);
+        when(keyRecord.getAwsRegion()).thenReturn(keyRegion);
+        when(dateTimeSupplier.get()).thenReturn(now);
+
+        when(awsIamRoleDao.getAllKmsKeys()).thenReturn(Lists.newArrayList(keyRecord));
+        when(awsIamRoleDao.getPooledKmsKeyIds()).thenReturn(Lists.newArrayList());
+        when(kmsService.findUnreferencedKmsKeys(keyRegion, Sets.newHashSet(keyRecordId), now.minusDays(1)))
+                .thenReturn(Lists.newArrayList(claimedKeyArn));
+        when(awsIamRoleDao.isKmsKeyReferenced(claimedKeyArn)).thenReturn(true);
+
+        // perform the call
+        cleanUpService.cleanUpUnreferencedKmsKeys();
+
+        verify(kmsService, never()).scheduleKmsKeyDeletion(anyString(), anyString(), anyInt());
+    }
+}
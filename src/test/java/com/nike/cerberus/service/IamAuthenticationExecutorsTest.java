@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.service;
+
+import com.nike.backstopper.exception.ApiException;
+import com.nike.cerberus.error.DefaultApiError;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class IamAuthenticationExecutorsTest {
+
+    private final Executor rejectingExecutor = command -> {
+        throw new RejectedExecutionException("queue is full");
+    };
+
+    private IamAuthenticationExecutors subject;
+
+    @Before
+    public void before() {
+        subject = new IamAuthenticationExecutors(Runnable::run, rejectingExecutor, Runnable::run,
+                new CodahaleMetricsCollector());
+    }
+
+    @Test
+    public void test_that_stages_run_on_their_executor() {
+        final CompletableFuture<String> resolved = subject.supplyDb("resolve", () -> "role");
+
+        assertThat(IamAuthenticationExecutors.join(subject.thenApplyDb(resolved, role -> role + "-policies")))
+                .isEqualTo("role-policies");
+    }
+
+    @Test
+    public void test_that_a_rejected_stage_fails_with_service_unavailable() {
+        final CompletableFuture<String> resolved = subject.supplyDb("resolve", () -> "role");
+
+        try {
+            IamAuthenticationExecutors.join(subject.thenApplyRemote(resolved, role -> role + "-key"));
+            fail("expected ApiException");
+        } catch (ApiException e) {
+            assertThat(e.getApiErrors()).containsExactly(DefaultApiError.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    @Test
+    public void test_that_a_combined_stage_is_not_submitted_when_an_input_failed() {
+        final CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("no key"));
+
+        final CompletableFuture<String> combined = subject.thenCombineRemote(failed,
+                CompletableFuture.completedFuture("policies"), (key, policies) -> key + policies);
+
+        try {
+            IamAuthenticationExecutors.join(combined);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("no key");
+        }
+    }
+
+    @Test
+    public void test_that_a_stage_needing_provisioning_runs_on_the_provisioning_executor() {
+        final CompletableFuture<String> resolved = subject.supplyDb("resolve", () -> "role");
+
+        assertThat(IamAuthenticationExecutors.join(subject.thenApplyRemoteOrProvisioning(resolved,
+                role -> true, role -> role + "-key"))).isEqualTo("role-key");
+    }
+
+    @Test
+    public void test_that_a_stage_not_needing_provisioning_runs_on_the_remote_executor() {
+        final CompletableFuture<String> resolved = subject.supplyDb("resolve", () -> "role");
+
+        try {
+            IamAuthenticationExecutors.join(subject.thenApplyRemoteOrProvisioning(resolved,
+                    role -> false, role -> role + "-key"));
+            fail("expected ApiException");
+        } catch (ApiException e) {
+            assertThat(e.getApiErrors()).containsExactly(DefaultApiError.SERVICE_UNAVAILABLE);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.service;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.nike.cerberus.domain.AuthPayloadEncoding;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IamPrincipalTokenCacheTest {
+
+    private static final String ARN = "arn:aws:iam::1111111111:role/example";
+
+    private static final String REGION = "us-west-2";
+
+    private static final String KEY_ID = "key-id";
+
+    private static final AuthPayloadEncoding ENCODING = AuthPayloadEncoding.JSON;
+
+    private static final Set<String> POLICIES = ImmutableSet.of("lookup-self", "sdb-read");
+
+    private static final Map<String, String> METADATA = ImmutableMap.of("username", ARN);
+
+    private AtomicInteger tokensCreated;
+
+    private Supplier<IamPrincipalTokenCache.EncryptedToken> tokenCreator;
+
+    private IamPrincipalTokenCache subject;
+
+    @Before
+    public void setup() {
+        tokensCreated = new AtomicInteger();
+        tokenCreator = () -> {
+            int token = tokensCreated.incrementAndGet();
+            return new IamPrincipalTokenCache.EncryptedToken("token-" + token, "auth-data-" + token);
+        };
+        subject = new IamPrincipalTokenCache(true, 100, 60, "1h", new CodahaleMetricsCollector());
+    }
+
+    @Test
+    public void test_that_repeat_logins_reuse_the_encrypted_token() {
+        IamPrincipalTokenCache.EncryptedToken first =
+                subject.get(ARN, REGION, KEY_ID, ENCODING, POLICIES, METADATA, tokenCreator);
+        IamPrincipalTokenCache.EncryptedToken second =
+                subject.get(ARN, REGION, KEY_ID, ENCODING, POLICIES, METADATA, tokenCreator);
+
+        assertThat(second.getAuthData()).isEqualTo(first.getAuthData());
+        assertThat(tokensCreated.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_a_different_region_key_encoding_or_policy_set_gets_a_new_token() {
+        subject.get(ARN, REGION, KEY_ID, ENCODING, POLICIES, METADATA, tokenCreator);
+        subject.get(ARN, "us-east-1", KEY_ID, ENCODING, POLICIES, METADATA, tokenCreator);
+        subject.get(ARN, REGION, "other-key-id", ENCODING, POLICIES, METADATA, tokenCreator);
+        subject.get(ARN, REGION, KEY_ID, AuthPayloadEncoding.COMPACT_JSON, POLICIES, METADATA, tokenCreator);
+        subject.get(ARN, REGION, KEY_ID, ENCODING, ImmutableSet.of("lookup-self"), METADATA, tokenCreator);
+
+        assertThat(tokensCreated.get()).isEqualTo(5);
+    }
+
+    @Test
+    public void test_that_evict_stops_a_revoked_token_being_reused() {
+        subject.get(ARN, REGION, KEY_ID, ENCODING, POLICIES, METADATA, tokenCreator);
+
+        subject.evict("token-1");
+
+        assertThat(subject.get(ARN, REGION, KEY_ID, ENCODING, POLICIES, METADATA, tokenCreator).getAuthData())
+                .isEqualTo("auth-data-2");
+    }
+
+    @Test
+    public void test_that_invalidateAll_drops_every_token() {
+        subject.get(ARN, REGION, KEY_ID, ENCODING, POLICIES, METADATA, tokenCreator);
+
+        subject.invalidateAll();
+        subject.get(ARN, REGION, KEY_ID, ENCODING, POLICIES, METADATA, tokenCreator);
+
+        assertThat(tokensCreated.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_that_tokens_are_not_reused_when_disabled() {
+        subject = new IamPrincipalTokenCache(false, 100, 60, "1h", new CodahaleMetricsCollector());
+
+        subject.get(ARN, REGION, KEY_ID, ENCODING, POLICIES, METADATA, tokenCreator);
+        subject.get(ARN, REGION, KEY_ID, ENCODING, POLICIES, METADATA, tokenCreator);
+
+        assertThat(tokensCreated.get()).isEqualTo(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_that_a_max_age_longer_than_the_token_ttl_is_rejected() {
+        new IamPrincipalTokenCache(true, 100, 3600, "1h", new CodahaleMetricsCollector());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_that_a_max_age_longer_than_the_token_ttl_override_is_rejected() {
+        new IamPrincipalTokenCache(true, 100, 300, "5m", new CodahaleMetricsCollector());
+    }
+
+    @Test
+    public void test_that_the_max_age_is_not_checked_when_reuse_is_disabled() {
+        new IamPrincipalTokenCache(false, 100, 3600, "5m", new CodahaleMetricsCollector());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.service;
+
+import com.codahale.metrics.Gauge;
+import com.nike.cerberus.dao.AwsIamRoleDao;
+import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
+import com.nike.cerberus.util.DateTimeSupplier;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.assertj.core.util.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KmsKeyPolicyValidationServiceTest {
+
+    private static final String PRINCIPAL_ARN = "arn:aws:iam::1111111111:role/example";
+
+    private KmsService kmsService;
+
+    private AwsIamRoleDao awsIamRoleDao;
+
+    private DateTimeSupplier dateTimeSupplier;
+
+    private ScheduledExecutorService executor;
+
+    private CodahaleMetricsCollector metricsCollector;
+
+    private KmsKeyPolicyValidationService subject;
+
+    @Before
+    public void setup() {
+        kmsService = mock(KmsService.class);
+        awsIamRoleDao = mock(AwsIamRoleDao.class);
+        dateTimeSupplier = mock(DateTimeSupplier.class);
+        executor = mock(ScheduledExecutorService.class);
+        metricsCollector = new CodahaleMetricsCollector();
+        subject = new KmsKeyPolicyValidationService(kmsService, awsIamRoleDao, dateTimeSupplier, metricsCollector,
+                executor, 60, 1000);
+    }
+
+    @Test
+    public void test_that_requestValidation_queues_due_keys_without_validating_them() {
+        AwsIamRoleKmsKeyRecord kmsKeyRecord = new AwsIamRoleKmsKeyRecord().setId("key-id");
+        when(kmsService.kmsPolicyNeedsValidation(kmsKeyRecord)).thenReturn(true);
+
+        subject.requestValidation(kmsKeyRecord, PRINCIPAL_ARN);
+        subject.requestValidation(kmsKeyRecord, PRINCIPAL_ARN);
+
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, times(1)).schedule(task.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        verify(kmsService, never()).validateKeyAndPolicyNow(kmsKeyRecord, PRINCIPAL_ARN);
+        assertThat(queueDepth()).isEqualTo(1);
+
+        task.getValue().run();
+
+        verify(kmsService).validateKeyAndPolicyNow(kmsKeyRecord, PRINCIPAL_ARN);
+        assertThat(queueDepth()).isEqualTo(0);
+        assertThat(metricsCollector.getNamedTimer(KmsKeyPolicyValidationService.METRIC_LATENCY).getCount())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_requestValidation_does_not_queue_keys_that_are_not_due() {
+        AwsIamRoleKmsKeyRecord kmsKeyRecord = new AwsIamRoleKmsKeyRecord().setId("key-id");
+        when(kmsService.kmsPolicyNeedsValidation(kmsKeyRecord)).thenReturn(false);
+
+        subject.requestValidation(kmsKeyRecord, PRINCIPAL_ARN);
+
+        verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void test_that_sweep_only_queues_keys_that_have_been_used() {
+        AwsIamRoleKmsKeyRecord usedKey = new AwsIamRoleKmsKeyRecord().setId("used-key-id");
+        AwsIamRoleKmsKeyRecord unusedKey = new AwsIamRoleKmsKeyRecord().setId("unused-key-id");
+        when(kmsService.kmsPolicyNeedsValidation(usedKey)).thenReturn(false);
+        when(kmsService.getKmsKeyPolicyValidationIntervalMillis()).thenReturn(TimeUnit.HOURS.toMillis(1));
+        when(dateTimeSupplier.get()).thenReturn(OffsetDateTime.now());
+        when(awsIamRoleDao.getKmsKeysLastValidatedBefore(any(), any())).thenReturn(Lists.newArrayList(usedKey, unusedKey));
+
+        subject.requestValidation(usedKey, PRINCIPAL_ARN);
+        subject.sweep();
+
+        verify(awsIamRoleDao).getKmsKeysLastValidatedBefore(eq(Lists.newArrayList("used-key-id")), any());
+
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, times(1)).schedule(task.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        task.getValue().run();
+
+        verify(kmsService).validateKeyAndPolicyNow(usedKey, PRINCIPAL_ARN);
+        verify(kmsService, never()).validateKeyAndPolicyNow(eq(unusedKey), any());
+    }
+
+    @Test
+    public void test_that_sweep_reads_used_keys_in_batches() {
+        when(kmsService.getKmsKeyPolicyValidationIntervalMillis()).thenReturn(TimeUnit.HOURS.toMillis(1));
+        when(dateTimeSupplier.get()).thenReturn(OffsetDateTime.now());
+        for (int i = 0; i <= KmsKeyPolicyValidationService.SWEEP_BATCH_SIZE; i++) {
+            subject.requestValidation(new AwsIamRoleKmsKeyRecord().setId("key-id-" + i), PRINCIPAL_ARN);
+        }
+
+        subject.sweep();
+
+        ArgumentCaptor<List> ids = ArgumentCaptor.forClass(List.class);
+        verify(awsIamRoleDao, times(2)).getKmsKeysLastValidatedBefore(ids.capture(), any());
+        assertThat(ids.getAllValues().get(0)).hasSize(KmsKeyPolicyValidationService.SWEEP_BATCH_SIZE);
+        assertThat(ids.getAllValues().get(1)).hasSize(1);
+    }
+
+    @Test
+    public void test_that_sweep_does_not_query_when_no_keys_were_used() {
+        subject.sweep();
+
+        verify(awsIamRoleDao, never()).getKmsKeysLastValidatedBefore(any(), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private int queueDepth() {
+        return ((Gauge<Integer>) metricsCollector.getMetricRegistry().getGauges()
+                .get(KmsKeyPolicyValidationService.METRIC_QUEUE_DEPTH)).getValue();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.service;
+
+import com.nike.cerberus.aws.KmsCallPriority;
+import com.nike.cerberus.dao.AwsIamRoleDao;
+import com.nike.cerberus.record.AwsKmsKeyPoolRecord;
+import com.nike.cerberus.util.DateTimeSupplier;
+import com.nike.cerberus.util.UuidSupplier;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.OffsetDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KmsKeyPoolServiceTest {
+
+    private static final String REGION = "us-west-2";
+
+    private static final String UNASSIGNED_POLICY = "unassigned policy";
+
+    private KmsService kmsService;
+
+    private AwsIamRoleDao awsIamRoleDao;
+
+    private UuidSupplier uuidSupplier;
+
+    private KmsKeyPoolService subject;
+
+    @Before
+    public void setup() {
+        kmsService = mock(KmsService.class);
+        awsIamRoleDao = mock(AwsIamRoleDao.class);
+        uuidSupplier = mock(UuidSupplier.class);
+        KmsPolicyService kmsPolicyService = mock(KmsPolicyService.class);
+        DateTimeSupplier dateTimeSupplier = mock(DateTimeSupplier.class);
+        when(kmsPolicyService.generateUnassignedKmsPolicy()).thenReturn(UNASSIGNED_POLICY);
+        when(dateTimeSupplier.get()).thenReturn(OffsetDateTime.now());
+
+        subject = new KmsKeyPoolService(kmsService, kmsPolicyService, awsIamRoleDao, uuidSupplier, dateTimeSupplier,
+                " us-west-2, ", 3);
+    }
+
+    @Test
+    public void test_that_refill_tops_the_pool_up_to_the_target_size() {
+        when(awsIamRoleDao.countPooledKmsKeys(REGION)).thenReturn(1);
+        when(uuidSupplier.get()).thenReturn("id-1", "id-2");
+        when(kmsService.createKmsKey("id-1", REGION, UNASSIGNED_POLICY, KmsCallPriority.HOUSEKEEPING)).thenReturn("arn-1");
+        when(kmsService.createKmsKey("id-2", REGION, UNASSIGNED_POLICY, KmsCallPriority.HOUSEKEEPING)).thenReturn("arn-2");
+
+        assertThat(subject.refill(REGION)).isEqualTo(2);
+
+        verify(awsIamRoleDao, times(2)).createPooledKmsKey(any(AwsKmsKeyPoolRecord.class));
+    }
+
+    @Test
+    public void test_that_refill_does_nothing_when_the_pool_is_full() {
+        when(awsIamRoleDao.countPooledKmsKeys(REGION)).thenReturn(3);
+
+        subject.refillAll();
+
+        verify(kmsService, never()).createKmsKey(anyString(), anyString(), anyString(), any(KmsCallPriority.class));
+    }
+
+    @Test
+    public void test_that_a_key_that_cannot_be_pooled_is_scheduled_for_deletion() {
+        when(awsIamRoleDao.countPooledKmsKeys(REGION)).thenReturn(2);
+        when(uuidSupplier.get()).thenReturn("id-1");
+        when(kmsService.createKmsKey("id-1", REGION, UNASSIGNED_POLICY, KmsCallPriority.HOUSEKEEPING)).thenReturn("arn-1");
+        when(awsIamRoleDao.createPooledKmsKey(any(AwsKmsKeyPoolRecord.class))).thenThrow(new IllegalStateException("db down"));
+
+        subject.refillAll();
+
+        verify(kmsService).scheduleKmsKeyDeletionQuietly("arn-1", REGION);
+    }
+}
@@ -36,8 +36,8 @@ public class KmsPolicyServiceTest {
         String rootUserArn = "arn:aws:iam::1111111111:root";
         String adminRoleArn = "arn:aws:iam::1111111111:role/admin";
         String cmsRoleArn = "arn:aws:iam::1111111111:role/cms-iam-role";
-        kmsPolicyService = new KmsPolicyService(rootUserArn, adminRoleArn, cmsRoleArn);
         objectMapper = new ObjectMapper();
+        kmsPolicyService = new KmsPolicyService(rootUserArn, adminRoleArn, cmsRoleArn, objectMapper);
     }
 
     @Test
@@ -56,6 +56,14 @@ public class KmsPolicyServiceTest {
         expectedPolicyStream.close();
     }
 
+    @Test
+    public void test_that_generateUnassignedKmsPolicy_is_the_standard_policy_without_a_consumer() {
+        String unassignedPolicy = kmsPolicyService.generateUnassignedKmsPolicy();
+
+        assertFalse(StringUtils.contains(unassignedPolicy, KmsPolicyService.CERBERUS_CONSUMER_SID));
+        assertTrue(kmsPolicyService.cmsHasKeyDeletePermissions(unassignedPolicy));
+    }
+
     @Test
     public void test_that_isPolicyValid_returns_true_with_a_valid_policy() throws IOException {
         InputStream policy = getClass().getClassLoader()
@@ -190,4 +198,71 @@ public class KmsPolicyServiceTest {
 
         policy.close();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void test_that_isPolicyValid_accepts_principal_and_action_arrays_and_a_single_statement_object() {
+        String policyJson = "{\"Statement\":[" +
+                "{\"Sid\":\"CMS Role Key Access\",\"Effect\":\"Allow\"," +
+                "\"Principal\":{\"AWS\":[\"arn:aws:iam::1111111111:role/other\",\"arn:aws:iam::1111111111:role/cms-iam-role\"]}," +
+                "\"Action\":[\"kms:ScheduleKeyDeletion\",\"kms:CancelKeyDeletion\"],\"Resource\":\"*\"}," +
+                "{\"Sid\":\"Target IAM Role Has Decrypt Action\",\"Effect\":\"Allow\"," +
+                "\"Principal\":{\"AWS\":\"" + CERBERUS_CONSUMER_IAM_ROLE_ARN + "\"},\"Action\":\"kms:Decrypt\",\"Resource\":\"*\"}]}";
+        String singleStatementJson = "{\"Statement\":{\"Sid\":\"CMS Role Key Access\",\"Effect\":\"Allow\"," +
+                "\"Principal\":{\"AWS\":\"arn:aws:iam::1111111111:role/cms-iam-role\"}," +
+                "\"Action\":[\"kms:ScheduleKeyDeletion\",\"kms:CancelKeyDeletion\"],\"Resource\":\"*\"}}";
+
+        assertTrue(kmsPolicyService.isPolicyValid(policyJson, CERBERUS_CONSUMER_IAM_ROLE_ARN));
+        assertTrue(kmsPolicyService.isPolicyValid(policyJson, CERBERUS_CONSUMER_IAM_ROLE_ARN));
+        assertFalse(kmsPolicyService.isPolicyValid(policyJson, "arn:aws:iam::1234567890:role/someone-else"));
+        assertTrue(kmsPolicyService.cmsHasKeyDeletePermissions(singleStatementJson));
+    }
+
+    @Test
+    public void test_that_isManagedByThisCms_only_accepts_policies_managed_by_this_cms_role_alone() {
+        String otherEnvironmentPolicy = "{\"Statement\":[{\"Sid\":\"CMS Role Key Access\",\"Effect\":\"Allow\"," +
+                "\"Principal\":{\"AWS\":\"arn:aws:iam::1111111111:role/other-cms-iam-role\"}," +
+                "\"Action\":[\"kms:ScheduleKeyDeletion\",\"kms:CancelKeyDeletion\"],\"Resource\":\"*\"}]}";
+        String sharedPolicy = "{\"Statement\":[{\"Sid\":\"CMS Role Key Access\",\"Effect\":\"Allow\"," +
+                "\"Principal\":{\"AWS\":[\"arn:aws:iam::1111111111:role/cms-iam-role\"," +
+                "\"arn:aws:iam::1111111111:role/other-cms-iam-role\"]}," +
+                "\"Action\":[\"kms:ScheduleKeyDeletion\",\"kms:CancelKeyDeletion\"],\"Resource\":\"*\"}]}";
+
+        assertTrue(kmsPolicyService.isManagedByThisCms(kmsPolicyService.generateStandardKmsPolicy(CERBERUS_CONSUMER_IAM_ROLE_ARN)));
+        assertTrue(kmsPolicyService.isManagedByThisCms(kmsPolicyService.generateUnassignedKmsPolicy()));
+        assertFalse(kmsPolicyService.isManagedByThisCms(otherEnvironmentPolicy));
+        assertFalse(kmsPolicyService.isManagedByThisCms(sharedPolicy));
+        assertTrue(kmsPolicyService.cmsHasKeyDeletePermissions(sharedPolicy));
+    }
+
+    @Test
+    public void test_that_cmsHasKeyDeletePermissions_returns_false_when_cms_statement_denies() {
+        String policyJson = "{\"Statement\":[{\"Sid\":\"CMS Role Key Access\",\"Effect\":\"Deny\"," +
+                "\"Principal\":{\"AWS\":\"arn:aws:iam::1111111111:role/cms-iam-role\"}," +
+                "\"Action\":[\"kms:ScheduleKeyDeletion\",\"kms:CancelKeyDeletion\"],\"Resource\":\"*\"}]}";
+
+        assertFalse(kmsPolicyService.cmsHasKeyDeletePermissions(policyJson));
+    }
+
+    @Test
+    public void test_that_isPolicyValid_returns_false_when_the_policy_is_not_json() {
+        assertFalse(kmsPolicyService.isPolicyValid("{not json", CERBERUS_CONSUMER_IAM_ROLE_ARN));
+        assertFalse(kmsPolicyService.cmsHasKeyDeletePermissions("{not json"));
+    }
+
+    @Test
+    public void test_that_overwriteCMSPolicyAndRemoveConsumer_leaves_one_cms_statement_and_no_consumer() throws IOException {
+        InputStream policy = getClass().getClassLoader()
+                .getResourceAsStream("com/nike/cerberus/service/invalid-cerberus-kms-key-policy-cms-cannot-delete.json");
+        String policyJsonAsString = IOUtils.toString(policy, "UTF-8");
+
+        String result = kmsPolicyService.overwriteCMSPolicyAndRemoveConsumer(policyJsonAsString);
+
+        assertTrue(kmsPolicyService.cmsHasKeyDeletePermissions(result));
+        assertFalse(StringUtils.contains(result, KmsPolicyService.CERBERUS_CONSUMER_SID));
+        assertEquals(1, StringUtils.countMatches(result, KmsPolicyService.CERBERUS_MANAGEMENT_SERVICE_SID));
+        assertTrue(StringUtils.contains(result, "Root User Has All Actions"));
+        assertTrue(StringUtils.contains(result, "Admin Role Has All Actions"));
+
+        policy.close();
+    }
+}
@@ -11,10 +11,14 @@ import com.amazonaws.services.kms.model.GetKeyPolicyResult;
 import com.amazonaws.services.kms.model.KeyMetadata;
 import com.amazonaws.services.kms.model.KeyState;
 import com.amazonaws.services.kms.model.KeyUsageType;
+import com.amazonaws.services.kms.model.PutKeyPolicyRequest;
+import com.amazonaws.services.kms.model.ScheduleKeyDeletionRequest;
 import com.nike.backstopper.exception.ApiException;
+import com.nike.cerberus.aws.KmsCallPriority;
 import com.nike.cerberus.aws.KmsClientFactory;
 import com.nike.cerberus.dao.AwsIamRoleDao;
 import com.nike.cerberus.record.AwsIamRoleKmsKeyRecord;
+import com.nike.cerberus.record.AwsKmsKeyPoolRecord;
 import com.nike.cerberus.util.DateTimeSupplier;
 import com.nike.cerberus.util.UuidSupplier;
 import org.junit.Before;
@@ -27,6 +31,8 @@ import java.util.Optional;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.anyObject;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.mock;
@@ -42,6 +48,7 @@ public class KmsServiceTest {
     private KmsClientFactory kmsClientFactory;
     private KmsPolicyService kmsPolicyService;
     private DateTimeSupplier dateTimeSupplier;
+    private AwsIamRoleRecordCache awsIamRoleRecordCache;
 
     private KmsService kmsService;
 
@@ -52,8 +59,10 @@ public class KmsServiceTest {
         kmsClientFactory = mock(KmsClientFactory.class);
         kmsPolicyService = mock(KmsPolicyService.class);
         dateTimeSupplier = mock(DateTimeSupplier.class);
+        awsIamRoleRecordCache = mock(AwsIamRoleRecordCache.class);
 
-        kmsService = new KmsService(awsIamRoleDao, uuidSupplier, kmsClientFactory, kmsPolicyService, dateTimeSupplier);
+        kmsService = new KmsService(awsIamRoleDao, uuidSupplier, kmsClientFactory, kmsPolicyService, dateTimeSupplier,
+                awsIamRoleRecordCache);
     }
 
     @Test
@@ -73,7 +82,7 @@ public class KmsServiceTest {
         when(kmsPolicyService.generateStandardKmsPolicy(arn)).thenReturn(policy);
 
         AWSKMSClient client = mock(AWSKMSClient.class);
-        when(kmsClientFactory.getClient(awsRegion)).thenReturn(client);
+        when(kmsClientFactory.getClient(eq(awsRegion), any(KmsCallPriority.class))).thenReturn(client);
 
         CreateKeyRequest request = new CreateKeyRequest();
         request.setKeyUsage(KeyUsageType.ENCRYPT_DECRYPT);
@@ -85,6 +94,8 @@ public class KmsServiceTest {
         when(metadata.getArn()).thenReturn(arn);
         when(createKeyResult.getKeyMetadata()).thenReturn(metadata);
         when(client.createKey(request)).thenReturn(createKeyResult);
+        when(awsIamRoleDao.getKmsKey(iamRoleId, awsRegion)).thenReturn(Optional.empty());
+        when(awsIamRoleDao.claimPooledKmsKey(awsRegion)).thenReturn(Optional.empty());
 
         // invoke method under test
         String actualResult = kmsService.provisionKmsKey(iamRoleId, arn, awsRegion, user, dateTime);
@@ -107,6 +118,136 @@ public class KmsServiceTest {
         awsIamRoleKmsKeyRecord.setLastUpdatedTs(dateTime);
         awsIamRoleKmsKeyRecord.setLastValidatedTs(dateTime);
         verify(awsIamRoleDao).createIamRoleKmsKey(awsIamRoleKmsKeyRecord);
+        verify(awsIamRoleRecordCache).putKmsKey(awsIamRoleKmsKeyRecord);
+    }
+
+    @Test
+    public void test_provisionKmsKey_uses_key_provisioned_concurrently_by_another_node() {
+
+        String iamRoleId = "role-id";
+        String awsRegion = "aws-region";
+        String arn = "arn";
+
+        AwsIamRoleKmsKeyRecord existingKmsKey = new AwsIamRoleKmsKeyRecord()
+                .setAwsIamRoleId(iamRoleId)
+                .setAwsRegion(awsRegion)
+                .setAwsKmsKeyId("existing key arn");
+        when(awsIamRoleDao.getKmsKey(iamRoleId, awsRegion)).thenReturn(Optional.of(existingKmsKey));
+
+        String actualResult = kmsService.provisionKmsKey(iamRoleId, arn, awsRegion, "user", OffsetDateTime.now());
+
+        assertEquals("existing key arn", actualResult);
+        verify(kmsClientFactory, never()).getClient(anyString(), any(KmsCallPriority.class));
+        verify(awsIamRoleDao, never()).createIamRoleKmsKey(anyObject());
+    }
+
+    @Test
+    public void test_provisionKmsKey_binds_a_pooled_key_instead_of_creating_one() {
+
+        String iamRoleId = "role-id";
+        String awsRegion = "aws-region";
+        String principalArn = "principal arn";
+        String policy = "policy";
+        OffsetDateTime dateTime = OffsetDateTime.now();
+
+        AwsKmsKeyPoolRecord pooledKmsKey = new AwsKmsKeyPoolRecord()
+                .setId("pooled-key-record-id")
+                .setAwsRegion(awsRegion)
+                .setAwsKmsKeyId("pooled key arn");
+        when(awsIamRoleDao.getKmsKey(iamRoleId, awsRegion)).thenReturn(Optional.empty());
+        when(awsIamRoleDao.claimPooledKmsKey(awsRegion)).thenReturn(Optional.of(pooledKmsKey));
+        when(kmsPolicyService.generateStandardKmsPolicy(principalArn)).thenReturn(policy);
+
+        AWSKMSClient client = mock(AWSKMSClient.class);
+        when(kmsClientFactory.getClient(eq(awsRegion), any(KmsCallPriority.class))).thenReturn(client);
+
+        String actualResult = kmsService.provisionKmsKey(iamRoleId, principalArn, awsRegion, "user", dateTime);
+
+        assertEquals("pooled key arn", actualResult);
+        verify(client).putKeyPolicy(new PutKeyPolicyRequest()
+                .withKeyId("pooled key arn")
+                .withPolicyName("default")
+                .withPolicy(policy));
+        verify(client, never()).createKey(any(CreateKeyRequest.class));
+        verify(client, never()).createAlias(any(CreateAliasRequest.class));
+        verify(uuidSupplier, never()).get();
+
+        AwsIamRoleKmsKeyRecord awsIamRoleKmsKeyRecord = new AwsIamRoleKmsKeyRecord();
+        awsIamRoleKmsKeyRecord.setId("pooled-key-record-id");
+        awsIamRoleKmsKeyRecord.setAwsIamRoleId(iamRoleId);
+        awsIamRoleKmsKeyRecord.setAwsKmsKeyId("pooled key arn");
+        awsIamRoleKmsKeyRecord.setAwsRegion(awsRegion);
+        awsIamRoleKmsKeyRecord.setCreatedBy("user");
+        awsIamRoleKmsKeyRecord.setLastUpdatedBy("user");
+        awsIamRoleKmsKeyRecord.setCreatedTs(dateTime);
+        awsIamRoleKmsKeyRecord.setLastUpdatedTs(dateTime);
+        awsIamRoleKmsKeyRecord.setLastValidatedTs(dateTime);
+        verify(awsIamRoleDao).createIamRoleKmsKey(awsIamRoleKmsKeyRecord);
+    }
+
+    @Test
+    public void test_provisionKmsKey_schedules_deletion_of_new_key_when_record_cannot_be_saved() {
+
+        String iamRoleId = "role-id";
+        String awsRegion = "aws-region";
+        String arn = "arn";
+
+        when(uuidSupplier.get()).thenReturn("awsIamRoleKmsKeyId");
+        when(awsIamRoleDao.getKmsKey(iamRoleId, awsRegion)).thenReturn(Optional.empty());
+        when(awsIamRoleDao.claimPooledKmsKey(awsRegion)).thenReturn(Optional.empty());
+        when(awsIamRoleDao.createIamRoleKmsKey(any(AwsIamRoleKmsKeyRecord.class))).thenThrow(new IllegalStateException("duplicate key"));
+
+        AWSKMSClient client = mock(AWSKMSClient.class);
+        when(kmsClientFactory.getClient(eq(awsRegion), any(KmsCallPriority.class))).thenReturn(client);
+        CreateKeyResult createKeyResult = mock(CreateKeyResult.class);
+        KeyMetadata metadata = mock(KeyMetadata.class);
+        when(metadata.getArn()).thenReturn(arn);
+        when(createKeyResult.getKeyMetadata()).thenReturn(metadata);
+        when(client.createKey(any(CreateKeyRequest.class))).thenReturn(createKeyResult);
+
+        try {
+            kmsService.provisionKmsKey(iamRoleId, arn, awsRegion, "user", OffsetDateTime.now());
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        verify(client).scheduleKeyDeletion(new ScheduleKeyDeletionRequest()
+                .withKeyId(arn)
+                .withPendingWindowInDays(KmsService.SOONEST_A_KMS_KEY_CAN_BE_DELETED));
+        verify(awsIamRoleRecordCache, never()).putKmsKey(anyObject());
+    }
+
+    @Test
+    public void test_provisionKmsKey_uses_key_saved_by_another_node_and_deletes_its_own() {
+
+        String iamRoleId = "role-id";
+        String awsRegion = "aws-region";
+        String arn = "arn";
+
+        AwsIamRoleKmsKeyRecord winningKmsKey = new AwsIamRoleKmsKeyRecord()
+                .setAwsIamRoleId(iamRoleId)
+                .setAwsRegion(awsRegion)
+                .setAwsKmsKeyId("winning key arn");
+        when(uuidSupplier.get()).thenReturn("awsIamRoleKmsKeyId");
+        when(awsIamRoleDao.getKmsKey(iamRoleId, awsRegion)).thenReturn(Optional.empty(), Optional.of(winningKmsKey));
+        when(awsIamRoleDao.claimPooledKmsKey(awsRegion)).thenReturn(Optional.empty());
+        when(awsIamRoleDao.createIamRoleKmsKey(any(AwsIamRoleKmsKeyRecord.class))).thenThrow(new IllegalStateException("duplicate key"));
+
+        AWSKMSClient client = mock(AWSKMSClient.class);
+        when(kmsClientFactory.getClient(eq(awsRegion), any(KmsCallPriority.class))).thenReturn(client);
+        CreateKeyResult createKeyResult = mock(CreateKeyResult.class);
+        KeyMetadata metadata = mock(KeyMetadata.class);
+        when(metadata.getArn()).thenReturn(arn);
+        when(createKeyResult.getKeyMetadata()).thenReturn(metadata);
+        when(client.createKey(any(CreateKeyRequest.class))).thenReturn(createKeyResult);
+
+        String actualResult = kmsService.provisionKmsKey(iamRoleId, arn, awsRegion, "user", OffsetDateTime.now());
+
+        assertEquals("winning key arn", actualResult);
+        verify(client).scheduleKeyDeletion(new ScheduleKeyDeletionRequest()
+                .withKeyId(arn)
+                .withPendingWindowInDays(KmsService.SOONEST_A_KMS_KEY_CAN_BE_DELETED));
+        verify(awsIamRoleRecordCache).putKmsKey(winningKmsKey);
     }
 
     @Test
@@ -131,7 +272,7 @@ public class KmsServiceTest {
                                 new KeyMetadata()
                                         .withKeyState(KeyState.Enabled)));
 
-        when(kmsClientFactory.getClient(kmsCMKRegion)).thenReturn(client);
+        when(kmsClientFactory.getClient(eq(kmsCMKRegion), any(KmsCallPriority.class))).thenReturn(client);
 
         GetKeyPolicyResult result = mock(GetKeyPolicyResult.class);
         when(result.getPolicy()).thenReturn(policy);
@@ -171,7 +312,7 @@ public class KmsServiceTest {
         when(dateTimeSupplier.get()).thenReturn(now);
         kmsService.validateKeyAndPolicy(kmsKey, iamPrincipalArn);
 
-        verify(kmsClientFactory, never()).getClient(anyString());
+        verify(kmsClientFactory, never()).getClient(anyString(), any(KmsCallPriority.class));
         verify(kmsPolicyService, never()).isPolicyValid(anyString(), anyString());
     }
 
@@ -193,7 +334,7 @@ public class KmsServiceTest {
         when(kmsKey.getLastValidatedTs()).thenReturn(lastValidated);
 
         AWSKMSClient client = mock(AWSKMSClient.class);
-        when(kmsClientFactory.getClient(kmsCMKRegion)).thenReturn(client);
+        when(kmsClientFactory.getClient(eq(kmsCMKRegion), any(KmsCallPriority.class))).thenReturn(client);
 
         GetKeyPolicyResult result = mock(GetKeyPolicyResult.class);
         when(result.getPolicy()).thenReturn(policy);
@@ -229,6 +370,7 @@ public class KmsServiceTest {
         expected.setAwsRegion(awsRegion);
 
         verify(awsIamRoleDao).updateIamRoleKmsKey(expected);
+        verify(awsIamRoleRecordCache).invalidateKmsKey(iamRoleId, awsRegion);
     }
 
     @Test(expected = ApiException.class)
@@ -251,7 +393,7 @@ public class KmsServiceTest {
         String kmsKeyId = "kms key id";
         String state = "state";
         AWSKMSClient kmsClient = mock(AWSKMSClient.class);
-        when(kmsClientFactory.getClient(awsRegion)).thenReturn(kmsClient);
+        when(kmsClientFactory.getClient(eq(awsRegion), any(KmsCallPriority.class))).thenReturn(kmsClient);
         when(kmsClient.describeKey(anyObject())).thenReturn(
                 new DescribeKeyResult()
                         .withKeyMetadata(
@@ -269,7 +411,7 @@ public class KmsServiceTest {
         String awsRegion = "aws region";
 
         AWSKMSClient kmsClient = mock(AWSKMSClient.class);
-        when(kmsClientFactory.getClient(awsRegion)).thenReturn(kmsClient);
+        when(kmsClientFactory.getClient(eq(awsRegion), any(KmsCallPriority.class))).thenReturn(kmsClient);
         when(kmsClient.describeKey(anyObject())).thenReturn(
                 new DescribeKeyResult()
                         .withKeyMetadata(
@@ -287,7 +429,7 @@ public class KmsServiceTest {
         String awsRegion = "aws region";
 
         AWSKMSClient kmsClient = mock(AWSKMSClient.class);
-        when(kmsClientFactory.getClient(awsRegion)).thenReturn(kmsClient);
+        when(kmsClientFactory.getClient(eq(awsRegion), any(KmsCallPriority.class))).thenReturn(kmsClient);
         when(kmsClient.describeKey(anyObject())).thenReturn(
                 new DescribeKeyResult()
                         .withKeyMetadata(
@@ -305,7 +447,7 @@ public class KmsServiceTest {
         String awsRegion = "aws region";
 
         AWSKMSClient kmsClient = mock(AWSKMSClient.class);
-        when(kmsClientFactory.getClient(awsRegion)).thenReturn(kmsClient);
+        when(kmsClientFactory.getClient(eq(awsRegion), any(KmsCallPriority.class))).thenReturn(kmsClient);
         when(kmsClient.describeKey(anyObject())).thenReturn(
                 new DescribeKeyResult()
                         .withKeyMetadata(
@@ -331,7 +473,7 @@ public class KmsServiceTest {
         when(kmsKey.getAwsRegion()).thenReturn(awsRegion);
 
         AWSKMSClient kmsClient = mock(AWSKMSClient.class);
-        when(kmsClientFactory.getClient(awsRegion)).thenReturn(kmsClient);
+        when(kmsClientFactory.getClient(eq(awsRegion), any(KmsCallPriority.class))).thenReturn(kmsClient);
         when(kmsClient.describeKey(anyObject())).thenReturn(
                 new DescribeKeyResult()
                         .withKeyMetadata(
@@ -355,7 +497,7 @@ public class KmsServiceTest {
         when(kmsKey.getAwsRegion()).thenReturn(awsRegion);
 
         AWSKMSClient kmsClient = mock(AWSKMSClient.class);
-        when(kmsClientFactory.getClient(awsRegion)).thenReturn(kmsClient);
+        when(kmsClientFactory.getClient(eq(awsRegion), any(KmsCallPriority.class))).thenReturn(kmsClient);
         when(kmsClient.describeKey(anyObject())).thenReturn(
                 new DescribeKeyResult()
                         .withKeyMetadata(
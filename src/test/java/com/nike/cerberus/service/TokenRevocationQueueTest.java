@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.service;
+
+import com.codahale.metrics.Gauge;
+import com.google.common.collect.Lists;
+import com.nike.cerberus.dao.TokenRevocationDao;
+import com.nike.cerberus.record.TokenRevocationRecord;
+import com.nike.cerberus.util.DateTimeSupplier;
+import com.nike.cerberus.util.UuidSupplier;
+import com.nike.cerberus.vault.VaultTokenRevocationClient;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import com.nike.vault.client.VaultClientException;
+import com.nike.vault.client.VaultServerException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TokenRevocationQueueTest {
+
+    private static final String ID = "revocation-id";
+
+    private static final String TOKEN = "s.token";
+
+    private static final String TOKEN_HASH = DigestUtils.sha256Hex(TOKEN);
+
+    private static final String ACCESSOR = "token-accessor";
+
+    private static final OffsetDateTime NOW = OffsetDateTime.of(2017, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+
+    private VaultTokenRevocationClient vaultTokenRevocationClient;
+
+    private TokenRevocationDao tokenRevocationDao;
+
+    private CodahaleMetricsCollector metricsCollector;
+
+    private TokenRevocationQueue subject;
+
+    @Before
+    public void setup() {
+        vaultTokenRevocationClient = mock(VaultTokenRevocationClient.class);
+        tokenRevocationDao = mock(TokenRevocationDao.class);
+        metricsCollector = new CodahaleMetricsCollector();
+        subject = newSubject(true);
+
+        when(tokenRevocationDao.getOldestTokenRevocationCreatedTs()).thenReturn(Optional.empty());
+        when(tokenRevocationDao.claimTokenRevocation(eq(ID), any(), any())).thenReturn(true);
+    }
+
+    private TokenRevocationQueue newSubject(boolean enabled) {
+        UuidSupplier uuidSupplier = mock(UuidSupplier.class);
+        when(uuidSupplier.get()).thenReturn(ID);
+        DateTimeSupplier dateTimeSupplier = mock(DateTimeSupplier.class);
+        when(dateTimeSupplier.get()).thenReturn(NOW);
+        return new TokenRevocationQueue(vaultTokenRevocationClient, tokenRevocationDao, uuidSupplier, dateTimeSupplier, enabled,
+                2, 3, 1000, 10, 60, metricsCollector, Runnable::run);
+    }
+
+    @Test
+    public void test_that_enqueue_stores_the_accessor_and_token_hash_without_calling_vault() {
+        when(tokenRevocationDao.createTokenRevocationIfBelowLimit(any(), eq(2))).thenReturn(true);
+
+        assertThat(subject.enqueue(TOKEN, ACCESSOR, 3600)).isTrue();
+
+        ArgumentCaptor<TokenRevocationRecord> record = ArgumentCaptor.forClass(TokenRevocationRecord.class);
+        verify(tokenRevocationDao).createTokenRevocationIfBelowLimit(record.capture(), eq(2));
+        assertThat(record.getValue()).isEqualTo(new TokenRevocationRecord()
+                .setId(ID)
+                .setTokenHash(TOKEN_HASH)
+                .setVaultAccessor(ACCESSOR)
+                .setAttempts(0)
+                .setCreatedTs(NOW)
+                .setNextAttemptTs(NOW)
+                .setExpiresTs(NOW.plusSeconds(3600)));
+        verify(vaultTokenRevocationClient, never()).revokeAccessor(anyString());
+    }
+
+    @Test
+    public void test_that_enqueue_returns_false_for_tokens_without_an_accessor_or_expiry() {
+        assertThat(subject.enqueue(TOKEN, null, 3600)).isFalse();
+        assertThat(subject.enqueue(TOKEN, ACCESSOR, 0)).isFalse();
+
+        verify(tokenRevocationDao, never()).createTokenRevocationIfBelowLimit(any(), anyInt());
+    }
+
+    @Test
+    public void test_that_isRevoked_checks_the_token_hash() {
+        when(tokenRevocationDao.isTokenRevoked(TOKEN_HASH, NOW)).thenReturn(true);
+
+        assertThat(subject.isRevoked(TOKEN)).isTrue();
+        assertThat(subject.isRevoked("s.other-token")).isFalse();
+    }
+
+    @Test
+    public void test_that_isRevoked_returns_false_when_the_db_fails() {
+        when(tokenRevocationDao.isTokenRevoked(anyString(), any())).thenThrow(new RuntimeException("connection refused"));
+
+        assertThat(subject.isRevoked(TOKEN)).isFalse();
+    }
+
+    @Test
+    public void test_that_poll_claims_and_revokes_due_tokens() {
+        when(tokenRevocationDao.countTokenRevocations()).thenReturn(1);
+        when(tokenRevocationDao.getOldestTokenRevocationCreatedTs()).thenReturn(Optional.of(NOW.minusSeconds(5)));
+        when(tokenRevocationDao.getTokenRevocationsDue(NOW, 10)).thenReturn(Lists.newArrayList(due()));
+
+        subject.poll();
+
+        verify(tokenRevocationDao).deleteExpiredTokenRevocations(NOW);
+        verify(tokenRevocationDao).claimTokenRevocation(ID, NOW.minusSeconds(1), NOW.plusSeconds(60));
+        verify(vaultTokenRevocationClient).revokeAccessor(ACCESSOR);
+        verify(tokenRevocationDao).deleteTokenRevocation(ID);
+        assertThat(gauge(TokenRevocationQueue.METRIC_QUEUE_DEPTH)).isEqualTo(1);
+        assertThat(gauge(TokenRevocationQueue.METRIC_OLDEST_AGE_MILLIS)).isEqualTo(5000L);
+    }
+
+    @Test
+    public void test_that_poll_skips_revocations_claimed_by_another_node() {
+        when(tokenRevocationDao.claimTokenRevocation(eq(ID), any(), any())).thenReturn(false);
+        when(tokenRevocationDao.getTokenRevocationsDue(NOW, 10)).thenReturn(Lists.newArrayList(due()));
+
+        subject.poll();
+
+        verify(vaultTokenRevocationClient, never()).revokeAccessor(anyString());
+        verify(tokenRevocationDao, never()).deleteTokenRevocation(anyString());
+    }
+
+    @Test
+    public void test_that_failed_revocations_are_rescheduled_with_back_off() {
+        doThrow(new VaultClientException("connection reset")).when(vaultTokenRevocationClient).revokeAccessor(ACCESSOR);
+        when(tokenRevocationDao.getTokenRevocationsDue(NOW, 10)).thenReturn(Lists.newArrayList(due().setAttempts(1)));
+
+        subject.poll();
+
+        verify(tokenRevocationDao).rescheduleTokenRevocation(ID, NOW.plusSeconds(2));
+        verify(tokenRevocationDao, never()).deleteTokenRevocation(anyString());
+        assertThat(metricsCollector.getNamedCounter(TokenRevocationQueue.METRIC_FAILURES).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_revocations_are_abandoned_after_the_last_attempt_but_the_token_stays_rejected() {
+        doThrow(new VaultClientException("connection reset")).when(vaultTokenRevocationClient).revokeAccessor(ACCESSOR);
+        when(tokenRevocationDao.getTokenRevocationsDue(NOW, 10)).thenReturn(Lists.newArrayList(due().setAttempts(2)));
+
+        subject.poll();
+
+        verify(tokenRevocationDao).abandonTokenRevocation(ID);
+        verify(tokenRevocationDao, never()).deleteTokenRevocation(anyString());
+        verify(tokenRevocationDao, never()).rescheduleTokenRevocation(anyString(), any());
+        assertThat(metricsCollector.getNamedCounter(TokenRevocationQueue.METRIC_ABANDONED).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_tokens_that_do_not_exist_are_not_retried() {
+        doThrow(new VaultServerException(400, Lists.newArrayList("invalid token")))
+                .when(vaultTokenRevocationClient).revokeAccessor(ACCESSOR);
+        when(tokenRevocationDao.getTokenRevocationsDue(NOW, 10)).thenReturn(Lists.newArrayList(due()));
+
+        subject.poll();
+
+        verify(tokenRevocationDao).deleteTokenRevocation(ID);
+        assertThat(metricsCollector.getNamedCounter(TokenRevocationQueue.METRIC_FAILURES).getCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_that_enqueue_returns_false_when_the_queue_is_full() {
+        when(tokenRevocationDao.createTokenRevocationIfBelowLimit(any(), eq(2))).thenReturn(false);
+
+        assertThat(subject.enqueue(TOKEN, ACCESSOR, 3600)).isFalse();
+        assertThat(metricsCollector.getNamedCounter(TokenRevocationQueue.METRIC_OVERFLOWS).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_enqueue_returns_false_when_the_db_fails() {
+        when(tokenRevocationDao.createTokenRevocationIfBelowLimit(any(), anyInt()))
+                .thenThrow(new RuntimeException("connection refused"));
+
+        assertThat(subject.enqueue(TOKEN, ACCESSOR, 3600)).isFalse();
+    }
+
+    @Test
+    public void test_that_enqueue_returns_false_when_disabled() {
+        subject = newSubject(false);
+
+        assertThat(subject.enqueue(TOKEN, ACCESSOR, 3600)).isFalse();
+        verify(tokenRevocationDao, never()).createTokenRevocationIfBelowLimit(any(), anyInt());
+    }
+
+    @Test
+    public void test_that_deny_stores_the_token_hash_without_an_accessor_even_when_disabled() {
+        subject = newSubject(false);
+        when(tokenRevocationDao.createTokenRevocation(any())).thenReturn(1);
+
+        assertThat(subject.deny(TOKEN, 3600)).isTrue();
+
+        ArgumentCaptor<TokenRevocationRecord> record = ArgumentCaptor.forClass(TokenRevocationRecord.class);
+        verify(tokenRevocationDao).deleteExpiredTokenRevocations(NOW);
+        verify(tokenRevocationDao).createTokenRevocation(record.capture());
+        assertThat(record.getValue()).isEqualTo(new TokenRevocationRecord()
+                .setId(ID)
+                .setTokenHash(TOKEN_HASH)
+                .setAttempts(0)
+                .setCreatedTs(NOW)
+                .setExpiresTs(NOW.plusSeconds(3600)));
+        verify(vaultTokenRevocationClient, never()).revokeAccessor(anyString());
+    }
+
+    @Test
+    public void test_that_deny_returns_false_for_tokens_without_an_expiry() {
+        assertThat(subject.deny(TOKEN, 0)).isFalse();
+
+        verify(tokenRevocationDao, never()).createTokenRevocation(any());
+    }
+
+    @Test
+    public void test_that_deny_returns_false_when_the_db_fails() {
+        when(tokenRevocationDao.createTokenRevocation(any())).thenThrow(new RuntimeException("connection refused"));
+
+        assertThat(subject.deny(TOKEN, 3600)).isFalse();
+    }
+
+    @Test
+    public void test_that_isRevoked_checks_the_db_when_disabled() {
+        subject = newSubject(false);
+        when(tokenRevocationDao.isTokenRevoked(TOKEN_HASH, NOW)).thenReturn(true);
+
+        assertThat(subject.isRevoked(TOKEN)).isTrue();
+    }
+
+    private TokenRevocationRecord due() {
+        return new TokenRevocationRecord()
+                .setId(ID)
+                .setTokenHash(TOKEN_HASH)
+                .setVaultAccessor(ACCESSOR)
+                .setAttempts(0)
+                .setCreatedTs(NOW.minusSeconds(5))
+                .setNextAttemptTs(NOW.minusSeconds(1))
+                .setExpiresTs(NOW.plusSeconds(3600));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T gauge(String name) {
+        return ((Gauge<T>) metricsCollector.getMetricRegistry().getGauges().get(name)).getValue();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.service;
+
+import com.codahale.metrics.Gauge;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.nike.cerberus.dao.SafeDepositBoxDao;
+import com.nike.cerberus.record.SafeDepositBoxRoleRecord;
+import com.nike.cerberus.record.UserGroupSafeDepositBoxRoleRecord;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UserGroupPolicyIndexTest {
+
+    private SafeDepositBoxDao safeDepositBoxDao;
+
+    private ScheduledExecutorService executor;
+
+    private CodahaleMetricsCollector metricsCollector;
+
+    private UserGroupPolicyIndex subject;
+
+    @Before
+    public void setup() {
+        safeDepositBoxDao = mock(SafeDepositBoxDao.class);
+        executor = mock(ScheduledExecutorService.class);
+        metricsCollector = new CodahaleMetricsCollector();
+        subject = new UserGroupPolicyIndex(safeDepositBoxDao, true, 60, metricsCollector, executor);
+
+        when(safeDepositBoxDao.getAllUserGroupSafeDepositBoxRoles()).thenReturn(Lists.newArrayList(
+                userGroupRole("Group-A", "sdb-one", "owner"),
+                userGroupRole("group-a", "sdb-two", "read"),
+                userGroupRole("group-b", "sdb-three", "write")));
+    }
+
+    @Test
+    public void test_that_getSafeDepositBoxRoles_unions_the_roles_of_the_groups_from_a_single_load() {
+        List<SafeDepositBoxRoleRecord> first = subject.getSafeDepositBoxRoles(Sets.newHashSet("GROUP-A", "group-c"));
+        List<SafeDepositBoxRoleRecord> second = subject.getSafeDepositBoxRoles(Sets.newHashSet("group-a", "group-b"));
+
+        assertThat(sdbNames(first)).containsOnly("sdb-one", "sdb-two");
+        assertThat(sdbNames(second)).containsOnly("sdb-one", "sdb-two", "sdb-three");
+        assertThat(first.get(0).getSafeDepositBoxPath()).startsWith("app/");
+        verify(safeDepositBoxDao, times(1)).getAllUserGroupSafeDepositBoxRoles();
+        verify(safeDepositBoxDao, never()).getUserAssociatedSafeDepositBoxRoles(any());
+        assertThat(indexedGroups()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_that_refreshUserGroup_replaces_only_that_group() {
+        subject.getSafeDepositBoxRoles(Collections.singleton("group-a"));
+        when(safeDepositBoxDao.getUserAssociatedSafeDepositBoxRoles(Collections.singleton("group-b")))
+                .thenReturn(Lists.newArrayList(role("sdb-three", "write"), role("sdb-four", "read")));
+
+        subject.refreshUserGroup("group-b");
+
+        assertThat(sdbNames(subject.getSafeDepositBoxRoles(Sets.newHashSet("group-a", "group-b"))))
+                .containsOnly("sdb-one", "sdb-two", "sdb-three", "sdb-four");
+        verify(safeDepositBoxDao, times(1)).getAllUserGroupSafeDepositBoxRoles();
+    }
+
+    @Test
+    public void test_that_refreshUserGroup_removes_groups_without_permissions() {
+        subject.getSafeDepositBoxRoles(Collections.singleton("group-a"));
+
+        subject.refreshUserGroup("GROUP-A");
+
+        assertThat(subject.getSafeDepositBoxRoles(Collections.singleton("group-a"))).isEmpty();
+        assertThat(indexedGroups()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_refreshUserGroup_does_nothing_before_the_index_is_built() {
+        subject.refreshUserGroup("group-a");
+
+        verify(safeDepositBoxDao, never()).getUserAssociatedSafeDepositBoxRoles(any());
+        verify(safeDepositBoxDao, never()).getAllUserGroupSafeDepositBoxRoles();
+    }
+
+    @Test
+    public void test_that_invalidateAll_reloads_the_index_on_next_use() {
+        subject.getSafeDepositBoxRoles(Collections.singleton("group-a"));
+
+        subject.invalidateAll();
+        subject.getSafeDepositBoxRoles(Collections.singleton("group-a"));
+
+        verify(safeDepositBoxDao, times(2)).getAllUserGroupSafeDepositBoxRoles();
+    }
+
+    @Test
+    public void test_that_the_index_is_rebuilt_periodically() {
+        subject.getSafeDepositBoxRoles(Collections.singleton("group-a"));
+        subject.getSafeDepositBoxRoles(Collections.singleton("group-a"));
+
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, times(1)).scheduleWithFixedDelay(task.capture(), eq(60L), eq(60L), eq(TimeUnit.SECONDS));
+
+        when(safeDepositBoxDao.getAllUserGroupSafeDepositBoxRoles()).thenReturn(Lists.newArrayList(
+                userGroupRole("group-a", "sdb-five", "read")));
+        task.getValue().run();
+
+        assertThat(sdbNames(subject.getSafeDepositBoxRoles(Collections.singleton("group-a"))))
+                .containsOnly("sdb-five");
+    }
+
+    @Test
+    public void test_that_a_disabled_index_queries_the_db() {
+        subject = new UserGroupPolicyIndex(safeDepositBoxDao, false, 60, metricsCollector, executor);
+        Set<String> groups = Sets.newHashSet("group-a");
+        when(safeDepositBoxDao.getUserAssociatedSafeDepositBoxRoles(groups))
+                .thenReturn(Lists.newArrayList(role("sdb-one", "owner")));
+
+        assertThat(sdbNames(subject.getSafeDepositBoxRoles(groups))).containsOnly("sdb-one");
+        subject.refreshUserGroup("group-a");
+
+        verify(safeDepositBoxDao, times(1)).getUserAssociatedSafeDepositBoxRoles(any());
+        verify(safeDepositBoxDao, never()).getAllUserGroupSafeDepositBoxRoles();
+        verify(executor, never()).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+    }
+
+    static UserGroupSafeDepositBoxRoleRecord userGroupRole(String userGroup, String sdbName, String roleName) {
+        return new UserGroupSafeDepositBoxRoleRecord()
+                .setUserGroupName(userGroup)
+                .setSafeDepositBoxName(sdbName)
+                .setSafeDepositBoxPath("app/" + sdbName + "/")
+                .setRoleName(roleName);
+    }
+
+    private static SafeDepositBoxRoleRecord role(String sdbName, String roleName) {
+        return new SafeDepositBoxRoleRecord()
+                .setSafeDepositBoxName(sdbName)
+                .setSafeDepositBoxPath("app/" + sdbName + "/")
+                .setRoleName(roleName);
+    }
+
+    private static List<String> sdbNames(List<SafeDepositBoxRoleRecord> sdbRoles) {
+        return sdbRoles.stream().map(SafeDepositBoxRoleRecord::getSafeDepositBoxName).collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private int indexedGroups() {
+        return ((Gauge<Integer>) metricsCollector.getMetricRegistry().getGauges()
+                .get(UserGroupPolicyIndex.METRIC_INDEXED_GROUPS)).getValue();
+    }
+}
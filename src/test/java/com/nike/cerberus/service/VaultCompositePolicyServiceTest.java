@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.service;
+
+import com.nike.cerberus.dao.VaultCompositePolicyDao;
+import com.nike.cerberus.record.SafeDepositBoxRoleRecord;
+import com.nike.cerberus.record.VaultCompositePolicyRecord;
+import com.nike.cerberus.util.DateTimeSupplier;
+import com.nike.cerberus.util.Slugger;
+import com.nike.vault.client.VaultAdminClient;
+import com.nike.vault.client.model.VaultPolicy;
+import org.assertj.core.util.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class VaultCompositePolicyServiceTest {
+
+    private static final OffsetDateTime NOW = OffsetDateTime.of(2017, 6, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    private VaultAdminClient vaultAdminClient;
+
+    private VaultCompositePolicyDao vaultCompositePolicyDao;
+
+    private DateTimeSupplier dateTimeSupplier;
+
+    private VaultPolicyService vaultPolicyService;
+
+    @Before
+    public void setup() {
+        vaultAdminClient = mock(VaultAdminClient.class);
+        vaultCompositePolicyDao = mock(VaultCompositePolicyDao.class);
+        dateTimeSupplier = mock(DateTimeSupplier.class);
+        when(dateTimeSupplier.get()).thenReturn(NOW);
+        vaultPolicyService = new VaultPolicyService(vaultAdminClient, new Slugger());
+    }
+
+    @Test
+    public void test_that_getPolicyNames_returns_standard_policies_when_disabled() {
+        Set<String> policies = newService(false).getPolicyNames(Lists.newArrayList(
+                sdbRole("My SDB", "app/my-sdb/", "read"),
+                sdbRole("Other SDB", "app/other-sdb/", "owner")));
+
+        assertThat(policies).containsOnly("my-sdb-read", "other-sdb-owner");
+        verify(vaultCompositePolicyDao, never()).touchCompositePolicy(anyString(), any());
+        verify(vaultAdminClient, never()).putPolicy(anyString(), any());
+    }
+
+    @Test
+    public void test_that_getPolicyNames_writes_one_composite_policy_per_permission_set() {
+        VaultCompositePolicyService subject = newService(true);
+
+        Set<String> first = subject.getPolicyNames(Lists.newArrayList(
+                sdbRole("My SDB", "app/my-sdb/", "read"),
+                sdbRole("Other SDB", "app/other-sdb/", "owner")));
+        Set<String> second = subject.getPolicyNames(Lists.newArrayList(
+                sdbRole("Other SDB", "app/other-sdb/", "owner"),
+                sdbRole("My SDB", "app/my-sdb/", "read")));
+
+        assertThat(first).hasSize(1);
+        assertThat(second).isEqualTo(first);
+        String policyName = first.iterator().next();
+        assertThat(policyName).startsWith(VaultCompositePolicyService.COMPOSITE_POLICY_PREFIX);
+
+        ArgumentCaptor<VaultPolicy> policy = ArgumentCaptor.forClass(VaultPolicy.class);
+        verify(vaultCompositePolicyDao, times(1)).touchCompositePolicy(policyName, NOW);
+        verify(vaultAdminClient, times(1)).putPolicy(eq(policyName), policy.capture());
+        assertThat(policy.getValue().getRules()).isEqualTo(
+                "path \"secret/app/my-sdb/*\" { capabilities = [\"read\", \"list\"] }\n" +
+                "path \"secret/app/other-sdb/*\" { capabilities = [\"create\", \"read\", \"update\", \"delete\", \"list\"] }");
+    }
+
+    @Test
+    public void test_that_getPolicyNames_uses_a_new_composite_policy_when_the_permissions_change() {
+        VaultCompositePolicyService subject = newService(true);
+
+        Set<String> read = subject.getPolicyNames(Lists.newArrayList(sdbRole("My SDB", "app/my-sdb/", "read")));
+        Set<String> write = subject.getPolicyNames(Lists.newArrayList(sdbRole("My SDB", "app/my-sdb/", "write")));
+
+        assertThat(write).isNotEqualTo(read);
+        verify(vaultAdminClient, times(2)).putPolicy(anyString(), any());
+    }
+
+    @Test
+    public void test_that_getPolicyNames_returns_no_policies_for_no_permissions() {
+        assertThat(newService(true).getPolicyNames(Lists.newArrayList())).isEmpty();
+        verify(vaultAdminClient, never()).putPolicy(anyString(), any());
+    }
+
+    @Test
+    public void test_that_deleteUnusedCompositePolicies_only_deletes_policies_still_unused_once_locked() {
+        OffsetDateTime cutoff = NOW.minusSeconds(172800);
+        when(vaultCompositePolicyDao.getCompositePoliciesLastUsedBefore(cutoff)).thenReturn(Lists.newArrayList(
+                new VaultCompositePolicyRecord().setName("composite-unused"),
+                new VaultCompositePolicyRecord().setName("composite-touched")));
+        when(vaultCompositePolicyDao.lockCompositePolicyLastUsedBefore("composite-unused", cutoff)).thenReturn(true);
+        when(vaultCompositePolicyDao.lockCompositePolicyLastUsedBefore("composite-touched", cutoff)).thenReturn(false);
+
+        newService(true).deleteUnusedCompositePolicies();
+
+        verify(vaultAdminClient).deletePolicy("composite-unused");
+        verify(vaultCompositePolicyDao).deleteCompositePolicy("composite-unused");
+        verify(vaultAdminClient, never()).deletePolicy("composite-touched");
+        verify(vaultCompositePolicyDao, never()).deleteCompositePolicy("composite-touched");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_that_the_grace_period_must_exceed_the_touch_interval() {
+        new VaultCompositePolicyService(vaultPolicyService, vaultCompositePolicyDao, dateTimeSupplier, true, 3600, 60);
+    }
+
+    private VaultCompositePolicyService newService(boolean enabled) {
+        return new VaultCompositePolicyService(vaultPolicyService, vaultCompositePolicyDao, dateTimeSupplier,
+                enabled, 3600, 172800);
+    }
+
+    private SafeDepositBoxRoleRecord sdbRole(String name, String path, String role) {
+        return new SafeDepositBoxRoleRecord().setSafeDepositBoxName(name).setSafeDepositBoxPath(path).setRoleName(role);
+    }
+}
@@ -8,6 +8,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 public class VaultPolicyServiceTest {
 
@@ -68,4 +69,22 @@ public class VaultPolicyServiceTest {
         assertEquals("path \"secret//secret/foo*\" { capabilities = [\"read\", \"list\"] }", policy.getRules());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void test_buildPolicyForRole_read() {
+        VaultPolicy policy = vaultPolicyService.buildPolicyForRole(sdbPath, "READ");
+        assertEquals("path \"secret//secret/foo*\" { capabilities = [\"read\", \"list\"] }", policy.getRules());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_buildPolicyForRole_unknown_role() {
+        vaultPolicyService.buildPolicyForRole(sdbPath, "admin");
+    }
+
+    @Test
+    public void test_putPolicy_writes_policy() {
+        VaultPolicy policy = vaultPolicyService.buildReadPolicy(sdbPath);
+        vaultPolicyService.putPolicy("composite-policy", policy);
+        verify(vaultAdminClient).putPolicy("composite-policy", policy);
+    }
+
+}
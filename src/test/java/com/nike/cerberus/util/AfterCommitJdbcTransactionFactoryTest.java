@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.util;
+
+import org.apache.ibatis.transaction.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AfterCommitJdbcTransactionFactoryTest {
+
+    private AfterCommitJdbcTransactionFactory factory;
+
+    private Connection connection;
+
+    private AtomicInteger runs;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = new AfterCommitJdbcTransactionFactory();
+        connection = mock(Connection.class);
+        when(connection.getAutoCommit()).thenReturn(false);
+        runs = new AtomicInteger();
+    }
+
+    @Test
+    public void test_that_callbacks_run_immediately_without_a_transaction() {
+        AfterCommitJdbcTransactionFactory.runAfterCommit(runs::incrementAndGet);
+
+        assertThat(runs.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_that_callbacks_are_deferred_until_commit() throws Exception {
+        Transaction transaction = factory.newTransaction(connection);
+
+        AfterCommitJdbcTransactionFactory.runAfterCommit(runs::incrementAndGet);
+        assertThat(runs.get()).isEqualTo(0);
+
+        transaction.commit();
+        verify(connection).commit();
+        assertThat(runs.get()).isEqualTo(1);
+
+        transaction.close();
+        AfterCommitJdbcTransactionFactory.runAfterCommit(runs::incrementAndGet);
+        assertThat(runs.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_that_callbacks_are_discarded_on_rollback() throws Exception {
+        Transaction transaction = factory.newTransaction(connection);
+
+        AfterCommitJdbcTransactionFactory.runAfterCommit(runs::incrementAndGet);
+        transaction.rollback();
+        transaction.close();
+
+        assertThat(runs.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_that_a_failing_callback_does_not_fail_the_commit() throws Exception {
+        Transaction transaction = factory.newTransaction(connection);
+
+        AfterCommitJdbcTransactionFactory.runAfterCommit(() -> {
+            throw new IllegalStateException("boom");
+        });
+        AfterCommitJdbcTransactionFactory.runAfterCommit(runs::incrementAndGet);
+        transaction.commit();
+        transaction.close();
+
+        assertThat(runs.get()).isEqualTo(1);
+    }
+}
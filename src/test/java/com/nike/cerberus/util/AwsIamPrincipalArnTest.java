@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.nike.cerberus.util;
+
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the AwsIamPrincipalArn class
+ */
+public class AwsIamPrincipalArnTest {
+
+    private static final Pattern IAM_PRINCIPAL_ARN_PATTERN =
+            Pattern.compile(AwsIamRoleArnParser.AWS_IAM_PRINCIPAL_ARN_REGEX);
+
+    private static final Pattern IAM_ROLE_ARN_PATTERN =
+            Pattern.compile("^arn:aws:iam::(?<accountId>\\d+?):role/(?<roleName>.+)$");
+
+    private static final Pattern IAM_ASSUMED_ROLE_ARN_PATTERN =
+            Pattern.compile("^arn:aws:sts::(?<accountId>\\d+?):assumed-role/(?<roleName>.+)/.+$");
+
+    private static final String[] ARNS = {
+            "arn:aws:iam::1111111111:role/name",
+            "arn:aws:iam::1111111111:role/path/to/name",
+            "arn:aws:iam::1111111111:role/",
+            "arn:aws:iam::1111111111:roles/name",
+            "arn:aws:iam::1111111111:instance-profile/name",
+            "arn:aws:iam::1111111111:instance-profile/path/to/name",
+            "arn:aws:iam::1111111111:user/name",
+            "arn:aws:iam::1111111111:group/path/to/group",
+            "arn:aws:iam::1111111111:groups/name",
+            "arn:aws:iam::1111111111:/a/b",
+            "arn:aws:iam::1111111111:/a",
+            "arn:aws:iam::1111111111:a:b/c",
+            "arn:aws:iam::1111111111:role",
+            "arn:aws:iam::11a1:role/name",
+            "arn:aws:iam:::role/name",
+            "arn:aws:iam:us-west-2:1111111111:role/name",
+            "arn:aws:iam::1111111111",
+            "arn:aws:iam::1111111111:",
+            "arn:aws:sts::1111111111:federated-user/name",
+            "arn:aws:sts::1111111111:assumed-role/name/session",
+            "arn:aws:sts::1111111111:assumed-role/path/to/name/session",
+            "arn:aws:sts::1111111111:assumed-role/name",
+            "arn:aws:sts::1111111111:assumed-role//session",
+            "arn:aws:sts::1111111111:assumed-role/name/",
+            "arn:aws:sts::1111111111:role/name",
+            "arn:aws:s3::1111111111:role/name",
+            "arn:aws-cn:iam::1111111111:role/name",
+            "arn:aws:iam::1111111111:role/na\u2028me",
+            "arn:aws:iamx::1111111111:role/name",
+            "arn:aws:iam",
+            "hullabaloo",
+            ""
+    };
+
+    @Test
+    public void parse_accepts_the_same_arns_as_the_principal_regex() {
+        for (String arn : ARNS) {
+            assertEquals(arn, IAM_PRINCIPAL_ARN_PATTERN.matcher(arn).find(), AwsIamPrincipalArn.parse(arn) != null);
+        }
+    }
+
+    @Test
+    public void isRoleArn_agrees_with_the_role_regex() {
+        for (String arn : ARNS) {
+            AwsIamPrincipalArn parsed = AwsIamPrincipalArn.parse(arn);
+            Matcher matcher = IAM_ROLE_ARN_PATTERN.matcher(arn);
+            boolean isRoleArn = matcher.find();
+
+            assertEquals(arn, isRoleArn, parsed != null && parsed.isRoleArn());
+            if (isRoleArn) {
+                assertEquals(arn, matcher.group("accountId"), parsed.getAccountId());
+                assertEquals(arn, matcher.group("roleName"), parsed.getResourceName());
+                assertEquals(arn, arn, parsed.getRoleArn());
+            }
+        }
+    }
+
+    @Test
+    public void getRoleArn_agrees_with_the_assumed_role_and_principal_regexes() {
+        for (String arn : ARNS) {
+            AwsIamPrincipalArn parsed = AwsIamPrincipalArn.parse(arn);
+            if (parsed == null || parsed.isRoleArn()) {
+                continue;
+            }
+
+            Matcher matcher = (parsed.isAssumedRoleArn() ? IAM_ASSUMED_ROLE_ARN_PATTERN : IAM_PRINCIPAL_ARN_PATTERN)
+                    .matcher(arn);
+            if (matcher.find()) {
+                assertEquals(arn, String.format(AwsIamRoleArnParser.AWS_IAM_ROLE_ARN_TEMPLATE,
+                        matcher.group("accountId"), matcher.group("roleName")), parsed.getRoleArn());
+            } else {
+                assertNull(arn, parsed.getRoleArn());
+            }
+        }
+    }
+
+    @Test
+    public void parse_splits_an_assumed_role_arn() {
+        AwsIamPrincipalArn parsed = AwsIamPrincipalArn.parse("arn:aws:sts::2222222222:assumed-role/sir/alfred/role/session-name");
+
+        assertNotNull(parsed);
+        assertEquals("2222222222", parsed.getAccountId());
+        assertEquals("assumed-role", parsed.getResourceType());
+        assertEquals("sir/alfred/role/session-name", parsed.getResourceName());
+        assertTrue(parsed.isAssumedRoleArn());
+        assertFalse(parsed.isRoleArn());
+        assertEquals("arn:aws:iam::2222222222:role/sir/alfred/role", parsed.getRoleArn());
+    }
+
+    @Test
+    public void parse_rejects_a_trailing_line_terminator() {
+        assertNull(AwsIamPrincipalArn.parse("arn:aws:iam::1111111111:role/name\n"));
+    }
+
+    @Test
+    public void parse_returns_null_for_null() {
+        assertNull(AwsIamPrincipalArn.parse(null));
+    }
+}
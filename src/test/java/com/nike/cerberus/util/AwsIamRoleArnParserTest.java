@@ -26,6 +26,8 @@ import java.util.regex.Pattern;
 import static org.junit.Assert.assertEquals;
 
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -104,4 +106,26 @@ public class AwsIamRoleArnParserTest {
         assertFalse(awsIamRoleArnParser.isRoleArn("arn:aws:sts::1111111111:federated-user/my_user"));
         assertFalse(awsIamRoleArnParser.isRoleArn("arn:aws:iam::1111111111:group/path/to/group"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void parse_returns_the_same_instance_for_a_recently_seen_arn() {
+
+        String arn = "arn:aws:iam::5555555555:instance-profile/cached";
+
+        assertSame(awsIamRoleArnParser.parse(arn), new AwsIamRoleArnParser().parse(arn));
+    }
+
+    @Test
+    public void parse_returns_null_for_invalid_arns() {
+
+        assertNull(awsIamRoleArnParser.parse("hullabaloo"));
+        assertNull(awsIamRoleArnParser.parse(null));
+    }
+
+    @Test
+    public void isRoleArn_returns_false_for_invalid_arns() {
+
+        assertFalse(awsIamRoleArnParser.isRoleArn("brouhaha"));
+        assertFalse(awsIamRoleArnParser.isRoleArn(null));
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.util;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VaultDurationsTest {
+
+    @Test
+    public void test_that_durations_are_converted_to_seconds() {
+        assertThat(VaultDurations.toSeconds("3600")).isEqualTo(3600);
+        assertThat(VaultDurations.toSeconds("90s")).isEqualTo(90);
+        assertThat(VaultDurations.toSeconds("30m")).isEqualTo(1800);
+        assertThat(VaultDurations.toSeconds("1h")).isEqualTo(3600);
+        assertThat(VaultDurations.toSeconds("1h30m")).isEqualTo(5400);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_that_invalid_durations_are_rejected() {
+        VaultDurations.toSeconds("1 day");
+    }
+}
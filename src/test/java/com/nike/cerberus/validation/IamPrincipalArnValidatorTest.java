@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.nike.cerberus.validation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.validation.ConstraintValidatorContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests the IamPrincipalArnValidator class
+ */
+public class IamPrincipalArnValidatorTest {
+
+    private ConstraintValidatorContext mockConstraintValidatorContext;
+
+    private IamPrincipalArnValidator subject;
+
+    @Before
+    public void setup() {
+        mockConstraintValidatorContext = mock(ConstraintValidatorContext.class);
+        subject = new IamPrincipalArnValidator();
+    }
+
+    @Test
+    public void null_arn_is_valid() {
+        assertThat(subject.isValid(null, mockConstraintValidatorContext)).isTrue();
+    }
+
+    @Test
+    public void principal_arns_are_valid() {
+        assertThat(subject.isValid("arn:aws:iam::123:role/abc", mockConstraintValidatorContext)).isTrue();
+        assertThat(subject.isValid("arn:aws:iam::123:instance-profile/abc", mockConstraintValidatorContext)).isTrue();
+        assertThat(subject.isValid("arn:aws:sts::123:assumed-role/abc/session", mockConstraintValidatorContext)).isTrue();
+    }
+
+    @Test
+    public void group_and_malformed_arns_are_invalid() {
+        assertThat(subject.isValid("arn:aws:iam::123:group/abc", mockConstraintValidatorContext)).isFalse();
+        assertThat(subject.isValid("arn:aws:iam::abc:role/abc", mockConstraintValidatorContext)).isFalse();
+        assertThat(subject.isValid("", mockConstraintValidatorContext)).isFalse();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.vault;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.nike.cerberus.server.config.CmsConfig;
+import com.nike.vault.client.VaultServerException;
+import com.nike.vault.client.model.VaultAuthResponse;
+import com.nike.vault.client.model.VaultTokenAuthRequest;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class VaultBatchTokenClientTest {
+
+    private ObjectMapper objectMapper;
+
+    private VaultBatchTokenClient subject;
+
+    @Before
+    public void setup() {
+        objectMapper = CmsConfig.configureObjectMapper();
+        subject = new VaultBatchTokenClient(new CmsVaultUrlResolver("https://vault.example.com"),
+                new CmsVaultCredentialsProvider("root-token"),
+                mock(OkHttpClient.class),
+                objectMapper);
+    }
+
+    @Test
+    public void test_buildRequest_creates_an_orphan_batch_token() throws Exception {
+        VaultTokenAuthRequest tokenAuthRequest = new VaultTokenAuthRequest()
+                .setPolicies(ImmutableSet.of("lookup-self"))
+                .setMeta(ImmutableMap.of("username", "arn:aws:iam::1111111111:role/example"))
+                .setTtl("1h")
+                .setNoDefaultPolicy(true);
+
+        Request request = subject.buildRequest(tokenAuthRequest);
+
+        assertEquals("https://vault.example.com/v1/auth/token/create-orphan", request.url().uri().toString());
+        assertEquals("POST", request.method());
+        assertEquals("root-token", request.header("X-Vault-Token"));
+
+        Buffer buffer = new Buffer();
+        request.body().writeTo(buffer);
+        JsonNode body = objectMapper.readTree(buffer.readUtf8());
+        assertEquals("batch", body.get("type").asText());
+        assertEquals("1h", body.get("ttl").asText());
+        assertTrue(body.get("no_default_policy").asBoolean());
+        assertEquals("lookup-self", body.get("policies").get(0).asText());
+        body.elements().forEachRemaining(value -> assertFalse(value.isNull()));
+    }
+
+    @Test
+    public void test_parseResponse() {
+        String body = "{\"auth\": {\"client_token\": \"b.AAAAAQKq\", \"policies\": [\"lookup-self\"], " +
+                "\"metadata\": {\"username\": \"user\"}, \"lease_duration\": 3600, \"renewable\": false}}";
+
+        VaultAuthResponse actual = subject.parseResponse(createFakeResponse(200, body));
+
+        assertEquals("b.AAAAAQKq", actual.getClientToken());
+        assertEquals("user", actual.getMetadata().get("username"));
+        assertEquals(3600, actual.getLeaseDuration());
+    }
+
+    @Test
+    public void test_parseResponse_throws_vault_server_exception_when_vault_rejects_the_request() {
+        String body = "{\"errors\": [\"unsupported token type\"]}";
+
+        try {
+            subject.parseResponse(createFakeResponse(400, body));
+            fail("expected VaultServerException");
+        } catch (VaultServerException vse) {
+            assertEquals(400, vse.getCode());
+        }
+    }
+
+    private Response createFakeResponse(int code, String body) {
+        return new Response.Builder()
+                .request(new Request.Builder().url("https://vault.example.com/v1/auth/token/create-orphan").build())
+                .body(ResponseBody.create(null, body))
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .build();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.nike.cerberus.vault;
+
+import com.nike.cerberus.server.config.CmsConfig;
+import com.nike.vault.client.VaultServerException;
+import com.nike.riposte.metrics.codahale.CodahaleMetricsCollector;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class VaultTokenLookupClientTest {
+
+    private OkHttpClient httpClient;
+
+    private CodahaleMetricsCollector metricsCollector;
+
+    private VaultTokenLookupClient subject;
+
+    @Before
+    public void setup() {
+        httpClient = mock(OkHttpClient.class);
+        metricsCollector = new CodahaleMetricsCollector();
+        subject = new VaultTokenLookupClient(new CmsVaultUrlResolver("https://vault.example.com"),
+                new CmsVaultCredentialsProvider("root-token"),
+                httpClient,
+                CmsConfig.configureObjectMapper(),
+                metricsCollector);
+    }
+
+    @Test
+    public void test_lookupToken_coalesces_concurrent_lookups_of_the_same_token() {
+        Call call = mock(Call.class);
+        when(httpClient.newCall(any())).thenReturn(call);
+
+        CompletableFuture<VaultTokenLookupResponse> first = subject.lookupToken("client-token");
+        CompletableFuture<VaultTokenLookupResponse> second = subject.lookupToken("client-token");
+
+        assertNotSame(first, second);
+        assertEquals(1, metricsCollector.getNamedCounter(VaultTokenLookupClient.METRIC_COALESCED).getCount());
+
+        // a caller giving up on its future does not affect the other waiters
+        second.cancel(true);
+        CompletableFuture<VaultTokenLookupResponse> fourth = subject.lookupToken("client-token");
+        assertFalse(first.isDone());
+        assertFalse(fourth.isDone());
+        verify(httpClient, times(1)).newCall(any());
+
+        ArgumentCaptor<Callback> callback = ArgumentCaptor.forClass(Callback.class);
+        verify(call).enqueue(callback.capture());
+        callback.getValue().onFailure(call, new IOException("connection reset"));
+
+        assertTrue(first.isCompletedExceptionally());
+        assertTrue(fourth.isCompletedExceptionally());
+
+        // errors are shared by the waiters but not retained, the next lookup goes back to vault
+        CompletableFuture<VaultTokenLookupResponse> third = subject.lookupToken("client-token");
+        assertNotSame(first, third);
+        verify(httpClient, times(2)).newCall(any());
+    }
+
+    @Test
+    public void test_buildRequest() throws Exception {
+        Request request = subject.buildRequest("client-token");
+
+        assertEquals("https://vault.example.com/v1/auth/token/lookup", request.url().uri().toString());
+        assertEquals("POST", request.method());
+        assertEquals("root-token", request.header("X-Vault-Token"));
+    }
+
+    @Test
+    public void test_parseResponse() {
+        String body = "{\"data\": {\"id\": \"client-token\", \"accessor\": \"token-accessor\", " +
+                "\"display_name\": \"token-user\", \"meta\": {\"username\": \"user\"}, \"ttl\": 3600}}";
+
+        VaultTokenLookupResponse actual = subject.parseResponse(createFakeResponse(200, body));
+
+        assertEquals("client-token", actual.getClientToken().getId());
+        assertEquals("user", actual.getClientToken().getMeta().get("username"));
+        assertEquals("token-accessor", actual.getAccessor());
+        assertEquals(3600, actual.getTtlSeconds());
+    }
+
+    @Test
+    public void test_parseResponse_throws_vault_server_exception_when_token_is_rejected() {
+        String body = "{\"errors\": [\"permission denied\"]}";
+
+        try {
+            subject.parseResponse(createFakeResponse(403, body));
+            fail("expected VaultServerException");
+        } catch (VaultServerException vse) {
+            assertEquals(403, vse.getCode());
+        }
+    }
+
+    private Response createFakeResponse(int code, String body) {
+        return new Response.Builder()
+                .request(new Request.Builder().url("https://vault.example.com/v1/auth/token/lookup").build())
+                .body(ResponseBody.create(null, body))
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .build();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016 Nike, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.nike.cerberus.vault;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nike.cerberus.server.config.CmsConfig;
+import com.nike.vault.client.VaultServerException;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+public class VaultTokenRevocationClientTest {
+
+    private ObjectMapper objectMapper;
+
+    private VaultTokenRevocationClient subject;
+
+    @Before
+    public void setup() {
+        objectMapper = CmsConfig.configureObjectMapper();
+        subject = new VaultTokenRevocationClient(new CmsVaultUrlResolver("https://vault.example.com"),
+                new CmsVaultCredentialsProvider("root-token"),
+                mock(OkHttpClient.class),
+                objectMapper);
+    }
+
+    @Test
+    public void test_buildRequest_revokes_by_accessor() throws Exception {
+        Request request = subject.buildRequest("token-accessor");
+
+        assertEquals("https://vault.example.com/v1/auth/token/revoke-accessor", request.url().uri().toString());
+        assertEquals("POST", request.method());
+        assertEquals("root-token", request.header("X-Vault-Token"));
+
+        Buffer buffer = new Buffer();
+        request.body().writeTo(buffer);
+        assertEquals("token-accessor", objectMapper.readTree(buffer.readUtf8()).get("accessor").asText());
+    }
+
+    @Test
+    public void test_parseResponse_accepts_no_content() {
+        subject.parseResponse(createFakeResponse(204, ""));
+    }
+
+    @Test
+    public void test_parseResponse_throws_vault_server_exception_when_the_token_does_not_exist() {
+        String body = "{\"errors\": [\"invalid accessor\"]}";
+
+        try {
+            subject.parseResponse(createFakeResponse(400, body));
+            fail("expected VaultServerException");
+        } catch (VaultServerException vse) {
+            assertEquals(400, vse.getCode());
+        }
+    }
+
+    private Response createFakeResponse(int code, String body) {
+        return new Response.Builder()
+                .request(new Request.Builder().url("https://vault.example.com/v1/auth/token/revoke-accessor").build())
+                .body(ResponseBody.create(null, body))
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .build();
+    }
+}